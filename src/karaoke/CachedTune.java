@@ -0,0 +1,198 @@
+package karaoke;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import karaoke.sound.AbcTune;
+import karaoke.sound.SoundPlayback;
+import karaoke.sound.Timeline;
+
+/**
+ * An immutable snapshot of an abc file on disk together with the tune parsed from it.
+ */
+public class CachedTune {
+    /*
+     * AF(path, lastModified, size, contentHash, tune, timeline, header, voices) = the abc file at path, as it was
+     *          when its modification time was lastModified (ms since the epoch) and its length was size bytes;
+     *          contentHash is the SHA-256 digest of those bytes, tune is the result of parsing them, timeline is the
+     *          music of tune compiled for SoundPlayback, header is the "T:" and "C:" lines of the file and voices
+     *          are the voices a listener can stream ("OneVoice" if fewer than two)
+     * RI: voices is non-empty
+     * Safety from Rep Exposure: all fields are private and final, contentHash is never returned and voices is
+     *          wrapped in an unmodifiable list
+     * Thread Safety: immutable once constructed; the AbcTune is never mutated after parsing and the Timeline is
+     *          immutable, so they can be shared by every thread that plays them
+     */
+
+    private final Path path;
+    private final long lastModified;
+    private final long size;
+    private final byte[] contentHash;
+    private final AbcTune tune;
+    private final Timeline timeline;
+    private final String header;
+    private final List<String> voices;
+
+    /**
+     * Make a snapshot of a parsed abc file.
+     * @param path absolute path of the file
+     * @param lastModified modification time of the file when it was read, in ms since the epoch
+     * @param size length of the file when it was read, in bytes
+     * @param contentHash SHA-256 digest of the bytes that were read
+     * @param tune tune parsed from those bytes
+     * @param content the text of the file
+     */
+    CachedTune(Path path, long lastModified, long size, byte[] contentHash, AbcTune tune, String content) {
+        this.path = path;
+        this.lastModified = lastModified;
+        this.size = size;
+        this.contentHash = contentHash.clone();
+        this.tune = tune;
+        this.timeline = SoundPlayback.compile(tune.getMusic());
+        this.header = headerOf(content);
+        this.voices = Collections.unmodifiableList(voicesOf(content));
+        checkRep();
+    }
+
+    /**
+     * Make a snapshot that reuses the tune of an older snapshot whose bytes are identical.
+     * @param previous snapshot with the same content
+     * @param lastModified new modification time of the file
+     */
+    CachedTune(CachedTune previous, long lastModified) {
+        this.path = previous.path;
+        this.lastModified = lastModified;
+        this.size = previous.size;
+        this.contentHash = previous.contentHash;
+        this.tune = previous.tune;
+        this.timeline = previous.timeline;
+        this.header = previous.header;
+        this.voices = previous.voices;
+        checkRep();
+    }
+
+    private void checkRep() {
+        assert path != null;
+        assert tune != null;
+        assert timeline != null;
+        assert !voices.isEmpty();
+    }
+
+    /**
+     * @return the parsed tune
+     */
+    public AbcTune getTune() {
+        return this.tune;
+    }
+
+    /**
+     * @return the music of the tune, compiled once for SoundPlayback.play()
+     */
+    public Timeline getTimeline() {
+        return this.timeline;
+    }
+
+    /**
+     * @return the title and composer lines from the header of the file
+     */
+    public String getHeader() {
+        return this.header;
+    }
+
+    /**
+     * @return voices that can be streamed, or just "OneVoice" if the file names fewer than two voices
+     */
+    public List<String> getVoices() {
+        return this.voices;
+    }
+
+    /**
+     * @return path of the file this tune was parsed from
+     */
+    public Path getPath() {
+        return this.path;
+    }
+
+    /**
+     * @return true if the file on disk still has the modification time and size it had when it was read
+     */
+    public boolean isCurrent() {
+        try {
+            return Files.getLastModifiedTime(path).toMillis() == lastModified && Files.size(path) == size;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @param hash SHA-256 digest of some file content
+     * @return true if this snapshot was parsed from content with that digest
+     */
+    boolean hasContentHash(byte[] hash) {
+        return MessageDigest.isEqual(this.contentHash, hash);
+    }
+
+    /**
+     * @param content text of an abc file
+     * @return the "T:" and "C:" lines of the file
+     */
+    private static String headerOf(String content) {
+        StringBuilder contentBuilder = new StringBuilder();
+        for (String sCurrentLine : lines(content)) {
+            if (sCurrentLine.startsWith("T:")) {
+                contentBuilder.append(sCurrentLine).append("\n");
+            }
+            else if (sCurrentLine.startsWith("C:")) {
+                contentBuilder.append(sCurrentLine).append("\n");
+            }
+        }
+        return contentBuilder.toString().trim();
+    }
+
+    /**
+     * @param content text of an abc file
+     * @return distinct voices named by "V:" lines, or just "OneVoice" if there are fewer than two
+     */
+    private static List<String> voicesOf(String content) {
+        List<String> voices = new ArrayList<>();
+        for (String sCurrentLine : lines(content)) {
+            if (sCurrentLine.startsWith("V:")) {
+                if (! voices.contains(sCurrentLine.substring(2).trim())) {
+                    voices.add(sCurrentLine.substring(2).trim());
+                }
+            }
+        }
+        if (voices.size() > 1) {
+            return voices;
+        }
+        List<String> oneVoice = new ArrayList<>();
+        oneVoice.add("OneVoice");
+        return oneVoice;
+    }
+
+    private static List<String> lines(String content) {
+        List<String> lines = new ArrayList<>();
+        try (BufferedReader br = new BufferedReader(new StringReader(content))) {
+            String sCurrentLine;
+            while ((sCurrentLine = br.readLine()) != null) {
+                lines.add(sCurrentLine);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return lines;
+    }
+
+    @Override
+    public String toString() {
+        return path + "@" + lastModified;
+    }
+}
@@ -8,25 +8,29 @@ import java.io.IOException;
 import com.sun.net.httpserver.Filter;
 import com.sun.net.httpserver.HttpExchange;
 
+import karaoke.log.Log;
+import karaoke.log.Logger;
+
 /**
  * Logging filter that reports request URLs, exceptions, and response codes to
- * the console.
+ * the log, at INFO, so that they are written on the log's own thread.
  * 
  * <p>PS4 instructions: you may use, modify, or remove this class.
  */
 public class LogFilter extends Filter {
     
+    private static final Logger LOG = Log.get(LogFilter.class);
+    
     @Override public String description() { return "Log requests"; }
     
     @Override public void doFilter(HttpExchange exchange, Chain chain) throws IOException {
-        System.err.println(" -> " + exchange.getRequestMethod() + " " + exchange.getRequestURI());
+        LOG.info(" -> {} {}", exchange.getRequestMethod(), exchange.getRequestURI());
         try {
             chain.doFilter(exchange);
         } catch (IOException | RuntimeException e) {
-            System.err.print(" !! ");
-            e.printStackTrace();
+            LOG.warn(" !! {}", exchange.getRequestURI(), e);
             throw e; // after logging, let the exception continue
         }
-        System.err.println(" <- " + exchange.getResponseCode());
+        LOG.info(" <- {}", exchange.getResponseCode());
     }
 }
@@ -0,0 +1,375 @@
+package karaoke;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import karaoke.sound.IndexedLyricQueue;
+
+/**
+ * Broadcasts the lyric lines of each voice to every listener of that voice.
+ *
+ * Playback puts lines on the queue of each voice (see queues()). A line put there is published at once into a
+ * LyricRing, on the thread that put it, and every subscriber reads the ring with its own cursor, so every listener
+ * gets every line rather than listeners of the same voice taking lines from one another. The hub has no threads of
+ * its own, so any number of hubs can share one executor: waking the subscribers of a voice and each subscriber's
+ * delivery are run on the executor, and a delivery runs until it has caught up. A listener that is slow to accept
+ * lines only holds up its own delivery; if it falls more than the ring's capacity behind it skips to the oldest line
+ * still kept.
+ *
+ * The lines of each voice are numbered 0, 1, 2, ... in the order they are published, and the ring keeps the last
+ * capacity of them, so a listener that went away can resume() from the line after the last one it got.
+ *
+ * The queues are IndexedLyricQueues: a line that playback offers with the lyric line and syllable of the timeline it
+ * is a frame of keeps them, and an IndexedListener is delivered them with the line.
+ */
+public class LyricHub {
+    /*
+     * AF(queues, rings, subscribers, executor) = hub that publishes the lines put on queues.get(v) into
+     *          rings.get(v) and delivers them to each of subscribers.get(v), running deliveries on executor; lines
+     *          put before it is started are held by queues.get(v), and lines put after it is stopped are dropped
+     * RI: queues, rings and subscribers have the same keys; a queue only holds lines while it is not started
+     * Safety From Rep Exposure: all fields are private and final; queues() returns the queues, which are meant to
+     *          be written to by playback, but never the rings or the subscriber lists
+     * Thread Safety: the maps are never modified after construction. Each ring is only written with the lock of
+     *          its voice's queue held, so it has one writer at a time. subscribers are CopyOnWriteArrayLists, so
+     *          they are iterated without a lock while listeners subscribe. A queue's started, stopped and held lines are
+     *          guarded by its lock. A Subscription's cursor is only touched by the one delivery that holds its scheduled
+     *          flag.
+     */
+
+    /**
+     * Number of lines each voice keeps for subscribers that fall behind.
+     */
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    /**
+     * A listener that lines are delivered to.
+     */
+    public interface Listener {
+        /**
+         * Deliver a line. Called by one thread at a time, in the order the lines were published.
+         * @param line line of lyrics
+         * @return false if the listener has gone away and wants no more lines, true otherwise
+         */
+        boolean deliver(String line);
+    }
+
+    /**
+     * A listener that is also told where each line is in the timeline being played.
+     */
+    public interface IndexedListener {
+        /**
+         * Deliver a line. Called by one thread at a time, in the order the lines were published.
+         * @param line line of lyrics
+         * @param lyricLine index of the lyric line of the timeline being played that line is a frame of, or -1 if
+         *                  playback did not say (see IndexedLyricQueue)
+         * @param syllable index of the syllable of lyricLine that line highlights, or -1 for none
+         * @param beat beat line is sung at, or NaN if playback did not say
+         * @return false if the listener has gone away and wants no more lines, true otherwise
+         */
+        boolean deliver(String line, int lyricLine, int syllable, double beat);
+    }
+
+    /**
+     * A listener that is also told the number of each line.
+     */
+    public interface NumberedListener {
+        /**
+         * Deliver a line. Called by one thread at a time, in the order the lines were published.
+         * @param number number of the line among the lines of its voice, counting from 0
+         * @param line line of lyrics
+         * @return false if the listener has gone away and wants no more lines, true otherwise
+         */
+        boolean deliver(long number, String line);
+    }
+
+    private final Map<String, PublishingQueue> queues = new HashMap<>();
+    private final Map<String, LyricRing<Sung>> rings = new HashMap<>();
+    private final Map<String, List<Subscription>> subscribers = new HashMap<>();
+    private final ExecutorService executor;
+
+    /**
+     * Make a hub; it does not move any lines until start().
+     * @param voices voices to broadcast
+     * @param capacity number of lines each voice keeps for subscribers that fall behind, > 0
+     * @param executor executor to deliver lines on
+     */
+    public LyricHub(List<String> voices, int capacity, ExecutorService executor) {
+        for (String voice : voices) {
+            queues.put(voice, new PublishingQueue(voice));
+            rings.put(voice, new LyricRing<Sung>(capacity));
+            subscribers.put(voice, new CopyOnWriteArrayList<Subscription>());
+        }
+        this.executor = executor;
+        checkRep();
+    }
+
+    private void checkRep() {
+        assert queues.keySet().equals(rings.keySet());
+        assert queues.keySet().equals(subscribers.keySet());
+    }
+
+    /**
+     * @return the queue of each voice, for playback to put lyric lines on; each is an IndexedLyricQueue, and lines
+     *         are published as they are put, so nothing should take from the queues
+     */
+    public Map<String, BlockingQueue<String>> queues() {
+        return Collections.<String, BlockingQueue<String>>unmodifiableMap(queues);
+    }
+
+    /**
+     * Start publishing lines, beginning with those put on the queues so far.
+     */
+    public void start() {
+        for (PublishingQueue queue : queues.values()) {
+            queue.start();
+        }
+    }
+
+    /**
+     * Stop publishing lines; lines put on the queues from now on are dropped. Lines already published are still
+     * delivered.
+     */
+    public void stop() {
+        for (PublishingQueue queue : queues.values()) {
+            queue.stop();
+        }
+    }
+
+    /**
+     * Subscribe to the lines of a voice, starting with the next line published.
+     * @param voice a voice of this hub
+     * @param listener listener to deliver lines to, until it returns false
+     * @throws IllegalArgumentException if voice is not a voice of this hub
+     */
+    public void subscribe(String voice, Listener listener) {
+        resume(voice, Long.MAX_VALUE, (number, line) -> listener.deliver(line));
+    }
+
+    /**
+     * Subscribe to the lines of a voice and where they are in the timeline being played, starting with the next line
+     * published.
+     * @param voice a voice of this hub
+     * @param listener listener to deliver lines to, until it returns false
+     * @throws IllegalArgumentException if voice is not a voice of this hub
+     */
+    public void subscribe(String voice, IndexedListener listener) {
+        subscribe(voice, Long.MAX_VALUE,
+                (number, sung) -> listener.deliver(sung.line, sung.lyricLine, sung.syllable, sung.beat));
+    }
+
+    /**
+     * Subscribe to the lines of a voice, starting with a given line if it is still kept.
+     * @param voice a voice of this hub
+     * @param from number of the first line wanted, >= 0; if it has been overwritten the listener starts with the
+     *             oldest line kept, and if it has not been published yet with the next line published
+     * @param listener listener to deliver lines to, until it returns false
+     * @throws IllegalArgumentException if voice is not a voice of this hub
+     */
+    public void resume(String voice, long from, NumberedListener listener) {
+        subscribe(voice, from, (number, sung) -> listener.deliver(number, sung.line));
+    }
+
+    private void subscribe(String voice, long from, Delivery listener) {
+        final LyricRing<Sung> ring = rings.get(voice);
+        if (ring == null) {
+            throw new IllegalArgumentException("no voice " + voice);
+        }
+        final Subscription subscription = new Subscription(voice, ring, listener, Math.min(from, ring.head()));
+        subscribers.get(voice).add(subscription);
+        // lines published between reading the head and adding the subscription are delivered now
+        subscription.wake();
+    }
+
+    /**
+     * @param voice a voice of this hub
+     * @return number of listeners subscribed to voice
+     */
+    public int subscribers(String voice) {
+        return subscribers.get(voice).size();
+    }
+
+    /**
+     * Publish a line and wake the subscribers of its voice on the executor. Only called with the lock of the
+     * voice's queue held.
+     */
+    private void publish(String voice, Sung line) {
+        rings.get(voice).publish(line);
+        final List<Subscription> subscribed = subscribers.get(voice);
+        if (subscribed.isEmpty()) {
+            return;
+        }
+        execute(() -> {
+            for (Subscription subscription : subscribed) {
+                subscription.wake();
+            }
+        });
+    }
+
+    /**
+     * Run a delivery on the executor, unless the executor has been shut down: then whoever owns it is stopping,
+     * and the lines still being published (by a player that has not finished) have no one left to reach.
+     */
+    private void execute(Runnable delivery) {
+        try {
+            executor.execute(delivery);
+        } catch (RejectedExecutionException e) {
+            // executor shut down, drop the delivery
+        }
+    }
+
+    /**
+     * A line published, with where it is in the timeline being played.
+     */
+    private static class Sung {
+        private final String line;
+        private final int lyricLine;
+        private final int syllable;
+        private final double beat;
+
+        Sung(String line, int lyricLine, int syllable, double beat) {
+            this.line = line;
+            this.lyricLine = lyricLine;
+            this.syllable = syllable;
+            this.beat = beat;
+        }
+    }
+
+    /**
+     * What a Subscription delivers each line to.
+     */
+    private interface Delivery {
+        boolean deliver(long number, Sung sung);
+    }
+
+    /**
+     * The queue that playback puts the lines of a voice on. Putting a line publishes it, unless the hub has not
+     * been started, in which case the line is held until it is; the queue itself is always empty, and nothing
+     * takes from it.
+     */
+    private class PublishingQueue extends LinkedBlockingQueue<String> implements IndexedLyricQueue {
+        private static final long serialVersionUID = 1L;
+        private final String voice;
+        private final Queue<Sung> held = new ArrayDeque<>();
+        private boolean started = false;
+        private boolean stopped = false;
+
+        PublishingQueue(String voice) {
+            this.voice = voice;
+        }
+
+        /**
+         * Publish the lines held so far, and every line put from now on.
+         */
+        synchronized void start() {
+            started = true;
+            Sung line;
+            while ((line = held.poll()) != null) {
+                publish(voice, line);
+            }
+        }
+
+        /**
+         * Drop every line put from now on.
+         */
+        synchronized void stop() {
+            stopped = true;
+        }
+
+        @Override
+        public boolean offer(String line, int lyricLine, int syllable, double beat) {
+            if (line == null) {
+                throw new NullPointerException();
+            }
+            final Sung sung = new Sung(line, lyricLine, syllable, beat);
+            synchronized (this) {
+                if (stopped) {
+                    return true;
+                }
+                if (!started) {
+                    return held.add(sung);
+                }
+                publish(voice, sung);
+                return true;
+            }
+        }
+
+        @Override
+        public boolean offer(String line) {
+            return offer(line, -1, -1, Double.NaN);
+        }
+
+        @Override
+        public boolean offer(String line, long timeout, TimeUnit unit) {
+            return offer(line);
+        }
+
+        @Override
+        public void put(String line) {
+            offer(line);
+        }
+    }
+
+    /**
+     * One listener's position in the ring of its voice.
+     */
+    private class Subscription implements Runnable {
+        private final String voice;
+        private final LyricRing<Sung> ring;
+        private final Delivery listener;
+        private final AtomicBoolean scheduled = new AtomicBoolean(false);
+        private long cursor;
+        private volatile boolean closed = false;
+
+        Subscription(String voice, LyricRing<Sung> ring, Delivery listener, long cursor) {
+            this.voice = voice;
+            this.ring = ring;
+            this.listener = listener;
+            this.cursor = cursor;
+        }
+
+        /**
+         * Make sure a delivery will run that sees every line published so far.
+         */
+        void wake() {
+            if (!closed && scheduled.compareAndSet(false, true)) {
+                execute(this);
+            }
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                while (cursor < ring.head()) {
+                    final Sung line = ring.get(cursor);
+                    if (line == null) {
+                        cursor = ring.tail();
+                        continue;
+                    }
+                    if (!listener.deliver(cursor++, line)) {
+                        closed = true;
+                        subscribers.get(voice).remove(this);
+                        return;
+                    }
+                }
+                scheduled.set(false);
+                // a line published after the loop saw the head but before the flag was cleared found the flag set
+                // and did not schedule a delivery, so check again
+                if (cursor >= ring.head() || !scheduled.compareAndSet(false, true)) {
+                    return;
+                }
+            }
+        }
+    }
+}
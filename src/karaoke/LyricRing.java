@@ -0,0 +1,85 @@
+package karaoke;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A bounded, lock-free ring buffer of lyric lines with one writer and any number of readers. A line is any immutable
+ * value of type T; LyricHub keeps each line with where it is in the tune.
+ *
+ * Lines are numbered 0, 1, 2, ... in the order they are published. Each reader keeps its own cursor, the number of
+ * the next line it wants, and reads lines without taking a lock and without removing them, so every reader sees
+ * every line. Only the last capacity lines are kept: a reader that falls further behind than that finds its line
+ * overwritten and has to skip ahead, so a slow reader can never make the writer wait or the buffer grow.
+ */
+class LyricRing<T> {
+    /*
+     * AF(slots, published) = the lines numbered [max(0, published - slots.length() + 1), published), where line n
+     *          is slots[n % slots.length()]
+     * RI: slots.length() > 1, published >= 0
+     * Safety From Rep Exposure: fields are private and final except published, which is private; lines are
+     *          immutable
+     * Thread Safety: only one thread calls publish(). It writes a slot and then increments the volatile published,
+     *          so a reader that sees published > n also sees line n. Line n is only overwritten by line
+     *          n + slots.length(), which publish() writes while published is still n + slots.length(); so a reader
+     *          that reads slot n and then still sees published < n + slots.length() has read line n and not a later
+     *          one. That leaves the slot of line published - slots.length() being written, so one slot more than
+     *          the capacity is allocated and the last capacity lines can always be read.
+     */
+
+    private final AtomicReferenceArray<T> slots;
+    private volatile long published = 0;
+
+    /**
+     * Make an empty ring.
+     * @param capacity number of lines kept, > 0
+     */
+    LyricRing(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        }
+        this.slots = new AtomicReferenceArray<>(capacity + 1);
+    }
+
+    /**
+     * @return number of lines kept
+     */
+    int capacity() {
+        return slots.length() - 1;
+    }
+
+    /**
+     * @return number of lines published so far, which is the number of the next line to be published
+     */
+    long head() {
+        return published;
+    }
+
+    /**
+     * @return number of the oldest line that has not been overwritten
+     */
+    long tail() {
+        return Math.max(0, published - slots.length() + 1);
+    }
+
+    /**
+     * Publish a line. Must only be called by one thread at a time.
+     * @param line line to publish
+     */
+    void publish(T line) {
+        final long next = published;
+        slots.set((int) (next % slots.length()), line);
+        published = next + 1;
+    }
+
+    /**
+     * @param n number of a line, < head()
+     * @return line n, or null if it has been overwritten, i.e. if n < tail()
+     */
+    T get(long n) {
+        final T line = slots.get((int) (n % slots.length()));
+        if (published - n >= slots.length()) {
+            return null;
+        }
+        return line;
+    }
+}
@@ -0,0 +1,100 @@
+package karaoke;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import karaoke.sound.Timeline;
+
+/**
+ * The lyrics of one voice of a timeline, as a table of the syllables of each distinct lyric line the voice sings, so
+ * that a listener that has the table can be told what is being sung by a line number and a syllable number rather
+ * than by text.
+ *
+ * Lines are numbered in the order the voice first sings them. The frame sung for syllable s of line k is the
+ * syllables of line k in order, leaving out each "_" (a held syllable), with syllable s as *syllable*, just as
+ * Timeline.lineFrame() renders it.
+ */
+class LyricTable {
+    /*
+     * AF(timeline, lines, indexOf, lineOf) = table whose line k has the syllables lines.get(k), which are those of
+     *          lyric line lineOf[k] of timeline; lyric line l of timeline is line indexOf[l] of the table, or is not
+     *          sung by the voice if indexOf[l] == -1
+     * RI: lines.size() == lineOf.length; indexOf[lineOf[k]] == k for every k, and every other entry of indexOf
+     *          is -1
+     * Safety From Rep Exposure: all fields are private and final; lines and its elements are unmodifiable; timeline
+     *          is immutable; indexOf and lineOf are never returned
+     * Thread Safety: immutable; timeline is threadsafe
+     */
+
+    private final Timeline timeline;
+    private final List<List<String>> lines;
+    private final int[] indexOf;
+    private final int[] lineOf;
+
+    /**
+     * Make the table of a voice of a timeline.
+     * @param timeline timeline to take the lyrics from
+     * @param voice voice whose lyrics to take
+     */
+    LyricTable(Timeline timeline, String voice) {
+        final List<List<String>> lines = new ArrayList<>();
+        final int[] lineOf = new int[timeline.lines()];
+        this.timeline = timeline;
+        this.indexOf = new int[timeline.lines()];
+        Arrays.fill(indexOf, -1);
+        for (int i = 0; i < timeline.size(); i++) {
+            final int lyric = timeline.lyricIndex(i);
+            if (lyric < 0 || !timeline.lyricVoice(lyric).equals(voice)) {
+                continue;
+            }
+            final int line = timeline.lyricLine(lyric);
+            if (line >= 0 && indexOf[line] < 0) {
+                indexOf[line] = lines.size();
+                lineOf[lines.size()] = line;
+                lines.add(timeline.lineSyllables(line));
+            }
+        }
+        this.lines = Collections.unmodifiableList(lines);
+        this.lineOf = Arrays.copyOf(lineOf, lines.size());
+        checkRep();
+    }
+
+    private void checkRep() {
+        assert lines.size() == lineOf.length;
+        int indexed = 0;
+        for (int index : indexOf) {
+            assert index == -1 || (index < lineOf.length && indexOf[lineOf[index]] == index);
+            if (index >= 0) {
+                indexed++;
+            }
+        }
+        assert indexed == lineOf.length;
+    }
+
+    /**
+     * @return the syllables of each line of the voice, line k at index k
+     */
+    List<List<String>> lines() {
+        return lines;
+    }
+
+    /**
+     * @param lyricLine index of a lyric line of the timeline (see Timeline.lyricLine()), or -1
+     * @return number of that line in this table, or -1 if the voice does not sing it or lyricLine is not a line of
+     *         the timeline
+     */
+    int index(int lyricLine) {
+        return lyricLine >= 0 && lyricLine < indexOf.length ? indexOf[lyricLine] : -1;
+    }
+
+    /**
+     * @param line number of a line of this table, 0 <= line < lines().size()
+     * @param syllable index of a syllable of the line, or -1 for none
+     * @return the frame sung for syllable of line
+     */
+    String frame(int line, int syllable) {
+        return timeline.lineFrame(lineOf[line], syllable);
+    }
+}
@@ -2,21 +2,18 @@ package karaoke;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
 
-import java.io.BufferedReader;
-import java.io.FileReader;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
 import java.net.HttpURLConnection;
+import java.lang.reflect.InvocationTargetException;
 import java.net.InetSocketAddress;
-import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.LinkedBlockingQueue;
 
 import javax.sound.midi.InvalidMidiDataException;
 import javax.sound.midi.MidiUnavailableException;
@@ -25,8 +22,8 @@ import com.sun.net.httpserver.HttpExchange;
 import com.sun.net.httpserver.HttpServer;
 
 import edu.mit.eecs.parserlib.UnableToParseException;
-import karaoke.sound.AbcTune;
-import karaoke.sound.MusicLanguage;
+import karaoke.log.Log;
+import karaoke.log.Logger;
 import karaoke.sound.SoundPlayback;
 
 /**
@@ -36,58 +33,161 @@ import karaoke.sound.SoundPlayback;
  */
 public class MusicWebServer {
     /*
-     * AF(server) = server that can handle connect and play requests 
-     * RI: true
-     * Safety from Rep Exposure: fields are private and final, mutable references are never exposed
+     * AF(server, rooms, room) = server that can handle connect and play requests for each of rooms, by name;
+     *          /play, /stream and /events are for room, and /room/id/... for rooms.get(id)
+     * RI: rooms.get(DEFAULT_ROOM) == room
+     * Safety from Rep Exposure: fields are private and final, mutable references are never exposed except rooms,
+     *          which are threadsafe
      * Thread Safety:
      * Music is immutable, no threads can modify it
-     * At most one thread created for every person that listens 
+     * No thread waits for a listener: /stream and /events subscribe the listener to a room's lyrics and return, and
+     * the lyrics hand each line to every listener of its voice on the executor, which every room shares
+     * rooms is a ConcurrentHashMap, so rooms are opened and closed while requests look them up
      * server is threadsafe because it's private and final 
      * 
      */
     
-    private final List<String> voices;
+    private static final Logger LOG = Log.get(MusicWebServer.class);
+    
+    /**
+     * Name of the system property that picks the default executor mode, "platform" or "virtual".
+     */
+    public static final String EXECUTOR_PROPERTY = "karaoke.executor";
+    
+    /**
+     * Kinds of thread that the server runs exchanges and lyric deliveries on.
+     */
+    public static enum ExecutorMode {
+        /** a cached pool of platform threads */
+        PLATFORM,
+        /** a new virtual thread per task, on a JVM that has virtual threads; a cached pool otherwise */
+        VIRTUAL;
+        
+        /**
+         * @return executor mode named by the karaoke.executor system property, PLATFORM if it is not set
+         */
+        public static ExecutorMode fromSystemProperty() {
+            final String name = System.getProperty(EXECUTOR_PROPERTY, "platform");
+            return name.equalsIgnoreCase("virtual") ? VIRTUAL : PLATFORM;
+        }
+        
+        /**
+         * @return true if this JVM can run this mode as described
+         */
+        public boolean isAvailable() {
+            return this == PLATFORM || virtualThreadExecutor() != null;
+        }
+        
+        /**
+         * @return a new executor of this mode, falling back to a cached pool of platform threads if this mode is
+         *         not available
+         */
+        public ExecutorService newExecutor() {
+            if (this == VIRTUAL) {
+                final ExecutorService executor = virtualThreadExecutor();
+                if (executor != null) {
+                    return executor;
+                }
+                LOG.warn("Virtual threads are not available on this JVM; using platform threads");
+            }
+            return Executors.newCachedThreadPool();
+        }
+        
+        /**
+         * @return Executors.newVirtualThreadPerTaskExecutor(), or null if this JVM does not have it; found by
+         *         reflection since the server is built for JVMs without virtual threads
+         */
+        private static ExecutorService virtualThreadExecutor() {
+            try {
+                return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            } catch (NoSuchMethodException | IllegalAccessException | InvocationTargetException e) {
+                return null;
+            }
+        }
+    }
+    
+    /**
+     * Name of the room that /play, /stream and /events use; it plays the tune the server is made with.
+     */
+    public static final String DEFAULT_ROOM = "main";
+    
     private final HttpServer server;
-    private boolean play = false;
-    private final String filePath;
-    private final Map<String, List<PrintWriter>> outMap = new HashMap<String, List<PrintWriter>>();
-    private boolean done = false;
-    private Object lock = new Object();
-    private Map<String, BlockingQueue<String>> voiceMap = new HashMap<String, BlockingQueue<String>>();
+    private final ExecutorService executor;
+    private final TuneCache tunes;
+    private final SoundPlayback.Engine engine;
+    private final Room room;
+    private final Map<String, Room> rooms = new ConcurrentHashMap<>();
 
     /**
      * Make a new web server for Music that listens for connections on port.
      * 
      * @param port server port number
      * @param filePath the path to the abc file
+     * @param voices the voices that can be streamed
      * @throws IOException if there is an error starting the musicwebserver
      * 
      */
     public MusicWebServer(int port, String filePath, List<String> voices) throws IOException {
+        this(port, filePath, voices, new TuneCache());
+    }
+
+    /**
+     * Make a new web server for Music that listens for connections on port.
+     * 
+     * @param port server port number
+     * @param filePath the path to the abc file
+     * @param voices the voices that can be streamed
+     * @param tunes cache to take the parsed abc file from
+     * @throws IOException if there is an error starting the musicwebserver
+     * Requests run on threads of the mode named by the karaoke.executor system property.
+     */
+    public MusicWebServer(int port, String filePath, List<String> voices, TuneCache tunes) throws IOException {
+        this(port, filePath, voices, tunes, ExecutorMode.fromSystemProperty());
+    }
 
+    /**
+     * Make a new web server for Music that listens for connections on port.
+     * 
+     * @param port server port number, or 0 for any free port
+     * @param filePath the path to the abc file, played in the room named DEFAULT_ROOM
+     * @param voices the voices that can be streamed
+     * @param tunes cache to take the parsed abc files of every room from
+     * @param mode kind of thread to handle requests and deliver lyrics on
+     * @throws IOException if there is an error starting the musicwebserver
+     * Rooms play on the engine named by the karaoke.player system property.
+     */
+    public MusicWebServer(int port, String filePath, List<String> voices, TuneCache tunes, ExecutorMode mode)
+            throws IOException {
+        this(port, filePath, voices, tunes, mode, SoundPlayback.Engine.fromSystemProperty());
+    }
+
+    /**
+     * Make a new web server for Music that listens for connections on port.
+     * 
+     * @param port server port number, or 0 for any free port
+     * @param filePath the path to the abc file, played in the room named DEFAULT_ROOM
+     * @param voices the voices that can be streamed
+     * @param tunes cache to take the parsed abc files of every room from
+     * @param mode kind of thread to handle requests and deliver lyrics on
+     * @param engine kind of player every room plays on; CLOCK needs no MIDI device
+     * @throws IOException if there is an error starting the musicwebserver
+     * 
+     */
+    public MusicWebServer(int port, String filePath, List<String> voices, TuneCache tunes, ExecutorMode mode,
+            SoundPlayback.Engine engine) throws IOException {
+
+        this.executor = mode.newExecutor();
         this.server = HttpServer.create(new InetSocketAddress(port), 0);
-        this.filePath = filePath;
-        this.voices = voices;
+        this.tunes = tunes;
+        this.engine = engine;
+        this.room = new Room(DEFAULT_ROOM, filePath, voices, tunes, executor, engine);
+        rooms.put(DEFAULT_ROOM, room);
         
-        for (String v:voices) {
-            this.voiceMap.put(v, new LinkedBlockingQueue<String>());
-            this.outMap.put(v, new ArrayList<PrintWriter>());
-        }
-        server.setExecutor(Executors.newCachedThreadPool());
-        server.createContext("/stream", exchange -> {
-            try {
-                handleStream(exchange);
-            } catch (InterruptedException e1) {
-                e1.printStackTrace();
-            }
-        });
-        server.createContext("/play", exchange -> {
-            try {
-                handlePlay(exchange);
-            } catch (InterruptedException | MidiUnavailableException | InvalidMidiDataException | UnableToParseException e) {
-                e.printStackTrace();
-            }
-        });
+        server.setExecutor(executor);
+        server.createContext("/stream", exchange -> handleStream(exchange, room, voiceOf(exchange)));
+        server.createContext("/events", exchange -> handleEvents(exchange, room, voiceOf(exchange)));
+        server.createContext("/play", exchange -> handlePlay(exchange, room));
+        server.createContext("/room", exchange -> handleRoom(exchange));
         checkRep();
     }
     /**
@@ -96,6 +196,14 @@ public class MusicWebServer {
     private void checkRep() {
         InetSocketAddress serverAddress = server.getAddress();
         assert serverAddress != null;
+        assert rooms.get(DEFAULT_ROOM) == room;
+    }
+    
+    /**
+     * @return the lyric hub of the default room; playback puts lines on its queues
+     */
+    LyricHub lyrics() {
+        return room.lyrics();
     }
     
     /**
@@ -106,72 +214,217 @@ public class MusicWebServer {
     }
     
     /**
-     * Start this server in a new background thread.
+     * Start this server in a new background thread, and open the default room.
+     * Also starts parsing the abc file in the background, so that /play does not have to wait for the parser.
      */
     public void start() {
-        System.err.println("Server will listen on " + server.getAddress());
+        LOG.info("Server will listen on {}", server.getAddress());
+        room.open();
         server.start();
         
     }
     
     /**
-     * Stop this server. Once stopped, this server cannot be restarted.
+     * Stop this server and close every room. Once stopped, this server cannot be restarted.
      */
     public void stop() {
-        System.err.println("Server will stop");
+        LOG.info("Server will stop");
         server.stop(0);
+        for (Room open : rooms.values()) {
+            open.close();
+        }
+        executor.shutdownNow();
     }
     
     /**
-     * 
-     * @param exchange
-     * @throws IOException
-     * @throws InterruptedException 
+     * Open a new room, served at /room/id/play, /room/id/stream/voice and /room/id/events/voice. It shares this
+     * server's tune cache and threads.
+     * @param id name of the room, not containing '/'
+     * @param filePath the path to the abc file the room plays
+     * @return the new room, open
+     * @throws IOException if the abc file cannot be read
+     * @throws UnableToParseException if the abc file cannot be parsed
+     * @throws IllegalArgumentException if this server already has a room named id, or id contains '/'
+     */
+    public Room openRoom(String id, String filePath) throws IOException, UnableToParseException {
+        if (id.isEmpty() || id.contains("/")) {
+            throw new IllegalArgumentException("bad room name: " + id);
+        }
+        final Room opened = new Room(id, filePath, tunes.get(filePath).getVoices(), tunes, executor, engine);
+        if (rooms.putIfAbsent(id, opened) != null) {
+            throw new IllegalArgumentException("there is already a room " + id);
+        }
+        opened.open();
+        return opened;
+    }
+    
+    /**
+     * Close a room and end the lyrics of its listeners. The default room cannot be closed this way.
+     * @param id name of a room
+     * @return true if there was a room named id, other than the default room, and it is now closed
+     */
+    public boolean closeRoom(String id) {
+        if (id.equals(DEFAULT_ROOM)) {
+            return false;
+        }
+        final Room closed = rooms.remove(id);
+        if (closed == null) {
+            return false;
+        }
+        closed.close();
+        return true;
+    }
+    
+    /**
+     * @param id name of a room
+     * @return the room named id, or null if there is none
+     */
+    public Room getRoom(String id) {
+        return rooms.get(id);
+    }
+    
+    /**
+     * @param exchange request for a context path followed by /voice
+     * @return voice
      */
-    private void handleStream (HttpExchange exchange) throws IOException, InterruptedException  {
+    private static String voiceOf(HttpExchange exchange) {
         String startPath = exchange.getHttpContext().getPath();
         String  getPath = exchange.getRequestURI().getPath();
         String path = getPath.substring(startPath.length());
-
-        String voice = path.substring(path.indexOf('/')+1);
+        return path.substring(path.indexOf('/')+1);
+    }
+    
+    /**
+     * Handle /room/id/play, /room/id/stream/voice or /room/id/events/voice like /play, /stream/voice or
+     * /events/voice for the room named id.
+     * @param exchange request for /room/...
+     * @throws IOException
+     */
+    private void handleRoom(HttpExchange exchange) throws IOException {
+        final String[] path = exchange.getRequestURI().getPath().split("/", 5);
+        // path is "", "room", id, request and, for stream and events, voice
+        final Room requested = path.length >= 4 ? rooms.get(path[2]) : null;
+        if (requested == null) {
+            exchange.sendResponseHeaders(HttpURLConnection.HTTP_NOT_FOUND, -1);
+            exchange.close();
+        } else if (path[3].equals("play") && path.length == 4) {
+            handlePlay(exchange, requested);
+        } else if (path[3].equals("stream") && path.length == 5) {
+            handleStream(exchange, requested, path[4]);
+        } else if (path[3].equals("events") && path.length == 5) {
+            handleEvents(exchange, requested, path[4]);
+        } else {
+            exchange.sendResponseHeaders(HttpURLConnection.HTTP_NOT_FOUND, -1);
+            exchange.close();
+        }
+    }
+    
+    /**
+     * Start streaming the lyrics of a voice, from the next line sung on, and return without waiting for them;
+     * the room's lyrics writes each line to the response as it is sung.
+     * @param exchange request for /stream/voice
+     * @param room room to stream from
+     * @param voice voice to stream
+     * @throws IOException
+     */
+    private void handleStream (HttpExchange exchange, Room room, String voice) throws IOException  {
+        if (!room.getVoices().contains(voice)) {
+            exchange.sendResponseHeaders(HttpURLConnection.HTTP_NOT_FOUND, -1);
+            exchange.close();
+            return;
+        }
         exchange.sendResponseHeaders(HttpURLConnection.HTTP_OK, 0);
         OutputStream body = exchange.getResponseBody();
         PrintWriter out = new PrintWriter(new OutputStreamWriter(body, UTF_8), true);
         final int enoughBytesToStartStreaming = 2048;
-        for (int i = 0; i < enoughBytesToStartStreaming; ++i) {
-            out.print(' ');
-        }
-        this.outMap.get(voice).add(out);
-
-        while (!play) {
-            synchronized (lock) {
-                lock.wait();
+        // as in handleEvents, once the client has the padding it gets every line sung after it
+        synchronized (out) {
+            room.lyrics().subscribe(voice, line -> {
+                synchronized (out) {
+                    if (line.equals("$")) {
+                        exchange.close();
+                        return false;
+                    }
+                    out.println(line);
+                    if (out.checkError()) {
+                        exchange.close();
+                        return false;
+                    }
+                    return true;
                 }
-        }
-        try {
+            });
+            for (int i = 0; i < enoughBytesToStartStreaming; ++i) {
+                out.print(' ');
+            }
             out.println();
-            displayLyrics(voice, exchange);
-        } finally
-         {
-            exchange.close(); }
+        }
     }
     
     /**
-     * 
-     * @param exchange
+     * Stream the lyrics of a voice as Server-Sent Events, and return without waiting for them. Each line is an
+     * event whose id is its number among the lines of the voice; the end of the song is an "end" event. A client
+     * that sends Last-Event-ID, as EventSource does when it reconnects, is first sent the lines after that one
+     * that the room's lyrics still keeps, so it only gets what it missed; any other client starts with the next
+     * line sung.
+     * @param exchange request for /events/voice
+     * @param room room to stream from
+     * @param voice voice to stream
      * @throws IOException
-     * @throws UnableToParseException 
-     * @throws InvalidMidiDataException 
-     * @throws MidiUnavailableException 
-     * @throws InterruptedException 
      */
-    private void handlePlay(HttpExchange exchange) throws InterruptedException, IOException, MidiUnavailableException, InvalidMidiDataException, UnableToParseException {
-        play = true;
-
-        synchronized (lock) {
-            lock.notifyAll();
+    private void handleEvents(HttpExchange exchange, Room room, String voice) throws IOException {
+        String lastEventId = exchange.getRequestHeaders().getFirst("Last-Event-ID");
+        long from = Long.MAX_VALUE;
+        if (lastEventId != null) {
+            try {
+                from = Long.parseLong(lastEventId.trim()) + 1;
+            } catch (NumberFormatException e) {
+                from = -1;
+            }
         }
-
+        boolean known = room.getVoices().contains(voice);
+        if (!known || from < 0) {
+            exchange.sendResponseHeaders(known ? HttpURLConnection.HTTP_BAD_REQUEST
+                    : HttpURLConnection.HTTP_NOT_FOUND, -1);
+            exchange.close();
+            return;
+        }
+        exchange.getResponseHeaders().set("Content-Type", "text/event-stream; charset=utf-8");
+        exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+        exchange.sendResponseHeaders(HttpURLConnection.HTTP_OK, 0);
+        PrintWriter out = new PrintWriter(new OutputStreamWriter(exchange.getResponseBody(), UTF_8));
+        // subscribe and write the first comment holding out's lock, so that no line is written before the comment,
+        // and once the client has the comment it gets every line sung after it
+        synchronized (out) {
+            room.lyrics().resume(voice, from, (number, line) -> {
+                synchronized (out) {
+                    out.print("id: " + number + "\n");
+                    if (line.equals("$")) {
+                        out.print("event: end\ndata: \n\n");
+                        out.flush();
+                        exchange.close();
+                        return false;
+                    }
+                    out.print("data: " + line + "\n\n");
+                    out.flush();
+                    if (out.checkError()) {
+                        exchange.close();
+                        return false;
+                    }
+                    return true;
+                }
+            });
+            out.print(": " + voice + "\n\n");
+            out.flush();
+        }
+    }
+    
+    /**
+     * Play the tune of a room, and end the response once it is playing.
+     * @param exchange request for /play
+     * @param room room to play
+     * @throws IOException
+     */
+    private void handlePlay(HttpExchange exchange, Room room) throws IOException {
         exchange.sendResponseHeaders(HttpURLConnection.HTTP_OK, 0);
         String response = "Playing now, lyrics streaming has begun"; 
 
@@ -183,51 +436,14 @@ public class MusicWebServer {
             out.print(' ');
         }
         out.println(response);
-        MusicLanguage language = new MusicLanguage();
-        AbcTune tune = language.parse(readFile(filePath));
-        SoundPlayback.play(tune.getMusic(), this.voiceMap ,Integer.parseInt(tune.getTempo())); 
+        try {
+            room.play();
+        } catch (MidiUnavailableException | InvalidMidiDataException | UnableToParseException
+                | IllegalStateException e) {
+            LOG.warn("Cannot play", e);
+        }
 
         exchange.close(); 
-        
-        
-
     }
-    
-    private void displayLyrics(String voice, HttpExchange exchange) throws InterruptedException {
-        while (!done) {
-            String line =  this.voiceMap.get(voice).take();
-            for (PrintWriter out: this.outMap.get(voice)) {
-                if (!line.equals("$") ) {
-                    out.println(line);
-                }
-                else {
-                    done = true;
-                    exchange.close();
-                }
-            }
-        }
-        
-    }
-    
-    
-    
-    private static String readFile(String filePath){
-        StringBuilder contentBuilder = new StringBuilder();
-        try (BufferedReader br = new BufferedReader(new FileReader(filePath)))
-        {
-     
-            String sCurrentLine;
-            while ((sCurrentLine = br.readLine()) != null)
-            {   
-                    contentBuilder.append(sCurrentLine).append("\n");
-            }
-        }
-        catch (IOException e)
-        {
-            throw new IllegalArgumentException("File either not readable or does not exist. \nPlease check the file path and try again");
-        }
-        return contentBuilder.toString().trim();
-    }
-    
 }
     
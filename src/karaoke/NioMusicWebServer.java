@@ -0,0 +1,782 @@
+package karaoke;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.MidiUnavailableException;
+
+import edu.mit.eecs.parserlib.UnableToParseException;
+import karaoke.log.Log;
+import karaoke.log.Logger;
+import karaoke.sound.SoundPlayback;
+
+/**
+ * HTTP web server for Music that serves the same /play and /stream/voice requests as MusicWebServer, but runs every
+ * connection on one thread: a Selector event loop speaking just enough HTTP/1.1 for those two requests, with
+ * chunked responses.
+ *
+ * A lyric line is encoded once, as a complete chunk, into a direct ByteBuffer; every listener of its voice is given
+ * a duplicate of that buffer, so the bytes are shared and only the position is per connection. A listener that
+ * stops reading only holds up its own connection: once it has MAX_PENDING_CHUNKS lines waiting, the oldest one it
+ * has not started to receive is dropped. Only lyrics are ever dropped; headers, the WebSocket handshake and table, and
+ * control frames are always sent.
+ *
+ * /ws/voice is a WebSocket for the same lyrics that sends line and syllable numbers rather than lines. On connect it
+ * sends the LyricTable of the voice once, as a text message: the index of the voice among the voices, then the
+ * syllables of each line of the table separated by "\t", all separated by "\n". Then each line sung is one binary
+ * message of WS_FRAME_BYTES big-endian bytes,
+ * <pre>
+ *   voice (unsigned short)   beat (float)   line (int)   syllable (int)
+ * </pre>
+ * where line is the index of the line in the table, syllable the index of the syllable highlighted (-1 for none) and
+ * beat the beat it is sung at (NaN if not known), or line is -1 at the end of the song. The client shows the
+ * syllables of the line in order, leaving out each "_", with the highlighted one as *syllable*. The numbers come with
+ * the line from playback, which plays the same timeline the tables are made from, so no line is looked up by its
+ * text; a line that comes without them, or whose numbers do not give its text (the tune has been changed since the
+ * table was sent), is sent as a text message with the line itself. Lyric messages are dropped oldest first in the
+ * same way as chunks.
+ */
+public class NioMusicWebServer {
+    /*
+     * AF(serverChannel, selector, filePath, voices, tunes, lyrics, listeners, sockets, tables, waitingForTables,
+     *          tasks, playback, delivery, loop) =
+     *          server listening on serverChannel for /play, which plays the tune at filePath (parsed through tunes)
+     *          and puts its lyrics on the queues of lyrics, and /stream/v, which adds the connection to
+     *          listeners.get(v) so that it is sent every line of v that lyrics delivers; /ws/v likewise adds the
+     *          connection to sockets.get(v), once tables, the LyricTable of each voice, has been loaded; until then
+     *          waitingForTables holds the handshakes to finish. tasks are the jobs other threads have handed to the event loop, playback loads
+     *          the tables and runs /play, delivery runs lyrics' deliveries, and loop is the thread running the event
+     *          loop once started
+     * RI: listeners and sockets have exactly the keys in voices; tables is null or has no other keys (it
+     *          has none if the tune could not be parsed);
+     *     every connection in listeners and sockets is open and has sent its headers
+     * Safety from Rep Exposure: all fields are private and final except loop and tables, which are private; no field is
+     *          returned except lyrics, whose queues are meant to be written to by playback
+     * Thread Safety: connections, listeners, sockets, tables, waitingForTables and the selector's keys are
+     *          only touched by the event loop thread.
+     *          Other threads (lyric delivery, playback) never touch them: they add a Runnable to tasks, a concurrent
+     *          queue, and wake the selector, and the loop runs the task. Chunk buffers are never written once made,
+     *          and each connection writes from its own duplicate, so sharing them between connections is safe.
+     */
+
+    /**
+     * Name of the system property that picks the transport ServerMain uses, "httpserver" (the default) or "nio".
+     */
+    public static final String TRANSPORT_PROPERTY = "karaoke.transport";
+
+    /**
+     * Number of lines a listener can have waiting to be sent before the oldest one is dropped.
+     */
+    public static final int MAX_PENDING_CHUNKS = 64;
+
+    /**
+     * Number of bytes in the binary message of each lyric line sent on /ws/voice.
+     */
+    public static final int WS_FRAME_BYTES = Short.BYTES + Float.BYTES + 2 * Integer.BYTES;
+
+    private static final Logger LOG = Log.get(NioMusicWebServer.class);
+    private static final String WEBSOCKET_GUID = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
+    private static final int OPCODE_TEXT = 0x1;
+    private static final int OPCODE_BINARY = 0x2;
+    private static final int OPCODE_CLOSE = 0x8;
+    private static final int OPCODE_PING = 0x9;
+    private static final int OPCODE_PONG = 0xA;
+    private static final int BACKLOG = 1024;
+    private static final int MAX_REQUEST_BYTES = 8192;
+    private static final int ENOUGH_BYTES_TO_START_STREAMING = 2048;
+    private static final String CHUNKED_HEADERS = "HTTP/1.1 200 OK\r\n"
+            + "Content-Type: text/plain; charset=utf-8\r\n"
+            + "Transfer-Encoding: chunked\r\n"
+            + "\r\n";
+    private static final ByteBuffer LAST_CHUNK = direct("0\r\n\r\n".getBytes(US_ASCII));
+
+    private final ServerSocketChannel serverChannel;
+    private final Selector selector;
+    private final String filePath;
+    private final List<String> voices;
+    private final TuneCache tunes;
+    private final LyricHub lyrics;
+    private final Map<String, Set<Connection>> listeners = new HashMap<>();
+    private final Map<String, Set<Connection>> sockets = new HashMap<>();
+    private Map<String, LyricTable> tables = null;
+    private final List<Runnable> waitingForTables = new ArrayList<>();
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private final ExecutorService playback = Executors.newSingleThreadExecutor();
+    private final ExecutorService delivery = Executors.newSingleThreadExecutor();
+    private Thread loop;
+
+    /**
+     * Make a new web server for Music that listens for connections on port.
+     *
+     * @param port server port number, or 0 for any free port
+     * @param filePath the path to the abc file
+     * @param voices the voices that can be streamed
+     * @param tunes cache to take the parsed abc file from
+     * @throws IOException if the port cannot be bound
+     */
+    public NioMusicWebServer(int port, String filePath, List<String> voices, TuneCache tunes) throws IOException {
+        this.serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(port), BACKLOG);
+        serverChannel.configureBlocking(false);
+        this.selector = Selector.open();
+        serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        this.filePath = filePath;
+        this.voices = voices;
+        this.tunes = tunes;
+        this.lyrics = new LyricHub(voices, LyricHub.DEFAULT_CAPACITY, delivery);
+        for (String voice : voices) {
+            listeners.put(voice, new LinkedHashSet<Connection>());
+            sockets.put(voice, new LinkedHashSet<Connection>());
+        }
+        checkRep();
+    }
+
+    private void checkRep() {
+        assert listeners.keySet().equals(new HashSet<>(voices));
+        assert sockets.keySet().equals(listeners.keySet());
+        assert tables == null || voices.containsAll(tables.keySet());
+    }
+
+    /**
+     * @return the lyric hub of this server; playback puts lines on its queues
+     */
+    LyricHub lyrics() {
+        return lyrics;
+    }
+
+    /**
+     * @return port number the server is listening on
+     * @throws IOException if the server has been stopped
+     */
+    public int port() throws IOException {
+        return ((InetSocketAddress) serverChannel.getLocalAddress()).getPort();
+    }
+
+    /**
+     * Start this server's event loop in a new background thread.
+     * Also starts parsing the abc file in the background, so that /play does not have to wait for the parser, and
+     * then makes the lyric tables for /ws.
+     * @throws IOException if the server has been stopped
+     */
+    public void start() throws IOException {
+        LOG.info("Server will listen on {}", serverChannel.getLocalAddress());
+        tunes.prefetch(filePath);
+        playback.execute(this::loadTables);
+        // one listener per voice turns each line into a chunk once, for the event loop to send to every listener
+        for (String voice : voices) {
+            lyrics.subscribe(voice, (String line, int lyricLine, int syllable, double beat) -> {
+                final ByteBuffer chunk = line.equals("$") ? null : chunkOf((line + "\n").getBytes(UTF_8));
+                submit(() -> broadcast(voice, line, lyricLine, syllable, beat, chunk));
+                return true;
+            });
+        }
+        lyrics.start();
+        loop = new Thread(this::run, "nio-server");
+        loop.setDaemon(true);
+        loop.start();
+    }
+
+    /**
+     * Stop this server and close every connection. Once stopped, this server cannot be restarted.
+     */
+    public void stop() {
+        LOG.info("Server will stop");
+        lyrics.stop();
+        delivery.shutdownNow();
+        playback.shutdownNow();
+        submit(() -> {
+            for (SelectionKey key : selector.keys()) {
+                closeQuietly(key);
+            }
+            try {
+                selector.close();
+            } catch (IOException e) {
+                LOG.warn("Cannot close the selector", e);
+            }
+        });
+        if (loop == null) {
+            closeQuietly(serverChannel.keyFor(selector));
+            try {
+                selector.close();
+            } catch (IOException e) {
+                LOG.warn("Cannot close the selector", e);
+            }
+        }
+    }
+
+    /**
+     * Run a task on the event loop thread.
+     */
+    private void submit(Runnable task) {
+        tasks.add(task);
+        selector.wakeup();
+    }
+
+    private void run() {
+        try {
+            while (selector.isOpen()) {
+                selector.select();
+                Runnable task;
+                while ((task = tasks.poll()) != null) {
+                    task.run();
+                }
+                if (!selector.isOpen()) {
+                    return;
+                }
+                for (SelectionKey key : selector.selectedKeys()) {
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    try {
+                        if (key.isAcceptable()) {
+                            accept();
+                            continue;
+                        }
+                        final Connection connection = (Connection) key.attachment();
+                        if (key.isReadable()) {
+                            connection.read();
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            connection.flush();
+                        }
+                    } catch (IOException e) {
+                        closeQuietly(key);
+                    }
+                }
+                selector.selectedKeys().clear();
+            }
+        } catch (ClosedSelectorException e) {
+            return;
+        } catch (IOException e) {
+            LOG.warn("Selector loop failed", e);
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel;
+        while ((channel = serverChannel.accept()) != null) {
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            final SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+            key.attach(new Connection(channel, key));
+        }
+    }
+
+    /**
+     * Make the lyric table of each voice and hand them to the event loop. Playback thread only.
+     */
+    private void loadTables() {
+        final Map<String, LyricTable> loaded = new HashMap<>();
+        try {
+            final CachedTune cached = tunes.get(filePath);
+            for (String voice : voices) {
+                loaded.put(voice, new LyricTable(cached.getTimeline(), voice));
+            }
+        } catch (IOException | UnableToParseException e) {
+            // without a tune there are no tables, and every line is sent as text
+            LOG.warn("Cannot load lyric tables", e);
+            loaded.clear();
+        }
+        submit(() -> {
+            tables = loaded;
+            for (Runnable handshake : waitingForTables) {
+                handshake.run();
+            }
+            waitingForTables.clear();
+        });
+    }
+
+    /**
+     * Send a line to every listener of a voice: as chunk to /stream listeners, ending their responses if chunk is
+     * null, and as its line and syllable in the lyric table to /ws listeners. Event loop only.
+     * @param line line sung, "$" at the end of the song
+     * @param lyricLine lyric line of the timeline played that line is a frame of, or -1 if not known
+     * @param syllable syllable of lyricLine that line highlights, or -1 for none
+     * @param beat beat line is sung at, or NaN if not known
+     * @param chunk line encoded as a chunk, or null at the end of the song
+     */
+    private void broadcast(String voice, String line, int lyricLine, int syllable, double beat, ByteBuffer chunk) {
+        final Set<Connection> subscribed = listeners.get(voice);
+        if (chunk == null) {
+            for (Connection connection : new ArrayList<>(subscribed)) {
+                connection.finish();
+            }
+        } else {
+            for (Connection connection : new ArrayList<>(subscribed)) {
+                connection.sendLyric(chunk);
+            }
+        }
+        if (sockets.get(voice).isEmpty() || tables == null) {
+            return;
+        }
+        final ByteBuffer frame = lyricFrame(voice, line, lyricLine, syllable, beat);
+        for (Connection connection : new ArrayList<>(sockets.get(voice))) {
+            connection.sendLyric(frame);
+        }
+    }
+
+    /**
+     * @return the /ws message for a line of a voice, as broadcast() is given it. Event loop only, once tables is
+     *         loaded.
+     */
+    private ByteBuffer lyricFrame(String voice, String line, int lyricLine, int syllable, double beat) {
+        final LyricTable table = tables.get(voice);
+        if (table == null) {
+            return frameOf(OPCODE_TEXT, line.getBytes(UTF_8));
+        }
+        final ByteBuffer payload = ByteBuffer.allocate(WS_FRAME_BYTES);
+        payload.putShort((short) voices.indexOf(voice));
+        if (line.equals("$")) {
+            payload.putFloat(0).putInt(-1).putInt(-1);
+            return frameOf(OPCODE_BINARY, payload.array());
+        }
+        final int index = table.index(lyricLine);
+        if (index < 0 || syllable < -1 || syllable >= table.lines().get(index).size()
+                || !table.frame(index, syllable).equals(line)) {
+            return frameOf(OPCODE_TEXT, line.getBytes(UTF_8));
+        }
+        payload.putFloat((float) beat).putInt(index).putInt(syllable);
+        return frameOf(OPCODE_BINARY, payload.array());
+    }
+
+    /**
+     * Handle a complete request. Event loop only.
+     */
+    private void handle(Connection connection, String method, String target, Map<String, String> headers) {
+        final String path;
+        try {
+            path = new URI(target).getPath();
+        } catch (URISyntaxException e) {
+            connection.reject("400 Bad Request");
+            return;
+        }
+        if (!method.equals("GET") || path == null) {
+            connection.reject("400 Bad Request");
+        } else if (path.equals("/play") || path.startsWith("/play/")) {
+            handlePlay(connection);
+        } else if (path.startsWith("/stream/") && voices.contains(path.substring("/stream/".length()))) {
+            handleStream(connection, path.substring("/stream/".length()));
+        } else if (path.startsWith("/ws/") && voices.contains(path.substring("/ws/".length()))) {
+            final String key = headers.get("sec-websocket-key");
+            if (key == null || !"websocket".equalsIgnoreCase(headers.get("upgrade"))) {
+                connection.reject("400 Bad Request");
+                return;
+            }
+            final String voice = path.substring("/ws/".length());
+            if (tables == null) {
+                waitingForTables.add(() -> handleWebSocket(connection, voice, key));
+            } else {
+                handleWebSocket(connection, voice, key);
+            }
+        } else {
+            connection.reject("404 Not Found");
+        }
+    }
+
+    /**
+     * Start streaming the lyrics of a voice, from the next line sung on.
+     */
+    private void handleStream(Connection connection, String voice) {
+        connection.startChunked("");
+        connection.voice = voice;
+        listeners.get(voice).add(connection);
+    }
+
+    /**
+     * Finish the WebSocket handshake and send the lyric table of a voice, then the lines sung from now on.
+     * Event loop only, once tables is loaded.
+     */
+    private void handleWebSocket(Connection connection, String voice, String key) {
+        if (!connection.channel.isOpen()) {
+            return;
+        }
+        final String accept;
+        try {
+            accept = Base64.getEncoder().encodeToString(
+                    MessageDigest.getInstance("SHA-1").digest((key.trim() + WEBSOCKET_GUID).getBytes(US_ASCII)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new AssertionError("every JVM has SHA-1", e);
+        }
+        connection.send(ByteBuffer.wrap(("HTTP/1.1 101 Switching Protocols\r\n"
+                + "Upgrade: websocket\r\n"
+                + "Connection: Upgrade\r\n"
+                + "Sec-WebSocket-Accept: " + accept + "\r\n"
+                + "\r\n").getBytes(US_ASCII)));
+        final StringBuilder table = new StringBuilder().append(voices.indexOf(voice));
+        if (tables.containsKey(voice)) {
+            for (List<String> syllables : tables.get(voice).lines()) {
+                table.append('\n').append(String.join("\t", syllables));
+            }
+        }
+        connection.send(frameOf(OPCODE_TEXT, table.toString().getBytes(UTF_8)));
+        connection.webSocket = true;
+        connection.voice = voice;
+        sockets.get(voice).add(connection);
+    }
+
+    /**
+     * Answer at once, then play the tune on the playback thread, on the engine named by the karaoke.player system
+     * property, and end the response when it has been scheduled.
+     */
+    private void handlePlay(Connection connection) {
+        connection.startChunked("Playing now, lyrics streaming has begun");
+        playback.execute(() -> {
+            try {
+                final CachedTune cached = tunes.get(filePath);
+                SoundPlayback.play(cached.getTimeline(), lyrics.queues(),
+                        Integer.parseInt(cached.getTune().getTempo()), SoundPlayback.Engine.fromSystemProperty());
+            } catch (IOException | UnableToParseException | MidiUnavailableException | InvalidMidiDataException e) {
+                LOG.warn("Cannot play", e);
+            } finally {
+                submit(connection::finish);
+            }
+        });
+    }
+
+    /**
+     * @param data data of the chunk, not empty
+     * @return a read-only direct buffer holding data encoded as one chunk of a chunked response
+     */
+    private static ByteBuffer chunkOf(byte[] data) {
+        final byte[] size = (Integer.toHexString(data.length) + "\r\n").getBytes(US_ASCII);
+        final byte[] chunk = new byte[size.length + data.length + 2];
+        System.arraycopy(size, 0, chunk, 0, size.length);
+        System.arraycopy(data, 0, chunk, size.length, data.length);
+        chunk[chunk.length - 2] = '\r';
+        chunk[chunk.length - 1] = '\n';
+        return direct(chunk);
+    }
+
+    /**
+     * @param opcode WebSocket opcode
+     * @param payload payload of the frame
+     * @return a read-only direct buffer holding an unmasked, final WebSocket frame
+     */
+    private static ByteBuffer frameOf(int opcode, byte[] payload) {
+        final ByteBuffer frame = ByteBuffer.allocate(2 + Long.BYTES + payload.length);
+        frame.put((byte) (0x80 | opcode));
+        if (payload.length < 126) {
+            frame.put((byte) payload.length);
+        } else if (payload.length <= 0xFFFF) {
+            frame.put((byte) 126).putShort((short) payload.length);
+        } else {
+            frame.put((byte) 127).putLong(payload.length);
+        }
+        frame.put(payload);
+        return direct(Arrays.copyOf(frame.array(), frame.position()));
+    }
+
+    /**
+     * @return a read-only direct buffer holding bytes
+     */
+    private static ByteBuffer direct(byte[] bytes) {
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.length);
+        buffer.put(bytes).flip();
+        return buffer.asReadOnlyBuffer();
+    }
+
+    private void closeQuietly(SelectionKey key) {
+        if (key == null) {
+            return;
+        }
+        final Object attachment = key.attachment();
+        if (attachment instanceof Connection) {
+            ((Connection) attachment).close();
+            return;
+        }
+        key.cancel();
+        try {
+            key.channel().close();
+        } catch (IOException e) {
+            // already closed
+        }
+    }
+
+    /**
+     * Bytes waiting to be sent on a connection, and whether they are a lyric that may be dropped.
+     */
+    private static class Pending {
+        private final ByteBuffer bytes;
+        private final boolean droppable;
+
+        Pending(ByteBuffer bytes, boolean droppable) {
+            this.bytes = bytes;
+            this.droppable = droppable;
+        }
+    }
+
+    /**
+     * One client connection. Only touched by the event loop thread.
+     */
+    private class Connection {
+        private final SocketChannel channel;
+        private final SelectionKey key;
+        private final ByteBuffer request = ByteBuffer.allocate(MAX_REQUEST_BYTES);
+        private final ArrayDeque<Pending> pending = new ArrayDeque<>();
+        private int lyricsPending = 0;
+        private boolean requested = false;
+        private boolean closeWhenFlushed = false;
+        private boolean webSocket = false;
+        private String voice = null;
+
+        Connection(SocketChannel channel, SelectionKey key) {
+            this.channel = channel;
+            this.key = key;
+        }
+
+        /**
+         * Read the request, or notice that the client has gone away; anything sent after the request is ignored,
+         * except the frames of a WebSocket.
+         */
+        void read() throws IOException {
+            if (requested && !webSocket) {
+                request.clear();
+            }
+            if (channel.read(request) < 0) {
+                close();
+                return;
+            }
+            if (webSocket) {
+                readFrames();
+                return;
+            }
+            if (requested) {
+                return;
+            }
+            final String received = new String(request.array(), 0, request.position(), US_ASCII);
+            final int end = received.indexOf("\r\n\r\n");
+            if (end < 0) {
+                if (!request.hasRemaining()) {
+                    reject("431 Request Header Fields Too Large");
+                }
+                return;
+            }
+            requested = true;
+            request.clear();
+            final String[] lines = received.substring(0, end).split("\r\n");
+            final String[] requestLine = lines[0].split(" ");
+            if (requestLine.length != 3 || !requestLine[2].startsWith("HTTP/1.")) {
+                reject("400 Bad Request");
+                return;
+            }
+            final Map<String, String> headers = new HashMap<>();
+            for (int i = 1; i < lines.length; i++) {
+                final int colon = lines[i].indexOf(':');
+                if (colon > 0) {
+                    headers.put(lines[i].substring(0, colon).trim().toLowerCase(Locale.ROOT),
+                            lines[i].substring(colon + 1).trim());
+                }
+            }
+            handle(this, requestLine[0], requestLine[1], headers);
+        }
+
+        /**
+         * Handle the complete frames the client has sent: answer pings and close frames, and ignore messages.
+         */
+        private void readFrames() {
+            request.flip();
+            while (request.remaining() >= 2) {
+                final int start = request.position();
+                final int opcode = request.get() & 0x0F;
+                final int second = request.get() & 0xFF;
+                long length = second & 0x7F;
+                if (length == 126 && request.remaining() >= Short.BYTES) {
+                    length = request.getShort() & 0xFFFF;
+                } else if (length == 127 && request.remaining() >= Long.BYTES) {
+                    length = request.getLong();
+                } else if (length >= 126) {
+                    request.position(start);
+                    break;
+                }
+                final int maskBytes = (second & 0x80) != 0 ? 4 : 0;
+                if (length > request.capacity() - 14) {
+                    // too big to buffer, and the client sends nothing this server reads
+                    send(frameOf(OPCODE_CLOSE, new byte[] { 0x03, (byte) 0xF1 }));
+                    closeWhenFlushed = true;
+                    flushQuietly();
+                    return;
+                }
+                if (request.remaining() < maskBytes + length) {
+                    request.position(start);
+                    break;
+                }
+                final byte[] mask = new byte[maskBytes];
+                request.get(mask);
+                final byte[] payload = new byte[(int) length];
+                request.get(payload);
+                for (int i = 0; i < payload.length && maskBytes > 0; i++) {
+                    payload[i] ^= mask[i % 4];
+                }
+                if (opcode == OPCODE_PING) {
+                    send(frameOf(OPCODE_PONG, payload));
+                } else if (opcode == OPCODE_CLOSE) {
+                    send(frameOf(OPCODE_CLOSE, payload));
+                    closeWhenFlushed = true;
+                    flushQuietly();
+                    request.clear();
+                    return;
+                }
+            }
+            request.compact();
+        }
+
+        /**
+         * Send the headers of a chunked response, then a first chunk of padding and message, enough that browsers
+         * start showing the response.
+         */
+        void startChunked(String message) {
+            final StringBuilder padding = new StringBuilder(ENOUGH_BYTES_TO_START_STREAMING + message.length() + 1);
+            for (int i = 0; i < ENOUGH_BYTES_TO_START_STREAMING; ++i) {
+                padding.append(' ');
+            }
+            padding.append(message).append('\n');
+            send(ByteBuffer.wrap(CHUNKED_HEADERS.getBytes(US_ASCII)));
+            send(chunkOf(padding.toString().getBytes(UTF_8)));
+        }
+
+        /**
+         * Send a response with no body and close the connection.
+         */
+        void reject(String status) {
+            requested = true;
+            send(ByteBuffer.wrap(("HTTP/1.1 " + status + "\r\nContent-Length: 0\r\nConnection: close\r\n\r\n")
+                    .getBytes(US_ASCII)));
+            closeWhenFlushed = true;
+            flushQuietly();
+        }
+
+        /**
+         * End the chunked response and close the connection once it has been sent.
+         */
+        void finish() {
+            if (voice != null) {
+                listeners.get(voice).remove(this);
+            }
+            if (!channel.isOpen()) {
+                return;
+            }
+            send(LAST_CHUNK);
+            closeWhenFlushed = true;
+            flushQuietly();
+        }
+
+        /**
+         * Queue bytes that must be sent, such as headers, the lyric table and control frames, and send what the
+         * socket will take now.
+         * @param bytes buffer to send; a duplicate is sent, so bytes itself is not changed
+         */
+        void send(ByteBuffer bytes) {
+            queue(new Pending(bytes.duplicate(), false));
+        }
+
+        /**
+         * Queue a lyric chunk or message, dropping the oldest lyric waiting if MAX_PENDING_CHUNKS of them are, and
+         * send what the socket will take now.
+         * @param bytes buffer to send; a duplicate is sent, so bytes itself is not changed
+         */
+        void sendLyric(ByteBuffer bytes) {
+            if (lyricsPending >= MAX_PENDING_CHUNKS) {
+                // the head may be partly written, so drop the oldest lyric after it to keep the chunks whole
+                final Iterator<Pending> waiting = pending.iterator();
+                waiting.next();
+                while (waiting.hasNext()) {
+                    if (waiting.next().droppable) {
+                        waiting.remove();
+                        lyricsPending--;
+                        break;
+                    }
+                }
+            }
+            queue(new Pending(bytes.duplicate(), true));
+        }
+
+        private void queue(Pending bytes) {
+            if (!channel.isOpen()) {
+                return;
+            }
+            pending.add(bytes);
+            if (bytes.droppable) {
+                lyricsPending++;
+            }
+            if (pending.size() == 1) {
+                flushQuietly();
+            }
+        }
+
+        private void flushQuietly() {
+            try {
+                flush();
+            } catch (IOException e) {
+                close();
+            }
+        }
+
+        /**
+         * Write as much as the socket will take, waiting for OP_WRITE if it will not take it all.
+         */
+        void flush() throws IOException {
+            while (!pending.isEmpty()) {
+                final Pending head = pending.peek();
+                channel.write(head.bytes);
+                if (head.bytes.hasRemaining()) {
+                    key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                    return;
+                }
+                pending.poll();
+                if (head.droppable) {
+                    lyricsPending--;
+                }
+            }
+            if (closeWhenFlushed) {
+                close();
+                return;
+            }
+            key.interestOps(SelectionKey.OP_READ);
+        }
+
+        void close() {
+            if (voice != null) {
+                listeners.get(voice).remove(this);
+                sockets.get(voice).remove(this);
+            }
+            pending.clear();
+            lyricsPending = 0;
+            key.cancel();
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // already closed
+            }
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package karaoke;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.MidiUnavailableException;
+
+import edu.mit.eecs.parserlib.UnableToParseException;
+import karaoke.sound.SoundPlayback;
+
+/**
+ * A room of a MusicWebServer: one tune, which each play() plays on a player of its own, and the listeners of its
+ * voices. A room has no threads of its own; the rooms of a server share its tune cache and its executor.
+ *
+ * A room is made closed, is opened once, and is closed once; it can only be played while it is open.
+ */
+public class Room {
+    /*
+     * AF(id, filePath, voices, tunes, engine, lyrics, open, closed) = room named id that plays the tune at
+     *          filePath, parsed through tunes, on players of engine, and broadcasts the lyrics of voices through lyrics; open once open() has been
+     *          called, and closed once close() has
+     * RI: voices is not empty
+     * Safety from Rep Exposure: all fields are private; voices is an unmodifiable copy; lyrics is only returned
+     *          inside the package, to the server that streams it
+     * Thread Safety: open and closed are guarded by this; tunes and lyrics are threadsafe, and the rest is
+     *          immutable
+     */
+
+    private final String id;
+    private final String filePath;
+    private final List<String> voices;
+    private final TuneCache tunes;
+    private final SoundPlayback.Engine engine;
+    private final LyricHub lyrics;
+    private boolean open = false;
+    private boolean closed = false;
+
+    /**
+     * Make a closed room that plays on the MIDI synthesizer.
+     * @param id name of the room
+     * @param filePath the path to the abc file the room plays
+     * @param voices the voices that can be streamed, not empty
+     * @param tunes cache to take the parsed abc file from
+     * @param executor executor to deliver lyrics on
+     */
+    public Room(String id, String filePath, List<String> voices, TuneCache tunes, ExecutorService executor) {
+        this(id, filePath, voices, tunes, executor, SoundPlayback.Engine.MIDI);
+    }
+
+    /**
+     * Make a closed room.
+     * @param id name of the room
+     * @param filePath the path to the abc file the room plays
+     * @param voices the voices that can be streamed, not empty
+     * @param tunes cache to take the parsed abc file from
+     * @param executor executor to deliver lyrics on
+     * @param engine kind of player to play the tune on
+     */
+    public Room(String id, String filePath, List<String> voices, TuneCache tunes, ExecutorService executor,
+            SoundPlayback.Engine engine) {
+        this.id = id;
+        this.filePath = filePath;
+        this.voices = Collections.unmodifiableList(new ArrayList<>(voices));
+        this.tunes = tunes;
+        this.engine = engine;
+        this.lyrics = new LyricHub(voices, LyricHub.DEFAULT_CAPACITY, executor);
+        checkRep();
+    }
+
+    private void checkRep() {
+        assert !voices.isEmpty();
+    }
+
+    /**
+     * @return name of this room
+     */
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * @return the path to the abc file this room plays
+     */
+    public String getFilePath() {
+        return filePath;
+    }
+
+    /**
+     * @return the voices that can be streamed in this room
+     */
+    public List<String> getVoices() {
+        return voices;
+    }
+
+    /**
+     * @return the lyric hub of this room; playback puts lines on its queues
+     */
+    LyricHub lyrics() {
+        return lyrics;
+    }
+
+    /**
+     * Open this room: start broadcasting lyrics, and start parsing the abc file in the background so that play()
+     * does not have to wait for the parser. Does nothing if this room has already been opened.
+     */
+    public synchronized void open() {
+        if (open) {
+            return;
+        }
+        open = true;
+        tunes.prefetch(filePath);
+        lyrics.start();
+    }
+
+    /**
+     * Close this room: end the lyrics of every listener, then stop broadcasting. Does nothing if this room has
+     * already been closed.
+     */
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (open) {
+            for (BlockingQueue<String> queue : lyrics.queues().values()) {
+                queue.add("$");
+            }
+        }
+        lyrics.stop();
+    }
+
+    /**
+     * @return true if this room has been opened and has not been closed
+     */
+    public synchronized boolean isOpen() {
+        return open && !closed;
+    }
+
+    /**
+     * Play the tune of this room on a new player, putting its lyrics on the queues of this room's lyrics.
+     * @throws IllegalStateException if this room is not open
+     * @throws IOException if the abc file cannot be read
+     * @throws UnableToParseException if the abc file cannot be parsed
+     * @throws MidiUnavailableException if this room plays on MIDI and the MIDI device is unavailable
+     * @throws InvalidMidiDataException if MIDI play fails
+     */
+    public void play() throws IOException, UnableToParseException, MidiUnavailableException,
+            InvalidMidiDataException {
+        if (!isOpen()) {
+            throw new IllegalStateException("room " + id + " is not open");
+        }
+        final CachedTune cached = tunes.get(filePath);
+        SoundPlayback.play(cached.getTimeline(), lyrics.queues(), Integer.parseInt(cached.getTune().getTempo()),
+                engine);
+    }
+
+    @Override
+    public String toString() {
+        return "room " + id + " (" + filePath + ")";
+    }
+}
@@ -1,30 +1,62 @@
 package karaoke;
 
-import java.io.BufferedReader;
-import java.io.FileReader;
 import java.io.IOException;
 import java.net.InetAddress;
+import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
+import edu.mit.eecs.parserlib.UnableToParseException;
+
 public class ServerMain {
     /**
      * Web server uses plain text stream
      *     
-     * @param args 
+     * @param args abc file to play, then any number of abc files to play in rooms of their own, each room named
+     *             after its file without the extension; rooms need the httpserver transport
      * @throws IOException if network failure
+     * @throws IllegalArgumentException if a file is not valid abc, or rooms are given with the nio transport
      */
 
     public static void main(String[] args) throws IOException {
         
+        // read and parse the file once; the server plays the same cached tune
+        final TuneCache tunes = new TuneCache();
+        final CachedTune song;
+        try {
+            song = tunes.get(args[0]);
+        } catch (UnableToParseException e) {
+            throw new IllegalArgumentException("File is not valid abc notation: " + args[0], e);
+        }
+
         // make a web server
         final int serverPort = 4567;
-        List<String> voiceList = getVoicesFromFile(args[0]);
-        final MusicWebServer server = new MusicWebServer(serverPort, args[0], voiceList);
-
-        String header = getHeaderFromFile(args[0]);
-        // start the server
-        server.start();
+        List<String> voiceList = song.getVoices();
+        String header = song.getHeader();
+        // make and start the transport named by the karaoke.transport system property
+        final List<Room> rooms = new ArrayList<>();
+        final boolean nio = System.getProperty(NioMusicWebServer.TRANSPORT_PROPERTY, "httpserver")
+                .equalsIgnoreCase("nio");
+        if (nio && args.length > 1) {
+            throw new IllegalArgumentException("Rooms need the httpserver transport, but "
+                    + NioMusicWebServer.TRANSPORT_PROPERTY + " is nio; got room files " + Arrays.asList(args)
+                    .subList(1, args.length));
+        }
+        if (nio) {
+            new NioMusicWebServer(serverPort, args[0], voiceList, tunes).start();
+        } else {
+            final MusicWebServer server = new MusicWebServer(serverPort, args[0], voiceList, tunes);
+            server.start();
+            for (int i = 1; i < args.length; i++) {
+                final String name = Paths.get(args[i]).getFileName().toString().replaceFirst("\\.[^.]*$", "");
+                try {
+                    rooms.add(server.openRoom(name, args[i]));
+                } catch (UnableToParseException e) {
+                    throw new IllegalArgumentException("File is not valid abc notation: " + args[i], e);
+                }
+            }
+        }
         System.out.println(header);
         InetAddress inetAddress = InetAddress.getLocalHost(); 
         if (voiceList.size() == 1) {
@@ -37,63 +69,14 @@ public class ServerMain {
             }
             
         }
-        
-    }
-
-    /**
-     * gets the Title and Composer from the header of the file
-     * @param filePath the path to the abc file
-     * @return A string representing the title and composer
-     */
-    private static String getHeaderFromFile(String filePath) {
-        StringBuilder contentBuilder = new StringBuilder();
-        try (BufferedReader br = new BufferedReader(new FileReader(filePath)))
-        {
-     
-            String sCurrentLine;
-            while ((sCurrentLine = br.readLine()) != null)
-            {
-                if (sCurrentLine.startsWith("T:")) {
-                    contentBuilder.append(sCurrentLine).append("\n");
-                }
-                else if (sCurrentLine.startsWith("C:")) {
-                    contentBuilder.append(sCurrentLine).append("\n");
-
-                }
+        for (Room room : rooms) {
+            final String base = "http://" + inetAddress.getHostAddress() + ":4567/room/" + room.getId();
+            System.out.println("\nRoom " + room.getId() + " plays " + room.getFilePath() + ": begin play at\n    "
+                    + base + "/play");
+            for (String voice : room.getVoices()) {
+                System.out.println("To view lyrics for " + voice + " browse to \n    " + base + "/stream/" + voice);
             }
         }
-        catch (IOException e)
-        {
-            throw new IllegalArgumentException("File either not readable or does not exist. \nPlease check the file path and try again");
-        }
-        return contentBuilder.toString().trim();
-    }
-    private static List<String> getVoicesFromFile(String filePath){
-        List<String> voices = new ArrayList<>();
-        try (BufferedReader br = new BufferedReader(new FileReader(filePath)))
-        {
-            String sCurrentLine;
-            while ((sCurrentLine = br.readLine()) != null)
-            {
-                if (sCurrentLine.startsWith("V:")) {
-                    if (! voices.contains(sCurrentLine.substring(2).trim())) {
-                    voices.add(sCurrentLine.substring(2).trim());
-                    }
-                } 
-            }
-        }
-        catch (IOException e)
-        {
-            throw new IllegalArgumentException("File either not readable or does not exist. \nPlease check the file path and try again");
-        }
-        if (voices.size() >1 ) {
-            return voices;
-        }
-        else {
-            voices.add("OneVoice");
-            return voices;
-            
-        }
+        
     }
 }
-
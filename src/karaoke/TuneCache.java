@@ -0,0 +1,199 @@
+package karaoke;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+import edu.mit.eecs.parserlib.UnableToParseException;
+import karaoke.sound.MusicLanguage;
+
+/**
+ * A threadsafe cache of parsed abc files, keyed by path.
+ *
+ * An entry is reused for as long as the modification time and size of its file are unchanged. When either changes
+ * the file is read again, and it is only parsed again if its content hash changed too.
+ * Entries can be filled in the background with prefetch(), so that a later get() returns immediately.
+ */
+public class TuneCache {
+    /*
+     * AF(entries, loader) = cache mapping the absolute normalized path of every file that has been requested to the
+     *          (possibly still running) load of its latest known contents; loader runs background prefetches
+     * RI: every key of entries is absolute and normalized
+     * Safety from Rep Exposure: fields are private and final; only immutable CachedTunes are returned
+     * Thread Safety: entries is a ConcurrentHashMap, and a load is only installed or replaced with the atomic
+     *          putIfAbsent/replace/remove, so two threads never parse the same version of a file twice.
+     *          Loads run in FutureTasks, whose result is safely published to every thread that calls get() on them.
+     */
+
+    private final ConcurrentMap<Path, Future<CachedTune>> entries = new ConcurrentHashMap<>();
+    private final ExecutorService loader;
+
+    /**
+     * Make an empty cache that prefetches on its own background thread.
+     */
+    public TuneCache() {
+        this(Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "tune-cache-loader");
+            thread.setDaemon(true);
+            return thread;
+        }));
+    }
+
+    /**
+     * Make an empty cache.
+     * @param loader executor that runs background prefetches
+     */
+    public TuneCache(ExecutorService loader) {
+        this.loader = loader;
+    }
+
+    /**
+     * Start loading a file in the background, unless it is already cached or being loaded.
+     * @param filePath path to the abc file
+     */
+    public void prefetch(String filePath) {
+        final Path path = normalize(filePath);
+        final FutureTask<CachedTune> task = new FutureTask<>(() -> load(path, null));
+        if (entries.putIfAbsent(path, task) == null) {
+            loader.execute(task);
+        }
+    }
+
+    /**
+     * Get the parsed tune for a file, reading and parsing it only if it is not cached or if it changed on disk.
+     * If a prefetch of the file is running, waits for it instead of parsing the file a second time.
+     * @param filePath path to the abc file
+     * @return the file as it is now on disk, parsed
+     * @throws IOException if the file cannot be read
+     * @throws UnableToParseException if the file is not valid abc
+     */
+    public CachedTune get(String filePath) throws IOException, UnableToParseException {
+        final Path path = normalize(filePath);
+        while (true) {
+            Future<CachedTune> pending = entries.get(path);
+            if (pending == null) {
+                final FutureTask<CachedTune> task = new FutureTask<>(() -> load(path, null));
+                pending = entries.putIfAbsent(path, task);
+                if (pending == null) {
+                    pending = task;
+                    task.run();
+                }
+            }
+            final CachedTune cached = await(path, pending);
+            if (cached.isCurrent()) {
+                return cached;
+            }
+            // stale: exactly one caller installs the reload, everyone else waits on it
+            final FutureTask<CachedTune> reload = new FutureTask<>(() -> load(path, cached));
+            if (entries.replace(path, pending, reload)) {
+                reload.run();
+            }
+        }
+    }
+
+    /**
+     * Drop the cached entry for a file, if any.
+     * @param filePath path to the abc file
+     */
+    public void invalidate(String filePath) {
+        entries.remove(normalize(filePath));
+    }
+
+    /**
+     * Stop the background loader. Tunes that are already cached can still be read with get().
+     */
+    public void shutdown() {
+        loader.shutdownNow();
+    }
+
+    private CachedTune await(Path path, Future<CachedTune> pending) throws IOException, UnableToParseException {
+        try {
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    final CachedTune result = pending.get();
+                    if (interrupted) {
+                        Thread.currentThread().interrupt();
+                    }
+                    return result;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        } catch (ExecutionException e) {
+            // forget failed loads so that the next request tries again
+            entries.remove(path, pending);
+            final Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof UnableToParseException) {
+                throw (UnableToParseException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new RuntimeException("cannot load " + path, cause);
+        }
+    }
+
+    /**
+     * Read and parse a file.
+     * @param path absolute path of the file
+     * @param previous stale snapshot of the same file, or null; its tune is reused if the content is unchanged
+     * @return snapshot of the file as it is now
+     * @throws IOException if the file cannot be read
+     * @throws UnableToParseException if the file is not valid abc
+     */
+    private static CachedTune load(Path path, CachedTune previous) throws IOException, UnableToParseException {
+        final long lastModified = Files.getLastModifiedTime(path).toMillis();
+        final byte[] bytes = Files.readAllBytes(path);
+        final byte[] hash = sha256(bytes);
+        if (previous != null && previous.hasContentHash(hash)) {
+            return new CachedTune(previous, lastModified);
+        }
+        final String content = normalizeLines(new String(bytes, UTF_8));
+        return new CachedTune(path, lastModified, bytes.length, hash, new MusicLanguage().parse(content), content);
+    }
+
+    /**
+     * @param text file content
+     * @return content with "\n" line endings and without leading or trailing whitespace
+     */
+    private static String normalizeLines(String text) throws IOException {
+        StringBuilder contentBuilder = new StringBuilder();
+        try (BufferedReader br = new BufferedReader(new StringReader(text))) {
+            String sCurrentLine;
+            while ((sCurrentLine = br.readLine()) != null) {
+                contentBuilder.append(sCurrentLine).append("\n");
+            }
+        }
+        return contentBuilder.toString().trim();
+    }
+
+    private static byte[] sha256(byte[] bytes) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(bytes);
+        } catch (NoSuchAlgorithmException e) {
+            throw new AssertionError("every JVM supports SHA-256", e);
+        }
+    }
+
+    private static Path normalize(String filePath) {
+        return Paths.get(filePath).toAbsolutePath().normalize();
+    }
+}
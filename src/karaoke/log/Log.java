@@ -0,0 +1,132 @@
+package karaoke.log;
+
+/**
+ * Level-gated logging facade for the karaoke server and player.
+ *
+ * Classes get a Logger with Log.get() and log messages at a Level. A message below the current level is dropped by
+ * one comparison, before any event is made or argument formatted, so the per-note and per-bar messages of the parser
+ * and of playback cost close to nothing when they are off. A message at or above the level is recorded as a
+ * LogEvent, unformatted, and handed to the current RingAppender, which formats it and writes it out on a thread of
+ * its own; the thread that logged never does console I/O.
+ *
+ * The level is read from the karaoke.log system property when this class is loaded (INFO if it is not set), and
+ * can be changed with setLevel(). By default events go to System.err, and are flushed when the JVM shuts down.
+ */
+public final class Log {
+    /*
+     * Thread Safety: level and appender are volatile, so a thread that logs sees the latest level and appender set;
+     *          the appender is threadsafe
+     */
+
+    /**
+     * Name of the system property that sets the starting level, one of the names of Level, in any case.
+     */
+    public static final String LEVEL_PROPERTY = "karaoke.log";
+
+    /**
+     * Number of events the default appender holds before it drops events.
+     */
+    public static final int DEFAULT_CAPACITY = 8192;
+
+    private static final long SHUTDOWN_FLUSH_MILLIS = 1000;
+
+    /**
+     * Levels of log messages, least severe first.
+     */
+    public static enum Level {
+        /** per-note and per-bar detail of parsing and playback */
+        DEBUG,
+        /** requests and server lifecycle */
+        INFO,
+        /** failures that the server or player recovers from */
+        WARN,
+        /** failures that it does not */
+        ERROR,
+        /** as a threshold: log nothing */
+        OFF;
+
+        /**
+         * @return level named by the karaoke.log system property, INFO if it is not set or names no level
+         */
+        public static Level fromSystemProperty() {
+            final String name = System.getProperty(LEVEL_PROPERTY, "info");
+            for (Level level : values()) {
+                if (level.name().equalsIgnoreCase(name)) {
+                    return level;
+                }
+            }
+            return INFO;
+        }
+    }
+
+    private static volatile Level level = Level.fromSystemProperty();
+    private static volatile RingAppender appender = new RingAppender(DEFAULT_CAPACITY, System.err::println);
+
+    static {
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> appender.flush(SHUTDOWN_FLUSH_MILLIS),
+                "log-flush"));
+    }
+
+    private Log() {
+        throw new AssertionError("Log is not instantiable");
+    }
+
+    /**
+     * @param owner class that logs
+     * @return logger named after owner
+     */
+    public static Logger get(Class<?> owner) {
+        return new Logger(owner.getName());
+    }
+
+    /**
+     * @return the current level: messages below it are dropped
+     */
+    public static Level getLevel() {
+        return level;
+    }
+
+    /**
+     * Set the current level.
+     * @param newLevel level below which messages are dropped; OFF drops them all
+     */
+    public static void setLevel(Level newLevel) {
+        level = newLevel;
+    }
+
+    /**
+     * @param messageLevel level of a message, not OFF
+     * @return true if a message at messageLevel is logged
+     */
+    public static boolean isEnabled(Level messageLevel) {
+        return messageLevel.compareTo(level) >= 0;
+    }
+
+    /**
+     * Send events to another appender from now on.
+     * @param newAppender appender for the events logged from now on
+     * @return the appender events went to until now
+     */
+    public static RingAppender setAppender(RingAppender newAppender) {
+        final RingAppender old = appender;
+        appender = newAppender;
+        return old;
+    }
+
+    /**
+     * Wait until the events logged so far have been written.
+     * @param timeoutMillis longest time to wait, in milliseconds
+     * @return true if they were, false if the time ran out first
+     */
+    public static boolean flush(long timeoutMillis) {
+        return appender.flush(timeoutMillis);
+    }
+
+    /**
+     * Hand an event to the current appender.
+     * @param event event to log
+     */
+    static void append(LogEvent event) {
+        appender.append(event);
+    }
+}
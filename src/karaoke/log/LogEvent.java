@@ -0,0 +1,114 @@
+package karaoke.log;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.time.Instant;
+
+/**
+ * Immutable record of one logged message, kept unformatted: the message and its arguments are only put together by
+ * format(), which the appender calls on its own thread, so a message that is logged costs no string building on the
+ * thread that logs it.
+ */
+public final class LogEvent {
+    /*
+     * AF(level, millis, thread, logger, message, arg1, arg2, args) = message logged at level, at millis since the
+     *          epoch, on thread, by logger, with "{}" placeholders to be replaced by the first args of arg1, arg2;
+     *          a Throwable argument left over after the placeholders is printed with its stack trace
+     * RI: 0 <= args <= 2; arg2 == null if args < 2; arg1 == null if args < 1
+     * Safety From Rep Exposure: all fields are private and final; the arguments are never returned, only their
+     *          toString()
+     * Thread Safety: LogEvent is immutable, as long as its arguments are immutable or threadsafe
+     */
+
+    private final Log.Level level;
+    private final long millis;
+    private final String thread;
+    private final String logger;
+    private final String message;
+    private final Object arg1;
+    private final Object arg2;
+    private final int args;
+
+    /**
+     * Make a log event, stamped with the current time and thread.
+     * @param level level logged at
+     * @param logger name of the logger
+     * @param message message with one "{}" for each argument it shows
+     * @param args number of arguments, 0 to 2
+     * @param arg1 first argument, or null if args < 1
+     * @param arg2 second argument, or null if args < 2
+     */
+    LogEvent(Log.Level level, String logger, String message, int args, Object arg1, Object arg2) {
+        this.level = level;
+        this.millis = System.currentTimeMillis();
+        this.thread = Thread.currentThread().getName();
+        this.logger = logger;
+        this.message = message;
+        this.args = args;
+        this.arg1 = arg1;
+        this.arg2 = arg2;
+        checkRep();
+    }
+
+    private void checkRep() {
+        assert 0 <= args && args <= 2;
+        assert args >= 2 || arg2 == null;
+        assert args >= 1 || arg1 == null;
+    }
+
+    /**
+     * @return level this event was logged at
+     */
+    public Log.Level getLevel() {
+        return level;
+    }
+
+    /**
+     * @return name of the logger that logged this event
+     */
+    public String getLogger() {
+        return logger;
+    }
+
+    /**
+     * @return the message with its placeholders replaced by the arguments, followed by the stack trace of a
+     *         Throwable argument left over
+     */
+    public String getMessage() {
+        final StringBuilder text = new StringBuilder(message.length() + 16);
+        int used = 0;
+        int from = 0;
+        for (int at = message.indexOf("{}"); at >= 0 && used < args; at = message.indexOf("{}", from)) {
+            text.append(message, from, at).append(arg(used++));
+            from = at + 2;
+        }
+        text.append(message, from, message.length());
+        for (; used < args; used++) {
+            final Object extra = arg(used);
+            if (extra instanceof Throwable) {
+                final StringWriter trace = new StringWriter();
+                ((Throwable) extra).printStackTrace(new PrintWriter(trace));
+                text.append(System.lineSeparator()).append(trace.toString().trim());
+            } else {
+                text.append(' ').append(extra);
+            }
+        }
+        return text.toString();
+    }
+
+    private Object arg(int i) {
+        return i == 0 ? arg1 : arg2;
+    }
+
+    /**
+     * @return this event as one log line: time, level, thread, logger and message
+     */
+    public String format() {
+        return Instant.ofEpochMilli(millis) + " " + level + " [" + thread + "] " + logger + ": " + getMessage();
+    }
+
+    @Override
+    public String toString() {
+        return format();
+    }
+}
@@ -0,0 +1,136 @@
+package karaoke.log;
+
+/**
+ * Named logger, got with Log.get(). Messages are templates with a "{}" for each argument, formatted only if the
+ * message is logged and then on the appender's thread, so arguments must be immutable or threadsafe. A Throwable
+ * passed as the argument after the last "{}" is logged with its stack trace. There are overloads for up to two
+ * arguments, so that a message that is not logged does not even allocate an array.
+ */
+public final class Logger {
+    /*
+     * AF(name) = logger that logs events under name, at Log's current level, to Log's current appender
+     * RI: true
+     * Safety From Rep Exposure: name is private, final and immutable
+     * Thread Safety: Logger is immutable, and Log is threadsafe
+     */
+
+    private final String name;
+
+    /**
+     * Make a logger.
+     * @param name name to log events under
+     */
+    Logger(String name) {
+        this.name = name;
+    }
+
+    /**
+     * @return name this logger logs events under
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return true if DEBUG messages are logged
+     */
+    public boolean isDebugEnabled() {
+        return Log.isEnabled(Log.Level.DEBUG);
+    }
+
+    /**
+     * Log a message at DEBUG.
+     * @param message message
+     */
+    public void debug(String message) {
+        log(Log.Level.DEBUG, message, 0, null, null);
+    }
+
+    /**
+     * Log a message at DEBUG.
+     * @param message message with one "{}"
+     * @param arg argument
+     */
+    public void debug(String message, Object arg) {
+        log(Log.Level.DEBUG, message, 1, arg, null);
+    }
+
+    /**
+     * Log a message at DEBUG.
+     * @param message message with two "{}"
+     * @param arg1 first argument
+     * @param arg2 second argument
+     */
+    public void debug(String message, Object arg1, Object arg2) {
+        log(Log.Level.DEBUG, message, 2, arg1, arg2);
+    }
+
+    /**
+     * Log a message at INFO.
+     * @param message message
+     */
+    public void info(String message) {
+        log(Log.Level.INFO, message, 0, null, null);
+    }
+
+    /**
+     * Log a message at INFO.
+     * @param message message with one "{}"
+     * @param arg argument
+     */
+    public void info(String message, Object arg) {
+        log(Log.Level.INFO, message, 1, arg, null);
+    }
+
+    /**
+     * Log a message at INFO.
+     * @param message message with two "{}"
+     * @param arg1 first argument
+     * @param arg2 second argument
+     */
+    public void info(String message, Object arg1, Object arg2) {
+        log(Log.Level.INFO, message, 2, arg1, arg2);
+    }
+
+    /**
+     * Log a message at WARN.
+     * @param message message
+     */
+    public void warn(String message) {
+        log(Log.Level.WARN, message, 0, null, null);
+    }
+
+    /**
+     * Log a message at WARN.
+     * @param message message with one "{}", or none if arg is a Throwable to log
+     * @param arg argument
+     */
+    public void warn(String message, Object arg) {
+        log(Log.Level.WARN, message, 1, arg, null);
+    }
+
+    /**
+     * Log a message at WARN.
+     * @param message message with two "{}", or one if arg2 is a Throwable to log
+     * @param arg1 first argument
+     * @param arg2 second argument
+     */
+    public void warn(String message, Object arg1, Object arg2) {
+        log(Log.Level.WARN, message, 2, arg1, arg2);
+    }
+
+    /**
+     * Log a message at ERROR.
+     * @param message message with one "{}", or none if arg is a Throwable to log
+     * @param arg argument
+     */
+    public void error(String message, Object arg) {
+        log(Log.Level.ERROR, message, 1, arg, null);
+    }
+
+    private void log(Log.Level level, String message, int args, Object arg1, Object arg2) {
+        if (Log.isEnabled(level)) {
+            Log.append(new LogEvent(level, name, message, args, arg1, arg2));
+        }
+    }
+}
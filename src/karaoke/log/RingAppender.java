@@ -0,0 +1,141 @@
+package karaoke.log;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * Asynchronous appender that hands log events from any number of threads to a sink on one thread of its own.
+ *
+ * Events are put in a bounded, lock-free ring buffer: a thread that logs claims the next slot with a compare-and-set
+ * and stores its event there, without taking a lock, waiting for the sink or waking the appender's thread. The
+ * appender's thread polls the ring, formats each event and passes the line to the sink, in the order the slots were
+ * claimed. If the ring is full, because the sink has fallen capacity events behind, an event is dropped and counted
+ * rather than making the thread that logged it wait, so logging never holds up playback.
+ */
+public class RingAppender {
+    /*
+     * AF(slots, claimed, drained, dropped, sink) = appender that has accepted the events numbered [0, claimed), of
+     *          which [0, drained) have been passed to sink and event n, for drained <= n < claimed, is in
+     *          slots[n % slots.length()] once its thread has stored it; dropped events were refused
+     * RI: slots.length() > 0; 0 <= drained <= claimed <= drained + slots.length(); dropped >= 0
+     * Safety From Rep Exposure: all fields are private and final except drained, which is private; events are
+     *          immutable
+     * Thread Safety: a producer claims number n with a compare-and-set on claimed, only while n < drained +
+     *          capacity, so the slot of n has already been emptied by the drainer, and then stores its event in it.
+     *          Only the drainer thread reads and empties slots and writes drained; it takes event n only once the
+     *          slot of n is non-null, so it sees events in claim order, and a producer still storing n holds the
+     *          drainer up at n, but never another producer. drained is volatile, so a producer that sees it
+     *          increased sees the slot emptied.
+     */
+
+    /**
+     * Nanoseconds the appender's thread sleeps when the ring is empty.
+     */
+    private static final long IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private final AtomicReferenceArray<LogEvent> slots;
+    private final AtomicLong claimed = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private volatile long drained = 0;
+    private final Consumer<String> sink;
+    private final Thread drainer;
+
+    /**
+     * Make an appender and start its thread, a daemon thread named "log-appender".
+     * @param capacity number of events the ring holds, > 0
+     * @param sink takes each formatted log line, on the appender's thread
+     */
+    public RingAppender(int capacity, Consumer<String> sink) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        }
+        this.slots = new AtomicReferenceArray<>(capacity);
+        this.sink = sink;
+        this.drainer = new Thread(this::drainForever, "log-appender");
+        this.drainer.setDaemon(true);
+        this.drainer.start();
+    }
+
+    /**
+     * Add an event to the ring, without waiting.
+     * @param event event to append
+     * @return true if it was added, false if the ring was full and it was dropped
+     */
+    public boolean append(LogEvent event) {
+        final int capacity = slots.length();
+        long n;
+        do {
+            n = claimed.get();
+            if (n - drained >= capacity) {
+                dropped.incrementAndGet();
+                return false;
+            }
+        } while (!claimed.compareAndSet(n, n + 1));
+        slots.lazySet((int) (n % capacity), event);
+        return true;
+    }
+
+    /**
+     * @return number of events dropped because the ring was full
+     */
+    public long dropped() {
+        return dropped.get();
+    }
+
+    /**
+     * Wait until every event appended before this call has been passed to the sink.
+     * @param timeoutMillis longest time to wait, in milliseconds
+     * @return true if they all were, false if the time ran out first
+     */
+    public boolean flush(long timeoutMillis) {
+        final long target = claimed.get();
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        while (drained < target) {
+            if (System.nanoTime() - deadline >= 0) {
+                return false;
+            }
+            LockSupport.unpark(drainer);
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+        }
+        return true;
+    }
+
+    /**
+     * Run by the appender's thread: pass events to the sink for as long as the JVM runs.
+     */
+    private void drainForever() {
+        while (true) {
+            if (!drain()) {
+                LockSupport.parkNanos(this, IDLE_NANOS);
+            }
+        }
+    }
+
+    /**
+     * Pass every event stored so far, in order, to the sink.
+     * @return true if there was any
+     */
+    private boolean drain() {
+        final int capacity = slots.length();
+        long n = drained;
+        final long start = n;
+        while (true) {
+            final int slot = (int) (n % capacity);
+            final LogEvent event = slots.get(slot);
+            if (event == null) {
+                break;
+            }
+            slots.set(slot, null);
+            try {
+                sink.accept(event.format());
+            } catch (RuntimeException e) {
+                // a broken sink loses this line, but not the appender's thread
+            }
+            drained = ++n;
+        }
+        return n > start;
+    }
+}
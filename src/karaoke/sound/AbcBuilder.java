@@ -1,7 +1,6 @@
 package karaoke.sound;
 
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -14,59 +13,98 @@ import java.util.Map;
  *
  */
 public class AbcBuilder {
-    private List<Music> barNotes;
-    private List<Music> tupletNotes;
-    private List<Note> chordNotes;
-    private Map<Character,String> accidentals;
     
-    private String status;
+    /**
+     * States of the builder, which say where the next note goes. A line starts in BAR; beginChord() and
+     * beginTuplet() move to CHORD and TUPLET, and endChord() and endTuplet() move back to the state they left.
+     */
+    public static enum State {
+        /** before the first line: notes are dropped */
+        NONE,
+        /** notes go to the current bar */
+        BAR,
+        /** notes go to the current chord */
+        CHORD,
+        /** notes go to the current tuplet, their duration scaled by the tuplet duration */
+        TUPLET
+    }
+    
+    // scratch buffers, cleared and reused: Bar, Chord and Tuplet copy the notes they are made from
+    private final List<Music> barNotes;
+    private final List<Music> tupletNotes;
+    private final List<Note> chordNotes;
+    private final Map<Character,String> accidentals;
+    
+    private State state;
     private boolean isLastLine;    
-    private static final Map<String, List<String>> KEY_ACCIDENTALS;
+    // semitones each key raises each letter by, 1 for sharp and -1 for flat, indexed by letter - 'A'
+    private static final Map<String, byte[]> KEY_SEMITONES;
     
     private final Map<String, VoiceBuilder> musicForVoice;
     
     private double tupletDuration ;
     private List<String> lyrics;
+    private LyricLine lyricLine;
+    private final Map<List<String>, LyricLine> lyricLines;
     private int lyricsCounter;
+    // what nextSyllable() returns for a note with no syllable: there are no lyrics, or the lyrics have run out
+    private static final int NO_LYRICS = -2;
+    private static final int PAST_LYRICS = -3;
 
     private String currentSinger;
 
     private boolean inMusicParsing;
+    private ParseListener listener;
+    // the key of the last note, and its row of KEY_SEMITONES
+    private String key;
+    private byte[] keySemitones;
     static
     {
-        KEY_ACCIDENTALS = new HashMap<String, List<String>> ();
-        KEY_ACCIDENTALS.put("C", Arrays.asList("C","D","E","F","G","A","B"));
-        KEY_ACCIDENTALS.put("Am", Arrays.asList("C","D","E","F","G","A","B"));
-        KEY_ACCIDENTALS.put("G", Arrays.asList("C","D","E","F#","G","A","B"));
-        KEY_ACCIDENTALS.put("Em", Arrays.asList("C","D","E","F#","G","A","B"));
-        KEY_ACCIDENTALS.put("D", Arrays.asList("C#","D","E","F#","G","A","B"));
-        KEY_ACCIDENTALS.put("Bm", Arrays.asList("C#","D","E","F#","G","A","B"));
-        KEY_ACCIDENTALS.put("A", Arrays.asList("C#","D","E","F#","G#","A","B"));
-        KEY_ACCIDENTALS.put("F#m", Arrays.asList("C#","D","E","F#","G#","A","B"));
-        KEY_ACCIDENTALS.put("E", Arrays.asList("C#","D#","E","F#","G#","A","B"));
-        KEY_ACCIDENTALS.put("C#m", Arrays.asList("C#","D#","E","F#","G#","A","B"));
-        KEY_ACCIDENTALS.put("B", Arrays.asList("C#","D#","E","F#","G#","A#","B"));
-        KEY_ACCIDENTALS.put("G#m", Arrays.asList("C#","D#","E","F#","G#","A#","B"));
-        KEY_ACCIDENTALS.put("F#", Arrays.asList("C#","D#","E#","F#","G#","A#","B"));
-        KEY_ACCIDENTALS.put("D#m", Arrays.asList("C#","D#","E#","F#","G#","A#","B"));
-        KEY_ACCIDENTALS.put("C#", Arrays.asList("C#","D#","E#","F#","G#","A#","B#"));
-        KEY_ACCIDENTALS.put("A#m", Arrays.asList("C#","D#","E#","F#","G#","A#","B#"));
-
-        KEY_ACCIDENTALS.put("F", Arrays.asList("C","D","E","F","G","A","Bb"));
-        KEY_ACCIDENTALS.put("Dm", Arrays.asList("C","D","E","F","G","A","Bb"));
-        KEY_ACCIDENTALS.put("Bb", Arrays.asList("C","D","Eb","F","G","A","Bb"));
-        KEY_ACCIDENTALS.put("Gm", Arrays.asList("C","D","Eb","F","G","A","Bb"));
-        KEY_ACCIDENTALS.put("Eb", Arrays.asList("C","D","Eb","F","G","Ab","Bb"));
-        KEY_ACCIDENTALS.put("Cm", Arrays.asList("C","D","Eb","F","G","Ab","Bb"));
-        KEY_ACCIDENTALS.put("Ab", Arrays.asList("C","Db","Eb","F","G","Ab","Bb"));
-        KEY_ACCIDENTALS.put("Fm", Arrays.asList("C","Db","Eb","F","G","Ab","Bb"));
-        KEY_ACCIDENTALS.put("Db", Arrays.asList("C","Db","Eb","F","Gb","Ab","Bb"));
-        KEY_ACCIDENTALS.put("Bbm", Arrays.asList("C","Db","Eb","F","Gb","Ab","Bb"));
-        KEY_ACCIDENTALS.put("Gb", Arrays.asList("Cb","Db","Eb","F","Gb","Ab","Bb"));
-        KEY_ACCIDENTALS.put("Ebm", Arrays.asList("Cb","Db","Eb","F","Gb","Ab","Bb"));
-        KEY_ACCIDENTALS.put("Cb", Arrays.asList("Cb","Db","Eb","Fb","Gb","Ab","Bb"));
-        KEY_ACCIDENTALS.put("Abm", Arrays.asList("Cb","Db","Eb","Fb","Gb","Ab","Bb"));
+        KEY_SEMITONES = new HashMap<String, byte[]>();
+        addKey("C", "C","D","E","F","G","A","B");
+        addKey("Am", "C","D","E","F","G","A","B");
+        addKey("G", "C","D","E","F#","G","A","B");
+        addKey("Em", "C","D","E","F#","G","A","B");
+        addKey("D", "C#","D","E","F#","G","A","B");
+        addKey("Bm", "C#","D","E","F#","G","A","B");
+        addKey("A", "C#","D","E","F#","G#","A","B");
+        addKey("F#m", "C#","D","E","F#","G#","A","B");
+        addKey("E", "C#","D#","E","F#","G#","A","B");
+        addKey("C#m", "C#","D#","E","F#","G#","A","B");
+        addKey("B", "C#","D#","E","F#","G#","A#","B");
+        addKey("G#m", "C#","D#","E","F#","G#","A#","B");
+        addKey("F#", "C#","D#","E#","F#","G#","A#","B");
+        addKey("D#m", "C#","D#","E#","F#","G#","A#","B");
+        addKey("C#", "C#","D#","E#","F#","G#","A#","B#");
+        addKey("A#m", "C#","D#","E#","F#","G#","A#","B#");
+
+        addKey("F", "C","D","E","F","G","A","Bb");
+        addKey("Dm", "C","D","E","F","G","A","Bb");
+        addKey("Bb", "C","D","Eb","F","G","A","Bb");
+        addKey("Gm", "C","D","Eb","F","G","A","Bb");
+        addKey("Eb", "C","D","Eb","F","G","Ab","Bb");
+        addKey("Cm", "C","D","Eb","F","G","Ab","Bb");
+        addKey("Ab", "C","Db","Eb","F","G","Ab","Bb");
+        addKey("Fm", "C","Db","Eb","F","G","Ab","Bb");
+        addKey("Db", "C","Db","Eb","F","Gb","Ab","Bb");
+        addKey("Bbm", "C","Db","Eb","F","Gb","Ab","Bb");
+        addKey("Gb", "Cb","Db","Eb","F","Gb","Ab","Bb");
+        addKey("Ebm", "Cb","Db","Eb","F","Gb","Ab","Bb");
+        addKey("Cb", "Cb","Db","Eb","Fb","Gb","Ab","Bb");
+        addKey("Abm", "Cb","Db","Eb","Fb","Gb","Ab","Bb");
+    }
 
+    /**
+     * Add a row of KEY_SEMITONES.
+     * @param key name of the key
+     * @param scale the seven letters of the key, each with "#" if the key sharpens it or "b" if it flattens it
+     */
+    private static void addKey(String key, String... scale) {
+        final byte[] semitones = new byte[scale.length];
+        for (String note : scale) {
+            semitones[note.charAt(0) - 'A'] = (byte) (note.endsWith("#") ? 1 : note.endsWith("b") ? -1 : 0);
+        }
+        KEY_SEMITONES.put(key, semitones);
     }
     
     /*
@@ -85,7 +123,9 @@ public class AbcBuilder {
         this.accidentals = new HashMap<Character,String>();
         this.lyricsCounter = 0;
         this.lyrics = new ArrayList<String>();
-        this.status = "";
+        this.lyricLine = new LyricLine(this.lyrics);
+        this.lyricLines = new HashMap<>();
+        this.state = State.NONE;
         this.currentSinger = "";
         this.musicForVoice = new HashMap<>();
         this.isLastLine = false;
@@ -150,153 +190,180 @@ public class AbcBuilder {
         this.musicForVoice.put("OneVoice", new VoiceBuilder("OneVoice"));
     }
     
-    private String getLyrics(int count) {
-        String s = "";
-        for(int i =0; i < this.lyrics.size(); i++) {
-            if (count == i) {
-                s += "*" + this.lyrics.get(count) + "*";
-            }
-            else if(this.lyrics.get(i).equals("_")){
-                continue; //skip
-            }
-            else {
-                s += this.lyrics.get(i);
-            }
-        }
-        return s;
-    }
-    
     /** 
+     * The lyric line with the syllable at lyricsCounter highlighted, rendered once per syllable of the line and
+     * shared by every note that highlights it.
      * @return lyric at lyricsCounter if there are lyrics and increment counter.
-     *         if no lyrics is present, returns "-1"
+     *         if no lyrics is present, returns "No Lyrics"; past the end of the lyrics, returns "\n"
      */
     public String getLyricOnCount() {
-        System.out.println("Counter " + lyricsCounter);
-        try {
-            if(lyrics.isEmpty()) {
-                return "No Lyrics";
-            }
-            if (lyrics.get(lyricsCounter).equals(" ")) { //won't work if multiple spaces in the lyrics
-                lyricsCounter++;
-            }
-            if (lyrics.get(lyricsCounter).equals("")) {
-                lyricsCounter++;
-                return getLyrics(-1);
-            }
-            if (lyrics.get(lyricsCounter).equals("_")) {
-                int dummyCount = lyricsCounter - 1;
-                lyricsCounter++;
-                while (true) {
-                    if (lyrics.get(dummyCount).equals("_")) {dummyCount = dummyCount -1;}
-                    else {return getLyrics(dummyCount);}
-                }
-            }
-            
-            return getLyrics(lyricsCounter++);
-        }
-        catch(IndexOutOfBoundsException exp) {
-            return "\n";
+        final int syllable = nextSyllable();
+        return syllable >= -1 ? this.lyricLine.frame(syllable) : placeholder(syllable);
+    }
+
+    /**
+     * Make the next note of the current voice, singing the syllable at lyricsCounter as getLyricOnCount() does, and
+     * increment the counter.
+     * @param pitch pitch of the note
+     * @param duration duration of the note in beats
+     * @return note of the current singer that sings the lyric getLyricOnCount() would return, or that sings no
+     *         lyric where getLyricOnCount() would return "No Lyrics" or "\n"
+     */
+    public Note noteOnCount(Pitch pitch, double duration) {
+        final int syllable = nextSyllable();
+        if (syllable >= -1) {
+            return new Note(pitch, duration, this.lyricLine, syllable, this.getSinger());
         }
-        
+        return new Note(pitch, duration, this.getSinger());
     }
 
-    
     /**
-     * Add Music object to Bar
-     * @param music to add
+     * @return index of the syllable of lyricLine to highlight for the note at lyricsCounter, -1 for none, or
+     *         NO_LYRICS or PAST_LYRICS; increments the counter
      */
-    public void addToBar(Music music) {
-        barNotes.add(music);
-
+    private int nextSyllable() {
+        final LyricLine line = this.lyricLine;
+        if (line.size() == 0) {
+            return NO_LYRICS;
+        }
+        //won't work if multiple spaces in the lyrics
+        if (lyricsCounter < line.size() && line.syllable(lyricsCounter).equals(" ")) {
+            lyricsCounter++;
+        }
+        if (lyricsCounter >= line.size()) {
+            return PAST_LYRICS;
+        }
+        if (line.syllable(lyricsCounter).equals("")) {
+            lyricsCounter++;
+            return -1;
+        }
+        if (line.syllable(lyricsCounter).equals("_")) {
+            int held = lyricsCounter - 1;
+            lyricsCounter++;
+            while (held >= 0 && line.syllable(held).equals("_")) {
+                held--;
+            }
+            return held >= 0 ? held : PAST_LYRICS;
+        }
+        return lyricsCounter++;
     }
-    
+
     /**
-     * Add Note object to Chord
-     * @param note to add 
+     * @param syllable NO_LYRICS or PAST_LYRICS
+     * @return the lyric of a note with no syllable to sing: "No Lyrics" or "\n"
      */
-    public void addToChord(Note note) {
-        chordNotes.add(note);
+    private static String placeholder(int syllable) {
+        return syllable == NO_LYRICS ? "No Lyrics" : "\n";
     }
-    
+
     /**
-     * Add Music object to Tuplet
+     * Add Music object to Bar
      * @param music to add
      */
-    public void addToTuplet(Music music) {
-        tupletNotes.add(music);
+    public void addToBar(Music music) {
+        barNotes.add(music);
     }
-
-
+    
     /**
-     * Return current accumulation of notes in a Chord within a specific Bar
-     * @return list of notes in the chord
-     */
-    public List<Note> getChordNotes() {
-        return this.chordNotes;
+     * Add a note where the current state says: to the bar, the chord or the tuplet
+     * @param note to add; in a tuplet, its duration should already be scaled by getTupletDuration()
+     */
+    public void addNote(Note note) {
+        switch (state) {
+        case BAR:
+            barNotes.add(note);
+            break;
+        case CHORD:
+            chordNotes.add(note);
+            break;
+        case TUPLET:
+            tupletNotes.add(note);
+            break;
+        default:
+            break;
+        }
     }
-
+    
     /**
-     * Get list of Music objects inside a Tuplet
-     * @return list of music 
+     * Add Accidental found in the Bar
+     * @param c that accidental is applied on
+     * @param type of the accidental
      */
-    public List<Music> getTupletNotes() {
-        return tupletNotes;
+    public void addAccidental(char c,String type) {
+        this.accidentals.put(c, type);
+        
     }
 
-
-
     /**
-     * Adds Tuplet to a Bar
-     * @param tuplet to add to Bar
+     * Return the state, which says where the next note goes
+     * @return the state
      */
-    public void addTuplet(Tuplet tuplet) {
-        this.barNotes.add(tuplet);
-
+    public State getState() {
+        return this.state;
     }
-
+    
     /**
-     * Reset Tuplet after adding to Bar
+     * Start a line of music: notes go to the bar
      */
-    public void resetTuplet() {
-        this.tupletNotes = new ArrayList<Music>();
-        
+    public void beginLine() {
+        this.state = State.BAR;
     }
-
+    
     /**
-     * Reset Chord after adding to Bar
+     * Start a chord: notes go to it until endChord()
+     * @return state to restore in endChord()
      */
-
-    public void resetChord() {
-        this.chordNotes = new ArrayList<Note>();
-        
+    public State beginChord() {
+        final State previous = this.state;
+        this.state = State.CHORD;
+        return previous;
     }
-
+    
     /**
-     * Add Accidental found in the Bar
-     * @param c that accidental is applied on
-     * @param type of the accidental
-     */
-    public void addAccidental(char c,String type) {
-        this.accidentals.put(c, type);
-        
+     * Finish the current chord, go back to the state it began in, and add the chord to the bar or tuplet if
+     * that is the state
+     * @param previous state returned by beginChord()
+     */
+    public void endChord(State previous) {
+        assert this.state == State.CHORD;
+        final Chord chord = new Chord(chordNotes);
+        this.state = previous;
+        if (previous == State.BAR) {
+            barNotes.add(chord);
+            chordNotes.clear();
+        }
+        else if (previous == State.TUPLET) {
+            tupletNotes.add(chord);
+            chordNotes.clear();
+        }
     }
-
-
+    
     /**
-     * Return status of where to add Music object to
-     * @return string containing status of where to add Music object (Bar, Chord, or Tuplet)
+     * Start a tuplet: notes go to it until endTuplet()
+     * @param duration the duration of the tuplet, which its notes are scaled by
+     * @return state to restore in endTuplet()
      */
-    public String getStatus() {
-        return this.status;
+    public State beginTuplet(double duration) {
+        final State previous = this.state;
+        this.state = State.TUPLET;
+        this.tupletDuration = duration;
+        return previous;
     }
     
     /**
-     * Setting status of where to add music objects to 
-     * @param status string representing status of where to add music object
-     *        Can take values of "Bar", "Chord" or "Tuplet"
-     */
-    public void setStatus(String status) {  //assert statement here
-        this.status = status;
+     * Finish the current tuplet, go back to the state it began in, and add the tuplet to the bar if that is the
+     * state
+     * @param previous state returned by beginTuplet()
+     * @param tupletSize number of notes the tuplet spec gives
+     */
+    public void endTuplet(State previous, double tupletSize) {
+        assert this.state == State.TUPLET;
+        final Tuplet tuplet = new Tuplet(tupletNotes, tupletSize);
+        this.state = previous;
+        if (previous == State.BAR) {
+            barNotes.add(tuplet);
+            tupletNotes.clear();
+        }
     }
 
     /**
@@ -306,15 +373,17 @@ public class AbcBuilder {
     public void resetBar() {
         if (!barNotes.isEmpty()) {
             Bar bar = new Bar(this.barNotes);
-            this.getCurrentVoiceBuilder().addBar(bar); // add bar to currentVoiceBuilder
+            VoiceBuilder currentVoiceBuilder = this.getCurrentVoiceBuilder();
+            currentVoiceBuilder.addBar(bar); // add bar to currentVoiceBuilder
+            if (listener != null) {
+                listener.barParsed(currentVoiceBuilder.getSinger(), bar);
+            }
         }
 
-        
-        this.barNotes = new ArrayList<Music>();
-        this.chordNotes = new ArrayList<Note>();
-        this.tupletNotes = new ArrayList<Music>();
-        this.accidentals = new HashMap<Character,String>();
-        
+        this.barNotes.clear();
+        this.chordNotes.clear();
+        this.tupletNotes.clear();
+        this.accidentals.clear();
     }
 
     /**
@@ -324,21 +393,26 @@ public class AbcBuilder {
      * @return new pitch with applied accidental
      */
     public Pitch applyKeyAccidental(Character pitchChar, String keyAccidental) {
-        Pitch pitch = new Pitch(pitchChar);
-        List<String> accidentalList = this.KEY_ACCIDENTALS.get(keyAccidental);
-        for(String accidental: accidentalList) {
-            if(accidental.indexOf(pitchChar)!=-1) {
-                if(accidental.contains("#")) {
-                    pitch = pitch.transpose(1);
-                    
-                }
-                else if(accidental.contains("b")) {
-                    pitch = pitch.transpose(-1);
-                }
+        return Pitch.of(pitchChar, keySemitones(pitchChar, keyAccidental));
+    }
+
+    /**
+     * Semitones a key raises a note by, from a table made once for every key
+     * @param pitchChar the note, in {'A',...,'G'}
+     * @param keyAccidental the key accidental for the music
+     * @return 1 if the key sharpens pitchChar, -1 if it flattens it, 0 otherwise
+     * @throws IllegalArgumentException if keyAccidental is not a key
+     */
+    public int keySemitones(char pitchChar, String keyAccidental) {
+        if (!keyAccidental.equals(this.key)) {
+            final byte[] semitones = KEY_SEMITONES.get(keyAccidental);
+            if (semitones == null) {
+                throw new IllegalArgumentException("unknown key " + keyAccidental);
             }
+            this.key = keyAccidental;
+            this.keySemitones = semitones;
         }
-        return pitch;
-            
+        return this.keySemitones[pitchChar - 'A'];
     }
 
     /**
@@ -350,15 +424,6 @@ public class AbcBuilder {
     }
 
 
-    /**
-     * Set the duration of the Tuplet
-     * @param duration of the tuplet
-     */
-    public void setTupletDuration(double duration) {
-       this.tupletDuration = duration;
-        
-    }
-    
     /**
      * Get the tuplet duration
      * @return duration of the tuplet
@@ -368,12 +433,18 @@ public class AbcBuilder {
      }
 
     /**
-     * Set the lyrics 
+     * Set the lyrics, tokenized into a lyric line once; a line with the same syllables as an earlier one (a chorus)
+     * shares its rendered frames
      * @param lyrics to set
      */
     public void setLyrics(List<String> lyrics) {
         this.lyrics = new ArrayList<String>(lyrics);
-        
+        LyricLine line = this.lyricLines.get(this.lyrics);
+        if (line == null) {
+            line = new LyricLine(this.lyrics);
+            this.lyricLines.put(new ArrayList<String>(lyrics), line);
+        }
+        this.lyricLine = line;
     }
     
     /**
@@ -404,6 +475,14 @@ public class AbcBuilder {
         this.currentSinger = singer;
     }
 
+    /**
+     * Set the listener that is told about every finished bar
+     * @param listener to tell, or null for none
+     */
+    public void setParseListener(ParseListener listener) {
+        this.listener = listener;
+    }
+
     /**
      * Check to see if we are parsing music
      * @return true or false
@@ -0,0 +1,859 @@
+package karaoke.sound;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import edu.mit.eecs.parserlib.UnableToParseException;
+import karaoke.sound.MusicLanguage.MusicGrammar;
+
+/**
+ * Hand-written recursive-descent parser for the language of Abc.g.
+ *
+ * Reads the abc text in one pass, left to right, and calls the semantic actions of MusicLanguage directly instead of
+ * building a ParseTree. It follows the matching rules of parserlib exactly, so that it accepts the same strings
+ * and reports the same text for every piece:
+ *  - a choice takes its longest matching alternative, the first one on a tie
+ *  - repetitions are greedy and never give characters back
+ *  - inside the @skip whitespace rules of the header, whitespace (including newlines) may appear between any
+ *    two pieces
+ * The only thing remembered between pieces is where the children of the current abcLine start and end, in arrays
+ * that are reused from line to line, because the line-level actions need to look one child ahead and the lyric
+ * of a line is built before its notes.
+ *
+ * The text either comes whole, as a String, or is pulled from a Reader as the parser needs it. When reading, every
+ * line is built as soon as it has been matched and the text before it is dropped, so that only the current line
+ * is held in memory, however long the tune is.
+ *
+ * A parser is single-use, like the MusicLanguage it builds into.
+ */
+class AbcDirectParser implements MusicLanguage.AbcLine {
+
+    /*
+     * AF(reader, buffer, base, limit, language, pos, names, starts, ends, count) = parser over the text
+     *          buffer[0..limit) followed by whatever reader still holds, where buffer[0] is character number base of
+     *          the whole text; it has consumed the text up to offset pos and is building into language; the current
+     *          abcLine has count children, the i-th of which matched nonterminal names[i] at offsets
+     *          [starts[i]..ends[i]) of the text. All offsets count from the start of the whole text.
+     * RI: 0 <= limit <= buffer.length, base <= pos <= base + limit,
+     *     0 <= count <= names.length == starts.length == ends.length, base <= starts[i] <= ends[i] for all i < count,
+     *     reader == null if the text was given as a String
+     * Safety From Rep Exposure: the class and all fields are private to the package; arrays are never returned
+     * Thread Safety: not threadsafe, a parser must be confined to one thread
+     */
+
+    private static final int FAIL = -1;
+
+    private static final int READ_SIZE = 8192;
+
+    private final Reader reader;
+    private char[] buffer;
+    private int base;
+    private int limit;
+    private int linesBeforeBase;
+    private final MusicLanguage language;
+    private int pos;
+
+    private MusicGrammar[] names = new MusicGrammar[32];
+    private int[] starts = new int[32];
+    private int[] ends = new int[32];
+    private int count;
+
+    // pieces of the note most recently matched by note()
+    private int accidentalStart;
+    private int accidentalEnd;
+    private int basenoteAt;
+    private int octaveStart;
+    private int octaveEnd;
+    private int noteLengthStart;
+
+    /**
+     * Make a parser.
+     * @param text abc text to parse
+     * @param language MusicLanguage whose semantic actions build the tune
+     */
+    AbcDirectParser(String text, MusicLanguage language) {
+        this.reader = null;
+        this.buffer = text.toCharArray();
+        this.limit = buffer.length;
+        this.language = language;
+    }
+
+    /**
+     * Make a parser that reads its text as it goes.
+     * @param reader source of abc text; it is read to the end but not closed
+     * @param language MusicLanguage whose semantic actions build the tune
+     */
+    AbcDirectParser(Reader reader, MusicLanguage language) {
+        this.reader = reader;
+        this.buffer = new char[READ_SIZE];
+        this.limit = 0;
+        this.language = language;
+    }
+
+    private void checkRep() {
+        assert 0 <= limit && limit <= buffer.length;
+        assert base <= pos && pos <= base + limit;
+        assert 0 <= count && count <= names.length;
+    }
+
+    /**
+     * Parse the entire text, abcTune ::= abcHeader abcBody;
+     * @throws UnableToParseException if the text is not in the language of Abc.g
+     * @throws IOException if the text is read from a Reader that fails
+     */
+    void parseTune() throws UnableToParseException, IOException {
+        try {
+            pos = header(0);
+            language.endHeader();
+            body();
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        checkRep();
+    }
+
+    // ---------------------------------------------------------------- header
+
+    /*
+     * Every header rule is inside @skip whitespace, so skip() is called before every piece. The header rules emit
+     * their semantic action as soon as they have matched: if a later header piece fails, the whole parse fails.
+     */
+
+    private int header(int p) throws UnableToParseException {
+        p = skip(p);
+        p = fieldNumber(p);
+        // comment*
+        while (true) {
+            final int end = comment(p);
+            if (end == FAIL) {
+                break;
+            }
+            p = skip(end);
+        }
+        p = fieldTitle(p);
+        // otherFields*
+        while (true) {
+            final int end = otherField(p);
+            if (end == FAIL || end == p) {
+                break;
+            }
+            p = skip(end);
+        }
+        return fieldKey(p);
+    }
+
+    private int fieldNumber(int p) throws UnableToParseException {
+        p = expect(skip(p), "X:");
+        p = skip(p);
+        if (!isDigit(p)) {
+            throw error(p, "expected digit");
+        }
+        language.indexNumber(substring(p, p + 1));
+        while (isDigit(p)) {
+            p = skip(p + 1);
+        }
+        return skip(endOfLine(p));
+    }
+
+    private int fieldTitle(int p) throws UnableToParseException {
+        p = skip(expect(skip(p), "T:"));
+        final int end = text(p);
+        language.tune().setTitle(substring(p, end));
+        return skip(endOfLine(skip(end)));
+    }
+
+    /**
+     * otherFields ::= fieldComposer | fieldDefaultLength | fieldMeter | fieldTempo | fieldVoice | comment;
+     * The alternatives start with different characters, so at most one of them can match.
+     * @return end of the field, or FAIL if no field starts at p
+     */
+    private int otherField(int p) throws UnableToParseException {
+        p = skip(p);
+        if (startsWith("C:", p)) {
+            final int start = skip(p + 2);
+            final int end = text(start);
+            language.tune().setComposer(substring(start, end));
+            return skip(endOfLine(skip(end)));
+        }
+        if (startsWith("L:", p)) {
+            final int start = skip(p + 2);
+            final int end = noteLengthStrict(start);
+            if (end == FAIL) {
+                return FAIL;
+            }
+            language.tune().setNoteLength(substring(start, end));
+            return skip(endOfLine(skip(end)));
+        }
+        if (startsWith("M:", p)) {
+            return fieldMeter(p);
+        }
+        if (startsWith("Q:", p)) {
+            return fieldTempo(p);
+        }
+        if (startsWith("V:", p)) {
+            final int end = fieldVoice(p);
+            language.headerVoice(substring(p, end));
+            return end;
+        }
+        return comment(p);
+    }
+
+    private int fieldMeter(int p) {
+        int q = skip(p + 2);
+        // meter ::= "C" | "C|" | meterFraction;
+        if (startsWith("C|", q)) {
+            q += 2;
+        } else if (startsWith("C", q)) {
+            q += 1;
+        } else {
+            final int end = meterFraction(q);
+            if (end == FAIL) {
+                return FAIL;
+            }
+            language.tune().setMeter(substring(q, end));
+            q = end;
+        }
+        return skip(endOfLine(skip(q)));
+    }
+
+    private int fieldTempo(int p) {
+        int q = meterFraction(skip(p + 2));
+        if (q == FAIL || !startsWith("=", q)) {
+            return FAIL;
+        }
+        q = skip(q + 1);
+        if (!isDigit(q)) {
+            return FAIL;
+        }
+        final StringBuilder tempo = new StringBuilder();
+        while (isDigit(q)) {
+            tempo.append(charAt(q));
+            q = skip(q + 1);
+        }
+        language.tune().setTempo(tempo.toString());
+        return skip(endOfLine(q));
+    }
+
+    /**
+     * meterFraction ::= digit+ "/" digit+; with whitespace allowed between the pieces
+     * @return end of the fraction including trailing whitespace, or FAIL
+     */
+    private int meterFraction(int p) {
+        p = skip(p);
+        if (!isDigit(p)) {
+            return FAIL;
+        }
+        while (isDigit(p)) {
+            p = skip(p + 1);
+        }
+        if (!startsWith("/", p)) {
+            return FAIL;
+        }
+        p = skip(p + 1);
+        if (!isDigit(p)) {
+            return FAIL;
+        }
+        while (isDigit(p)) {
+            p = skip(p + 1);
+        }
+        return p;
+    }
+
+    /**
+     * fieldVoice ::= "V:" text endOfLine; with whitespace allowed between the pieces
+     * @return end of the field including trailing whitespace, or FAIL
+     */
+    private int fieldVoice(int p) {
+        p = skip(p);
+        if (!startsWith("V:", p)) {
+            return FAIL;
+        }
+        p = text(skip(p + 2));
+        return skip(endOfLine(skip(p)));
+    }
+
+    private int fieldKey(int p) throws UnableToParseException {
+        final int keyStart = skip(expect(skip(p), "K:"));
+        // key ::= keynote modeMinor?;  keynote ::= basenote keyAccidental?;
+        if (!has(keyStart) || !isBasenote(charAt(keyStart))) {
+            throw error(keyStart, "expected key");
+        }
+        int q = skip(keyStart + 1);
+        if (startsWith("#", q) || startsWith("b", q)) {
+            q = skip(q + 1);
+        }
+        if (startsWith("m", q)) {
+            q = skip(q + 1);
+        }
+        language.key(substring(keyStart, q));
+        return skip(endOfLine(q));
+    }
+
+    /**
+     * noteLengthStrict ::= digit+ "/" digit+;
+     * @return end of the length, or FAIL
+     */
+    private int noteLengthStrict(int p) {
+        if (!isDigit(p)) {
+            return FAIL;
+        }
+        p = digits(p);
+        if (!startsWith("/", p) || !isDigit(p + 1)) {
+            return FAIL;
+        }
+        return digits(p + 1);
+    }
+
+    // ---------------------------------------------------------------- body
+
+    /**
+     * abcBody ::= abcLine+;
+     * Given a String, the lines are all matched before any of them is built, so that text that does not parse is
+     * reported as such even when an earlier line would fail to build.
+     * Given a Reader, every line is built as soon as it is matched instead, and the text may end in whitespace,
+     * as it could if it were read into a String and trimmed first.
+     */
+    private void body() throws UnableToParseException {
+        if (reader == null) {
+            int end = pos;
+            do {
+                final int next = abcLine(end);
+                if (next == FAIL) {
+                    throw error(end, "expected abcLine");
+                }
+                end = next;
+            } while (has(end));
+        }
+
+        language.beginBody();
+        boolean lastLine = false;
+        while (!lastLine) {
+            final int next = abcLine(pos);
+            if (next == FAIL) {
+                throw error(pos, "expected abcLine");
+            }
+            lastLine = reader == null ? !has(next) : !has(skip(next));
+            language.lastLine(lastLine);
+            language.abcLine(this);
+            pos = next;
+            if (reader != null) {
+                discardBefore(pos);
+            }
+        }
+        language.endBody();
+    }
+
+    /**
+     * Match one line and record its children.
+     * abcLine ::= (noteElement | restElement | tupletElement | barline | nthRepeat | spaceOrTab)+
+     *             endOfLine (lyric endOfLine)?  | middleOfBodyField | comment;
+     * @return end of the line, or FAIL
+     */
+    private int abcLine(int p) {
+        final int musicEnd = musicLine(p);
+        final int voiceEnd = fieldVoice(p);
+        final int commentEnd = comment(p);
+        if (musicEnd != FAIL && musicEnd >= voiceEnd && musicEnd >= commentEnd) {
+            return musicEnd; // children were recorded by musicLine()
+        }
+        count = 0;
+        if (voiceEnd != FAIL && voiceEnd >= commentEnd) {
+            addChild(MusicGrammar.MIDDLEOFBODYFIELD, p, voiceEnd);
+            return voiceEnd;
+        }
+        if (commentEnd != FAIL) {
+            addChild(MusicGrammar.COMMENT, p, commentEnd);
+            return commentEnd;
+        }
+        return FAIL;
+    }
+
+    private int musicLine(int p) {
+        count = 0;
+        while (true) {
+            final int end = element(p, false);
+            if (end == FAIL) {
+                break;
+            }
+            addChild(elementName, p, end);
+            p = end;
+        }
+        if (count == 0) {
+            return FAIL;
+        }
+        int end = endOfLine(p);
+        addChild(MusicGrammar.ENDOFLINE, p, end);
+        p = end;
+        if (startsWith("w:", p)) {
+            end = lyric(p, false);
+            addChild(MusicGrammar.LYRIC, p, end);
+            p = end;
+            end = endOfLine(p);
+            addChild(MusicGrammar.ENDOFLINE, p, end);
+            p = end;
+        }
+        return p;
+    }
+
+    private void addChild(MusicGrammar name, int start, int end) {
+        if (count == names.length) {
+            final int capacity = 2 * count;
+            names = Arrays.copyOf(names, capacity);
+            starts = Arrays.copyOf(starts, capacity);
+            ends = Arrays.copyOf(ends, capacity);
+        }
+        names[count] = name;
+        starts[count] = start;
+        ends[count] = end;
+        count++;
+    }
+
+    // nonterminal matched by the last successful call to element()
+    private MusicGrammar elementName;
+
+    /**
+     * Match (and if build, run the semantic actions for) one element of a music line.
+     * @return end of the element, or FAIL
+     */
+    private int element(int p, boolean build) {
+        if (!has(p)) {
+            return FAIL;
+        }
+        final char c = charAt(p);
+        switch (c) {
+        case ' ':
+        case '\t':
+            elementName = MusicGrammar.SPACEORTAB;
+            return p + 1;
+        case '|':
+            elementName = MusicGrammar.BARLINE;
+            if (startsWith("||", p) || startsWith("|]", p) || startsWith("|:", p)) {
+                return p + 2;
+            }
+            return p + 1;
+        case ':':
+            elementName = MusicGrammar.BARLINE;
+            return startsWith(":|", p) ? p + 2 : FAIL;
+        case '[':
+            if (startsWith("[|", p)) {
+                elementName = MusicGrammar.BARLINE;
+                return p + 2;
+            }
+            if (startsWith("[1", p) || startsWith("[2", p)) {
+                elementName = MusicGrammar.NTHREPEAT;
+                return p + 2;
+            }
+            elementName = MusicGrammar.NOTEELEMENT;
+            return chord(p, build);
+        case '(':
+            elementName = MusicGrammar.TUPLETELEMENT;
+            return tuplet(p, build);
+        case 'z':
+            elementName = MusicGrammar.RESTELEMENT;
+            final int end = noteLength(p + 1);
+            if (build) {
+                language.rest(substring(p + 1, end));
+            }
+            return end;
+        default:
+            elementName = MusicGrammar.NOTEELEMENT;
+            return noteElement(p, build);
+        }
+    }
+
+    /**
+     * noteElement ::= note | chord;
+     */
+    private int noteElement(int p, boolean build) {
+        if (startsWith("[", p)) {
+            return chord(p, build);
+        }
+        final int end = note(p);
+        if (end != FAIL && build) {
+            buildNote(end);
+        }
+        return end;
+    }
+
+    /**
+     * chord ::= "[" note+ "]";
+     */
+    private int chord(int p, boolean build) {
+        final AbcBuilder.State prevStatus = build ? language.beginChord() : null;
+        int q = p + 1;
+        int notes = 0;
+        while (true) {
+            final int end = note(q);
+            if (end == FAIL) {
+                break;
+            }
+            if (build) {
+                buildNote(end);
+            }
+            notes++;
+            q = end;
+        }
+        if (notes == 0 || !startsWith("]", q)) {
+            return FAIL;
+        }
+        if (build) {
+            language.endChord(prevStatus);
+        }
+        return q + 1;
+    }
+
+    /**
+     * tupletElement ::= tupletSpec noteElement+;  tupletSpec ::= "(" digit;
+     */
+    private int tuplet(int p, boolean build) {
+        if (!isDigit(p + 1)) {
+            return FAIL;
+        }
+        final String durationString = substring(p + 1, p + 2);
+        final AbcBuilder.State prevStatus = build ? language.beginTuplet(durationString) : null;
+        int q = p + 2;
+        int elements = 0;
+        while (true) {
+            final int end = noteElement(q, build);
+            if (end == FAIL) {
+                break;
+            }
+            elements++;
+            q = end;
+        }
+        if (elements == 0) {
+            return FAIL;
+        }
+        if (build) {
+            language.endTuplet(prevStatus, durationString);
+        }
+        return q;
+    }
+
+    /**
+     * note ::= pitch noteLength?;  pitch ::= accidental? basenote octave?;
+     * Records the pieces of the note for buildNote().
+     * @return end of the note, or FAIL
+     */
+    private int note(int p) {
+        // accidental ::= "^" | "^^" | "_" | "__" | "=";
+        accidentalStart = p;
+        if (startsWith("^^", p) || startsWith("__", p)) {
+            p += 2;
+        } else if (startsWith("^", p) || startsWith("_", p) || startsWith("=", p)) {
+            p += 1;
+        }
+        accidentalEnd = p;
+        if (!has(p) || !isBasenote(charAt(p))) {
+            return FAIL;
+        }
+        basenoteAt = p++;
+        // octave ::= "'"+ | ","+;
+        octaveStart = p;
+        if (has(p) && (charAt(p) == '\'' || charAt(p) == ',')) {
+            final char mark = charAt(p);
+            while (has(p) && charAt(p) == mark) {
+                p++;
+            }
+        }
+        octaveEnd = p;
+        noteLengthStart = p;
+        return noteLength(p);
+    }
+
+    /**
+     * Run the semantic action for the note most recently matched by note().
+     * @param end end of that note
+     */
+    private void buildNote(int end) {
+        final String accidental = accidentalEnd > accidentalStart ? substring(accidentalStart, accidentalEnd) : null;
+        final String octave = octaveEnd > octaveStart ? substring(octaveStart, octaveEnd) : null;
+        language.note(accidental, charAt(basenoteAt), octave, substring(noteLengthStart, end));
+    }
+
+    /**
+     * noteLength ::= (digit+)? ("/" (digit+)?)?;   always matches, possibly the empty string
+     */
+    private int noteLength(int p) {
+        p = digits(p);
+        if (startsWith("/", p)) {
+            p = digits(p + 1);
+        }
+        return p;
+    }
+
+    /**
+     * lyric ::= "w:" lyricalElement*;
+     * lyricalElement ::= " "+ | "-" | "_" | "*" | "~" | backslashHyphen | "|" | lyricText;
+     * lyricText ::= [^-_~\-|\n\t\r ]*;
+     * If build, passes the text of every lyricalElement to the lyric semantic action.
+     * @return end of the lyric
+     */
+    private int lyric(int p, boolean build) {
+        final List<String> elements = build ? new ArrayList<>() : null;
+        p += 2;
+        while (has(p)) {
+            final int end = lyricalElement(p);
+            if (end == p) {
+                break;
+            }
+            if (build) {
+                elements.add(substring(p, end));
+            }
+            p = end;
+        }
+        if (build) {
+            language.lyric(elements);
+        }
+        return p;
+    }
+
+    private int lyricalElement(int p) {
+        final char c = charAt(p);
+        switch (c) {
+        case ' ':
+            while (has(p) && charAt(p) == ' ') {
+                p++;
+            }
+            return p;
+        case '-':
+        case '_':
+        case '~':
+        case '|':
+            return p + 1;
+        case '\\':
+            if (startsWith("\\-", p)) {
+                return p + 2;
+            }
+            return lyricText(p);
+        case '*':
+            // "*" wins a tie with a one-character lyricText
+            return Math.max(p + 1, lyricText(p));
+        default:
+            return lyricText(p);
+        }
+    }
+
+    private int lyricText(int p) {
+        while (has(p)) {
+            final char c = charAt(p);
+            if (c == '-' || c == '_' || c == '~' || c == '|' || c == '\n' || c == '\t' || c == '\r' || c == ' ') {
+                break;
+            }
+            p++;
+        }
+        return p;
+    }
+
+    // ---------------------------------------------------------------- shared terminals
+
+    /**
+     * comment ::= spaceOrTab* "%" commentText newline;
+     * @return end of the comment, or FAIL
+     */
+    private int comment(int p) {
+        while (has(p) && (charAt(p) == ' ' || charAt(p) == '\t')) {
+            p++;
+        }
+        if (!startsWith("%", p)) {
+            return FAIL;
+        }
+        p++;
+        while (has(p) && charAt(p) != '\n') {
+            p++;
+        }
+        return newline(p);
+    }
+
+    /**
+     * endOfLine ::= newline | comment;   always matches, possibly the empty string
+     */
+    private int endOfLine(int p) {
+        return Math.max(newline(p), comment(p));
+    }
+
+    /**
+     * newline ::= "\n" | "\r\n"*;   always matches, possibly the empty string
+     */
+    private int newline(int p) {
+        int crlf = p;
+        while (startsWith("\r\n", crlf)) {
+            crlf += 2;
+        }
+        final int lf = startsWith("\n", p) ? p + 1 : p;
+        return Math.max(lf, crlf);
+    }
+
+    /**
+     * text ::= [^\n]*;
+     */
+    private int text(int p) {
+        while (has(p) && charAt(p) != '\n') {
+            p++;
+        }
+        return p;
+    }
+
+    /**
+     * whitespace ::= [ \t\r\n]+;  skipped by the header rules
+     */
+    private int skip(int p) {
+        while (has(p)) {
+            final char c = charAt(p);
+            if (c != ' ' && c != '\t' && c != '\r' && c != '\n') {
+                break;
+            }
+            p++;
+        }
+        return p;
+    }
+
+    private int digits(int p) {
+        while (isDigit(p)) {
+            p++;
+        }
+        return p;
+    }
+
+    private boolean isDigit(int p) {
+        return has(p) && charAt(p) >= '0' && charAt(p) <= '9';
+    }
+
+    private static boolean isBasenote(char c) {
+        return (c >= 'A' && c <= 'G') || (c >= 'a' && c <= 'g');
+    }
+
+    private int expect(int p, String literal) throws UnableToParseException {
+        if (!startsWith(literal, p)) {
+            throw error(p, "expected " + literal);
+        }
+        return p + literal.length();
+    }
+
+    private UnableToParseException error(int at, String message) {
+        int line = linesBeforeBase + 1;
+        for (int i = base; i < at && has(i); i++) {
+            if (charAt(i) == '\n') {
+                line++;
+            }
+        }
+        return new UnableToParseException("string does not match grammar\n"
+                + "Error at offset " + at + " (line " + line + "): " + message);
+    }
+
+    // ---------------------------------------------------------------- buffer
+
+    /**
+     * @param p offset in the text
+     * @return true if the text has a character at offset p, reading more of it if necessary
+     */
+    private boolean has(int p) {
+        return p < base + limit || fill(p);
+    }
+
+    /**
+     * Read from the reader until the buffer holds offset p or the reader is exhausted.
+     * @return true if the buffer now holds offset p
+     */
+    private boolean fill(int p) {
+        if (reader == null) {
+            return false;
+        }
+        try {
+            while (p >= base + limit) {
+                if (limit == buffer.length) {
+                    buffer = Arrays.copyOf(buffer, 2 * buffer.length);
+                }
+                final int read = reader.read(buffer, limit, buffer.length - limit);
+                if (read < 0) {
+                    return false;
+                }
+                limit += read;
+            }
+            return true;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Drop the text before offset p from the buffer. Only called between lines, when nothing refers to it.
+     */
+    private void discardBefore(int p) {
+        final int dropped = p - base;
+        for (int i = 0; i < dropped; i++) {
+            if (buffer[i] == '\n') {
+                linesBeforeBase++;
+            }
+        }
+        System.arraycopy(buffer, dropped, buffer, 0, limit - dropped);
+        limit -= dropped;
+        base = p;
+    }
+
+    /**
+     * @param p offset in the text, such that has(p)
+     */
+    private char charAt(int p) {
+        return buffer[p - base];
+    }
+
+    /**
+     * @return true if the text at offset p starts with literal
+     */
+    private boolean startsWith(String literal, int p) {
+        for (int i = 0; i < literal.length(); i++) {
+            if (!has(p + i) || buffer[p + i - base] != literal.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the text from offset start to offset end, which are both in the buffer
+     */
+    private String substring(int start, int end) {
+        return new String(buffer, start - base, end - start);
+    }
+
+    // ---------------------------------------------------------------- MusicLanguage.AbcLine
+
+    @Override
+    public int size() {
+        return count;
+    }
+
+    @Override
+    public MusicGrammar name(int i) {
+        return names[i];
+    }
+
+    @Override
+    public boolean textEquals(int i, String literal) {
+        return ends[i] - starts[i] == literal.length() && startsWith(literal, starts[i]);
+    }
+
+    @Override
+    public void build(int i) {
+        switch (names[i]) {
+        case NOTEELEMENT:
+        case RESTELEMENT:
+        case TUPLETELEMENT:
+            element(starts[i], true);
+            return;
+        case LYRIC:
+            lyric(starts[i], true);
+            return;
+        case MIDDLEOFBODYFIELD:
+            language.bodyVoice(substring(starts[i], ends[i]));
+            return;
+        default:
+            return;
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package karaoke.sound;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An immutable list with an amortized O(1) append() that returns a new list and leaves this one unchanged.
+ *
+ * Lists made from one another by append() share one backing array. The first list to append past the end of the
+ * shared part claims the next slot and writes to it in place; every other list that appends from the same length
+ * copies the shared part into a new array first. So building a list by appending to the latest version, as
+ * MusicLanguage does, never copies more than the usual doubling of a growing array, and an older version can still
+ * be appended to, at the cost of a copy.
+ *
+ * @param <E> type of the elements
+ */
+final class AppendOnlyList<E> extends AbstractList<E> implements RandomAccess {
+    /*
+     * AF(items, claimed, size) = the list items[0..size)
+     * RI: 0 <= size <= claimed.get() <= items.length
+     * Safety From Rep Exposure: items and claimed are never returned; the mutators of AbstractList all throw
+     *          UnsupportedOperationException
+     * Thread Safety: a slot of items is written at most once, by the thread that moved claimed past it with
+     *          compareAndSet, and before that thread constructs the list that includes the slot. items is a final
+     *          field, so every thread that sees that list also sees the slot written. Slots at or after size are
+     *          never read by this list, so writes to them by other appenders cannot change it.
+     */
+
+    private static final int INITIAL_CAPACITY = 8;
+    private static final AppendOnlyList<Object> EMPTY = new AppendOnlyList<>(new Object[0], new AtomicInteger(0), 0);
+
+    private final Object[] items;
+    private final AtomicInteger claimed;
+    private final int size;
+
+    private AppendOnlyList(Object[] items, AtomicInteger claimed, int size) {
+        this.items = items;
+        this.claimed = claimed;
+        this.size = size;
+        checkRep();
+    }
+
+    private void checkRep() {
+        assert 0 <= size && size <= claimed.get() && claimed.get() <= items.length;
+    }
+
+    /**
+     * @param <E> type of the elements
+     * @return the empty list
+     */
+    @SuppressWarnings("unchecked")
+    static <E> AppendOnlyList<E> empty() {
+        return (AppendOnlyList<E>) EMPTY;
+    }
+
+    /**
+     * @param <E> type of the elements
+     * @param list elements to copy
+     * @return list with the elements of list, in order
+     */
+    @SuppressWarnings("unchecked")
+    static <E> AppendOnlyList<E> copyOf(List<? extends E> list) {
+        if (list instanceof AppendOnlyList) {
+            return (AppendOnlyList<E>) list;
+        }
+        final Object[] items = list.toArray();
+        return new AppendOnlyList<>(items, new AtomicInteger(items.length), items.length);
+    }
+
+    /**
+     * @param element element to add
+     * @return list with the elements of this list followed by element
+     */
+    AppendOnlyList<E> append(E element) {
+        if (size < items.length && claimed.compareAndSet(size, size + 1)) {
+            items[size] = element;
+            return new AppendOnlyList<>(items, claimed, size + 1);
+        }
+        final Object[] copy = Arrays.copyOf(items, Math.max(INITIAL_CAPACITY, 2 * size));
+        copy[size] = element;
+        return new AppendOnlyList<>(copy, new AtomicInteger(size + 1), size + 1);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public E get(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("index " + index + " of " + size);
+        }
+        return (E) items[index];
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+}
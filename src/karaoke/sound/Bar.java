@@ -1,7 +1,6 @@
 package karaoke.sound;
 
-import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.BlockingQueue;
@@ -19,18 +18,19 @@ public class Bar implements Music {
      * 
      * Rep Invariant:
      * - totalDuration >= 0
+     * - totalDuration is the sum of the durations of listOfSubMusic, computed once when the bar is made
      * 
-     * Safety From Rep Exposure: All fields are private and final. listOfSubMusic is the only mutable field which we
-     *                           have rendered immutable by wrapping into unmodifiable wrapper. So Bar is immutable.
+     * Safety From Rep Exposure: All fields are private and final. listOfSubMusic is the only mutable field; it is a
+     *                           copy of the list given to the constructor and is never returned. So Bar is immutable.
      * 
      * ThreadSafety Argument: Bar is an immutable data-type with no beneficient mutation. totalDuration is a primitive
-     *                        datatype and thus threadsafe. listOfMusic is both unmodifiable and rendered threadsafe by
-     *                        wrapping it around Collections.synchronizedList. Also parameter of listOfMusic, Music, itself
-     *                        is thread-safe.
+     *                        datatype and thus threadsafe. listOfSubMusic is filled in before the constructor returns
+     *                        and never written again, and it is a final field, so every thread that sees the Bar sees
+     *                        its contents without taking a lock. Also Music, the element type, is itself thread-safe.
      */
     
     //fields:
-    private final List<Music> listOfSubMusic;
+    private final Music[] listOfSubMusic;
     private final double totalDuration;
     
     /**
@@ -40,9 +40,13 @@ public class Bar implements Music {
     public Bar(List<Music> subMusic) {
 
         //Might not need synchronizedList
-        this.listOfSubMusic = Collections.synchronizedList(Collections.unmodifiableList(new ArrayList<Music>(subMusic)));
+        this.listOfSubMusic = subMusic.toArray(new Music[subMusic.size()]);
+        double duration = 0;
+        for (Music music : this.listOfSubMusic) {
+            duration += music.getDuration();
+        }
+        this.totalDuration = duration;
         checkRep();
-        this.totalDuration = this.getDuration();
     }
     
     private void checkRep() {
@@ -52,12 +56,7 @@ public class Bar implements Music {
     
     @Override
     public double getDuration() {
-        double duration = 0;
-        for (Music music : this.listOfSubMusic) {
-            duration += music.getDuration();
-        }
-        checkRep();
-        return duration;
+        return this.totalDuration;
     }
     
     @Override
@@ -69,11 +68,20 @@ public class Bar implements Music {
         }
     }
     
+    @Override
+    public void compile(Timeline.Builder timeline, double atBeat) {
+        double offsetDuration = 0;
+        for (Music music : listOfSubMusic) {
+            music.compile(timeline, atBeat + offsetDuration);
+            offsetDuration += music.getDuration();
+        }
+    }
+    
     @Override
     public int hashCode() {
         long durationBits = Double.doubleToLongBits(totalDuration);
         return (int) (durationBits ^ (durationBits >>> Integer.SIZE))
-                + listOfSubMusic.hashCode();
+                + Arrays.hashCode(listOfSubMusic);
     }
     
     @Override
@@ -84,14 +92,14 @@ public class Bar implements Music {
         
         final Bar other = (Bar) obj;
         return totalDuration == other.totalDuration
-                && listOfSubMusic.equals(other.listOfSubMusic);
+                && Arrays.equals(listOfSubMusic, other.listOfSubMusic);
     }
     
     @Override
     public String toString() {
         String bar = "";
-        for(int i = 0; i<this.listOfSubMusic.size();i++) {
-            bar+= listOfSubMusic.get(i) + " ";
+        for(int i = 0; i<this.listOfSubMusic.length;i++) {
+            bar+= listOfSubMusic[i] + " ";
         }
         return bar + "|";
         
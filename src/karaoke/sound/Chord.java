@@ -1,6 +1,6 @@
 package karaoke.sound;
 
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
@@ -13,18 +13,20 @@ import java.util.concurrent.BlockingQueue;
  *
  */
 public class Chord implements Music {
-    private final List<Note> notes;
+    private final Note[] notes;
+    private final double duration;
     
     /*
-     * AF(notes) = Chord whose notes are the notes in {@param notes}, the duration is set using the duration of the first note 
+     * AF(notes, duration) = Chord whose notes are the notes in {@param notes}, the duration is set using the duration of the first note 
      * 
-     * RI: notes.size >= 2
+     * RI: notes.length >= 2, duration == duration of notes[0]
      * 
-     * Safety from Rep: Only field notes is private and final. Notes is also made immutable by wrapping it around
-     *                  Collections.unmodifiable wrapper. So the class is immutable. There is no beneficient mutation too.
+     * Safety from Rep: notes is private and final, a copy of the list given to the constructor, and only returned
+     *                  behind an unmodifiable view. So the class is immutable. There is no beneficient mutation too.
      *                  
-     * Thread-Safety Argument: Only field notes is wrapped around thread-safe wrapper Collections.synchronizedList.
-     *                         Also, Note, the argument type of notes is thread-safe.
+     * Thread-Safety Argument: notes is filled in before the constructor returns and never written again, and it is a
+     *                         final field, so it is safely published to every thread without a lock.
+     *                         Also, Note, the element type of notes, is thread-safe.
      * 
      */
     
@@ -33,18 +35,19 @@ public class Chord implements Music {
      * @param notes list of notes
      */
     public Chord (List<Note> notes) {
-        this.notes  = Collections.synchronizedList(Collections.unmodifiableList(new ArrayList<Note>(notes)));
+        this.notes  = notes.toArray(new Note[notes.size()]);
+        this.duration = notes.isEmpty() ? 0 : notes.get(0).getDuration();
         checkRep();
     }
     
     private void checkRep() {
         assert notes != null;
-        assert notes.size() >= 2;
+        assert notes.length >= 2;
     }
    
     @Override
     public double getDuration() {
-        return notes.get(0).getDuration();
+        return this.duration;
     }
     
     @Override
@@ -55,11 +58,18 @@ public class Chord implements Music {
        
     }
     
+    @Override
+    public void compile(Timeline.Builder timeline, double atBeat) {
+        for (Note note : notes) {
+            note.compile(timeline, atBeat);
+        }
+    }
+    
     @Override
     public int hashCode() {
         long durationBits = Double.doubleToLongBits(this.getDuration());
         return (int) (durationBits ^ (durationBits >>> Integer.SIZE))
-                + notes.hashCode();
+                + Arrays.hashCode(notes);
     }
     
     @Override
@@ -70,7 +80,7 @@ public class Chord implements Music {
         
         final Chord other = (Chord) obj;
         return this.getDuration() == other.getDuration()
-                && notes.equals(other.notes);
+                && Arrays.equals(notes, other.notes);
     }
     
     @Override
@@ -84,8 +94,11 @@ public class Chord implements Music {
         return ans;     
     }
 
+    /**
+     * @return the notes of this chord, as an unmodifiable list
+     */
     public List<Note> getNotes() {
-        return this.notes;
+        return Collections.unmodifiableList(Arrays.asList(this.notes));
     }
 
 }
@@ -0,0 +1,265 @@
+package karaoke.sound;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Plays a sequence of events on a software clock, without a MIDI device: notes make no sound, and each event
+ * callback is run on a ScheduledExecutorService when the clock reaches its tick. Meant for servers that only need
+ * to pace lyrics.
+ *
+ * Times are rounded down to ticks as MidiSequencePlayer rounds them. Every callback is scheduled against the time
+ * play() was called, measured with System.nanoTime(), rather than against the callback before it, so a callback
+ * that runs late does not make the ones after it late: the clock does not drift however long the tune. As with
+ * MidiSequencePlayer, events may still be added after play() has started, as long as they are at ticks the clock
+ * has not reached yet; while holdAt() has been called and release() has not, the clock stops at the last beat
+ * passed to holdAt() until it is called with a later one.
+ *
+ * A player made without a scheduler runs its callbacks on a timing thread of its own, not one shared with other
+ * players, so a callback that blocks delays only the player it belongs to and never the rooms playing beside it.
+ * Lyrics never block it: a lyric line that finds the queue of its voice full is dropped and counted in
+ * droppedLyrics(). The thread ends once the player has had nothing
+ * scheduled for IDLE_SECONDS, and is made again if more events come, so a finished player holds no thread.
+ */
+public class ClockSequencePlayer implements SequencePlayer {
+    /*
+     * AF(beatsPerMinute, ticksPerBeat, scheduler, events, startNanos, wakeup, wakeupTick) = player at
+     *          beatsPerMinute beats of ticksPerBeat ticks each that, once started at System.nanoTime() startNanos,
+     *          runs events.get(t) on scheduler when the clock reaches tick t; wakeup is the scheduled run of the
+     *          events at wakeupTick, the earliest tick in events, or null if none is scheduled; lyricBatches holds
+     *          the lyric events scheduled, one per tick and voice; if holdTick >= 0 the clock does not go past
+     *          holdTick, and startNanos is moved later by however long it has waited there
+     * RI: beatsPerMinute > 0, ticksPerBeat > 0; every key of events is >= 0 and every value is not empty;
+     *     wakeup is null if startNanos < 0 (not started yet) or events is empty, and if holdTick >= 0 then
+     *     wakeupTick <= holdTick; holdTick >= -1
+     * Safety from Rep Exposure: all fields are private; events and callbacks are never returned
+     * Thread Safety: events, startNanos, wakeup, wakeupTick and holdTick are guarded by this; callbacks are run without it;
+     *          lyricBatches is threadsafe
+     */
+
+    /** how long the timing thread of a player made without a scheduler waits, with nothing to run, before ending */
+    private static final long IDLE_SECONDS = 1;
+
+    private final int beatsPerMinute;
+    private final int ticksPerBeat;
+    private final ScheduledExecutorService scheduler;
+    private final TreeMap<Integer, List<Consumer<Double>>> events = new TreeMap<>();
+    private long startNanos = -1;
+    private ScheduledFuture<?> wakeup = null;
+    private int wakeupTick = -1;
+    private int holdTick = -1;
+    private final LyricBatcher lyricBatches = new LyricBatcher();
+
+    /**
+     * Make a player whose callbacks run on a timing thread of its own.
+     * @param beatsPerMinute the number of beats per minute, > 0
+     * @param ticksPerBeat the number of ticks per beat, > 0; every event is at an integer number of ticks
+     */
+    public ClockSequencePlayer(int beatsPerMinute, int ticksPerBeat) {
+        this(beatsPerMinute, ticksPerBeat, ownScheduler());
+    }
+
+    /**
+     * Make a player.
+     * @param beatsPerMinute the number of beats per minute, > 0
+     * @param ticksPerBeat the number of ticks per beat, > 0; every event is at an integer number of ticks
+     * @param scheduler executor to run callbacks on; callbacks should be quick, since a callback that takes long
+     *                  delays the callbacks run on the same thread after it
+     */
+    public ClockSequencePlayer(int beatsPerMinute, int ticksPerBeat, ScheduledExecutorService scheduler) {
+        if (beatsPerMinute <= 0 || ticksPerBeat <= 0) {
+            throw new IllegalArgumentException("tempo must be positive: " + beatsPerMinute + " bpm, "
+                    + ticksPerBeat + " ticks per beat");
+        }
+        this.beatsPerMinute = beatsPerMinute;
+        this.ticksPerBeat = ticksPerBeat;
+        this.scheduler = scheduler;
+        checkRep();
+    }
+
+    private synchronized void checkRep() {
+        assert beatsPerMinute > 0 && ticksPerBeat > 0;
+        assert events.isEmpty() || events.firstKey() >= 0;
+        assert startNanos >= 0 || wakeup == null;
+        assert holdTick >= -1 && (holdTick < 0 || wakeup == null || wakeupTick <= holdTick);
+    }
+
+    /**
+     * @return a new executor for one player, with at most one timing thread, a daemon so that it does not keep the
+     *         JVM alive, which ends after IDLE_SECONDS with nothing scheduled
+     */
+    private static ScheduledExecutorService ownScheduler() {
+        final ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1, runnable -> {
+            final Thread thread = new Thread(runnable, "clock-player");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.setRemoveOnCancelPolicy(true);
+        scheduler.setKeepAliveTime(IDLE_SECONDS, TimeUnit.SECONDS);
+        scheduler.allowCoreThreadTimeOut(true);
+        return scheduler;
+    }
+
+    /**
+     * Notes make no sound on this player, so a note is ignored.
+     */
+    @Override
+    public void addNote(Instrument instr, Pitch pitch, double startBeat, double numBeats) {
+        // nothing to play
+    }
+
+    @Override
+    public synchronized void addEvent(double atBeat, Consumer<Double> callback) {
+        final int tick = (int) (atBeat * ticksPerBeat);
+        if (tick < 0) {
+            throw new IllegalArgumentException("cannot add event at beat " + atBeat);
+        }
+        events.computeIfAbsent(tick, t -> new ArrayList<>()).add(callback);
+        if (startNanos >= 0 && (wakeup == null || tick < wakeupTick)) {
+            scheduleNext();
+        }
+    }
+
+    /**
+     * Schedule the lyric of a note as part of the one event of its voice at its tick.
+     */
+    @Override
+    public void addLyric(double atBeat, String voice, String lyric, int line, int syllable,
+            Map<String, BlockingQueue<String>> queue) {
+        final LyricBatch batch = lyricBatches.add((int) (atBeat * ticksPerBeat), voice, lyric, line, syllable,
+                queue);
+        if (batch != null) {
+            addEvent(atBeat, batch);
+        }
+    }
+
+    /**
+     * @return number of lyric lines dropped so far because the queue of their voice was full when they were sung
+     */
+    public long droppedLyrics() {
+        return lyricBatches.dropped();
+    }
+
+    /**
+     * Run no event after atBeat; if the clock reaches atBeat it waits there, until holdAt() is called with a later
+     * beat or release() is called.
+     */
+    @Override
+    public synchronized void holdAt(double atBeat) {
+        final int tick = (int) (atBeat * ticksPerBeat);
+        if (tick <= holdTick) {
+            return;
+        }
+        catchUp();
+        holdTick = tick;
+        if (startNanos >= 0) {
+            scheduleNext();
+        }
+        checkRep();
+    }
+
+    /**
+     * Let the clock run on from the tick it has stopped at, if any, to the last event.
+     */
+    @Override
+    public synchronized void release() {
+        catchUp();
+        holdTick = -1;
+        if (startNanos >= 0) {
+            scheduleNext();
+        }
+        checkRep();
+    }
+
+    /**
+     * If the clock has reached holdTick, move its start later so that it is at holdTick now. Called holding the
+     * lock.
+     */
+    private void catchUp() {
+        if (startNanos < 0 || holdTick < 0) {
+            return;
+        }
+        final long heldSince = startNanos + nanosAt(holdTick);
+        final long now = System.nanoTime();
+        if (now > heldSince) {
+            startNanos += now - heldSince;
+        }
+    }
+
+    /**
+     * Start the clock at tick 0 now. Must be called at most once.
+     */
+    @Override
+    public synchronized void play() {
+        if (startNanos >= 0) {
+            throw new IllegalStateException("already playing");
+        }
+        startNanos = System.nanoTime();
+        scheduleNext();
+        checkRep();
+    }
+
+    /**
+     * @param tick a tick
+     * @return nanoseconds from the start of the clock to tick
+     */
+    private long nanosAt(int tick) {
+        return tick * TimeUnit.MINUTES.toNanos(1) / ((long) beatsPerMinute * ticksPerBeat);
+    }
+
+    /**
+     * Schedule the earliest events, cancelling whatever was scheduled before. Called holding the lock, once
+     * started.
+     */
+    private void scheduleNext() {
+        if (wakeup != null) {
+            wakeup.cancel(false);
+            wakeup = null;
+        }
+        if (events.isEmpty() || (holdTick >= 0 && events.firstKey() > holdTick)) {
+            return;
+        }
+        wakeupTick = events.firstKey();
+        final long delay = startNanos + nanosAt(wakeupTick) - System.nanoTime();
+        wakeup = scheduler.schedule(this::runDue, Math.max(0, delay), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Run every event whose tick the clock has reached, then schedule the next.
+     */
+    private void runDue() {
+        final List<Consumer<Double>> due = new ArrayList<>();
+        final double beat;
+        synchronized (this) {
+            final long elapsed = System.nanoTime() - startNanos;
+            while (!events.isEmpty() && nanosAt(events.firstKey()) <= elapsed
+                    && (holdTick < 0 || events.firstKey() <= holdTick)) {
+                due.addAll(events.pollFirstEntry().getValue());
+            }
+            beat = elapsed / (double) TimeUnit.MINUTES.toNanos(1) * beatsPerMinute;
+            wakeup = null;
+            scheduleNext();
+        }
+        for (Consumer<Double> callback : due) {
+            callback.accept(beat);
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        int count = 0;
+        for (Map.Entry<Integer, List<Consumer<Double>>> entry : events.entrySet()) {
+            count += entry.getValue().size();
+        }
+        return "ClockSequencePlayer(" + beatsPerMinute + " bpm, " + ticksPerBeat + " ticks per beat, " + count
+                + " events to come)";
+    }
+}
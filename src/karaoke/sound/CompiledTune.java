@@ -0,0 +1,153 @@
+package karaoke.sound;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * An immutable tune that is ready to play: the header fields of an AbcTune, the names of its voices, and its music
+ * compiled into a Timeline. It can be made from a parsed AbcTune, or loaded from a file written by TuneFile without
+ * parsing any abc.
+ */
+public class CompiledTune {
+    /*
+     * AF(title, composer, meter, tempo, noteLength, indexNumber, accidental, keySignature, voices, timeline) =
+     *          tune whose header fields, as the getters of AbcTune return them, are the fields of the same names,
+     *          that is sung by voices, and whose music, played by SoundPlayback, is timeline
+     * RI: no field is null
+     * Safety From Rep Exposure: all fields are private and final; Strings and Timeline are immutable, and the lists
+     *          are unmodifiable copies
+     * Thread Safety: immutable
+     */
+
+    private final String title;
+    private final String composer;
+    private final String meter;
+    private final String tempo;
+    private final String noteLength;
+    private final int indexNumber;
+    private final String accidental;
+    private final List<String> keySignature;
+    private final List<String> voices;
+    private final Timeline timeline;
+
+    /**
+     * Make a compiled tune.
+     * @param title title of the tune
+     * @param composer composer of the tune
+     * @param meter meter of the tune
+     * @param tempo tempo of the tune, in beats per minute
+     * @param noteLength default note length of the tune
+     * @param indexNumber index number of the tune
+     * @param accidental key accidental of the tune
+     * @param keySignature key signature of the tune
+     * @param voices voices that sing the tune
+     * @param timeline music of the tune
+     */
+    public CompiledTune(String title, String composer, String meter, String tempo, String noteLength,
+            int indexNumber, String accidental, List<String> keySignature, List<String> voices, Timeline timeline) {
+        this.title = title;
+        this.composer = composer;
+        this.meter = meter;
+        this.tempo = tempo;
+        this.noteLength = noteLength;
+        this.indexNumber = indexNumber;
+        this.accidental = accidental;
+        this.keySignature = Collections.unmodifiableList(new ArrayList<>(keySignature));
+        this.voices = Collections.unmodifiableList(new ArrayList<>(voices));
+        this.timeline = timeline;
+        checkRep();
+    }
+
+    private void checkRep() {
+        assert title != null && composer != null && meter != null && tempo != null && noteLength != null;
+        assert accidental != null && keySignature != null && voices != null && timeline != null;
+    }
+
+    /**
+     * Compile a parsed tune, with its music starting where SoundPlayback starts it.
+     * @param tune parsed tune
+     * @return tune with the header fields of tune, the voices of its music and the music compiled by
+     *         SoundPlayback.compile()
+     */
+    public static CompiledTune of(AbcTune tune) {
+        return new CompiledTune(tune.getTitle(), tune.getComposer(), tune.getMeter(), tune.getTempo(),
+                tune.getNoteLength(), tune.getIndexNumber(), tune.getAccidental(), tune.getKeySignature(),
+                tune.getMusic().getSingers(), SoundPlayback.compile(tune.getMusic()));
+    }
+
+    /**
+     * @return title of the tune
+     */
+    public String getTitle() {
+        return title;
+    }
+
+    /**
+     * @return composer of the tune
+     */
+    public String getComposer() {
+        return composer;
+    }
+
+    /**
+     * @return meter of the tune
+     */
+    public String getMeter() {
+        return meter;
+    }
+
+    /**
+     * @return tempo of the tune
+     */
+    public String getTempo() {
+        return tempo;
+    }
+
+    /**
+     * @return default note length of the tune
+     */
+    public String getNoteLength() {
+        return noteLength;
+    }
+
+    /**
+     * @return index number of the tune
+     */
+    public int getIndexNumber() {
+        return indexNumber;
+    }
+
+    /**
+     * @return key accidental of the tune
+     */
+    public String getAccidental() {
+        return accidental;
+    }
+
+    /**
+     * @return key signature of the tune, unmodifiable
+     */
+    public List<String> getKeySignature() {
+        return keySignature;
+    }
+
+    /**
+     * @return voices that sing the tune, unmodifiable
+     */
+    public List<String> getVoices() {
+        return voices;
+    }
+
+    /**
+     * @return music of the tune
+     */
+    public Timeline getTimeline() {
+        return timeline;
+    }
+
+    @Override
+    public String toString() {
+        return "X:" + indexNumber + " T:" + title + " (" + timeline.size() + " notes)";
+    }
+}
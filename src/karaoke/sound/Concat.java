@@ -1,6 +1,7 @@
 package karaoke.sound;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
@@ -16,11 +17,12 @@ import java.util.concurrent.BlockingQueue;
 public class Concat implements Music{
     
     //fields
-    private final List<Bar> music;
+    private final Bar[] music;
     private final Map<Integer, List<Integer>> mapOfRepeats;
-    private final List<Bar> musicToPlay;
+    private final Bar[] musicToPlay;
     private final double durationEachBar;
     private final List<String> lyrics;
+    private final double[] barStarts;
     
     /**
      * Constructor of Concat
@@ -29,28 +31,38 @@ public class Concat implements Music{
      * @param list 
      */
     /*
-     * AF(music, mapOfRepeats, musicToPlay, durationEachBar, lyrics) = A concat made of the list of bars to concatenate (@param music)
+     * AF(music, mapOfRepeats, musicToPlay, durationEachBar, lyrics, barStarts) = A concat made of the list of bars to concatenate (@param music)
      *          a map that represents the Repeat structure as given in the spec (@param mapOfRepeats), 
      *          a list of bars of the final music to be played once concatenated (@param musicToPlay), the duration of each bar
-     *          (@param durationEachBar), and the corresponding lyrics for the Music (@param lyrics)
+     *          (@param durationEachBar), and the corresponding lyrics for the Music (@param lyrics);
+     *          bar i of musicToPlay starts barStarts[i] beats after the concat starts, and the concat lasts
+     *          barStarts[musicToPlay.length] beats
      * RI = true
      * - mapOfRepeats is empty if the concat represents just concatenated bars and not a Repeat
+     * - barStarts.length == musicToPlay.length + 1, barStarts[0] == 0 and barStarts[i+1] - barStarts[i] is the
+     *   duration of bar i of musicToPlay
      * Safety From Rep Exposure: 
-     *  all fields are private and final and can only be mutated within this class
+     *  all fields are private and final and can only be mutated within this class; the arrays are never returned,
+     *  only copied into new lists
      * ThreadSafety: 
-     *  No beneficent mutation and Concat is an immutable type
+     *  No beneficent mutation and Concat is an immutable type. The arrays and the map are filled in before the
+     *  constructor returns and are final fields, so they are safely published to every thread without a lock
      */
     public Concat(List<Bar> music, Map<Integer, List<Integer>> map, List<String> list) {
         
-        this.music = Collections.synchronizedList(Collections.unmodifiableList(new ArrayList<Bar>(music)));
-        this.mapOfRepeats = Collections.synchronizedMap(Collections.unmodifiableMap(new HashMap<Integer, List<Integer>>(map)));
+        this.music = music.toArray(new Bar[music.size()]);
+        this.mapOfRepeats = Collections.unmodifiableMap(new HashMap<Integer, List<Integer>>(map));
         this.musicToPlay = this.encapsulateRepeat();
         this.lyrics = list;
-        if (this.musicToPlay.isEmpty()) {
+        if (this.musicToPlay.length == 0) {
             this.durationEachBar = 0.0;
         }
         else {
-            this.durationEachBar = this.musicToPlay.get(0).getDuration();
+            this.durationEachBar = this.musicToPlay[0].getDuration();
+        }
+        this.barStarts = new double[this.musicToPlay.length + 1];
+        for (int i = 0; i < this.musicToPlay.length; i++) {
+            this.barStarts[i + 1] = this.barStarts[i] + this.musicToPlay[i].getDuration();
         }
         
         checkRep();
@@ -65,44 +77,77 @@ public class Concat implements Music{
 //        }
     }
     
-    private List<Bar> encapsulateRepeat(){
+    private Bar[] encapsulateRepeat(){
         List<Bar> listCapturingRepeat = new ArrayList<>();
-        for(int i = 0; i < music.size(); i++) {
+        List<Bar> bars = Arrays.asList(music);
+        for(int i = 0; i < music.length; i++) {
             if (mapOfRepeats.containsKey(i)) {
                 int startIndex = mapOfRepeats.get(i).get(0);
                 int endIndex = mapOfRepeats.get(i).get(1);
-                listCapturingRepeat.addAll(music.subList(startIndex, endIndex));
+                listCapturingRepeat.addAll(bars.subList(startIndex, endIndex));
             }
-            listCapturingRepeat.add(music.get(i));
+            listCapturingRepeat.add(music[i]);
         }
-        return listCapturingRepeat;
+        return listCapturingRepeat.toArray(new Bar[listCapturingRepeat.size()]);
     }
     
     @Override
     public double getDuration() {
-//        checkRep();
-//        return durationEachBar*musicToPlay.size();
-        double duration = 0;
-        for (Bar bar : musicToPlay) {
-            duration += bar.getDuration();
-        }
-        return duration;
+        return barStarts[barStarts.length - 1];
     }
     
     @Override
     public void play(SequencePlayer player, double atBeat,Map<String,BlockingQueue<String>> queue) {
-        double offsetDuration = 0;
-        for (Bar bar : musicToPlay) {
-            bar.play(player, atBeat+offsetDuration,queue);
-            offsetDuration += bar.getDuration();
+        for (int i = 0; i < musicToPlay.length; i++) {
+            musicToPlay[i].play(player, atBeat + barStarts[i], queue);
+        }
+    }
+    
+    @Override
+    public void compile(Timeline.Builder timeline, double atBeat) {
+        for (int i = 0; i < musicToPlay.length; i++) {
+            musicToPlay[i].compile(timeline, atBeat + barStarts[i]);
+        }
+    }
+    
+    /**
+     * @param index index of a bar in getMusic()
+     * @return number of beats after the start of this concat at which that bar starts
+     */
+    public double getBarStart(int index) {
+        return barStarts[index];
+    }
+    
+    /**
+     * Find the bar that is playing at a given time, in O(log n) time for n bars.
+     * @param beat number of beats after the start of this concat
+     * @return index in getMusic() of the bar playing at beat, i.e. the last bar that starts at or before beat,
+     *         or -1 if beat is before the start or not before the end of this concat
+     */
+    public int indexOfBarAt(double beat) {
+        if (beat < 0 || beat >= getDuration()) {
+            return -1;
+        }
+        // barStarts is sorted; find the last start <= beat, skipping bars of duration 0
+        int low = 0;
+        int high = musicToPlay.length - 1;
+        while (low < high) {
+            final int mid = (low + high + 1) >>> 1;
+            if (barStarts[mid] <= beat) {
+                low = mid;
+            }
+            else {
+                high = mid - 1;
+            }
         }
+        return low;
     }
     
     /**
      * @return list of bars that form the music (repeat factored)
      */
     public List<Bar> getMusic() {
-        return new ArrayList<Bar>(this.musicToPlay);
+        return new ArrayList<Bar>(Arrays.asList(this.musicToPlay));
     }
 
     /**
@@ -0,0 +1,23 @@
+package karaoke.sound;
+
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * A lyric queue that is also told where each line it is given comes from: which lyric line of the timeline being
+ * played it is a frame of, and which syllable of that line it highlights (see Timeline.lyricLine()). Players hand
+ * lines to a queue of this type with offer(line, lyricLine, syllable, beat) instead of put(line), so that a
+ * listener can be sent the numbers rather than the text.
+ */
+public interface IndexedLyricQueue extends BlockingQueue<String> {
+
+    /**
+     * Add a line sung, without waiting.
+     * @param line line sung, "$" at the end of the song
+     * @param lyricLine index of the lyric line the line is a frame of, among the lines of the timeline being played,
+     *                  or -1 if it is not one (as for "$", or lyrics played from Music rather than a timeline)
+     * @param syllable index of the syllable the line highlights, or -1 for none
+     * @param beat beat the line is sung at
+     * @return true if the line was added, false if there was no room for it
+     */
+    boolean offer(String line, int lyricLine, int syllable, double beat);
+}
@@ -0,0 +1,129 @@
+package karaoke.sound;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import karaoke.log.Log;
+import karaoke.log.Logger;
+
+/**
+ * The lyrics a voice sings at one tick, offered to the voice's queue in order by one callback. Lines are added while
+ * the music is scheduled; a line added right after the same line, as the notes of a chord add it, is offered once.
+ * Each line keeps the lyric line and syllable it was added with, for a queue that is an IndexedLyricQueue.
+ *
+ * The batch runs on the player's timing thread, so it never waits for room on a bounded queue: a line that does not
+ * fit is dropped and counted, and a listener too slow to keep up misses lines instead of holding up the player.
+ */
+class LyricBatch implements Consumer<Double> {
+    /*
+     * AF(tick, voice, queue, lines, lyricLines, syllables, delivered, dropped) = callback for tick that offers
+     *          lines to queue.get(voice), in order, line i being a frame of lyric line lyricLines.get(i) that
+     *          highlights syllable syllables.get(i), and adds to dropped each line refused; it has run if delivered
+     * RI: no two lines in a row are equal; lines is not empty once the batch is handed out by LyricBatcher;
+     *     lines, lyricLines and syllables have the same size
+     * Safety From Rep Exposure: all fields are private; lines is never returned, only its elements
+     * Thread Safety: lines, lyricLines, syllables and delivered are guarded by this, since lines are added by the
+     *          thread scheduling the music and delivered by the player's thread; the lines are delivered without the
+     *          lock, since none is added once delivered is set; dropped is threadsafe
+     */
+
+    private static final Logger LOG = Log.get(LyricBatch.class);
+
+    private final int tick;
+    private final String voice;
+    private final Map<String, BlockingQueue<String>> queue;
+    private final List<String> lines = new ArrayList<>(1);
+    private final List<Integer> lyricLines = new ArrayList<>(1);
+    private final List<Integer> syllables = new ArrayList<>(1);
+    private boolean delivered = false;
+    private final AtomicLong dropped;
+
+    /**
+     * Make an empty batch.
+     * @param tick tick the batch is delivered at
+     * @param voice voice whose queue to put lines on
+     * @param queue blocking queues of the voices
+     * @param dropped count to add the lines that do not fit on the queue to
+     */
+    LyricBatch(int tick, String voice, Map<String, BlockingQueue<String>> queue, AtomicLong dropped) {
+        this.tick = tick;
+        this.voice = voice;
+        this.queue = queue;
+        this.dropped = dropped;
+    }
+
+    private synchronized void checkRep() {
+        assert lyricLines.size() == lines.size() && syllables.size() == lines.size();
+        for (int i = 1; i < lines.size(); i++) {
+            assert !lines.get(i - 1).equals(lines.get(i));
+        }
+    }
+
+    /**
+     * @param tick a tick
+     * @param voice a voice
+     * @param queue blocking queues of the voices
+     * @return true if this batch is for that tick and that voice of queue
+     */
+    boolean isFor(int tick, String voice, Map<String, BlockingQueue<String>> queue) {
+        return this.tick == tick && this.voice.equals(voice) && this.queue == queue;
+    }
+
+    /**
+     * Add the lyric of a note, unless this batch has already been delivered.
+     * @param lyric lyric of the note, as Note keeps it: " " is put on the queue as "$"
+     * @param lyricLine index of the lyric line the lyric is a frame of, or -1 if none
+     * @param syllable index of the syllable of lyricLine the lyric highlights, or -1 for none
+     * @return true if the lyric was added or was already the last line, false if this batch has been delivered
+     */
+    synchronized boolean add(String lyric, int lyricLine, int syllable) {
+        if (delivered) {
+            return false;
+        }
+        final boolean end = lyric.equals(" ");
+        final String line = end ? "$" : lyric;
+        if (lines.isEmpty() || !lines.get(lines.size() - 1).equals(line)) {
+            lines.add(line);
+            lyricLines.add(end ? -1 : lyricLine);
+            syllables.add(end ? -1 : syllable);
+        }
+        checkRep();
+        return true;
+    }
+
+    /**
+     * Offer the lines of this batch to the queue of its voice, in order, without waiting, dropping and counting each
+     * line there is no room for; an IndexedLyricQueue is offered each line with its lyric line and syllable.
+     * @param beat beat the player has reached
+     */
+    @Override
+    public void accept(Double beat) {
+        final List<String> batch;
+        synchronized (this) {
+            delivered = true;
+            batch = lines;
+        }
+        if (LOG.isDebugEnabled()) {
+            for (String line : batch) {
+                if (!line.equals("$")) {
+                    LOG.debug("{}: {}", voice, line);
+                }
+            }
+        }
+        final BlockingQueue<String> voiceQueue = queue.get(voice);
+        final IndexedLyricQueue indexed = voiceQueue instanceof IndexedLyricQueue
+                ? (IndexedLyricQueue) voiceQueue : null;
+        for (int i = 0; i < batch.size(); i++) {
+            final boolean added = indexed != null
+                    ? indexed.offer(batch.get(i), lyricLines.get(i), syllables.get(i), beat)
+                    : voiceQueue.offer(batch.get(i));
+            if (!added) {
+                dropped.incrementAndGet();
+            }
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package karaoke.sound;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Coalesces the lyric events a player is given into one LyricBatch per (tick, voice), for players that override
+ * SequencePlayer.addLyric(). Music puts the notes of a voice on a player in order, so the notes of a voice that
+ * start together (a chord) are added one after the other, and only the last batch of each voice has to be kept.
+ */
+class LyricBatcher {
+    /*
+     * AF(last, dropped) = batcher whose latest batch for voice v is last.get(v), whose batches have dropped lines
+     *          in all because the queue of their voice was full
+     * RI: dropped >= 0
+     * Safety From Rep Exposure: last is private and final, and never returned; its batches are handed out to be
+     *          scheduled, which is what they are for
+     * Thread Safety: add() is synchronized; dropped is threadsafe
+     */
+
+    private final Map<String, LyricBatch> last = new HashMap<>();
+    private final AtomicLong dropped = new AtomicLong();
+
+    /**
+     * Add the lyric of a note.
+     * @param tick tick the note starts at
+     * @param voice voice singing the note
+     * @param lyric lyric of the note, as Note keeps it
+     * @param lyricLine index of the lyric line the lyric is a frame of, or -1 if none
+     * @param syllable index of the syllable of lyricLine the lyric highlights, or -1 for none
+     * @param queue blocking queues of the voices
+     * @return a new batch holding the lyric, which the caller must schedule at tick, or null if the lyric was added
+     *         to the batch already scheduled for that tick and voice
+     */
+    synchronized LyricBatch add(int tick, String voice, String lyric, int lyricLine, int syllable,
+            Map<String, BlockingQueue<String>> queue) {
+        final LyricBatch latest = last.get(voice);
+        if (latest != null && latest.isFor(tick, voice, queue) && latest.add(lyric, lyricLine, syllable)) {
+            return null;
+        }
+        final LyricBatch batch = new LyricBatch(tick, voice, queue, dropped);
+        batch.add(lyric, lyricLine, syllable);
+        last.put(voice, batch);
+        return batch;
+    }
+
+    /**
+     * @return number of lines the batches of this batcher have dropped because the queue of their voice was full
+     */
+    long dropped() {
+        return dropped.get();
+    }
+}
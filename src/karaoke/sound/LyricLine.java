@@ -0,0 +1,92 @@
+package karaoke.sound;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A lyric line, tokenized once into its syllables, and the frames a listener is shown while it is sung: the line
+ * with one syllable highlighted as *syllable*. A frame is rendered the first time a note asks for it and kept, so
+ * every note that highlights the same syllable of the line shares one String.
+ */
+class LyricLine {
+    /*
+     * AF(syllables, frames, length) = lyric line syllables[0] + ... + syllables[n-1], where each "_" (a held
+     *          syllable) is left out, whose frame with syllable i highlighted is frames[i + 1] once rendered, and
+     *          whose frame with none highlighted is frames[0] once rendered; length is the number of characters in
+     *          the line
+     * RI: frames.length == syllables.length + 1; length is the sum of the lengths of the syllables other than "_"
+     * Safety From Rep Exposure: all fields are private; syllables is copied from the list given to the constructor
+     *          and only returned as an unmodifiable view; frames are immutable Strings
+     * Thread Safety: syllables and length are final and never mutated; frames is guarded by this
+     */
+
+    private final String[] syllables;
+    private final String[] frames;
+    private final int length;
+
+    /**
+     * Make a lyric line.
+     * @param syllables syllables of the line, in order, as MusicLanguage splits a w: field
+     */
+    LyricLine(List<String> syllables) {
+        this.syllables = syllables.toArray(new String[0]);
+        this.frames = new String[this.syllables.length + 1];
+        int length = 0;
+        for (String syllable : this.syllables) {
+            if (!syllable.equals("_")) {
+                length += syllable.length();
+            }
+        }
+        this.length = length;
+        checkRep();
+    }
+
+    private void checkRep() {
+        assert frames.length == syllables.length + 1;
+    }
+
+    /**
+     * @return number of syllables in the line
+     */
+    int size() {
+        return syllables.length;
+    }
+
+    /**
+     * @return the syllables of the line, in order
+     */
+    List<String> syllables() {
+        return Collections.unmodifiableList(Arrays.asList(syllables));
+    }
+
+    /**
+     * @param i index of a syllable, 0 <= i < size()
+     * @return syllable i of the line
+     */
+    String syllable(int i) {
+        return syllables[i];
+    }
+
+    /**
+     * @param highlight index of the syllable to highlight, -1 <= highlight < size(), or -1 for none
+     * @return the line with every syllable other than "_" in order, and syllable highlight (even a "_") as
+     *         *syllable*; the same String for every call with the same highlight
+     */
+    synchronized String frame(int highlight) {
+        String frame = frames[highlight + 1];
+        if (frame == null) {
+            final StringBuilder builder = new StringBuilder(length + 2);
+            for (int i = 0; i < syllables.length; i++) {
+                if (i == highlight) {
+                    builder.append('*').append(syllables[i]).append('*');
+                } else if (!syllables[i].equals("_")) {
+                    builder.append(syllables[i]);
+                }
+            }
+            frame = builder.toString();
+            frames[highlight + 1] = frame;
+        }
+        return frame;
+    }
+}
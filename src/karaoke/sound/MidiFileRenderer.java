@@ -0,0 +1,200 @@
+package karaoke.sound;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.MetaMessage;
+import javax.sound.midi.MidiEvent;
+import javax.sound.midi.MidiSystem;
+import javax.sound.midi.Sequence;
+import javax.sound.midi.ShortMessage;
+import javax.sound.midi.Track;
+
+/**
+ * Renders tunes to Standard MIDI Files, without opening a synthesizer or a sequencer, so that a library can be
+ * rendered once ahead of time instead of being synthesized every time it is played.
+ *
+ * A rendered file is of type 1, at SoundPlayback.TICKS_PER_BEAT ticks per beat, with the notes at the ticks
+ * SoundPlayback plays them at. Its first track holds the title and the tempo; then there is one track per voice,
+ * named after the voice, holding the notes of that voice and a lyric meta event at the start of each of its notes
+ * that has a lyric, with the text SoundPlayback puts on the voice's queue. The end of the song (a lyric of " ") and
+ * a lyric repeated at the same tick (by the notes of a chord) are left out. Instruments are given channels in the
+ * order they first appear, as MidiSequencePlayer gives them, and each channel is patched at tick 0 of the track
+ * that first uses it.
+ */
+public class MidiFileRenderer {
+
+    /**
+     * Type of Standard MIDI File written: several tracks played at once.
+     */
+    public static final int MIDI_FILE_TYPE = 1;
+
+    // meta message types
+    private static final int META_TRACK_NAME = 0x03;
+    private static final int META_LYRIC = 0x05;
+    private static final int META_TEMPO = 0x51;
+
+    // number of MIDI channels
+    private static final int MIDI_CHANNELS = 16;
+
+    private static final long MICROSECONDS_PER_MINUTE = 60_000_000L;
+
+    private MidiFileRenderer() {
+        throw new AssertionError("MidiFileRenderer is not instantiable");
+    }
+
+    /**
+     * Render a parsed tune as a MIDI sequence.
+     * @param tune parsed tune
+     * @return sequence of tune, laid out as described above
+     * @throws IllegalArgumentException if tune has more instruments than MIDI has channels
+     */
+    public static Sequence render(AbcTune tune) {
+        final Voices music = tune.getMusic();
+        try {
+            final Sequence sequence = new Sequence(Sequence.PPQ, SoundPlayback.TICKS_PER_BEAT);
+            final Track conductor = sequence.createTrack();
+            addMeta(conductor, META_TRACK_NAME, tune.getTitle().getBytes(UTF_8), 0);
+            final int microsPerBeat = (int) (MICROSECONDS_PER_MINUTE / Integer.parseInt(tune.getTempo()));
+            addMeta(conductor, META_TEMPO,
+                    new byte[] { (byte) (microsPerBeat >> 16), (byte) (microsPerBeat >> 8), (byte) microsPerBeat }, 0);
+
+            final Map<Instrument, Integer> channelForInstrument = new HashMap<>();
+            for (String voice : music.getSingers()) {
+                final Track track = sequence.createTrack();
+                addMeta(track, META_TRACK_NAME, voice.getBytes(UTF_8), 0);
+                addVoice(track, SoundPlayback.compile(music.only(voice)), channelForInstrument);
+            }
+            return sequence;
+        } catch (InvalidMidiDataException imde) {
+            throw new RuntimeException("Cannot render " + tune.getTitle(), imde);
+        }
+    }
+
+    /**
+     * Add the notes and lyrics of one voice to its track.
+     * @param track track of the voice
+     * @param timeline music of the voice alone
+     * @param channelForInstrument channels given to instruments so far, by every track; instruments new to it are
+     *                             added to it, and patched on this track
+     * @throws InvalidMidiDataException if an event cannot be made
+     */
+    private static void addVoice(Track track, Timeline timeline, Map<Instrument, Integer> channelForInstrument)
+            throws InvalidMidiDataException {
+        final int[] channelOfTimelineChannel = new int[timeline.instruments()];
+        for (int c = 0; c < channelOfTimelineChannel.length; c++) {
+            final Instrument instr = timeline.instrument(c);
+            Integer channel = channelForInstrument.get(instr);
+            if (channel == null) {
+                channel = channelForInstrument.size();
+                if (channel >= MIDI_CHANNELS) {
+                    throw new IllegalArgumentException("Tried to use too many instruments: limited to "
+                            + MIDI_CHANNELS);
+                }
+                channelForInstrument.put(instr, channel);
+                MidiSequencePlayer.addMidiNoteEvent(track, ShortMessage.PROGRAM_CHANGE, channel, instr.ordinal(), 0);
+            }
+            channelOfTimelineChannel[c] = channel;
+        }
+        int lastLyric = -1;
+        int lastLyricTick = -1;
+        for (int i = 0; i < timeline.size(); i++) {
+            final int channel = channelOfTimelineChannel[timeline.channel(i)];
+            final int note = timeline.midiNote(i);
+            final int tick = timeline.startTick(i);
+            MidiSequencePlayer.addMidiNoteEvent(track, ShortMessage.NOTE_ON, channel, note, tick);
+            MidiSequencePlayer.addMidiNoteEvent(track, ShortMessage.NOTE_OFF, channel, note,
+                    tick + timeline.durTicks(i));
+            final int lyric = timeline.lyricIndex(i);
+            if (lyric >= 0 && !timeline.lyricText(lyric).equals(" ")
+                    && !(lyric == lastLyric && tick == lastLyricTick)) {
+                addMeta(track, META_LYRIC, timeline.lyricText(lyric).getBytes(UTF_8), tick);
+                lastLyric = lyric;
+                lastLyricTick = tick;
+            }
+        }
+    }
+
+    private static void addMeta(Track track, int type, byte[] data, int tick) throws InvalidMidiDataException {
+        track.add(new MidiEvent(new MetaMessage(type, data, data.length), tick));
+    }
+
+    /**
+     * Render a parsed tune to a Standard MIDI File.
+     * @param tune parsed tune
+     * @param path file to write, replaced if it exists
+     * @throws IOException if the file cannot be written
+     */
+    public static void write(AbcTune tune, Path path) throws IOException {
+        try (OutputStream out = Files.newOutputStream(path)) {
+            MidiSystem.write(render(tune), MIDI_FILE_TYPE, out);
+        }
+    }
+
+    /**
+     * Render every abc file of a directory to a MIDI file of the same name in another, in parallel. Files that
+     * cannot be parsed are reported and skipped.
+     *
+     * Usage, from the root of the repository:
+     *      java -cp bin:lib/parserlib.jar karaoke.sound.MidiFileRenderer [abc directory] [midi directory] [threads]
+     *
+     * @param args optional directory of abc files (default sample-abc), directory to write MIDI files to, created
+     *             if need be (default midi), and number of threads (default one per processor)
+     * @throws IOException if a directory cannot be read or made
+     * @throws InterruptedException if interrupted while waiting for the files to be rendered
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        final Path from = Paths.get(args.length > 0 ? args[0] : "sample-abc");
+        final Path to = Paths.get(args.length > 1 ? args[1] : "midi");
+        final int threads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+        Files.createDirectories(to);
+
+        final List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> abcFiles = Files.newDirectoryStream(from, "*.abc")) {
+            for (Path file : abcFiles) {
+                files.add(file);
+            }
+        }
+        files.sort(null);
+
+        final long start = System.nanoTime();
+        final ExecutorService pool = Executors.newFixedThreadPool(threads);
+        final List<Future<Path>> rendered = new ArrayList<>();
+        for (Path file : files) {
+            rendered.add(pool.submit(() -> {
+                final String name = file.getFileName().toString();
+                final Path midi = to.resolve(name.substring(0, name.length() - ".abc".length()) + ".mid");
+                write(new MusicLanguage().parse(new String(Files.readAllBytes(file), UTF_8)), midi);
+                return midi;
+            }));
+        }
+        int failed = 0;
+        for (int i = 0; i < files.size(); i++) {
+            try {
+                final Path midi = rendered.get(i).get();
+                System.out.println(files.get(i) + " -> " + midi + " (" + Files.size(midi) + " bytes)");
+            } catch (ExecutionException e) {
+                failed++;
+                System.err.println(files.get(i) + ": " + e.getCause());
+            }
+        }
+        pool.shutdown();
+        System.out.printf("rendered %d of %d files in %.1f ms on %d threads%n", files.size() - failed, files.size(),
+                (System.nanoTime() - start) / 1e6, threads);
+    }
+}
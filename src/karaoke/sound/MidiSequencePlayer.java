@@ -1,18 +1,20 @@
 package karaoke.sound;
 
-import java.math.BigInteger;
 import java.text.MessageFormat;
 import java.time.Duration;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.SortedMap;
-import java.util.TreeMap;
+import java.util.concurrent.BlockingQueue;
 import java.util.function.Consumer;
 
 import javax.sound.midi.*;
 
 /**
  * Schedules and plays a sequence of notes using the MIDI synthesizer.
+ * Notes and events may still be added by one thread after play() has started, as long as they are at beats the
+ * sequencer has not reached yet; the sequencer stops when it reaches the end of what has been added so far, unless
+ * holdAt() has been called, in which case it waits there for more until release().
  */
 public class MidiSequencePlayer implements SequencePlayer {
 
@@ -30,6 +32,9 @@ public class MidiSequencePlayer implements SequencePlayer {
 
     // the generic marker meta message type
     private static final int META_MARKER = 6;
+    // bytes in the data of a marker that carries a callback number, a big-endian int
+    private static final int CALLBACK_NUMBER_BYTES = 4;
+    private static final int INITIAL_CALLBACKS = 64;
     // the "end_of_track" meta message type
     private static final int META_END_OF_TRACK = 47;
 
@@ -49,16 +54,38 @@ public class MidiSequencePlayer implements SequencePlayer {
     private final int beatsPerMinute;
     private final int ticksPerBeat;
 
-    // event callback functions
-    private final SortedMap<Integer, Consumer<Double>> callbacks = new TreeMap<>();
+    // event callback functions, by callback number; callbacks[0] is never used
+    private Consumer<?>[] callbacks = new Consumer<?>[INITIAL_CALLBACKS];
+    // next callback number to give out
+    private int nextCallback = 1;
+    private final Object callbacksLock = new Object();
+    // lyric events, coalesced per tick and voice
+    private final LyricBatcher lyricBatches = new LyricBatcher();
     private final MetaMessage keepalive = new MetaMessage(META_MARKER, new byte[] { 0 }, 1);
+    // whether holdAt() has been called and release() has not
+    private boolean holding = false;
+    // last tick passed to holdAt()
+    private int holdTick = 0;
+    // tick the sequencer stopped at while holding, waiting for music after it, or -1 if it is not waiting
+    private long pausedTick = -1;
+    private final Object holdLock = new Object();
 
     /*
      * Rep invariant:
      *   sequencer and track are non-null,
      *   beatsPerMinute and ticksPerBeat are positive,
      *   channels and callbacks are non-null,
-     *   channels does not contain value nextChannel
+     *   channels does not contain value nextChannel,
+     *   1 <= nextCallback <= callbacks.length, and callbacks[n] is null for n == 0 and n >= nextCallback;
+     *   callbacks[n] for 0 < n < nextCallback is the callback numbered n, or null once it has run,
+     *   holdTick >= 0, pausedTick is -1 unless holding
+     *
+     * Thread safety:
+     *   callbacks and nextCallback are added to by the thread that schedules events and read and cleared by the
+     *   sequencer's meta event thread, so they are only accessed while holding callbacksLock;
+     *   holding, holdTick and pausedTick are used by the thread that schedules events and by the meta event thread
+     *   when the sequencer reaches a hold marker or the end of the track, so they are only accessed while holding
+     *   holdLock
      */
 
     private void checkRep() {
@@ -66,8 +93,11 @@ public class MidiSequencePlayer implements SequencePlayer {
         assert track != null : "track should be non-null";
         assert beatsPerMinute >= 0 : "should be positive number of beats per minute";
         assert ticksPerBeat >= 0 : "should be positive number of ticks per beat";
-        assert callbacks != null : "callbacks should be non-null";
-        assert callbacks.keySet().stream().allMatch(n -> n >= 1) : "callback numbers should be positive";
+        synchronized (callbacksLock) {
+            assert callbacks != null : "callbacks should be non-null";
+            assert nextCallback >= 1 && nextCallback <= callbacks.length : "callback numbers should be positive";
+            assert callbacks[0] == null : "callback number 0 should not be used";
+        }
         assert ! channelForInstrument.values().contains(nextChannel) : "nextChannel should not be assigned";
     }
 
@@ -134,8 +164,22 @@ public class MidiSequencePlayer implements SequencePlayer {
      * @throws InvalidMidiDataException
      */
     private void addMidiNoteEvent(int eventType, int channel, int note, int tick) throws InvalidMidiDataException {
+        addMidiNoteEvent(this.track, eventType, channel, note, tick);
+    }
+
+    /**
+     * Add a MIDI note event to a track, as this player schedules it; also used by MidiFileRenderer.
+     * @param track track to add to
+     * @param eventType valid MidiMessage type in ShortMessage
+     * @param channel valid channel
+     * @param note valid pitch value
+     * @param tick tick >= 0
+     * @throws InvalidMidiDataException
+     */
+    static void addMidiNoteEvent(Track track, int eventType, int channel, int note, int tick)
+            throws InvalidMidiDataException {
         ShortMessage msg = new ShortMessage(eventType, channel, note, DEFAULT_VELOCITY);
-        this.track.add(new MidiEvent(msg, tick));
+        track.add(new MidiEvent(msg, tick));
     }
 
     @Override
@@ -148,24 +192,191 @@ public class MidiSequencePlayer implements SequencePlayer {
         }
     }
 
+    /**
+     * Schedule the lyric of a note as part of the one marker event of its voice at its tick.
+     */
+    @Override
+    public void addLyric(double atBeat, String voice, String lyric, int line, int syllable,
+            Map<String,BlockingQueue<String>> queue) {
+        final int tick = (int) (atBeat * ticksPerBeat);
+        final LyricBatch batch = lyricBatches.add(tick, voice, lyric, line, syllable, queue);
+        if (batch == null) {
+            return;
+        }
+        try {
+            addMidiMetaEvent(saveCallback(batch), tick);
+        } catch (InvalidMidiDataException imde) {
+            throw new RuntimeException("Cannot add lyric at beat " + atBeat, imde);
+        }
+    }
+
+    /**
+     * @return number of lyric lines dropped so far because the queue of their voice was full when they were sung
+     */
+    public long droppedLyrics() {
+        return lyricBatches.dropped();
+    }
+
+    /**
+     * Schedule the notes of a timeline by their ticks, without converting them to beats and back, if the timeline
+     * has the same number of ticks per beat as this player; otherwise as SequencePlayer does by default.
+     */
+    @Override
+    public void addTimeline(Timeline timeline, Map<String,BlockingQueue<String>> queue) {
+        if (timeline.getTicksPerBeat() != ticksPerBeat) {
+            SequencePlayer.super.addTimeline(timeline, queue);
+            return;
+        }
+        final int[] channelOfTimelineChannel = new int[timeline.instruments()];
+        for (int c = 0; c < channelOfTimelineChannel.length; c++) {
+            channelOfTimelineChannel[c] = getChannel(timeline.instrument(c));
+        }
+        for (int i = 0; i < timeline.size(); i++) {
+            final int channel = channelOfTimelineChannel[timeline.channel(i)];
+            final int note = timeline.midiNote(i);
+            final int tick = timeline.startTick(i);
+            try {
+                addMidiNoteEvent(ShortMessage.NOTE_ON, channel, note, tick);
+                addMidiNoteEvent(ShortMessage.NOTE_OFF, channel, note, tick + timeline.durTicks(i));
+                final int lyric = timeline.lyricIndex(i);
+                if (lyric >= 0) {
+                    final LyricBatch batch = lyricBatches.add(tick, timeline.lyricVoice(lyric),
+                            timeline.lyricText(lyric), timeline.lyricLine(lyric), timeline.lyricSyllable(lyric),
+                            queue);
+                    if (batch != null) {
+                        addMidiMetaEvent(saveCallback(batch), tick);
+                    }
+                }
+            } catch (InvalidMidiDataException imde) {
+                throw new RuntimeException("Cannot add note " + note + " at tick " + tick, imde);
+            }
+        }
+    }
+
+    /**
+     * Save a callback under the next callback number, in amortized constant time.
+     * @param callback callback to save
+     * @return its callback number, > 0
+     */
     private int saveCallback(Consumer<Double> callback) {
-        int key = callbacks.isEmpty() ? 1 : callbacks.lastKey() + 1;
-        callbacks.put(key, callback);
-        checkRep();
-        return key;
+        synchronized (callbacksLock) {
+            if (nextCallback == callbacks.length) {
+                callbacks = Arrays.copyOf(callbacks, 2 * callbacks.length);
+            }
+            callbacks[nextCallback] = callback;
+            return nextCallback++;
+        }
     }
 
     /**
-     * Schedule a MIDI meta event.
+     * Remove a saved callback.
+     * @param callbackNumber number of the callback
+     * @return the callback, or null if there is no callback with that number
+     */
+    @SuppressWarnings("unchecked")
+    private Consumer<Double> takeCallback(int callbackNumber) {
+        synchronized (callbacksLock) {
+            if (callbackNumber <= 0 || callbackNumber >= nextCallback) {
+                return null;
+            }
+            final Consumer<Double> callback = (Consumer<Double>) callbacks[callbackNumber];
+            callbacks[callbackNumber] = null;
+            return callback;
+        }
+    }
+
+    /**
+     * Schedule a MIDI meta event. A callback at or after the last tick of the track is followed by a keepalive
+     * marker a tick later, so that the track does not end on the tick of the callback.
      * @param callback active callback number
      * @param tick tick >= 0
      * @throws InvalidMidiDataException
      */
     private void addMidiMetaEvent(int callback, int tick) throws InvalidMidiDataException {
-        byte[] bytes = BigInteger.valueOf(callback).toByteArray();
+        final byte[] bytes = {
+            (byte) (callback >>> 24), (byte) (callback >>> 16), (byte) (callback >>> 8), (byte) callback
+        };
         MetaMessage msg = new MetaMessage(META_MARKER, bytes, bytes.length);
+        final boolean last = tick >= this.track.ticks();
         this.track.add(new MidiEvent(msg, tick));
-        this.track.add(new MidiEvent(keepalive, tick+1));
+        if (last) {
+            this.track.add(new MidiEvent(keepalive, tick+1));
+        }
+    }
+
+    /**
+     * @param data data of a marker meta message
+     * @return the callback number the marker carries, or 0 if it carries none (a keepalive)
+     */
+    private static int callbackNumber(byte[] data) {
+        if (data.length != CALLBACK_NUMBER_BYTES) {
+            return 0;
+        }
+        return (data[0] & 0xFF) << 24 | (data[1] & 0xFF) << 16 | (data[2] & 0xFF) << 8 | (data[3] & 0xFF);
+    }
+
+    /**
+     * Put a marker at atBeat that stops the sequencer there unless holdAt() has been called with a later beat by
+     * the time it is reached, and go on playing from where the sequencer stopped if it is already waiting for the
+     * music up to atBeat.
+     */
+    @Override
+    public void holdAt(double atBeat) {
+        final int tick = (int) (atBeat * ticksPerBeat);
+        synchronized (holdLock) {
+            holding = true;
+            if (tick <= holdTick) {
+                return;
+            }
+            holdTick = tick;
+            try {
+                addMidiMetaEvent(saveCallback(beat -> pauseAt(tick)), tick);
+            } catch (InvalidMidiDataException imde) {
+                throw new RuntimeException("Cannot hold at beat " + atBeat, imde);
+            }
+            if (pausedTick >= 0) {
+                resume();
+            }
+        }
+    }
+
+    /**
+     * Stop the sequencer at a hold marker, if it is still the last one and the player is still holding.
+     * @param tick tick of the marker
+     */
+    private void pauseAt(int tick) {
+        synchronized (holdLock) {
+            if (holding && tick == holdTick && pausedTick < 0) {
+                sequencer.stop();
+                pausedTick = tick;
+            }
+        }
+    }
+
+    /**
+     * Let the sequencer stop and close at the end of the track, now if it is already waiting there.
+     */
+    @Override
+    public void release() {
+        synchronized (holdLock) {
+            holding = false;
+            if (pausedTick < 0) {
+                return;
+            }
+            pausedTick = -1;
+        }
+        sequencer.close();
+    }
+
+    /**
+     * Start the sequencer again from where it stopped while holding. Called holding holdLock.
+     */
+    private void resume() {
+        // a callback at pausedTick already ran and is not run again; setting the position resets the tempo
+        sequencer.setTickPosition(pausedTick);
+        sequencer.setTempoInBPM(this.beatsPerMinute);
+        pausedTick = -1;
+        sequencer.start();
     }
 
     @Override
@@ -180,11 +391,24 @@ public class MidiSequencePlayer implements SequencePlayer {
         sequencer.addMetaEventListener(meta -> {
             if (meta.getType() == META_MARKER) {
                 // trigger event callback
-                int callbackNumber = new BigInteger(meta.getData()).intValue();
-                if (callbackNumber > 0) {
-                    callbacks.remove(callbackNumber).accept(sequencer.getTickPosition() / (double)ticksPerBeat);
+                final Consumer<Double> callback = takeCallback(callbackNumber(meta.getData()));
+                if (callback != null) {
+                    callback.accept(sequencer.getTickPosition() / (double)ticksPerBeat);
                 }
             } else if (meta.getType() == META_END_OF_TRACK) {
+                synchronized (holdLock) {
+                    if (holding) {
+                        // ran past the last hold marker before it could stop the sequencer: wait at the end of
+                        // the track for the music still to be scheduled, or go on if some was added meanwhile
+                        if (pausedTick < 0) {
+                            pausedTick = sequencer.getTickPosition();
+                            if (pausedTick < track.ticks()) {
+                                resume();
+                            }
+                        }
+                        return;
+                    }
+                }
                 // allow the sequencer to finish
                 try { Thread.sleep(Duration.ofSeconds(1).toMillis()); } catch (InterruptedException ie) { }
                 // stop & close the sequencer
@@ -36,5 +36,12 @@ public interface Music {
      */
     public void play(SequencePlayer player, double atBeat, Map<String,BlockingQueue<String>> queue);
 
+    /**
+     * Add the notes of this piece to a timeline, as play() would put them on a player.
+     * @param timeline timeline to add to
+     * @param atBeat when to play
+     */
+    public void compile(Timeline.Builder timeline, double atBeat);
+
     
 }
@@ -2,8 +2,13 @@ package karaoke.sound;
 
 import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -16,6 +21,8 @@ import javax.sound.midi.MidiUnavailableException;
 import edu.mit.eecs.parserlib.ParseTree;
 import edu.mit.eecs.parserlib.Parser;
 import edu.mit.eecs.parserlib.UnableToParseException;
+import karaoke.log.Log;
+import karaoke.log.Logger;
 
 /**
  * Parses a file in ABC format 
@@ -25,18 +32,56 @@ import edu.mit.eecs.parserlib.UnableToParseException;
  */
 
 public class MusicLanguage {
+    /**
+     * Name of the system property that picks the default parser backend, "parserlib" or "direct".
+     */
+    public static final String BACKEND_PROPERTY = "karaoke.parser";
+    
+    /**
+     * Parser backends that turn abc text into calls on the AbcBuilder. Both accept exactly the language of Abc.g
+     * and produce equal AbcTunes.
+     */
+    public static enum Backend {
+        /** the compiled Abc.g grammar from parserlib, which builds a ParseTree that is then walked */
+        PARSERLIB,
+        /** the hand-written recursive-descent parser in AbcDirectParser, which builds no tree */
+        DIRECT;
+        
+        /**
+         * @return backend named by the karaoke.parser system property, PARSERLIB if it is not set
+         */
+        public static Backend fromSystemProperty() {
+            final String name = System.getProperty(BACKEND_PROPERTY, "parserlib");
+            return name.equalsIgnoreCase("direct") ? DIRECT : PARSERLIB;
+        }
+    }
+    
+    private static final Logger LOG = Log.get(MusicLanguage.class);
+
     private final AbcTune tune;
     private AbcBuilder builder;
     private List<String> singers;
     private Voices entireMusic;
+    private final Backend backend;
+    private ParseListener listener;
+    
     /**
-     * 
+     * Make a single-use parser with the backend chosen by the karaoke.parser system property.
      */
     public MusicLanguage() {
+        this(Backend.fromSystemProperty());
+    }
+    
+    /**
+     * Make a single-use parser.
+     * @param backend parser backend to use
+     */
+    public MusicLanguage(Backend backend) {
         this.tune = new AbcTune();
         this.builder = new AbcBuilder();
         this.singers = new ArrayList<String>();
         this.entireMusic = new Voices();
+        this.backend = backend;
     }
 
     /**
@@ -67,27 +112,72 @@ public class MusicLanguage {
     
     
 }
+    /**
+     * Classpath location of the grammar, relative to the root of the classpath.
+     */
+    static final String GRAMMAR_RESOURCE = "/karaoke/parser/Abc.g";
+    
+    /**
+     * Fallback location of the grammar when the classpath does not carry the .g file,
+     * relative to the root of the repository.
+     */
+    private static final String GRAMMAR_SOURCE_PATH = "src/karaoke/parser/Abc.g";
+    
     /**
      * Compile the grammar into a parser 
-     * Tries to read the file and catches exceptions (IO and UnableToParse)
+     * Reads the grammar as a classpath resource, falling back to the source tree if the resource
+     * was not copied next to the class files
      * @return parser for the grammar
      */
     private static Parser<MusicGrammar> makeParser() {
-        try {
-            final File grammarFile = new File("src/karaoke/parser/Abc.g");
-            return Parser.compile(grammarFile, MusicGrammar.ABCTUNE);
-            
+        try (InputStream grammar = openGrammar()) {
+            return Parser.compile(grammar, MusicGrammar.ABCTUNE);
         } catch (IOException e) {
             throw new RuntimeException("can't read the grammar file", e);
         } catch (UnableToParseException e) {
             throw new RuntimeException("the grammar has a syntax error", e);
         }
-
+    }
+    
+    /**
+     * @return stream of the grammar text, from the classpath if present, otherwise from the source tree
+     * @throws IOException if the grammar can be found in neither place
+     */
+    static InputStream openGrammar() throws IOException {
+        final InputStream resource = MusicLanguage.class.getResourceAsStream(GRAMMAR_RESOURCE);
+        if (resource != null) {
+            return resource;
+        }
+        return new FileInputStream(new File(GRAMMAR_SOURCE_PATH));
+    }
+    
+    /**
+     * Holder for the compiled grammar. The JVM initializes this class on the first call to
+     * getParser(), so the grammar is compiled exactly once, lazily, and safely published
+     * to every thread. The compiled Parser is immutable and shared by all MusicLanguage instances.
+     */
+    private static class ParserHolder {
+        private static final Parser<MusicGrammar> PARSER = makeParser();
+    }
+    
+    /**
+     * @return the shared compiled parser for the ABC grammar
+     */
+    private static Parser<MusicGrammar> getParser() {
+        return ParserHolder.PARSER;
+    }
+    
+    /**
+     * Compile the grammar ahead of the first call to parse(), e.g. while a server is starting up.
+     * Calling this more than once has no further effect.
+     */
+    public static void warmUp() {
+        getParser();
     }
     
     // need an enum for the different variants we have, can be edited later I just made it so that the method above 
     // wouldn't have an error
-    private static enum MusicGrammar {
+    static enum MusicGrammar {
         ABCTUNE, ABCHEADER, FIELDNUMBER, FIELDTITLE, OTHERFIELDS, FIELDCOMPOSER, KEYACCIDENTAL,
         TEXT,WHITESPACE, MIDDLEOFBODYFIELD,LYRICTEXT,COMMENTTEXT,FIELDDEFAULTLENGTH, FIELDMETER, 
         FIELDTEMPO, FIELDVOICE, FIELDKEY, KEY, KEYNOTE,MODEMINOR,METER, METERFRACTION,ABCBODY, 
@@ -114,8 +204,6 @@ public class MusicLanguage {
         }
         return contentBuilder.toString();
     }
-    private static Parser<MusicGrammar> parser = makeParser();
-
     /**
      * Parse a string into Music.
      * @param string string to parse
@@ -123,11 +211,52 @@ public class MusicLanguage {
      * @throws UnableToParseException if the string doesn't match the Music grammar
      */
     public AbcTune parse(final String string) throws UnableToParseException {
-        final ParseTree<MusicGrammar> parseTree = parser.parse(string);
+        if (backend == Backend.DIRECT) {
+            try {
+                new AbcDirectParser(string, this).parseTune();
+            } catch (IOException e) {
+                throw new AssertionError("a String is never read from a Reader", e);
+            }
+            return this.tune;
+        }
+        final ParseTree<MusicGrammar> parseTree = getParser().parse(string);
         makeAbstractSyntaxTree(parseTree);
         return this.tune;
 
     }
+    
+    /**
+     * Parse abc text while it is being read, telling listener about every bar and major section as soon as the
+     * line that finishes it has been read, so that they can be played before the rest of the text arrives.
+     * Only one line of the text is held in memory at a time.
+     * Always uses the DIRECT backend, whatever this parser was made with. Unlike parse(String), lines that were
+     * read before a line that does not parse have already been passed to listener when the exception is thrown.
+     * Whitespace at the end of the text is ignored.
+     * @param reader source of the abc text; it is read to the end but not closed
+     * @param listener told about the pieces of the tune while it is parsed
+     * @return the whole tune, once reader is exhausted
+     * @throws IOException if reader fails
+     * @throws UnableToParseException if the text doesn't match the Music grammar
+     */
+    public AbcTune parse(final Reader reader, final ParseListener listener) throws IOException, UnableToParseException {
+        this.listener = listener;
+        this.builder.setParseListener(listener);
+        new AbcDirectParser(reader, this).parseTune();
+        return this.tune;
+    }
+    
+    /**
+     * Parse UTF-8 abc text while it is being read, as parse(Reader, ParseListener) does.
+     * @param channel source of the abc text; it is read to the end but not closed
+     * @param listener told about the pieces of the tune while it is parsed
+     * @return the whole tune, once channel is exhausted
+     * @throws IOException if channel fails
+     * @throws UnableToParseException if the text doesn't match the Music grammar
+     */
+    public AbcTune parse(final ReadableByteChannel channel, final ParseListener listener)
+            throws IOException, UnableToParseException {
+        return parse(Channels.newReader(channel, "UTF-8"), listener);
+    }
 
     
     /**
@@ -147,8 +276,7 @@ public class MusicLanguage {
             }
             case FIELDNUMBER:  // "X:" digit+ endOfLine;
             {
-                int digit = Integer.parseInt(children.get(0).text());
-                this.tune.setIndexNumber(digit);    
+                indexNumber(children.get(0).text());
                 return;
                 
             }
@@ -160,14 +288,14 @@ public class MusicLanguage {
                 return;
 
             }
+            case COMMENT:
             case COMMENTTEXT:
                 
                 return;
                 
             case FIELDTITLE: // fieldTitle ::= "T:" text endOfLine;
             {   
-                String title = children.get(0).text();
-                this.tune.setTitle(title);    
+                this.tune.setTitle(children.get(0).text());    
                 return;
 
 
@@ -181,16 +309,14 @@ public class MusicLanguage {
             }
             case FIELDCOMPOSER: //fieldComposer ::= "C:" text endOfLine;
             {
-                String composer = children.get(0).text();
-                this.tune.setComposer(composer);
+                this.tune.setComposer(children.get(0).text());
                 return;
             }
             
             case FIELDDEFAULTLENGTH: //fieldDefaultLength ::= "L:" noteLengthStrict endOfLine;
                                      //noteLengthStrict ::= digit+ "/" digit+;
             {
-                String number = children.get(0).text();
-                this.tune.setNoteLength(number);
+                this.tune.setNoteLength(children.get(0).text());
                 return;
             
             }
@@ -212,9 +338,7 @@ public class MusicLanguage {
             }
             case FIELDVOICE: // fieldVoice ::= "V:" text endOfLine;
             {
-               String name = parseTree.text();
-               String singer = name.substring(name.indexOf(":")+1).replaceAll("\\s","");
-               singers.add(singer);
+               headerVoice(parseTree.text());
                return;
             }
             case FIELDKEY: //   fieldKey ::= "K:" key endOfLine;
@@ -224,7 +348,7 @@ public class MusicLanguage {
             }
             case KEY:               
             {
-                this.tune.setAccidental(parseTree.text().replaceAll("\\s",""));
+                key(parseTree.text());
               return;
             }
 
@@ -260,15 +384,7 @@ public class MusicLanguage {
 
         switch (parseTree.name()) {
             case ABCBODY: { //abcBody ::= abcLine+;
-                if(singers.size()==0) {
-                    this.entireMusic = new Voices();
-                    builder.addSingers();
-                }
-                else {
-                    this.entireMusic = new Voices(singers);
-                    builder.addSingers(singers);
-                }
-                
+                beginBody();
                 for(int i = 0;i<children.size();i++) {
                     if (i == children.size()-1) {
                         builder.setLastLine(true);
@@ -276,145 +392,27 @@ public class MusicLanguage {
                     }
                     makeAbstractSyntaxTreeMusic(children.get(i));
                 }
-                this.tune.setMusic(this.entireMusic);
+                endBody();
                 return;
                 
             }
             case ABCLINE: //abcLine ::= (noteElement | restElement | tupletElement | barline | nthRepeat | spaceOrTab)+ 
                           //endOfLine (lyric endOfLine)?  | middleOfBodyField | comment;
             {
-                
-                builder.setStatus("Bar");
-                // if lyrics exist, parse it first. Might want to make code more readable.
-                if(children.size() > 2 && children.get(children.size()-2).name().equals(MusicGrammar.LYRIC)) {
-                    makeAbstractSyntaxTreeMusic(children.get(children.size()-2));
-                }
-                else if(children.size()==1 && (children.get(0).name().equals(MusicGrammar.MIDDLEOFBODYFIELD) )) {
-                    makeAbstractSyntaxTreeMusic(children.get(0));
-                    return;
-                }
-                
-                if(children.get(0).name().equals(MusicGrammar.COMMENT) && builder.isLastLine()) {
-                    
-                    builder.resetBar();
-                    Map<String, VoiceBuilder> musicForVoice = builder.getMusicForVoice();
-                    for (String s : musicForVoice.keySet()) {
-                        VoiceBuilder currentVoiceBuilder = musicForVoice.get(s);
-                        Concat music = currentVoiceBuilder.endMajorSection();
-                        
-                        if(singers.size()==0) {
-                            this.entireMusic = this.entireMusic.addMusic(music);
-                        }
-                        else {
-                            this.entireMusic = this.entireMusic.addMusic(s, music);
-
-                        }
+                abcLine(new AbcLine() {
+                    @Override public int size() {
+                        return children.size();
                     }
-                    return;
-                }
-                else if(children.get(0).name().equals(MusicGrammar.COMMENT))
-                {
-                    
-                    return;
-                }
-                builder.setInMusic(true);
-
-                for(int i = 0; i< children.size(); i++) {
-
-                    MusicGrammar childName = children.get(i).name();
-                    String childText = children.get(i).text();
-                    if (builder.isLastLine() && i == children.size() - 1) {
-                        builder.resetBar();
-                        Map<String, VoiceBuilder> musicForVoice = builder.getMusicForVoice();
-                        for (String s : musicForVoice.keySet()) {
-                            VoiceBuilder currentVoiceBuilder = musicForVoice.get(s);
-                            Concat music = currentVoiceBuilder.endMajorSection();
-                            
-                            if(singers.size()==0) {
-                                this.entireMusic = this.entireMusic.addMusic(music);
-                            }
-                            else {
-                                this.entireMusic = this.entireMusic.addMusic(s, music);
-
-                            }
-                        }
-                    }
-                    
-                    else if(childText.equals("||") || childText.equals("[|") || childText.equals("|]")) {
-                         builder.resetBar();
-                         VoiceBuilder currentVoiceBuilder = builder.getCurrentVoiceBuilder();
-                         Concat music = currentVoiceBuilder.endMajorSection();
-                         
-                         if(singers.size()==0) {
-                             this.entireMusic = this.entireMusic.addMusic(music);
-                         }
-                         else {
-                             this.entireMusic = this.entireMusic.addMusic(builder.getSinger(), music);
-
-                         }
-                     }
-                    else if(childName.equals(MusicGrammar.SPACEORTAB)) {
-
-                        continue;
+                    @Override public MusicGrammar name(int i) {
+                        return children.get(i).name();
                     }
-                    // also how do we parse the last note in the bar if we do this
-                    else if(i+1<children.size() && children.get(i+1).text().equals("[1")) { //if at first repeat ending
-                        builder.resetBar();
-                        VoiceBuilder currentVoiceBuilder = builder.getCurrentVoiceBuilder();
-                        currentVoiceBuilder.setSimpleRepeat(false);
-                        if (currentVoiceBuilder.getRepeatStatus().equals(RepeatStatus.BEGIN_REPEAT)) {
-                            currentVoiceBuilder.setRepeatStatus(RepeatStatus.FIRST_REPEAT);
-                        }
-                        else {
-                            assert currentVoiceBuilder.getRepeatStatus().equals(RepeatStatus.NO_REPEAT);
-                            currentVoiceBuilder.setRepeatsFromMajorSec(); // put all the major section bars into repeats
-                            currentVoiceBuilder.setRepeatStatus(RepeatStatus.FIRST_REPEAT);
-                        }
-                    }
-                    
-                    else if(children.get(i).text().equals(":|")) {
-                        VoiceBuilder currentVoiceBuilder = builder.getCurrentVoiceBuilder();
-                        builder.resetBar();
-                        if (!currentVoiceBuilder.getSimpleRepeat()) {
-                            currentVoiceBuilder.stageRegularRepeat();
-                        }
-                        else {
-                            currentVoiceBuilder.stageSimpleRepeat();
-                        }
-                    }
-                    
-                    else if(i+1<children.size() && children.get(i+1).text().equals("[2")) { //if at second repeat ending
-                        
-                        VoiceBuilder currentVoiceBuilder = builder.getCurrentVoiceBuilder();
-                        assert currentVoiceBuilder.getRepeatStatus().equals(RepeatStatus.FIRST_REPEAT);
-                        builder.resetBar();
-                        currentVoiceBuilder.stageRegularRepeat();
-                    }
-                    else if(children.get(i).text().equals("[1") || children.get(i).text().equals("[2")) {
-                        continue;
-                    }
-                    else if((i+1<children.size() && children.get(i).text().equals("|:"))) {
-                        builder.resetBar();
-                        builder.getCurrentVoiceBuilder().setRepeatStatus(RepeatStatus.BEGIN_REPEAT);
-                        
-                    }
-
-                    else if(childName.equals(MusicGrammar.BARLINE)) {
-                        builder.resetBar();
+                    @Override public boolean textEquals(int i, String text) {
+                        return children.get(i).text().equals(text);
                     }
-                    else if(childName.equals(MusicGrammar.ENDOFLINE)) {
-                        builder.resetBar();
-                    }
-                    else if(childName.equals(MusicGrammar.LYRIC)){
-                        continue;
-                    }
-
-                    else {
-
+                    @Override public void build(int i) {
                         makeAbstractSyntaxTreeMusic(children.get(i));
                     }
-                    
-                }
+                });
                 return;
 
             }
@@ -425,318 +423,56 @@ public class MusicLanguage {
             }
             case NOTE:  //note ::= pitch noteLength?;
             {
-                //calculating pitch
                 //pitch ::= accidental? basenote octave?;
                 List<ParseTree<MusicGrammar>> pitchList = children.get(0).children();
-                Character pitchChar = null; // do we really need null here.
-                Pitch pitch = null;
-
-                if(pitchList.size()==1) {
-                    pitchChar = pitchList.get(0).text().charAt(0); // assert length of text() == 1
-                    
-
-                    pitch = builder.applyKeyAccidental(Character.toUpperCase(pitchChar),this.tune.getAccidental()); // why uppercase
-
-                }
-                else if(pitchList.size()==2) {
-                    //found accidental
-                    if(pitchList.get(0).name().equals(MusicGrammar.ACCIDENTAL)) {
-                        pitchChar = pitchList.get(1).text().charAt(0); 
-                        String accidentalType = pitchList.get(0).text();
-                        builder.addAccidental(Character.toUpperCase(pitchChar),accidentalType);
-                        
-                       pitch = new Pitch(Character.toUpperCase(pitchChar));
-                       
-                       // what if accidental of type "^^", "__", "="
-                        if(accidentalType.indexOf("^")!=-1) {
-                            for(int i = 0; i<accidentalType.length();i++) {
-                                pitch = pitch.transpose(1);
-                            }
-                        }
-                        else if(accidentalType.indexOf("_")!=-1) {
-                            for(int i = 0; i<accidentalType.length();i++) {
-                                pitch = pitch.transpose(-1);
-                            }
-                        }
-                    }
-                    //found octave
-                    else {
-                        pitchChar = pitchList.get(0).text().charAt(0);
-                        String octaveType = pitchList.get(1).text();
-                        
-                        pitch = builder.applyKeyAccidental(Character.toUpperCase(pitchChar),this.tune.getAccidental());
-                        // what if multiple ' or ,
-                        if(octaveType.indexOf("'")!=-1) {
-                            for(int i = 0; i<octaveType.length();i++) {
-                                pitch = pitch.transpose(Pitch.OCTAVE);
-                            }
-                        }
-                        else if(octaveType.indexOf(",")!=-1) {
-                            for(int i = 0; i<octaveType.length();i++) {
-                                pitch = pitch.transpose(-Pitch.OCTAVE);
-                            }
-                        }                        
-                    }
-                }
-                
-                // can use an else statement here and an assert in the beginning to assert
-                // pitchList.size() is either 1, 2 or 3
-                else if(pitchList.size() == 3) {
-                    String accidentalType = pitchList.get(0).text();
-                    pitchChar = pitchList.get(1).text().charAt(0); 
-                    String octaveType = pitchList.get(2).text();
-                    
-                    pitch = new Pitch(Character.toUpperCase(pitchChar));
-
-                    if(accidentalType.indexOf("^")!=-1) {
-                        for(int i = 0; i<accidentalType.length();i++) {
-                            pitch = pitch.transpose(1);
-                        }
-                    }
-                    else if(accidentalType.indexOf("_")!=-1) {
-                        for(int i = 0; i<accidentalType.length();i++) {
-                            pitch = pitch.transpose(-1);
-                        }
-                    }
-
-                    if(octaveType.indexOf("'")!=-1) {
-                        for(int i = 0; i<octaveType.length();i++) {
-                            pitch = pitch.transpose(Pitch.OCTAVE);
-                        }
-                    }
-                    else if(octaveType.indexOf(",")!=-1) {
-                        for(int i = 0; i<octaveType.length();i++) {
-                            pitch = pitch.transpose(-Pitch.OCTAVE);
-                        }
-                    }                        
-
-                }
-                if(Character.isLowerCase(pitchChar)) {
-
-                    pitch = pitch.transpose(Pitch.OCTAVE);
-
-                }
-                // maybe start a new method here
-                String noteLength = children.get(1).text(); // notelength might not be present
-                double duration;
-                if(noteLength.length()==0) {
-                    duration = 1;
-                }
-                else if(noteLength.equals("/")) {
-                    duration = 1.0/2;
-                }
-                else if(noteLength.length()==2) {
-                    if(noteLength.substring(1).equals("/")) {
-                        duration = convertToDouble(noteLength + "1");
-                    } 
-                    else {
-                        duration = convertToDouble("1" + noteLength);
-                    }
+                String accidental = null;
+                String octave = null;
+                int basenote = 0;
+                if(pitchList.get(0).name().equals(MusicGrammar.ACCIDENTAL)) {
+                    accidental = pitchList.get(0).text();
+                    basenote = 1;
                 }
-                else {
-                    duration = convertToDouble(noteLength);
-
-                }
-                String meter = this.tune.getMeter();
-                
-                if(!this.tune.getNoteLength().isEmpty()) {
-                    duration = duration*convertToDouble(this.tune.getNoteLength())*Double.parseDouble(meter.substring(meter.indexOf("/")+1));
-
-                }
-                else {
-                    duration = duration*Double.parseDouble(meter.substring(meter.indexOf("/")+1)); // multiply by 1/4 since that's implicit
-
-                }
-                if(builder.getStatus().equals("Tuplet")) {
-                    duration*=builder.getTupletDuration();
-                }
-                
-                Note note = new Note(pitch,duration,builder.getLyricOnCount(),builder.getSinger());//made change here
-                if(builder.getStatus().equals("Bar")) {
-                    builder.addToBar(note);
-                    
-                }
-                if(builder.getStatus().equals("Chord")) {
-                    builder.addToChord(note);
-
-                }
-                if(builder.getStatus().equals("Tuplet")) {
-                    builder.addToTuplet(note);
-
+                if(pitchList.size() > basenote + 1) {
+                    octave = pitchList.get(basenote + 1).text();
                 }
+                note(accidental, pitchList.get(basenote).text().charAt(0), octave, children.get(1).text());
                 return;
             }
 
-            case RESTELEMENT: // similar calculation like above for rest might be necessary here too
+            case RESTELEMENT:
             {
-                String durationString = children.get(0).text();
-                double duration;
-                if(durationString.length()==0) {
-                    duration = 1;
-                }
-                else if(durationString.equals("/")) {
-                    duration = 1.0/2;
-                }
-                else if(durationString.length()==2) {
-                    if(durationString.substring(1).equals("/")) {
-                        duration = convertToDouble(durationString + "1");
-                    } 
-                    else {
-                        duration = convertToDouble("1" + durationString);
-                    }
-                }
-                else {
-                    duration = convertToDouble(durationString);
-
-                }
-                
-                String meter = this.tune.getMeter();
-                
-                if(!this.tune.getNoteLength().isEmpty()) {
-                    duration = duration*convertToDouble(this.tune.getNoteLength())*Double.parseDouble(meter.substring(meter.indexOf("/")+1));
-
-                }
-                else {
-                    duration = duration*Double.parseDouble(meter.substring(meter.indexOf("/")+1)); // multiply by 1/4 since that's implicit
-
-                }
-
-                
-                builder.addToBar(new Rest(duration));
+                rest(children.get(0).text());
                 return;
                 
             }
             case TUPLETELEMENT:  // tupletElement ::= tupletSpec noteElement+;
                                  // tupletSpec ::= "(" digit;
             {
-                String prevStatus = builder.getStatus(); // why all this
-                builder.setStatus("Tuplet");
                 String durationString = children.get(0).text().substring(1);
-                double duration = 0;
-                if(durationString.equals("3")) {
-                    duration = 2.0/3;
-                }
-                else if(durationString.equals("2")) {
-                    duration = 3.0/2;
-
-                }
-                else if(durationString.equals("4")) {
-                    duration = 3.0/4;
-                }
-                duration = (double) Math.round(duration * 100) / 100;
-                builder.setTupletDuration(duration);
+                AbcBuilder.State prevStatus = beginTuplet(durationString);
                 for(int i =1; i<children.size(); i++) {
                     makeAbstractSyntaxTreeMusic(children.get(i));
                 }
-                List<Music> tupletNotes = builder.getTupletNotes();
-
-                Tuplet tuplet = new Tuplet(tupletNotes,Double.parseDouble(durationString));
-
-                builder.setStatus(prevStatus);
-                if(builder.getStatus().equals("Bar")) {
-                    builder.addToBar(tuplet);
-                    builder.resetTuplet();
-                    
-                }
-
+                endTuplet(prevStatus, durationString);
                 return;
             }
             case CHORD: //chord ::= "[" note+ "]"
             {
-                String prevStatus = builder.getStatus();
-                builder.setStatus("Chord");
+                AbcBuilder.State prevStatus = beginChord();
                 for(int i =0; i<children.size();i++) {
                     makeAbstractSyntaxTreeMusic(children.get(i));
                 }
-                List<Note> chordNotes = builder.getChordNotes();
-                Chord chord = new Chord(chordNotes);
-                builder.setStatus(prevStatus);
-                if(builder.getStatus().equals("Bar")) {
-                    builder.addToBar(chord);
-                    builder.resetChord();
-
-                    
-                }
-                if(builder.getStatus().equals("Tuplet")) {
-                    builder.addToTuplet(chord);
-                    builder.resetChord();
-
-
-                }
+                endChord(prevStatus);
                 return;
                 
             }
             case LYRIC: //lyricalElement ::= " "+ | "-" | "_" | "*" | "~" | backslashHyphen | "|" | lyricText;
             {
-               List<String> lyrics = new ArrayList<String>();
-               boolean waitForNext = false;
-               String word = "";
-               
-               for(int i =0; i<children.size();i++) {
-                   String text = children.get(i).text();
-                   
-                   if (text.startsWith(" ")) { // issue with multiple spaces
-                       if (i ==0) {continue;}
-                       else {lyrics.add(" ");}
-                   }
-                   else if (text.equals("-")) {
-                       String lastChar = lyrics.get(lyrics.size()-1);
-                       if (lastChar.equals(" ") || lastChar.equals("-")) {
-                           lyrics.add("");
-                       }
-                       continue;
-                   }
-                   else if (text.equals("_")) {
-                       lyrics.add("_");
-                   }
-                   else if(text.equals("*")) {
-                       lyrics.add(""); // -1 represents a blank syllable
-                   }
-                   else if(text.equals("~")) {
-                       continue;
-                   }
-                   else if(text.equals("|")) {
-                       continue;
-                   }
-                   else if(text.equals("\\-")) {
-                       lyrics.add("-");
-                   }
-                   else {
-                       if(i+1<children.size()-1 && children.get(i+1).text().equals("~")) {
-                           word += text + " ";
-                           waitForNext = true;
-                       }
-                       else if(waitForNext && (i+1>=children.size()-1 || !children.get(i+1).text().equals("~")) ) {
-                           word += text;
-                           lyrics.add(word);
-                           word = "";
-                           waitForNext = false;
-                       }
-                       else {
-                           lyrics.add(text);
-                       }
-                   }
+               List<String> elements = new ArrayList<String>();
+               for (ParseTree<MusicGrammar> child : children) {
+                   elements.add(child.text());
                }
-                   
-               
-               List<String> lyrics2 = new ArrayList<String>();
-               for (int i = 0; i< lyrics.size(); i++) {
-                   if (lyrics.get(i).equals(" ")) {
-                       if (i - 1 >=0 && (lyrics.get(i-1).equals(" ") || lyrics.get(i-1).equals(""))) {
-                           continue;
-                       }
-                       else {
-                           lyrics2.add(lyrics.get(i));
-                       }
-                   }
-                   else {
-                       lyrics2.add(lyrics.get(i));
-                   }
-               }
-               System.out.println(lyrics2);
-               System.out.println("Size of lyrics2 "+lyrics2.size());
-               builder.setLyrics(lyrics2);
-               builder.resetLyricsCounter();
+               lyric(elements);
                return;
                
             }
@@ -744,10 +480,7 @@ public class MusicLanguage {
             case MIDDLEOFBODYFIELD: 
                 
             {
-
-                String name = parseTree.text();
-                String singer = name.substring(name.indexOf(":")+1).replaceAll("\\s","");
-                builder.setSinger(singer);
+                bodyVoice(parseTree.text());
                 return;
             }
             case COMMENT:
@@ -758,6 +491,478 @@ public class MusicLanguage {
         }
         
     }
+    
+    /*
+     * Semantic actions shared by both parser backends. Each backend recognizes a piece of abc text and then calls
+     * these in the order the pieces appear, passing the matched text exactly as parserlib would report it.
+     */
+    
+    /**
+     * The children of one abcLine, as the line-level actions in abcLine() see them.
+     */
+    interface AbcLine {
+        /**
+         * @return number of children
+         */
+        int size();
+        
+        /**
+         * @param i index of a child
+         * @return nonterminal the child matched
+         */
+        MusicGrammar name(int i);
+        
+        /**
+         * @param i index of a child
+         * @param text text to compare to
+         * @return true if the child matched exactly text
+         */
+        boolean textEquals(int i, String text);
+        
+        /**
+         * Run the semantic actions for a note, rest, tuplet, lyric or voice field child.
+         * @param i index of the child
+         */
+        void build(int i);
+    }
+    
+    /**
+     * @param firstDigit first digit of the X: field
+     */
+    void indexNumber(String firstDigit) {
+        this.tune.setIndexNumber(Integer.parseInt(firstDigit));
+    }
+    
+    /**
+     * @return the tune being built
+     */
+    AbcTune tune() {
+        return this.tune;
+    }
+    
+    /**
+     * @param fieldText entire text matched by a V: field in the header
+     */
+    void headerVoice(String fieldText) {
+        String singer = fieldText.substring(fieldText.indexOf(":")+1).replaceAll("\\s","");
+        singers.add(singer);
+        this.tune.setVoices(new ArrayList<String>(singers));
+    }
+    
+    /**
+     * @param keyText text matched by the key of the K: field
+     */
+    void key(String keyText) {
+        this.tune.setAccidental(keyText.replaceAll("\\s",""));
+    }
+    
+    /**
+     * Finish the header, before the body is read.
+     */
+    void endHeader() {
+        if (listener != null) {
+            listener.headerParsed(this.tune);
+        }
+    }
+    
+    /**
+     * Start the body, once the whole header has been read.
+     */
+    void beginBody() {
+        if(singers.size()==0) {
+            this.entireMusic = new Voices();
+            builder.addSingers();
+        }
+        else {
+            this.entireMusic = new Voices(singers);
+            builder.addSingers(singers);
+        }
+    }
+    
+    /**
+     * Finish the body after its last line.
+     */
+    void endBody() {
+        this.tune.setMusic(this.entireMusic);
+    }
+    
+    /**
+     * Mark whether the next line passed to abcLine() is the last line of the body.
+     * @param lastLine true if it is the last line
+     */
+    void lastLine(boolean lastLine) {
+        builder.setLastLine(lastLine);
+    }
+    
+    /**
+     * Line-level actions for one abcLine.
+     * @param children children of the line
+     */
+    void abcLine(AbcLine children) {
+        builder.beginLine();
+        // if lyrics exist, parse it first. Might want to make code more readable.
+        if(children.size() > 2 && children.name(children.size()-2).equals(MusicGrammar.LYRIC)) {
+            children.build(children.size()-2);
+        }
+        else if(children.size()==1 && (children.name(0).equals(MusicGrammar.MIDDLEOFBODYFIELD) )) {
+            children.build(0);
+            return;
+        }
+        
+        if(children.name(0).equals(MusicGrammar.COMMENT) && builder.isLastLine()) {
+            builder.resetBar();
+            endAllMajorSections();
+            return;
+        }
+        else if(children.name(0).equals(MusicGrammar.COMMENT))
+        {
+            
+            return;
+        }
+        builder.setInMusic(true);
+
+        for(int i = 0; i< children.size(); i++) {
+
+            MusicGrammar childName = children.name(i);
+            if (builder.isLastLine() && i == children.size() - 1) {
+                builder.resetBar();
+                endAllMajorSections();
+            }
+            
+            else if(children.textEquals(i, "||") || children.textEquals(i, "[|") || children.textEquals(i, "|]")) {
+                 builder.resetBar();
+                 VoiceBuilder currentVoiceBuilder = builder.getCurrentVoiceBuilder();
+                 Concat music = currentVoiceBuilder.endMajorSection();
+                 addSection(builder.getSinger(), music);
+             }
+            else if(childName.equals(MusicGrammar.SPACEORTAB)) {
+
+                continue;
+            }
+            // also how do we parse the last note in the bar if we do this
+            else if(i+1<children.size() && children.textEquals(i+1, "[1")) { //if at first repeat ending
+                builder.resetBar();
+                VoiceBuilder currentVoiceBuilder = builder.getCurrentVoiceBuilder();
+                currentVoiceBuilder.setSimpleRepeat(false);
+                if (currentVoiceBuilder.getRepeatStatus() == RepeatStatus.BEGIN_REPEAT) {
+                    currentVoiceBuilder.setRepeatStatus(RepeatStatus.FIRST_REPEAT);
+                }
+                else {
+                    assert currentVoiceBuilder.getRepeatStatus() == RepeatStatus.NO_REPEAT;
+                    currentVoiceBuilder.setRepeatsFromMajorSec(); // put all the major section bars into repeats
+                    currentVoiceBuilder.setRepeatStatus(RepeatStatus.FIRST_REPEAT);
+                }
+            }
+            
+            else if(children.textEquals(i, ":|")) {
+                VoiceBuilder currentVoiceBuilder = builder.getCurrentVoiceBuilder();
+                builder.resetBar();
+                if (!currentVoiceBuilder.getSimpleRepeat()) {
+                    currentVoiceBuilder.stageRegularRepeat();
+                }
+                else {
+                    currentVoiceBuilder.stageSimpleRepeat();
+                }
+            }
+            
+            else if(i+1<children.size() && children.textEquals(i+1, "[2")) { //if at second repeat ending
+                
+                VoiceBuilder currentVoiceBuilder = builder.getCurrentVoiceBuilder();
+                assert currentVoiceBuilder.getRepeatStatus() == RepeatStatus.FIRST_REPEAT;
+                builder.resetBar();
+                currentVoiceBuilder.stageRegularRepeat();
+            }
+            else if(children.textEquals(i, "[1") || children.textEquals(i, "[2")) {
+                continue;
+            }
+            else if((i+1<children.size() && children.textEquals(i, "|:"))) {
+                builder.resetBar();
+                builder.getCurrentVoiceBuilder().setRepeatStatus(RepeatStatus.BEGIN_REPEAT);
+                
+            }
+
+            else if(childName.equals(MusicGrammar.BARLINE)) {
+                builder.resetBar();
+            }
+            else if(childName.equals(MusicGrammar.ENDOFLINE)) {
+                builder.resetBar();
+            }
+            else if(childName.equals(MusicGrammar.LYRIC)){
+                continue;
+            }
+
+            else {
+
+                children.build(i);
+            }
+            
+        }
+    }
+    
+    /**
+     * End the major section of every voice and add it to the music.
+     */
+    private void endAllMajorSections() {
+        Map<String, VoiceBuilder> musicForVoice = builder.getMusicForVoice();
+        for (String s : musicForVoice.keySet()) {
+            VoiceBuilder currentVoiceBuilder = musicForVoice.get(s);
+            Concat music = currentVoiceBuilder.endMajorSection();
+            addSection(s, music);
+        }
+    }
+    
+    /**
+     * Add a finished major section to the music of a voice.
+     * @param singer voice of the section, ignored if the tune has no voices
+     * @param music the section
+     */
+    private void addSection(String singer, Concat music) {
+        if(singers.size()==0) {
+            this.entireMusic = this.entireMusic.addMusic(music);
+            singer = "OneVoice";
+        }
+        else {
+            this.entireMusic = this.entireMusic.addMusic(singer, music);
+        }
+        if (listener != null) {
+            listener.sectionParsed(singer, music);
+        }
+    }
+    
+    /**
+     * Build a note and add it to the current bar, chord or tuplet.
+     * @param accidental accidental before the note, or null if none
+     * @param pitchChar the basenote
+     * @param octave octave marks after the note, or null if none
+     * @param noteLength text of the note length, possibly empty
+     */
+    void note(String accidental, char pitchChar, String octave, String noteLength) {
+        // the pitch is computed as semitones above the basenote in the middle octave, and looked up once
+        final char basenote = Character.toUpperCase(pitchChar);
+        int semitonesUp;
+        if(accidental == null) {
+            semitonesUp = builder.keySemitones(basenote, this.tune.getAccidental());
+        }
+        else {
+            //found accidental
+            if(octave == null) {
+                builder.addAccidental(basenote,accidental);
+            }
+            semitonesUp = accidentalSemitones(accidental);
+        }
+        //found octave
+        if(octave != null) {
+            semitonesUp += octaveSemitones(octave);
+        }
+        if(Character.isLowerCase(pitchChar)) {
+            semitonesUp += Pitch.OCTAVE;
+        }
+        final Pitch pitch = Pitch.of(basenote, semitonesUp);
+        double duration = duration(noteLength);
+        if(builder.getState() == AbcBuilder.State.TUPLET) {
+            duration*=builder.getTupletDuration();
+        }
+        
+        builder.addNote(builder.noteOnCount(pitch, duration));
+    }
+    
+    /**
+     * @param accidentalType "^", "^^", "_", "__" or "="
+     * @return semitones the accidental raises a note by: one per "^", minus one per "_"
+     */
+    private static int accidentalSemitones(String accidentalType) {
+        switch (accidentalType.charAt(0)) {
+        case '^':
+            return accidentalType.length();
+        case '_':
+            return -accidentalType.length();
+        default:
+            return 0;
+        }
+    }
+    
+    /**
+     * @param octaveType one or more "'", or one or more ","
+     * @return semitones the octave marks raise a note by: an octave per "'", minus an octave per ","
+     */
+    private static int octaveSemitones(String octaveType) {
+        return (octaveType.charAt(0) == '\'' ? Pitch.OCTAVE : -Pitch.OCTAVE) * octaveType.length();
+    }
+    
+    /**
+     * Build a rest and add it to the current bar.
+     * @param noteLength text of the rest length, possibly empty
+     */
+    void rest(String noteLength) {
+        builder.addToBar(new Rest(duration(noteLength)));
+    }
+    
+    /**
+     * @param noteLength text of a note length, possibly empty
+     * @return duration in beats, given the meter and default note length of the tune
+     */
+    private double duration(String noteLength) {
+        double duration;
+        if(noteLength.length()==0) {
+            duration = 1;
+        }
+        else if(noteLength.equals("/")) {
+            duration = 1.0/2;
+        }
+        else if(noteLength.length()==2) {
+            if(noteLength.substring(1).equals("/")) {
+                duration = convertToDouble(noteLength + "1");
+            } 
+            else {
+                duration = convertToDouble("1" + noteLength);
+            }
+        }
+        else {
+            duration = convertToDouble(noteLength);
+
+        }
+        String meter = this.tune.getMeter();
+        
+        if(!this.tune.getNoteLength().isEmpty()) {
+            duration = duration*convertToDouble(this.tune.getNoteLength())*Double.parseDouble(meter.substring(meter.indexOf("/")+1));
+
+        }
+        else {
+            duration = duration*Double.parseDouble(meter.substring(meter.indexOf("/")+1)); // multiply by 1/4 since that's implicit
+
+        }
+        return duration;
+    }
+    
+    /**
+     * Start a tuplet; its notes follow.
+     * @param durationString the digit of the tuplet spec
+     * @return state to restore in endTuplet()
+     */
+    AbcBuilder.State beginTuplet(String durationString) {
+        double duration = 0;
+        if(durationString.equals("3")) {
+            duration = 2.0/3;
+        }
+        else if(durationString.equals("2")) {
+            duration = 3.0/2;
+
+        }
+        else if(durationString.equals("4")) {
+            duration = 3.0/4;
+        }
+        duration = (double) Math.round(duration * 100) / 100;
+        return builder.beginTuplet(duration);
+    }
+    
+    /**
+     * Finish a tuplet and add it to the current bar.
+     * @param prevStatus state returned by beginTuplet()
+     * @param durationString the digit of the tuplet spec
+     */
+    void endTuplet(AbcBuilder.State prevStatus, String durationString) {
+        builder.endTuplet(prevStatus, Double.parseDouble(durationString));
+    }
+    
+    /**
+     * Start a chord; its notes follow.
+     * @return state to restore in endChord()
+     */
+    AbcBuilder.State beginChord() {
+        return builder.beginChord();
+    }
+    
+    /**
+     * Finish a chord and add it to the current bar or tuplet.
+     * @param prevStatus state returned by beginChord()
+     */
+    void endChord(AbcBuilder.State prevStatus) {
+        builder.endChord(prevStatus);
+    }
+    
+    /**
+     * Set the lyrics for the notes of the current line.
+     * @param elements text of each lyricalElement of a w: line
+     */
+    void lyric(List<String> elements) {
+        List<String> lyrics = new ArrayList<String>();
+        boolean waitForNext = false;
+        String word = "";
+        
+        for(int i =0; i<elements.size();i++) {
+            String text = elements.get(i);
+            
+            if (text.startsWith(" ")) { // issue with multiple spaces
+                if (i ==0) {continue;}
+                else {lyrics.add(" ");}
+            }
+            else if (text.equals("-")) {
+                String lastChar = lyrics.get(lyrics.size()-1);
+                if (lastChar.equals(" ") || lastChar.equals("-")) {
+                    lyrics.add("");
+                }
+                continue;
+            }
+            else if (text.equals("_")) {
+                lyrics.add("_");
+            }
+            else if(text.equals("*")) {
+                lyrics.add(""); // -1 represents a blank syllable
+            }
+            else if(text.equals("~")) {
+                continue;
+            }
+            else if(text.equals("|")) {
+                continue;
+            }
+            else if(text.equals("\\-")) {
+                lyrics.add("-");
+            }
+            else {
+                if(i+1<elements.size()-1 && elements.get(i+1).equals("~")) {
+                    word += text + " ";
+                    waitForNext = true;
+                }
+                else if(waitForNext && (i+1>=elements.size()-1 || !elements.get(i+1).equals("~")) ) {
+                    word += text;
+                    lyrics.add(word);
+                    word = "";
+                    waitForNext = false;
+                }
+                else {
+                    lyrics.add(text);
+                }
+            }
+        }
+            
+        
+        List<String> lyrics2 = new ArrayList<String>();
+        for (int i = 0; i< lyrics.size(); i++) {
+            if (lyrics.get(i).equals(" ")) {
+                if (i - 1 >=0 && (lyrics.get(i-1).equals(" ") || lyrics.get(i-1).equals(""))) {
+                    continue;
+                }
+                else {
+                    lyrics2.add(lyrics.get(i));
+                }
+            }
+            else {
+                lyrics2.add(lyrics.get(i));
+            }
+        }
+        LOG.debug("lyrics {}, {} syllables", lyrics2, lyrics2.size());
+        builder.setLyrics(lyrics2);
+        builder.resetLyricsCounter();
+    }
+    
+    /**
+     * Switch to the voice named by a V: field in the body.
+     * @param fieldText entire text matched by the field
+     */
+    void bodyVoice(String fieldText) {
+        String singer = fieldText.substring(fieldText.indexOf(":")+1).replaceAll("\\s","");
+        builder.setSinger(singer);
+    }
 
     /**
      * Converts a string fraction to a double
@@ -2,6 +2,10 @@ package karaoke.sound;
 
 import java.util.Map;
 import java.util.concurrent.BlockingQueue;
+import java.util.function.Consumer;
+
+import karaoke.log.Log;
+import karaoke.log.Logger;
 
 /**
  * Immutable data type Note represents a note played by an instrument.
@@ -10,25 +14,33 @@ import java.util.concurrent.BlockingQueue;
  */
 public class Note implements Music {
 
-    /* AF(duration, pitch, instrument, lyrics ): Represents a note of pitch {@param pitch} played on instrument {@param instrument}
+    /* AF(duration, pitch, instrument, lyrics, line, syllable ): Represents a note of pitch {@param pitch} played on instrument {@param instrument}
      *                                  for duration (in number of beats) {@param duration}  with corresponding syllable (@param lyrics)
      *  
      * Rep Invariant:
      * - duration >= 0
-     * - lyrics is the corresponding syllable or "no lyrics" if no lyrics 
+     * - lyrics is the corresponding syllable, or NO_LYRICS if the note sings none
+     * - if line is not null, lyrics is line.frame(syllable): the note sings syllable {@param syllable} of lyric line {@param line}
      * 
-     * Safety From Rep Exposure: All fields are private, final and immutable. Note itself is immutable too.
+     * Safety From Rep Exposure: All fields are private, final and immutable, except line, which is never returned and
+     *                           only ever asked for its frames. Note itself is immutable too.
      * 
      * ThreadSafety Argument: Note is an immutable data-type with no beneficient mutation. duration is a primitive
      *                        datatype and thus threadsafe. pitch is both immutable and threadsafe. And instrument is an enum.
-     *                        Thus, Note is threadsafe.
+     *                        line is threadsafe. Thus, Note is threadsafe.
      */
     
+    private static final Logger LOG = Log.get(Note.class);
+    // lyrics of a note that sings no syllable: it puts nothing on the queue and has no lyric in a Timeline
+    private static final String NO_LYRICS = "-1";
+
     private final double duration;
     private final Pitch pitch;
     private final Instrument instrument;
     private final String lyrics;
     private final String voice;
+    private final LyricLine line;
+    private final int syllable;
     
     private void checkRep() {
         assert pitch != null;
@@ -37,7 +49,7 @@ public class Note implements Music {
     }
 
     /**
-     * Make a Note played by instrument for duration beats.
+     * Make a Note played by instrument for duration beats, that sings no lyric.
      * @param duration duration in beats, must be >= 0
      * @param pitch pitch to play
      */
@@ -45,8 +57,10 @@ public class Note implements Music {
         this.duration = duration;
         this.pitch = pitch;
         this.instrument = Instrument.PIANO;
-        this.lyrics = "-1";
+        this.lyrics = NO_LYRICS;
         this.voice = voice;
+        this.line = null;
+        this.syllable = -1;
         checkRep();
     }
     
@@ -62,6 +76,27 @@ public class Note implements Music {
         this.instrument = Instrument.PIANO;
         this.lyrics = lyrics;
         this.voice = voice;
+        this.line = null;
+        this.syllable = -1;
+        checkRep();
+    }
+
+    /**
+     * Make a Note that sings a syllable of a lyric line.
+     * @param duration duration in beats, must be >= 0
+     * @param pitch pitch to play
+     * @param line lyric line the note sings
+     * @param syllable index of the syllable of line the note sings, highlighted in its lyrics, or -1 for none
+     * @param voice voice singing the note
+     */
+    Note(Pitch pitch, double duration, LyricLine line, int syllable, String voice) {
+        this.duration = duration;
+        this.pitch = pitch;
+        this.instrument = Instrument.PIANO;
+        this.lyrics = line.frame(syllable);
+        this.voice = voice;
+        this.line = line;
+        this.syllable = syllable;
         checkRep();
     }
 
@@ -71,7 +106,7 @@ public class Note implements Music {
      * @return new Note with same fields as earlier but lyrics too.
      */
     public Note noteWithLyrics(String lyric) {
-        assert this.lyrics.equals("-1");
+        assert this.lyrics.equals(NO_LYRICS);
         return new Note(this.pitch, this.duration, lyric);
     }
     
@@ -99,18 +134,45 @@ public class Note implements Music {
     @Override
     public void play(SequencePlayer player, double atBeat,Map<String,BlockingQueue<String>> queue) {
         player.addNote(instrument, pitch, atBeat, duration);
-        player.addEvent(atBeat, (Double beat) -> { if(!lyrics.equals(" ")) { try {
-            System.out.println(lyrics);
-            queue.get(this.voice).put(lyrics);
-        } catch (InterruptedException e) {
-            e.printStackTrace();
-        } } else {
+        if (!lyrics.equals(NO_LYRICS)) {
+            player.addLyric(atBeat, voice, lyrics, queue);
+        }
+    }
+    
+    @Override
+    public void compile(Timeline.Builder timeline, double atBeat) {
+        timeline.addNote(instrument, pitch, atBeat, duration, lyrics.equals(NO_LYRICS) ? null : lyrics, line,
+                syllable, voice);
+    }
+    
+    /**
+     * @param lyrics lyrics of a note
+     * @param line index of the lyric line the lyrics are a frame of, or -1 if none
+     * @param syllable index of the syllable of line they highlight, or -1 for none
+     * @param voice voice singing the note
+     * @param queue blocking queues of the voices
+     * @return callback for the start of the note, which puts its lyrics on the queue of its voice, or "$" if the
+     *         lyrics are " "; an IndexedLyricQueue is offered them with line and syllable
+     */
+    static Consumer<Double> lyricCallback(String lyrics, int line, int syllable, String voice,
+            Map<String,BlockingQueue<String>> queue) {
+        final String sung = lyrics.equals(" ") ? "$" : lyrics;
+        return (Double beat) -> {
+            if (!sung.equals("$")) {
+                LOG.debug("{}: {}", voice, sung);
+            }
+            final BlockingQueue<String> voiceQueue = queue.get(voice);
             try {
-                queue.get(this.voice).put("$");
+                if (voiceQueue instanceof IndexedLyricQueue) {
+                    ((IndexedLyricQueue) voiceQueue).offer(sung, sung.equals("$") ? -1 : line,
+                            sung.equals("$") ? -1 : syllable, beat);
+                } else {
+                    voiceQueue.put(sung);
+                }
             } catch (InterruptedException e) {
-                e.printStackTrace();
-            } }
-        });
+                LOG.warn("interrupted putting a lyric of {}", voice, e);
+            }
+        };
     }
 
     @Override
@@ -0,0 +1,36 @@
+package karaoke.sound;
+
+/**
+ * Told about the pieces of a tune while MusicLanguage is still parsing it, so that they can be used before the rest
+ * of the tune has been read.
+ *
+ * All methods are called on the parsing thread, in the order the pieces appear in the abc text, and as soon as the
+ * line that finishes the piece has been parsed. They do nothing by default.
+ */
+public interface ParseListener {
+
+    /**
+     * Called once, after the header and before any bar.
+     * @param tune the tune being parsed; its header fields are set, but its music is not until parsing ends
+     */
+    default void headerParsed(AbcTune tune) {
+    }
+
+    /**
+     * Called for every finished bar. The bar is also part of the next section of its voice, possibly more than once
+     * if it is repeated, so a listener that plays sections should not play bars too.
+     * @param voice voice the bar belongs to, "OneVoice" if the tune has no voices
+     * @param bar the finished bar
+     */
+    default void barParsed(String voice, Bar bar) {
+    }
+
+    /**
+     * Called for every finished major section. The sections of each voice arrive in order, and played one after the
+     * other they make up the music of that voice.
+     * @param voice voice the section belongs to, "OneVoice" if the tune has no voices
+     * @param section the finished section, with its repeats expanded
+     */
+    default void sectionParsed(String voice, Concat section) {
+    }
+}
@@ -12,6 +12,9 @@ package karaoke.sound;
  * <br> new Pitch('E').transpose(-1) makes E-flat
  * <br> new Pitch('C').transpose(OCTAVE) makes high C
  * <br> new Pitch('C').transpose(-OCTAVE) makes low C
+ *
+ * <p> The pitches with a MIDI note number (the 128 from 5 octaves below middle C) are interned: transpose() and
+ * Pitch.of() return the one shared instance of each, so building a note allocates no Pitch.
  */
 public class Pitch {
 
@@ -26,7 +29,8 @@ public class Pitch {
      *   AF(i-12n) maps to n octaves below middle AF(i)
      * Safety from rep:
      *   value is private and final, Pitch is an immutable data type
-     * Threadsafety: Pitch is immutable without any beneficent mutation 
+     * Threadsafety: Pitch is immutable without any beneficent mutation; INTERNED is filled in when the class is
+     *   initialized and never changed
      */
 
     private static final int[] SCALE = {
@@ -42,11 +46,20 @@ public class Pitch {
     private static final String[] VALUE_TO_STRING = {
             "C", "^C", "D", "^D", "E", "F", "^F", "G", "^G", "A", "^A", "B"
     };
+
+    // the pitch of each MIDI note number, whose value is the number less that of middle C
+    private static final int MIDI_NOTE_MIDDLE_C = 60;
+    private static final Pitch[] INTERNED = new Pitch[128];
+    static {
+        for (int i = 0; i < INTERNED.length; i++) {
+            INTERNED[i] = new Pitch(i - MIDI_NOTE_MIDDLE_C);
+        }
+    }
     
     /**
      * Middle C.
      */
-    public static final Pitch MIDDLE_C = new Pitch('C');
+    public static final Pitch MIDDLE_C = valueOf(0);
 
     /**
      * Number of pitches in an octave.
@@ -70,6 +83,32 @@ public class Pitch {
         }
     }
 
+    /**
+     * @param value value of a pitch
+     * @return the interned pitch of that value if it has a MIDI note number, else a new one
+     */
+    private static Pitch valueOf(int value) {
+        final int midiNote = value + MIDI_NOTE_MIDDLE_C;
+        if (midiNote >= 0 && midiNote < INTERNED.length) {
+            return INTERNED[midiNote];
+        }
+        return new Pitch(value);
+    }
+
+    /**
+     * Make a pitch from its letter and the semitones it is raised by, without allocating if it has a MIDI note
+     * number. Pitch.of(c, n) equals new Pitch(c).transpose(n).
+     * @param c letter in {'A',...,'G'}, naming a pitch in the middle octave
+     * @param semitonesUp semitones to transpose it by, for accidentals and octaves together
+     * @return pitch made by transposing pitch c of the middle octave by semitonesUp semitones
+     */
+    public static Pitch of(char c, int semitonesUp) {
+        if (c < 'A' || c > 'G') {
+            throw new IllegalArgumentException(c + " must be in the range A-G");
+        }
+        return valueOf(SCALE[c - 'A'] + semitonesUp);
+    }
+
     /**
      * @param semitonesUp 
      * @return pitch made by transposing this pitch by semitonesUp semitones;
@@ -77,7 +116,7 @@ public class Pitch {
      *         E transposed by -1 semitones is E flat
      */
     public Pitch transpose(int semitonesUp) {
-        return new Pitch(value + semitonesUp);
+        return valueOf(value + semitonesUp);
     }
 
     /**
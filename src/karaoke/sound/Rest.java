@@ -51,6 +51,14 @@ public class Rest implements Music {
     public void play(SequencePlayer player, double atBeat,Map<String,BlockingQueue<String>> queue) {
         return;
     }
+    
+    /**
+     * A rest adds nothing to a timeline.
+     */
+    @Override
+    public void compile(Timeline.Builder timeline, double atBeat) {
+        return;
+    }
 
     @Override
     public int hashCode() {
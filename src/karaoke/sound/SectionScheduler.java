@@ -0,0 +1,97 @@
+package karaoke.sound;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Schedules the major sections of a tune on a SequencePlayer one at a time, each voice starting its next section
+ * where its previous one ended. Voices.play() schedules a whole tune this way; as a ParseListener it schedules
+ * sections while the tune is still being parsed, so that the player can start before the last line is read.
+ */
+public class SectionScheduler implements ParseListener {
+    /*
+     * AF(player, atBeat, queue, offsets) = scheduler that has put on player, for every voice v in offsets, music that
+     *          starts at atBeat and lasts offsets.get(v) beats; lyrics of that music go to queue
+     * RI: every value of offsets is >= 0
+     * Safety From Rep Exposure: all fields are private; offsets is never returned
+     * Thread Safety: section() is synchronized, so sections parsed by one thread can be scheduled while another
+     *          thread reads the scheduled duration
+     */
+
+    private final SequencePlayer player;
+    private final double atBeat;
+    private final Map<String, BlockingQueue<String>> queue;
+    private final Map<String, Double> offsets = new HashMap<>();
+
+    /**
+     * Make a scheduler that has not scheduled anything yet.
+     * @param player player to schedule notes and lyric events on
+     * @param atBeat beat at which the first section of every voice starts
+     * @param queue lyric queues of the voices, as passed to Music.play()
+     */
+    public SectionScheduler(SequencePlayer player, double atBeat, Map<String, BlockingQueue<String>> queue) {
+        this(player, atBeat, queue, Collections.<String>emptyList());
+    }
+
+    /**
+     * Make a scheduler that has not scheduled anything yet for voices known to be coming, such as the voices
+     * declared in the header of a tune still being parsed, so that getScheduledBeats() counts each of them as
+     * having 0 beats until its first section is scheduled.
+     * @param player player to schedule notes and lyric events on
+     * @param atBeat beat at which the first section of every voice starts
+     * @param queue lyric queues of the voices, as passed to Music.play()
+     * @param voices voices that will have sections scheduled
+     */
+    public SectionScheduler(SequencePlayer player, double atBeat, Map<String, BlockingQueue<String>> queue,
+            Collection<String> voices) {
+        this.player = player;
+        this.atBeat = atBeat;
+        this.queue = queue;
+        for (String voice : voices) {
+            offsets.put(voice, 0.0);
+        }
+        checkRep();
+    }
+
+    private void checkRep() {
+        for (double offset : offsets.values()) {
+            assert offset >= 0;
+        }
+    }
+
+    /**
+     * Schedule the next section of a voice, right after the sections already scheduled for it.
+     * @param voice voice of the section
+     * @param section music to schedule
+     */
+    public synchronized void section(String voice, Concat section) {
+        final double offset = offsets.getOrDefault(voice, 0.0);
+        section.play(player, atBeat + offset, queue);
+        offsets.put(voice, offset + section.getDuration());
+        checkRep();
+    }
+
+    @Override
+    public void sectionParsed(String voice, Concat section) {
+        section(voice, section);
+    }
+
+    /**
+     * @param voice a voice
+     * @return number of beats of music scheduled for voice so far
+     */
+    public synchronized double getScheduledBeats(String voice) {
+        return offsets.getOrDefault(voice, 0.0);
+    }
+
+    /**
+     * @return number of beats of music scheduled so far for every voice passed to the constructor or that has had
+     *         a section scheduled, 0 if there is no such voice
+     */
+    public synchronized double getScheduledBeats() {
+        return offsets.isEmpty() ? 0 : Collections.min(offsets.values());
+    }
+}
@@ -1,5 +1,7 @@
 package karaoke.sound;
 
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
 import java.util.function.Consumer;
 
 /**
@@ -30,6 +32,65 @@ public interface SequencePlayer {
      */
     public void addEvent(double atBeat, Consumer<Double> callback);
 
+    /**
+     * Schedule the lyric event of a note: when the synthesizer reaches atBeat, put lyric on the queue of voice, or
+     * "$" if lyric is " ". A player may coalesce the lyric events of a voice that fall on the same tick into one
+     * event that puts their lines on the queue in order, putting a line repeated by the notes of a chord on
+     * once, and may offer lines rather than wait for room on a bounded queue, dropping the lines that do not fit.
+     * The default schedules it with addLyric() for a lyric that is not a frame of a lyric line.
+     * @param atBeat beat at which the note starts
+     * @param voice voice singing the note
+     * @param lyric lyric of the note, as Note keeps it
+     * @param queue blocking queues of the voices to put lyrics on
+     */
+    public default void addLyric(double atBeat, String voice, String lyric, Map<String,BlockingQueue<String>> queue) {
+        addLyric(atBeat, voice, lyric, -1, -1, queue);
+    }
+
+    /**
+     * Schedule the lyric event of a note of a timeline, as addLyric() above, telling a queue that is an
+     * IndexedLyricQueue which lyric line of the timeline the lyric is a frame of. The default schedules one event
+     * per lyric with addEvent().
+     * @param atBeat beat at which the note starts
+     * @param voice voice singing the note
+     * @param lyric lyric of the note, as Note keeps it
+     * @param line index of the lyric line the lyric is a frame of (see Timeline.lyricLine()), or -1 if none
+     * @param syllable index of the syllable of line the lyric highlights, or -1 for none
+     * @param queue blocking queues of the voices to put lyrics on
+     */
+    public default void addLyric(double atBeat, String voice, String lyric, int line, int syllable,
+            Map<String,BlockingQueue<String>> queue) {
+        addEvent(atBeat, Note.lyricCallback(lyric, line, syllable, voice, queue));
+    }
+
+    /**
+     * Schedule every note of a timeline, and the callback that puts its lyric on a queue, as if the music the
+     * timeline was compiled from were played on this player. The default puts the notes on with addNote() and
+     * addLyric(), one after the other in a single loop.
+     * @param timeline notes to schedule
+     * @param queue blocking queues of the voices to put lyrics on
+     */
+    public default void addTimeline(Timeline timeline, Map<String,BlockingQueue<String>> queue) {
+        timeline.addNotesTo(this, queue);
+    }
+
+    /**
+     * Tell the player that music has been scheduled up to atBeat and that more may follow, as when a tune is played
+     * while it is still being parsed. Until release() is called, a player that reaches the last beat passed to
+     * holdAt() waits there for the music after it, instead of ending or running on past music that has not been
+     * scheduled yet. The default does nothing.
+     * @param atBeat beat up to which music has been scheduled
+     */
+    public default void holdAt(double atBeat) {
+    }
+
+    /**
+     * Tell the player that nothing more will be scheduled after the last call to holdAt(): it plays to the end of
+     * what has been scheduled and ends there, as if holdAt() had never been called. The default does nothing.
+     */
+    public default void release() {
+    }
+
     /**
      * Play the scheduled music.
      */
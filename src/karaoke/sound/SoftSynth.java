@@ -0,0 +1,33 @@
+package karaoke.sound;
+
+/**
+ * A software synthesizer, which renders notes as samples for WavRenderer instead of playing them.
+ *
+ * Implementations must be threadsafe, since WavRenderer renders the voices of a tune on several threads with the
+ * same synth, and should not allocate in mix(), which is called for every note in every block of samples.
+ */
+public interface SoftSynth {
+
+    /**
+     * @return number of samples per second this synth renders at, > 0
+     */
+    public int sampleRate();
+
+    /**
+     * @return number of samples a note keeps sounding for after it ends, >= 0
+     */
+    public int releaseSamples();
+
+    /**
+     * Add part of the sound of a note to a block of samples.
+     * @param instr instrument playing the note
+     * @param midiNote MIDI note number of the note, 0 <= midiNote < 128
+     * @param noteSamples length of the note in samples, not counting its release
+     * @param sinceStart number of samples from the start of the note to block[from], >= 0
+     * @param block samples to add the note to, each in [-1, 1] for a full-scale sample
+     * @param from index in block of the first sample to add to
+     * @param to index in block after the last sample to add to; the samples added are all before the end of the
+     *           note's release, that is to - from <= noteSamples + releaseSamples() - sinceStart
+     */
+    public void mix(Instrument instr, int midiNote, long noteSamples, long sinceStart, float[] block, int from, int to);
+}
@@ -1,17 +1,71 @@
 package karaoke.sound;
 
 
+import java.io.IOException;
+import java.io.Reader;
 import java.util.Map;
 import java.util.concurrent.BlockingQueue;
 
 import javax.sound.midi.InvalidMidiDataException;
 import javax.sound.midi.MidiUnavailableException;
 
+import edu.mit.eecs.parserlib.UnableToParseException;
+
 /**
  * MusicPlayer can play a Music expression on the MIDI synthesizer.
  */
 public class SoundPlayback {
 
+    /**
+     * Beat at which music starts to play.
+     */
+    public static final double START_BEAT = 0.125;
+    /**
+     * MIDI ticks per beat music is played with.
+     */
+    public static final int TICKS_PER_BEAT = 12;
+    /**
+     * Beats of every voice that play(Reader, ...) parses before it starts to play.
+     */
+    public static final double LOOKAHEAD_BEATS = 8;
+    /**
+     * Name of the system property that picks the engine servers play with, "midi" or "clock".
+     */
+    public static final String ENGINE_PROPERTY = "karaoke.player";
+    
+    /**
+     * Kinds of SequencePlayer that music can be played on.
+     */
+    public static enum Engine {
+        /** the MIDI synthesizer, which needs a MIDI device */
+        MIDI,
+        /** a software clock that sounds nothing but runs the lyric callbacks, which needs no device */
+        CLOCK;
+        
+        /**
+         * @return engine named by the karaoke.player system property, MIDI if it is not set
+         */
+        public static Engine fromSystemProperty() {
+            final String name = System.getProperty(ENGINE_PROPERTY, "midi");
+            return name.equalsIgnoreCase("clock") ? CLOCK : MIDI;
+        }
+        
+        /**
+         * @param beatsPerMinute to play music
+         * @param ticksPerBeat ticks per beat of the events the player is given
+         * @return a new player of this engine
+         * @throws MidiUnavailableException if this is MIDI and the MIDI device is unavailable
+         * @throws InvalidMidiDataException if this is MIDI and the sequence cannot be made
+         */
+        public SequencePlayer newPlayer(int beatsPerMinute, int ticksPerBeat)
+                throws MidiUnavailableException, InvalidMidiDataException {
+            if (this == CLOCK) {
+                return new ClockSequencePlayer(beatsPerMinute, ticksPerBeat);
+            }
+            return new MidiSequencePlayer(beatsPerMinute, ticksPerBeat);
+        }
+    }
+
     /**
      * Play music.
      * @param beatsPerMinute to play music
@@ -21,12 +75,167 @@ public class SoundPlayback {
      * @throws InvalidMidiDataException if MIDI play fails
      */
     public static void play(Voices musicPiece, Map<String,BlockingQueue<String>> queue, int beatsPerMinute) throws MidiUnavailableException, InvalidMidiDataException {
-        final double offset = 0.125;
-        final int ticksPerBeat = 12;
-        SequencePlayer player = new MidiSequencePlayer(beatsPerMinute, ticksPerBeat);
-        musicPiece.play(player, offset,queue);
+        play(compile(musicPiece), queue, beatsPerMinute);
+    }
+    
+    /**
+     * @param musicPiece music to play
+     * @return timeline of musicPiece as play() plays it: starting at START_BEAT with TICKS_PER_BEAT ticks per beat
+     */
+    public static Timeline compile(Voices musicPiece) {
+        return Timeline.compile(musicPiece, START_BEAT, TICKS_PER_BEAT);
+    }
+    
+    /**
+     * Play music that has already been compiled, e.g. by compile(); the same timeline can be played any number of
+     * times.
+     * @param timeline notes to play
+     * @param queue to store the lyrics
+     * @param beatsPerMinute to play music
+     * @throws MidiUnavailableException if MIDI device unavailable
+     * @throws InvalidMidiDataException if MIDI play fails
+     */
+    public static void play(Timeline timeline, Map<String,BlockingQueue<String>> queue, int beatsPerMinute) throws MidiUnavailableException, InvalidMidiDataException {
+        play(timeline, queue, beatsPerMinute, Engine.MIDI);
+    }
+    
+    /**
+     * Play music that has already been compiled on a player of the given engine.
+     * @param timeline notes to play
+     * @param queue to store the lyrics
+     * @param beatsPerMinute to play music
+     * @param engine kind of player to play on
+     * @throws MidiUnavailableException if engine is MIDI and the MIDI device is unavailable
+     * @throws InvalidMidiDataException if MIDI play fails
+     */
+    public static void play(Timeline timeline, Map<String,BlockingQueue<String>> queue, int beatsPerMinute,
+            Engine engine) throws MidiUnavailableException, InvalidMidiDataException {
+        SequencePlayer player = engine.newPlayer(beatsPerMinute, timeline.getTicksPerBeat());
+        player.addTimeline(timeline, queue);
         player.play();
-
+    }
+    
+    /**
+     * Parse and play music on the MIDI synthesizer, starting to play once the first sections have been parsed
+     * while the rest is parsed and scheduled behind them. The tempo is taken from the header of the music.
+     * @param abc source of abc text; it is read to the end but not closed
+     * @param queue to store the lyrics
+     * @return the whole tune, once it has all been parsed and scheduled
+     * @throws IOException if abc fails
+     * @throws UnableToParseException if the text doesn't match the Music grammar; sections before the line that
+     *         does not parse may already be playing
+     * @throws MidiUnavailableException if MIDI device unavailable
+     * @throws InvalidMidiDataException if MIDI play fails
+     */
+    public static AbcTune play(Reader abc, Map<String,BlockingQueue<String>> queue)
+            throws IOException, UnableToParseException, MidiUnavailableException, InvalidMidiDataException {
+        return play(abc, queue, Engine.MIDI);
+    }
+    
+    /**
+     * Parse and play music on a player of the given engine, starting to play once LOOKAHEAD_BEATS of every voice
+     * have been parsed while the rest is parsed and scheduled behind them. If abc is read more slowly than the music
+     * plays, the player waits at the end of what has been parsed rather than skipping the music that comes late.
+     * The tempo is taken from the header of the music.
+     * @param abc source of abc text; it is read to the end but not closed
+     * @param queue to store the lyrics
+     * @param engine kind of player to play on
+     * @return the whole tune, once it has all been parsed and scheduled
+     * @throws IOException if abc fails
+     * @throws UnableToParseException if the text doesn't match the Music grammar; sections before the line that
+     *         does not parse may already be playing
+     * @throws MidiUnavailableException if engine is MIDI and the MIDI device is unavailable
+     * @throws InvalidMidiDataException if MIDI play fails
+     */
+    public static AbcTune play(Reader abc, Map<String,BlockingQueue<String>> queue, Engine engine)
+            throws IOException, UnableToParseException, MidiUnavailableException, InvalidMidiDataException {
+        final StreamingPlayback playback = new StreamingPlayback(START_BEAT, TICKS_PER_BEAT, queue, engine);
+        final AbcTune tune;
+        try {
+            tune = new MusicLanguage(MusicLanguage.Backend.DIRECT).parse(abc, playback);
+        } catch (IOException | UnableToParseException | RuntimeException e) {
+            playback.abandon();
+            throw e;
+        }
+        playback.finish();
+        return tune;
+    }
+    
+    /**
+     * Creates the player once the tempo is known, then schedules sections on it, holding it at the end of what has
+     * been scheduled for every voice, and starts it once LOOKAHEAD_BEATS have been scheduled. Every voice declared
+     * in the header counts, so a voice whose first section comes late holds the player at the start.
+     */
+    private static class StreamingPlayback implements ParseListener {
+        private final double offset;
+        private final int ticksPerBeat;
+        private final Map<String,BlockingQueue<String>> queue;
+        private final Engine engine;
+        private SequencePlayer player;
+        private SectionScheduler scheduler;
+        private boolean started = false;
+        private MidiUnavailableException unavailable;
+        private InvalidMidiDataException invalid;
+        
+        StreamingPlayback(double offset, int ticksPerBeat, Map<String,BlockingQueue<String>> queue, Engine engine) {
+            this.offset = offset;
+            this.ticksPerBeat = ticksPerBeat;
+            this.queue = queue;
+            this.engine = engine;
+        }
+        
+        @Override
+        public void headerParsed(AbcTune tune) {
+            try {
+                this.player = engine.newPlayer(Integer.parseInt(tune.getTempo()), ticksPerBeat);
+                this.scheduler = new SectionScheduler(player, offset, queue, tune.getVoices());
+            } catch (MidiUnavailableException e) {
+                this.unavailable = e;
+            } catch (InvalidMidiDataException e) {
+                this.invalid = e;
+            }
+        }
+        
+        @Override
+        public void sectionParsed(String voice, Concat section) {
+            if (scheduler == null) {
+                return;
+            }
+            scheduler.section(voice, section);
+            final double scheduled = scheduler.getScheduledBeats();
+            player.holdAt(offset + scheduled);
+            if (!started && scheduled >= LOOKAHEAD_BEATS) {
+                started = true;
+                player.play();
+            }
+        }
+        
+        /**
+         * Let the player play to the end of what has been scheduled, starting it if no section started it, or
+         * report why there was no player.
+         */
+        void finish() throws MidiUnavailableException, InvalidMidiDataException {
+            if (unavailable != null) {
+                throw unavailable;
+            }
+            if (invalid != null) {
+                throw invalid;
+            }
+            player.release();
+            if (!started) {
+                started = true;
+                player.play();
+            }
+        }
+        
+        /**
+         * Let the player, if it has started, play to the end of what has been scheduled, after parsing failed.
+         */
+        void abandon() {
+            if (player != null) {
+                player.release();
+            }
+        }
     }
     
 }
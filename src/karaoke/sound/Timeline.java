@@ -0,0 +1,431 @@
+package karaoke.sound;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * An immutable, flattened form of a piece of Music: every note it plays, as parallel arrays of primitives sorted by
+ * start time, ready to be put on a SequencePlayer in one loop instead of by walking the Music tree.
+ *
+ * Times are in ticks, as MidiSequencePlayer counts them: a note that Music.play() would start at startBeat and
+ * play for numBeats starts at tick (int) (startBeat * ticksPerBeat) and ends at tick
+ * (int) ((startBeat + numBeats) * ticksPerBeat). A timeline does not depend on a player or a lyric queue, so the
+ * timeline of a tune can be compiled once and played any number of times, by any number of threads.
+ */
+public class Timeline {
+    /*
+     * AF(ticksPerBeat, startTick, durTicks, midiNote, channel, lyricIndex, instruments, lyricText, lyricVoice,
+     *          lyricLine, lyricSyllable, lines) =
+     *          the notes i in [0, startTick.length), where note i has MIDI note number midiNote[i], is played on
+     *          instruments[channel[i]] from tick startTick[i] for durTicks[i] ticks at ticksPerBeat ticks per beat,
+     *          and at its start puts lyric lyricText[lyricIndex[i]] on the queue of voice lyricVoice[lyricIndex[i]],
+     *          or puts nothing if lyricIndex[i] == -1; lyric l is lyric line lines[lyricLine[l]] with syllable
+     *          lyricSyllable[l] highlighted (none if -1), or is not a lyric line if lyricLine[l] == -1
+     * RI: ticksPerBeat > 0
+     *     startTick, durTicks, midiNote, channel and lyricIndex all have the same length
+     *     startTick is sorted in increasing order, and startTick[i] >= 0, durTicks[i] >= 0
+     *     0 <= midiNote[i] < 128, 0 <= channel[i] < instruments.length
+     *     -1 <= lyricIndex[i] < lyricText.length, and lyricText, lyricVoice, lyricLine and lyricSyllable have the
+     *          same length
+     *     -1 <= lyricLine[l] < lines.length, and -1 <= lyricSyllable[l] < lines[lyricLine[l]].size() if
+     *          lyricLine[l] >= 0
+     * Safety From Rep Exposure: all fields are private and final; the arrays are never returned, only read one
+     *          element at a time
+     * Thread Safety: immutable; the arrays are filled in by the Builder before the constructor returns and are final
+     *          fields, so a timeline can be shared by every thread that plays it without a lock; the lyric lines are
+     *          threadsafe
+     */
+
+    /**
+     * Number of MIDI note numbers.
+     */
+    public static final int MIDI_NOTES = 128;
+
+    // MIDI note number of middle C
+    private static final int MIDI_NOTE_MIDDLE_C = 60;
+
+    private final int ticksPerBeat;
+    private final int[] startTick;
+    private final int[] durTicks;
+    private final byte[] midiNote;
+    private final byte[] channel;
+    private final int[] lyricIndex;
+    private final Instrument[] instruments;
+    private final String[] lyricText;
+    private final String[] lyricVoice;
+    private final int[] lyricLine;
+    private final int[] lyricSyllable;
+    private final LyricLine[] lines;
+
+    /**
+     * Make a timeline from its arrays, which must satisfy the rep invariant and are not copied; used by the
+     * Builder and by TuneFile.
+     */
+    Timeline(int ticksPerBeat, int[] startTick, int[] durTicks, byte[] midiNote, byte[] channel,
+            int[] lyricIndex, Instrument[] instruments, String[] lyricText, String[] lyricVoice, int[] lyricLine,
+            int[] lyricSyllable, LyricLine[] lines) {
+        this.ticksPerBeat = ticksPerBeat;
+        this.startTick = startTick;
+        this.durTicks = durTicks;
+        this.midiNote = midiNote;
+        this.channel = channel;
+        this.lyricIndex = lyricIndex;
+        this.instruments = instruments;
+        this.lyricText = lyricText;
+        this.lyricVoice = lyricVoice;
+        this.lyricLine = lyricLine;
+        this.lyricSyllable = lyricSyllable;
+        this.lines = lines;
+        checkRep();
+    }
+
+    private void checkRep() {
+        assert ticksPerBeat > 0;
+        final int n = startTick.length;
+        assert durTicks.length == n && midiNote.length == n && channel.length == n && lyricIndex.length == n;
+        assert lyricText.length == lyricVoice.length;
+        assert lyricLine.length == lyricText.length && lyricSyllable.length == lyricText.length;
+        for (int l = 0; l < lyricLine.length; l++) {
+            assert lyricLine[l] >= -1 && lyricLine[l] < lines.length;
+            assert lyricLine[l] < 0 || (lyricSyllable[l] >= -1 && lyricSyllable[l] < lines[lyricLine[l]].size());
+        }
+        for (int i = 0; i < n; i++) {
+            assert startTick[i] >= 0 && durTicks[i] >= 0;
+            assert i == 0 || startTick[i - 1] <= startTick[i];
+            assert midiNote[i] >= 0;
+            assert channel[i] >= 0 && channel[i] < instruments.length;
+            assert lyricIndex[i] >= -1 && lyricIndex[i] < lyricText.length;
+        }
+    }
+
+    /**
+     * Flatten a piece of music.
+     * @param music music to flatten
+     * @param atBeat beat at which the music starts, as passed to Music.play()
+     * @param ticksPerBeat number of ticks per beat, > 0; should be the ticksPerBeat of the player that will play
+     *                     the timeline, so that notes are rounded to ticks exactly as that player would round them
+     * @return the notes that music.play(player, atBeat, queue) would put on a player, in order of start tick;
+     *         notes that start at the same tick are in the order play() would put them on the player
+     */
+    public static Timeline compile(Music music, double atBeat, int ticksPerBeat) {
+        final Builder builder = new Builder(ticksPerBeat);
+        music.compile(builder, atBeat);
+        return builder.build();
+    }
+
+    /**
+     * @return number of ticks per beat
+     */
+    public int getTicksPerBeat() {
+        return ticksPerBeat;
+    }
+
+    /**
+     * @return number of notes
+     */
+    public int size() {
+        return startTick.length;
+    }
+
+    /**
+     * @param i index of a note, 0 <= i < size()
+     * @return tick at which note i starts; never less than the start tick of note i-1
+     */
+    public int startTick(int i) {
+        return startTick[i];
+    }
+
+    /**
+     * @param i index of a note, 0 <= i < size()
+     * @return number of ticks note i plays for
+     */
+    public int durTicks(int i) {
+        return durTicks[i];
+    }
+
+    /**
+     * @param i index of a note, 0 <= i < size()
+     * @return MIDI note number of note i, in [0, 128); middle C is 60
+     */
+    public int midiNote(int i) {
+        return midiNote[i];
+    }
+
+    /**
+     * @param i index of a note, 0 <= i < size()
+     * @return channel of note i, an index into the instruments of this timeline in [0, instruments())
+     */
+    public int channel(int i) {
+        return channel[i];
+    }
+
+    /**
+     * @param i index of a note, 0 <= i < size()
+     * @return index of the lyric of note i in [0, lyrics()), or -1 if note i has no lyric event
+     */
+    public int lyricIndex(int i) {
+        return lyricIndex[i];
+    }
+
+    /**
+     * @return number of channels; channels are numbered in the order their instruments are first played
+     */
+    public int instruments() {
+        return instruments.length;
+    }
+
+    /**
+     * @param channel a channel, 0 <= channel < instruments()
+     * @return instrument played on channel
+     */
+    public Instrument instrument(int channel) {
+        return instruments[channel];
+    }
+
+    /**
+     * @return number of distinct lyrics
+     */
+    public int lyrics() {
+        return lyricText.length;
+    }
+
+    /**
+     * @param lyric index of a lyric, 0 <= lyric < lyrics()
+     * @return text of the lyric, as Note keeps it
+     */
+    public String lyricText(int lyric) {
+        return lyricText[lyric];
+    }
+
+    /**
+     * @param lyric index of a lyric, 0 <= lyric < lyrics()
+     * @return voice whose queue the lyric is put on
+     */
+    public String lyricVoice(int lyric) {
+        return lyricVoice[lyric];
+    }
+
+    /**
+     * @param lyric index of a lyric, 0 <= lyric < lyrics()
+     * @return index of the lyric line in [0, lines()) that the lyric is a frame of, or -1 if it is not one, as with
+     *         lyrics made from text alone
+     */
+    public int lyricLine(int lyric) {
+        return lyricLine[lyric];
+    }
+
+    /**
+     * @param lyric index of a lyric whose lyricLine() is not -1
+     * @return index of the syllable the lyric highlights in the syllables of its line, or -1 if it highlights none
+     */
+    public int lyricSyllable(int lyric) {
+        return lyricSyllable[lyric];
+    }
+
+    /**
+     * @return number of distinct lyric lines; lines are numbered in the order a note first sings them
+     */
+    public int lines() {
+        return lines.length;
+    }
+
+    /**
+     * @param line index of a lyric line, 0 <= line < lines()
+     * @return syllables of the line, in order, as MusicLanguage splits a w: field
+     */
+    public List<String> lineSyllables(int line) {
+        return lines[line].syllables();
+    }
+
+    /**
+     * @param line index of a lyric line, 0 <= line < lines()
+     * @param syllable index of a syllable of the line, or -1 for none
+     * @return the line with syllable highlighted, as the lyric of a note that sings it reads
+     */
+    public String lineFrame(int line, int syllable) {
+        return lines[line].frame(syllable);
+    }
+
+    /**
+     * @param midiNote a MIDI note number, 0 <= midiNote < 128
+     * @return the pitch with that MIDI note number, which Pitch interns
+     */
+    public static Pitch pitch(int midiNote) {
+        return Pitch.MIDDLE_C.transpose(midiNote - MIDI_NOTE_MIDDLE_C);
+    }
+
+    /**
+     * Put every note of this timeline on a player, one after the other, with the same lyric callbacks as
+     * Music.play() would schedule. Used by players that do not count in ticks; see SequencePlayer.addTimeline().
+     * Each note is put on at the middle of its first tick rather than at its start, since a tick is not always a
+     * whole number of beats in binary; so a player that rounds beats down to ticks at the same ticksPerBeat gets
+     * back exactly the ticks of this timeline.
+     * @param player player to play on
+     * @param queue blocking queues of the voices to put lyrics on
+     */
+    void addNotesTo(SequencePlayer player, Map<String, BlockingQueue<String>> queue) {
+        final double ticks = ticksPerBeat;
+        for (int i = 0; i < startTick.length; i++) {
+            final double startBeat = (startTick[i] + 0.5) / ticks;
+            player.addNote(instruments[channel[i]], pitch(midiNote[i]), startBeat,
+                    durTicks[i] / ticks);
+            final int lyric = lyricIndex[i];
+            if (lyric >= 0) {
+                player.addLyric(startBeat, lyricVoice[lyric], lyricText[lyric], lyricLine[lyric],
+                        lyricSyllable[lyric], queue);
+            }
+        }
+    }
+
+    /**
+     * Collects the notes of a timeline as Music.compile() walks a piece of music, in the order Music.play() would
+     * put them on a player.
+     */
+    public static class Builder {
+        /*
+         * AF(ticksPerBeat, size, startTick, durTicks, midiNote, channel, lyricIndex, instruments, lyricText,
+         *          lyricVoice, lyricLine, lyricSyllable, lyricIndexOf, lines, lineIndexOf) = the first size notes of a
+         *          timeline at ticksPerBeat ticks per beat, in the order they were added; lyricIndexOf maps
+         *          [voice, text, line, syllable] to its index in lyricText, and lineIndexOf maps each LyricLine
+         *          (which AbcBuilder interns, so that equal lines are one object) to its index in lines
+         * RI: size <= length of each of the note arrays
+         * Safety From Rep Exposure: all fields are private; build() copies the arrays
+         * Thread Safety: not threadsafe; a builder is confined to the thread that compiles the timeline
+         */
+
+        private static final int INITIAL_CAPACITY = 64;
+
+        private final int ticksPerBeat;
+        private int size = 0;
+        private int[] startTick = new int[INITIAL_CAPACITY];
+        private int[] durTicks = new int[INITIAL_CAPACITY];
+        private byte[] midiNote = new byte[INITIAL_CAPACITY];
+        private byte[] channel = new byte[INITIAL_CAPACITY];
+        private int[] lyricIndex = new int[INITIAL_CAPACITY];
+        private final List<Instrument> instruments = new ArrayList<>();
+        private final List<String> lyricText = new ArrayList<>();
+        private final List<String> lyricVoice = new ArrayList<>();
+        private final List<Integer> lyricLine = new ArrayList<>();
+        private final List<Integer> lyricSyllable = new ArrayList<>();
+        private final Map<List<Object>, Integer> lyricIndexOf = new HashMap<>();
+        private final List<LyricLine> lines = new ArrayList<>();
+        private final Map<LyricLine, Integer> lineIndexOf = new HashMap<>();
+
+        private Builder(int ticksPerBeat) {
+            if (ticksPerBeat <= 0) {
+                throw new IllegalArgumentException("ticksPerBeat must be positive: " + ticksPerBeat);
+            }
+            this.ticksPerBeat = ticksPerBeat;
+        }
+
+        /**
+         * Add a note and its lyric event.
+         * @param instr instrument for the note
+         * @param pitch pitch of the note; must have a MIDI note number in [0, 128)
+         * @param startBeat beat the note starts at, >= 0
+         * @param numBeats number of beats the note plays for, >= 0
+         * @param lyric lyric of the note, as Note keeps it, or null if the note sings none
+         * @param line lyric line the lyric is a frame of, or null if it is not one
+         * @param syllable index of the syllable of line the lyric highlights, or -1 for none
+         * @param voice voice whose queue the lyric is put on
+         */
+        void addNote(Instrument instr, Pitch pitch, double startBeat, double numBeats, String lyric, LyricLine line,
+                int syllable, String voice) {
+            final int note = MIDI_NOTE_MIDDLE_C + pitch.difference(Pitch.MIDDLE_C);
+            if (note < 0 || note >= MIDI_NOTES) {
+                throw new IllegalArgumentException("no MIDI note for pitch " + pitch);
+            }
+            if (size == startTick.length) {
+                final int capacity = 2 * size;
+                startTick = Arrays.copyOf(startTick, capacity);
+                durTicks = Arrays.copyOf(durTicks, capacity);
+                midiNote = Arrays.copyOf(midiNote, capacity);
+                channel = Arrays.copyOf(channel, capacity);
+                lyricIndex = Arrays.copyOf(lyricIndex, capacity);
+            }
+            final int start = (int) (startBeat * ticksPerBeat);
+            startTick[size] = start;
+            durTicks[size] = (int) ((startBeat + numBeats) * ticksPerBeat) - start;
+            midiNote[size] = (byte) note;
+            channel[size] = (byte) channelOf(instr);
+            lyricIndex[size] = lyric == null ? -1
+                    : lyricIndexOf(lyric, line == null ? -1 : lineIndexOf(line), syllable, voice);
+            size++;
+        }
+
+        private int channelOf(Instrument instr) {
+            int index = instruments.indexOf(instr);
+            if (index < 0) {
+                index = instruments.size();
+                instruments.add(instr);
+            }
+            return index;
+        }
+
+        private int lyricIndexOf(String lyric, int line, int syllable, String voice) {
+            final List<Object> key = Arrays.<Object>asList(voice, lyric, line, line < 0 ? -1 : syllable);
+            Integer index = lyricIndexOf.get(key);
+            if (index == null) {
+                index = lyricText.size();
+                lyricText.add(lyric);
+                lyricVoice.add(voice);
+                lyricLine.add(line);
+                lyricSyllable.add(line < 0 ? -1 : syllable);
+                lyricIndexOf.put(key, index);
+            }
+            return index;
+        }
+
+        private int lineIndexOf(LyricLine line) {
+            Integer index = lineIndexOf.get(line);
+            if (index == null) {
+                index = lines.size();
+                lines.add(line);
+                lineIndexOf.put(line, index);
+            }
+            return index;
+        }
+
+        /**
+         * @return the timeline of the notes added so far, stably sorted by start tick
+         */
+        private Timeline build() {
+            // sort (start tick, index added) pairs packed into longs, so that equal ticks keep the order added
+            final long[] order = new long[size];
+            for (int i = 0; i < size; i++) {
+                order[i] = ((long) startTick[i] << Integer.SIZE) | i;
+            }
+            Arrays.sort(order);
+            final int[] sortedStart = new int[size];
+            final int[] sortedDur = new int[size];
+            final byte[] sortedNote = new byte[size];
+            final byte[] sortedChannel = new byte[size];
+            final int[] sortedLyric = new int[size];
+            for (int i = 0; i < size; i++) {
+                final int from = (int) order[i];
+                sortedStart[i] = startTick[from];
+                sortedDur[i] = durTicks[from];
+                sortedNote[i] = midiNote[from];
+                sortedChannel[i] = channel[from];
+                sortedLyric[i] = lyricIndex[from];
+            }
+            return new Timeline(ticksPerBeat, sortedStart, sortedDur, sortedNote, sortedChannel, sortedLyric,
+                    instruments.toArray(new Instrument[instruments.size()]),
+                    lyricText.toArray(new String[lyricText.size()]),
+                    lyricVoice.toArray(new String[lyricVoice.size()]), toInts(lyricLine), toInts(lyricSyllable),
+                    lines.toArray(new LyricLine[lines.size()]));
+        }
+
+        private static int[] toInts(List<Integer> list) {
+            final int[] ints = new int[list.size()];
+            for (int i = 0; i < ints.length; i++) {
+                ints[i] = list.get(i);
+            }
+            return ints;
+        }
+    }
+}
@@ -0,0 +1,301 @@
+package karaoke.sound;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads and writes CompiledTunes in a compact binary file format, so that a library of tunes can be loaded
+ * without parsing abc.
+ *
+ * A file is, with every number a big-endian int unless noted:
+ * <pre>
+ *   MAGIC VERSION
+ *   indexNumber title composer meter tempo noteLength accidental      header fields
+ *   count string*                                                     key signature
+ *   count string*                                                     voices
+ *   count string*                                                     string table: lyric texts, their voices and
+ *                                                                     the syllables of the lyric lines
+ *   ticksPerBeat
+ *   count byte*                                                       instrument of each channel, by ordinal
+ *   count (count syllableIndex*)*                                     lyric lines, as indexes into the string table
+ *   count (textIndex voiceIndex line syllable)*                       lyrics, as indexes into the string table, and
+ *                                                                     the lyric line (or -1) and syllable of each
+ *   count startTick[count] durTicks[count] lyricIndex[count]          the notes of the timeline, column by column
+ *         midiNote[count] (bytes) channel[count] (bytes)
+ * </pre>
+ * where a string is its length in bytes followed by its UTF-8 bytes.
+ */
+public class TuneFile {
+
+    /**
+     * First four bytes of every compiled tune file, "KTUN".
+     */
+    public static final int MAGIC = 0x4B54554E;
+    /**
+     * Version of the format written by write().
+     */
+    public static final int VERSION = 2;
+
+    private TuneFile() {
+        throw new AssertionError("TuneFile is not instantiable");
+    }
+
+    /**
+     * Compile a parsed tune and write it to a file.
+     * @param tune parsed tune
+     * @param path file to write, replaced if it exists
+     * @throws IOException if the file cannot be written
+     */
+    public static void write(AbcTune tune, Path path) throws IOException {
+        write(CompiledTune.of(tune), path);
+    }
+
+    /**
+     * Write a compiled tune to a file.
+     * @param tune compiled tune
+     * @param path file to write, replaced if it exists
+     * @throws IOException if the file cannot be written
+     */
+    public static void write(CompiledTune tune, Path path) throws IOException {
+        final Timeline timeline = tune.getTimeline();
+        final List<String> strings = new ArrayList<>();
+        final Map<String, Integer> stringIndex = new HashMap<>();
+        final int[] lyricText = new int[timeline.lyrics()];
+        final int[] lyricVoice = new int[timeline.lyrics()];
+        for (int l = 0; l < timeline.lyrics(); l++) {
+            lyricText[l] = intern(timeline.lyricText(l), strings, stringIndex);
+            lyricVoice[l] = intern(timeline.lyricVoice(l), strings, stringIndex);
+        }
+        final int[][] lineSyllables = new int[timeline.lines()][];
+        for (int k = 0; k < timeline.lines(); k++) {
+            final List<String> syllables = timeline.lineSyllables(k);
+            lineSyllables[k] = new int[syllables.size()];
+            for (int s = 0; s < syllables.size(); s++) {
+                lineSyllables[k][s] = intern(syllables.get(s), strings, stringIndex);
+            }
+        }
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+
+            out.writeInt(tune.getIndexNumber());
+            for (String field : new String[] { tune.getTitle(), tune.getComposer(), tune.getMeter(),
+                    tune.getTempo(), tune.getNoteLength(), tune.getAccidental() }) {
+                writeString(out, field);
+            }
+            writeStrings(out, tune.getKeySignature());
+            writeStrings(out, tune.getVoices());
+            writeStrings(out, strings);
+
+            out.writeInt(timeline.getTicksPerBeat());
+            out.writeInt(timeline.instruments());
+            for (int c = 0; c < timeline.instruments(); c++) {
+                out.writeByte(timeline.instrument(c).ordinal());
+            }
+            out.writeInt(lineSyllables.length);
+            for (int[] syllables : lineSyllables) {
+                out.writeInt(syllables.length);
+                for (int syllable : syllables) {
+                    out.writeInt(syllable);
+                }
+            }
+            out.writeInt(timeline.lyrics());
+            for (int l = 0; l < timeline.lyrics(); l++) {
+                out.writeInt(lyricText[l]);
+                out.writeInt(lyricVoice[l]);
+                out.writeInt(timeline.lyricLine(l));
+                out.writeInt(timeline.lyricSyllable(l));
+            }
+
+            final int n = timeline.size();
+            out.writeInt(n);
+            for (int i = 0; i < n; i++) {
+                out.writeInt(timeline.startTick(i));
+            }
+            for (int i = 0; i < n; i++) {
+                out.writeInt(timeline.durTicks(i));
+            }
+            for (int i = 0; i < n; i++) {
+                out.writeInt(timeline.lyricIndex(i));
+            }
+            for (int i = 0; i < n; i++) {
+                out.writeByte(timeline.midiNote(i));
+            }
+            for (int i = 0; i < n; i++) {
+                out.writeByte(timeline.channel(i));
+            }
+        }
+    }
+
+    /**
+     * Load a compiled tune from a file written by write(). The file is memory-mapped and each column of the
+     * timeline is copied out of the mapping in bulk; no abc is parsed.
+     * @param path file to read
+     * @return the tune written to path
+     * @throws IOException if the file cannot be read, or is not a compiled tune file of this version
+     */
+    public static CompiledTune read(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            try {
+                return read(buffer);
+            } catch (BufferUnderflowException | IllegalArgumentException e) {
+                throw new IOException(path + " is not a valid compiled tune", e);
+            }
+        }
+    }
+
+    private static CompiledTune read(ByteBuffer buffer) throws IOException {
+        if (buffer.getInt() != MAGIC) {
+            throw new IOException("not a compiled tune file");
+        }
+        final int version = buffer.getInt();
+        if (version != VERSION) {
+            throw new IOException("unsupported compiled tune version " + version);
+        }
+
+        final int indexNumber = buffer.getInt();
+        final String title = readString(buffer);
+        final String composer = readString(buffer);
+        final String meter = readString(buffer);
+        final String tempo = readString(buffer);
+        final String noteLength = readString(buffer);
+        final String accidental = readString(buffer);
+        final List<String> keySignature = readStrings(buffer);
+        final List<String> voices = readStrings(buffer);
+        final List<String> strings = readStrings(buffer);
+
+        final int ticksPerBeat = buffer.getInt();
+        if (ticksPerBeat <= 0) {
+            throw new IOException("ticks per beat must be positive: " + ticksPerBeat);
+        }
+        final Instrument[] instruments = new Instrument[count(buffer, 1)];
+        final Instrument[] allInstruments = Instrument.values();
+        for (int c = 0; c < instruments.length; c++) {
+            instruments[c] = allInstruments[checkIndex(buffer.get(), allInstruments.length, "instrument")];
+        }
+        final LyricLine[] lines = new LyricLine[count(buffer, Integer.BYTES)];
+        for (int k = 0; k < lines.length; k++) {
+            final int size = count(buffer, Integer.BYTES);
+            final List<String> syllables = new ArrayList<>(size);
+            for (int s = 0; s < size; s++) {
+                syllables.add(strings.get(checkIndex(buffer.getInt(), strings.size(), "syllable")));
+            }
+            lines[k] = new LyricLine(syllables);
+        }
+        final int lyrics = count(buffer, 4 * Integer.BYTES);
+        final String[] lyricText = new String[lyrics];
+        final String[] lyricVoice = new String[lyrics];
+        final int[] lyricLine = new int[lyrics];
+        final int[] lyricSyllable = new int[lyrics];
+        for (int l = 0; l < lyrics; l++) {
+            lyricText[l] = strings.get(checkIndex(buffer.getInt(), strings.size(), "lyric text"));
+            lyricVoice[l] = strings.get(checkIndex(buffer.getInt(), strings.size(), "lyric voice"));
+            lyricLine[l] = checkIndex(buffer.getInt() + 1, lines.length + 1, "lyric line") - 1;
+            final int syllables = lyricLine[l] < 0 ? 0 : lines[lyricLine[l]].size();
+            lyricSyllable[l] = checkIndex(buffer.getInt() + 1, syllables + 1, "syllable") - 1;
+        }
+
+        final int n = count(buffer, 3 * Integer.BYTES + 2);
+        final int[] startTick = new int[n];
+        final int[] durTicks = new int[n];
+        final int[] lyricIndex = new int[n];
+        final byte[] midiNote = new byte[n];
+        final byte[] channel = new byte[n];
+        readInts(buffer, startTick);
+        readInts(buffer, durTicks);
+        readInts(buffer, lyricIndex);
+        buffer.get(midiNote);
+        buffer.get(channel);
+        for (int i = 0; i < n; i++) {
+            if (startTick[i] < 0 || durTicks[i] < 0 || (i > 0 && startTick[i - 1] > startTick[i])) {
+                throw new IOException("bad ticks for note " + i);
+            }
+            checkIndex(midiNote[i], Timeline.MIDI_NOTES, "MIDI note");
+            checkIndex(channel[i], instruments.length, "channel");
+            checkIndex(lyricIndex[i] + 1, lyrics + 1, "lyric");
+        }
+
+        final Timeline timeline = new Timeline(ticksPerBeat, startTick, durTicks, midiNote, channel, lyricIndex,
+                instruments, lyricText, lyricVoice, lyricLine, lyricSyllable, lines);
+        return new CompiledTune(title, composer, meter, tempo, noteLength, indexNumber, accidental, keySignature,
+                voices, timeline);
+    }
+
+    private static int intern(String string, List<String> strings, Map<String, Integer> stringIndex) {
+        Integer index = stringIndex.get(string);
+        if (index == null) {
+            index = strings.size();
+            strings.add(string);
+            stringIndex.put(string, index);
+        }
+        return index;
+    }
+
+    private static void writeString(DataOutputStream out, String string) throws IOException {
+        final byte[] bytes = string.getBytes(UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static void writeStrings(DataOutputStream out, List<String> strings) throws IOException {
+        out.writeInt(strings.size());
+        for (String string : strings) {
+            writeString(out, string);
+        }
+    }
+
+    private static String readString(ByteBuffer buffer) throws IOException {
+        final byte[] bytes = new byte[count(buffer, 1)];
+        buffer.get(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    private static List<String> readStrings(ByteBuffer buffer) throws IOException {
+        final int count = count(buffer, Integer.BYTES);
+        final List<String> strings = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            strings.add(readString(buffer));
+        }
+        return strings;
+    }
+
+    /**
+     * Read a count of items, checking that the rest of the buffer is big enough to hold them.
+     * @param bytesPerItem least number of bytes each item takes
+     */
+    private static int count(ByteBuffer buffer, int bytesPerItem) throws IOException {
+        final int count = buffer.getInt();
+        if (count < 0 || (long) count * bytesPerItem > buffer.remaining()) {
+            throw new IOException("bad count " + count + " with " + buffer.remaining() + " bytes left");
+        }
+        return count;
+    }
+
+    private static int checkIndex(int index, int size, String what) throws IOException {
+        if (index < 0 || index >= size) {
+            throw new IOException("bad " + what + " " + index);
+        }
+        return index;
+    }
+
+    private static void readInts(ByteBuffer buffer, int[] into) {
+        buffer.asIntBuffer().get(into);
+        buffer.position(buffer.position() + into.length * Integer.BYTES);
+    }
+}
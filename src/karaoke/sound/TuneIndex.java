@@ -0,0 +1,461 @@
+package karaoke.sound;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import edu.mit.eecs.parserlib.UnableToParseException;
+
+/**
+ * Immutable index of a library of abc files: for every file, whether it parses and, if it does, its title, composer,
+ * voices, meter, tempo and duration. An index is built by parsing the whole library in parallel on a ForkJoinPool,
+ * and can be written to a file and read back at startup without parsing any abc.
+ *
+ * An index file is, with every number a big-endian int unless noted, and every string its length in bytes followed
+ * by its UTF-8 bytes:
+ * <pre>
+ *   MAGIC VERSION count entry*
+ *   entry = path status (byte) error title composer meter tempo durationSeconds (double) count voice*
+ * </pre>
+ */
+public class TuneIndex {
+    /*
+     * AF(entries) = index of the files entries.get(i).getPath(), in that order
+     * RI: no two entries have the same path
+     * Safety From Rep Exposure: entries is private, final and unmodifiable, and Entry is immutable
+     * Thread Safety: TuneIndex is immutable
+     */
+
+    /**
+     * First four bytes of every index file, "KIDX".
+     */
+    public static final int MAGIC = 0x4B494458;
+    /**
+     * Version of the format written by write().
+     */
+    public static final int VERSION = 1;
+
+    /**
+     * Whether a file of the library parsed.
+     */
+    public static enum Status {
+        /** the file parsed, and its entry describes the tune */
+        OK,
+        /** the file could not be read or parsed, and its entry says why */
+        FAILED
+    }
+
+    /**
+     * Immutable entry of the index for one file.
+     */
+    public static final class Entry {
+        /*
+         * AF(path, status, error, title, composer, meter, tempo, durationSeconds, voices) = file path, which parsed
+         *          if status is OK into a tune with that title, composer, meter, tempo and voices, which plays for
+         *          durationSeconds; or which failed to parse with message error if status is FAILED
+         * RI: if status is FAILED, error is not empty, the other strings are empty, voices is empty and
+         *          durationSeconds is 0; durationSeconds >= 0
+         * Safety From Rep Exposure: all fields are private, final and immutable; voices is unmodifiable
+         * Thread Safety: Entry is immutable
+         */
+
+        private final String path;
+        private final Status status;
+        private final String error;
+        private final String title;
+        private final String composer;
+        private final String meter;
+        private final String tempo;
+        private final double durationSeconds;
+        private final List<String> voices;
+
+        private Entry(String path, Status status, String error, String title, String composer, String meter,
+                String tempo, double durationSeconds, List<String> voices) {
+            this.path = path;
+            this.status = status;
+            this.error = error;
+            this.title = title;
+            this.composer = composer;
+            this.meter = meter;
+            this.tempo = tempo;
+            this.durationSeconds = durationSeconds;
+            this.voices = Collections.unmodifiableList(new ArrayList<>(voices));
+            checkRep();
+        }
+
+        private void checkRep() {
+            assert durationSeconds >= 0;
+            assert status == Status.OK || (!error.isEmpty() && voices.isEmpty() && durationSeconds == 0);
+        }
+
+        /**
+         * @param path path of the file, as it is to be shown
+         * @param tune the file, parsed
+         * @return entry for a file that parsed
+         */
+        static Entry parsed(String path, AbcTune tune) {
+            final double seconds = tune.getMusic().getDuration() * 60 / Integer.parseInt(tune.getTempo());
+            return new Entry(path, Status.OK, "", tune.getTitle(), tune.getComposer(), tune.getMeter(),
+                    tune.getTempo(), seconds, tune.getMusic().getSingers());
+        }
+
+        /**
+         * @param path path of the file, as it is to be shown
+         * @param e why the file could not be read or parsed
+         * @return entry for a file that failed to parse
+         */
+        static Entry failed(String path, Exception e) {
+            final String error = e.getMessage() == null || e.getMessage().isEmpty()
+                    ? e.getClass().getName() : e.getClass().getName() + ": " + e.getMessage();
+            return new Entry(path, Status.FAILED, error, "", "", "", "", 0, Collections.<String>emptyList());
+        }
+
+        /**
+         * @return path of the file, relative to the library directory, with '/' between names
+         */
+        public String getPath() {
+            return path;
+        }
+
+        /**
+         * @return whether the file parsed
+         */
+        public Status getStatus() {
+            return status;
+        }
+
+        /**
+         * @return why the file failed to parse, or "" if it parsed
+         */
+        public String getError() {
+            return error;
+        }
+
+        /**
+         * @return title of the tune, or "" if the file failed to parse
+         */
+        public String getTitle() {
+            return title;
+        }
+
+        /**
+         * @return composer of the tune, or "" if the file failed to parse
+         */
+        public String getComposer() {
+            return composer;
+        }
+
+        /**
+         * @return meter of the tune, or "" if the file failed to parse
+         */
+        public String getMeter() {
+            return meter;
+        }
+
+        /**
+         * @return tempo of the tune in beats per minute, or "" if the file failed to parse
+         */
+        public String getTempo() {
+            return tempo;
+        }
+
+        /**
+         * @return seconds the tune plays for at its tempo, or 0 if the file failed to parse
+         */
+        public double getDurationSeconds() {
+            return durationSeconds;
+        }
+
+        /**
+         * @return voices of the tune, as an unmodifiable list, or the empty list if the file failed to parse
+         */
+        public List<String> getVoices() {
+            return voices;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) return true;
+            if (obj == null) return false;
+            if (getClass() != obj.getClass()) return false;
+
+            final Entry that = (Entry) obj;
+            return path.equals(that.path) && status == that.status && error.equals(that.error)
+                    && title.equals(that.title) && composer.equals(that.composer) && meter.equals(that.meter)
+                    && tempo.equals(that.tempo) && durationSeconds == that.durationSeconds
+                    && voices.equals(that.voices);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(path, status, error, title, composer, meter, tempo, durationSeconds, voices);
+        }
+
+        @Override
+        public String toString() {
+            if (status == Status.FAILED) {
+                return path + ": FAILED " + error;
+            }
+            return String.format("%s: \"%s\" by %s, %s at %s bpm, %.1f s, voices %s", path, title, composer, meter,
+                    tempo, durationSeconds, voices);
+        }
+    }
+
+    /**
+     * Parses the files from start to end of a list into the same places of an array of entries, splitting the
+     * range in halves until it is one file.
+     */
+    private static class IndexTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Path directory;
+        private final List<Path> files;
+        private final Entry[] entries;
+        private final int start;
+        private final int end;
+
+        IndexTask(Path directory, List<Path> files, Entry[] entries, int start, int end) {
+            this.directory = directory;
+            this.files = files;
+            this.entries = entries;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected void compute() {
+            if (end - start == 1) {
+                entries[start] = index(directory, files.get(start));
+                return;
+            }
+            final int middle = (start + end) >>> 1;
+            invokeAll(new IndexTask(directory, files, entries, start, middle),
+                    new IndexTask(directory, files, entries, middle, end));
+        }
+    }
+
+    private final List<Entry> entries;
+
+    private TuneIndex(List<Entry> entries) {
+        this.entries = Collections.unmodifiableList(new ArrayList<>(entries));
+    }
+
+    /**
+     * Index every .abc file under a directory, in any subdirectory, parsing them in parallel on a pool. Each file
+     * is parsed by a MusicLanguage of its own, since a MusicLanguage holds the state of the tune it is building.
+     * @param directory library to index
+     * @param pool pool to parse the files on
+     * @return index of the files, sorted by path; files that cannot be read or parsed have FAILED entries
+     * @throws IOException if the directory cannot be walked
+     */
+    public static TuneIndex build(Path directory, ForkJoinPool pool) throws IOException {
+        final List<Path> files;
+        try (Stream<Path> walk = Files.walk(directory)) {
+            files = walk.filter(path -> path.getFileName().toString().endsWith(".abc") && Files.isRegularFile(path))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+        final Entry[] entries = new Entry[files.size()];
+        if (!files.isEmpty()) {
+            pool.invoke(new IndexTask(directory, files, entries, 0, files.size()));
+        }
+        return new TuneIndex(Arrays.asList(entries));
+    }
+
+    /**
+     * @param directory library directory
+     * @param file abc file under directory
+     * @return entry for file
+     */
+    private static Entry index(Path directory, Path file) {
+        final String path = directory.relativize(file).toString().replace(file.getFileSystem().getSeparator(), "/");
+        try {
+            return Entry.parsed(path, new MusicLanguage().parse(new String(Files.readAllBytes(file), UTF_8)));
+        } catch (IOException | UnableToParseException | RuntimeException e) {
+            return Entry.failed(path, e);
+        }
+    }
+
+    /**
+     * @return entries of this index, one per file, as an unmodifiable list sorted by path
+     */
+    public List<Entry> getEntries() {
+        return entries;
+    }
+
+    /**
+     * @param status a status
+     * @return number of entries with that status
+     */
+    public int count(Status status) {
+        int count = 0;
+        for (Entry entry : entries) {
+            if (entry.getStatus() == status) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Write this index to a file.
+     * @param path file to write, replaced if it exists
+     * @throws IOException if the file cannot be written
+     */
+    public void write(Path path) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(entries.size());
+            for (Entry entry : entries) {
+                writeString(out, entry.path);
+                out.writeByte(entry.status.ordinal());
+                for (String field : new String[] { entry.error, entry.title, entry.composer, entry.meter,
+                        entry.tempo }) {
+                    writeString(out, field);
+                }
+                out.writeDouble(entry.durationSeconds);
+                out.writeInt(entry.voices.size());
+                for (String voice : entry.voices) {
+                    writeString(out, voice);
+                }
+            }
+        }
+    }
+
+    /**
+     * Load an index from a file written by write(), without parsing any abc.
+     * @param path file to read
+     * @return the index written to path
+     * @throws IOException if the file cannot be read, or is not an index file of this version
+     */
+    public static TuneIndex read(Path path) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException(path + " is not a tune index");
+            }
+            final int version = in.readInt();
+            if (version != VERSION) {
+                throw new IOException("unsupported tune index version " + version);
+            }
+            final int count = count(in);
+            final List<Entry> entries = new ArrayList<>(Math.min(count, 1 << 16));
+            final Status[] statuses = Status.values();
+            for (int i = 0; i < count; i++) {
+                final String file = readString(in);
+                final int status = in.readUnsignedByte();
+                if (status >= statuses.length) {
+                    throw new IOException("bad status " + status);
+                }
+                final String error = readString(in);
+                final String title = readString(in);
+                final String composer = readString(in);
+                final String meter = readString(in);
+                final String tempo = readString(in);
+                final double durationSeconds = in.readDouble();
+                final int voiceCount = count(in);
+                final List<String> voices = new ArrayList<>();
+                for (int v = 0; v < voiceCount; v++) {
+                    voices.add(readString(in));
+                }
+                entries.add(new Entry(file, statuses[status], error, title, composer, meter, tempo,
+                        durationSeconds, voices));
+            }
+            return new TuneIndex(entries);
+        } catch (EOFException e) {
+            throw new IOException(path + " is cut short", e);
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String string) throws IOException {
+        final byte[] bytes = string.getBytes(UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        final byte[] bytes = new byte[count(in)];
+        in.readFully(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    private static int count(DataInputStream in) throws IOException {
+        final int count = in.readInt();
+        if (count < 0) {
+            throw new IOException("bad count " + count);
+        }
+        return count;
+    }
+
+    /**
+     * Index a library of abc files with 1, 2, 4, ... threads, up to the number given, reporting files parsed per
+     * second for each; then write the index and read it back, reporting how long that takes.
+     *
+     * Usage, from the root of the repository:
+     *      java -cp bin:lib/parserlib.jar karaoke.sound.TuneIndex [library directory] [index file] [threads]
+     *
+     * @param args optional library directory (default sample-abc), file to write the index to (default
+     *             library.kidx), and largest number of threads (default one per processor)
+     * @throws IOException if the library cannot be walked or the index cannot be written or read
+     */
+    public static void main(String[] args) throws IOException {
+        final Path library = Paths.get(args.length > 0 ? args[0] : "sample-abc");
+        final Path indexFile = Paths.get(args.length > 1 ? args[1] : "library.kidx");
+        final int maxThreads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+
+        TuneIndex index = null;
+        double oneThread = 0;
+        for (int threads = 1; ; threads = Math.min(2 * threads, maxThreads)) {
+            final ForkJoinPool pool = new ForkJoinPool(threads);
+            try {
+                index = build(library, pool); // warm up
+                final long start = System.nanoTime();
+                index = build(library, pool);
+                final double perSecond = index.getEntries().size() / ((System.nanoTime() - start) / 1e9);
+                if (threads == 1) {
+                    oneThread = perSecond;
+                }
+                System.out.printf("%3d thread%s: %8.1f files/s, %.2fx one thread%n", threads,
+                        threads == 1 ? " " : "s", perSecond, perSecond / oneThread);
+            } finally {
+                pool.shutdown();
+            }
+            if (threads >= maxThreads) {
+                break;
+            }
+        }
+        System.out.printf("%d files: %d parsed, %d failed%n", index.getEntries().size(), index.count(Status.OK),
+                index.count(Status.FAILED));
+        for (Entry entry : index.getEntries()) {
+            if (entry.getStatus() == Status.FAILED) {
+                System.out.println("  " + entry);
+            }
+        }
+
+        index.write(indexFile);
+        final long start = System.nanoTime();
+        final TuneIndex reloaded = read(indexFile);
+        System.out.printf("wrote %s (%d bytes); read it back in %.1f ms%n", indexFile, Files.size(indexFile),
+                (System.nanoTime() - start) / 1e6);
+        if (!reloaded.getEntries().equals(index.getEntries())) {
+            throw new AssertionError("index read back differs from the index written");
+        }
+    }
+}
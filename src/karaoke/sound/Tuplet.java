@@ -1,7 +1,7 @@
 package karaoke.sound;
 
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 /*
@@ -16,10 +16,11 @@ import java.util.Map;
  * - duration == tupletType.getTotalDuration()
  * 
  * Safety from Rep: All fields are private and final. tupletType is enum and duration is primitive type, so
- *                  they are immutable. listOfSubMusic is made immutable by wrapping it around the immutable wrapper
- *                  Collections.unmodifiable(). 
+ *                  they are immutable. listOfSubMusic is a copy of the list given to the constructor and is never
+ *                  returned, only copied again by getMusic().
  *                  ThreadSafety:
- *                  This ADT cannot be mutated, not even beneficent mutation.
+ *                  This ADT cannot be mutated, not even beneficent mutation. listOfSubMusic is a final field that is
+ *                  filled in before the constructor returns, so it is safely published without a lock.
  *                             
  */
 import java.util.concurrent.BlockingQueue;
@@ -44,7 +45,7 @@ import java.util.concurrent.BlockingQueue;
 public class Tuplet implements Music {
     
     
-    private final List<Music> listOfSubMusic;
+    private final Music[] listOfSubMusic;
     private final double tupletSize;
     private final double durationPerMusic;
     
@@ -56,7 +57,7 @@ public class Tuplet implements Music {
      * @param duration
      */
     public Tuplet(List<Music> modifiedDuration, double tupletSize) {
-        this.listOfSubMusic = Collections.synchronizedList(Collections.unmodifiableList(modifiedDuration));
+        this.listOfSubMusic = modifiedDuration.toArray(new Music[modifiedDuration.size()]);
         this.tupletSize = tupletSize;
         this.durationPerMusic = modifiedDuration.get(0).getDuration();
         checkRep();
@@ -66,7 +67,7 @@ public class Tuplet implements Music {
         for (Music music: listOfSubMusic) {
             assert music.getDuration() == this.durationPerMusic;
         }
-        assert listOfSubMusic.size() == (int) this.tupletSize;
+        assert listOfSubMusic.length == (int) this.tupletSize;
     }
     
     
@@ -85,6 +86,15 @@ public class Tuplet implements Music {
         } 
     }
     
+    @Override
+    public void compile(Timeline.Builder timeline, double atBeat) {
+        double currentBeat = atBeat;
+        for (Music music : this.listOfSubMusic) {
+            music.compile(timeline, currentBeat);
+            currentBeat += music.getDuration();
+        }
+    }
+    
     @Override 
     public String toString() {
         String ans = "(";
@@ -99,7 +109,7 @@ public class Tuplet implements Music {
      * @return list of music that form tuplet
      */
     public List<Music> getMusic() {
-        return new ArrayList<Music>(this.listOfSubMusic);
+        return new ArrayList<Music>(Arrays.asList(this.listOfSubMusic));
     }
     
 
@@ -6,7 +6,11 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+import karaoke.log.Log;
+import karaoke.log.Logger;
+
 public class VoiceBuilder {
+    private static final Logger LOG = Log.get(VoiceBuilder.class);
     private final List<Bar> majorSection;
     private final String singer;
     private RepeatStatus repeatStatus;
@@ -99,14 +103,14 @@ public class VoiceBuilder {
      * @param bar bar to add
      */
     public void addBar(Bar bar) {
-        if (singer.equals("OneVoice")) {
-            System.out.println("Bar " +bar);
+        if (LOG.isDebugEnabled() && singer.equals("OneVoice")) {
+            LOG.debug("Bar {}", bar);
         }
         this.majorSection.add(bar);
-        if (repeatStatus.equals(RepeatStatus.BEGIN_REPEAT)) {
+        if (repeatStatus == RepeatStatus.BEGIN_REPEAT) {
             this.listOfRepeats.add(bar);
         }
-        else if(repeatStatus.equals(RepeatStatus.FIRST_REPEAT)) {
+        else if(repeatStatus == RepeatStatus.FIRST_REPEAT) {
             this.firstRepeat.add(bar);
         }
     }
@@ -1,6 +1,7 @@
 package karaoke.sound;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
@@ -9,32 +10,42 @@ import java.util.concurrent.BlockingQueue;
 
 public class Voices implements Music{
     
+    /*
+     * AF(voiceToMusic, voiceToDuration) = music sung by the voices that are the keys of voiceToMusic, each singing its
+     *          list of major sections one after the other, for voiceToDuration.get(voice) beats
+     * RI: voiceToMusic is not empty, voiceToDuration has the same keys and maps every voice to the sum of the
+     *     durations of its sections
+     * Safety From Rep Exposure: all fields are private and final; the maps are unmodifiable and never returned, and
+     *          the lists of voiceToMusic are immutable AppendOnlyLists
+     * Thread Safety: Voices is immutable. addMusic() shares the lists of this Voices with the one it returns;
+     *          AppendOnlyList is threadsafe, so two threads can add to the same Voices at once
+     */
+    
     //fields
-    private final Map<String, List<Concat>> voiceToMusic;
+    private final Map<String, AppendOnlyList<Concat>> voiceToMusic;
+    private final Map<String, Double> voiceToDuration;
     
     
     /**
      * Constructor of Voices with unspecified voice.
      */
     public Voices() {
-        String singer = "OneVoice";
-        Map<String, List<Concat>> map = new HashMap<String, List<Concat>>();
-        map.put(singer, Collections.synchronizedList(Collections.unmodifiableList(new ArrayList<Concat>())));
-        this.voiceToMusic = Collections.synchronizedMap(Collections.unmodifiableMap(new HashMap<String, List<Concat>>(map)));
+        this(Arrays.asList("OneVoice"));
     }
     /**
      * Constructor of Voices
      * @param singers different voices that are present
      */
     public Voices(List<String> singers) {
-        Map<String, List<Concat>> map = new HashMap<String, List<Concat>>();
+        Map<String, AppendOnlyList<Concat>> map = new HashMap<String, AppendOnlyList<Concat>>();
+        Map<String, Double> durations = new HashMap<String, Double>();
         for (String singer : singers) {
-            map.put(singer, Collections.synchronizedList(
-                            Collections.unmodifiableList(new ArrayList<Concat>())));
+            map.put(singer, AppendOnlyList.<Concat>empty());
+            durations.put(singer, 0.0);
         }
-        
-        this.voiceToMusic = Collections.synchronizedMap(
-                            Collections.unmodifiableMap(new HashMap<String, List<Concat>>(map)));
+        this.voiceToMusic = Collections.unmodifiableMap(new HashMap<String, AppendOnlyList<Concat>>(map));
+        this.voiceToDuration = Collections.unmodifiableMap(durations);
+        checkRep();
     }
     
     /**
@@ -44,39 +55,57 @@ public class Voices implements Music{
      */
     public Voices(List<String> singers, List<List<Concat>> listOfMusics) {
         assert singers.size() == listOfMusics.size();
-        Map<String, List<Concat>> dummyMap = new HashMap<>();
+        Map<String, AppendOnlyList<Concat>> map = new HashMap<>();
+        Map<String, Double> durations = new HashMap<>();
         for (int i = 0; i < singers.size(); i++) {
-            dummyMap.put(singers.get(i), Collections.synchronizedList(
-                                         Collections.unmodifiableList(listOfMusics.get(i))));
+            double duration = 0;
+            for (Concat concMusic : listOfMusics.get(i)) {
+                duration += concMusic.getDuration();
+            }
+            map.put(singers.get(i), AppendOnlyList.copyOf(listOfMusics.get(i)));
+            durations.put(singers.get(i), duration);
         }
-        this.voiceToMusic = Collections.synchronizedMap(
-                            Collections.unmodifiableMap(dummyMap));
+        this.voiceToMusic = Collections.unmodifiableMap(map);
+        this.voiceToDuration = Collections.unmodifiableMap(durations);
+        checkRep();
+    }
+    
+    private Voices(Map<String, AppendOnlyList<Concat>> voiceToMusic, Map<String, Double> voiceToDuration) {
+        this.voiceToMusic = Collections.unmodifiableMap(voiceToMusic);
+        this.voiceToDuration = Collections.unmodifiableMap(voiceToDuration);
+        checkRep();
     }
     
+    private void checkRep() {
+        assert !voiceToMusic.isEmpty();
+        assert voiceToMusic.keySet().equals(voiceToDuration.keySet());
+    }
     
     /**
-     * Add a piece of music to already existing music from the voice of {param singer}
+     * Add a piece of music to already existing music from the voice of {param singer}.
+     * Takes O(1) amortized time for the music of the voice, plus time proportional to the number of voices.
      * @param singer a distinct voice
      * @param concMusic music to be added
      * @return new Voice object incorporating that change.
      */
     public Voices addMusic(String singer, Concat concMusic) {
-        List<Concat> modifiedList = new ArrayList<>(this.voiceToMusic.get(singer));//Arrays.asList(concMusic);
-        modifiedList.add(concMusic);
-        //modifiedList.addAll(this.voiceToMusic.get(singer));
-        List<Concat> newMusicForSinger = Collections.synchronizedList(
-                                         Collections.unmodifiableList(new ArrayList<Concat>(modifiedList)));
-        List<String> listOfSingers = new ArrayList<>(voiceToMusic.keySet());
-        List<List<Concat>> concats = new ArrayList<>();
-        for (String s : listOfSingers) {
+        AppendOnlyList<Concat> music = this.voiceToMusic.get(singer);
+        if (music == null) {
+            throw new IllegalArgumentException("no voice " + singer);
+        }
+        Map<String, AppendOnlyList<Concat>> map = new HashMap<>();
+        Map<String, Double> durations = new HashMap<>();
+        for (String s : this.voiceToMusic.keySet()) {
             if (s.equals(singer)) {
-                concats.add(newMusicForSinger);
+                map.put(s, music.append(concMusic));
+                durations.put(s, this.voiceToDuration.get(s) + concMusic.getDuration());
             }
             else {
-                concats.add(this.voiceToMusic.get(s));
+                map.put(s, this.voiceToMusic.get(s));
+                durations.put(s, this.voiceToDuration.get(s));
             }
         }
-        return new Voices(listOfSingers, concats);
+        return new Voices(map, durations);
     }
     
     /**
@@ -89,26 +118,55 @@ public class Voices implements Music{
         return addMusic(singer, concMusic);
     }
 
+    /**
+     * @return the voices of this music
+     */
+    public List<String> getSingers() {
+        return new ArrayList<String>(this.voiceToMusic.keySet());
+    }
+
+    /**
+     * @param singer a voice of this music
+     * @return the music of that voice alone
+     * @throws IllegalArgumentException if singer is not a voice of this music
+     */
+    public Voices only(String singer) {
+        AppendOnlyList<Concat> music = this.voiceToMusic.get(singer);
+        if (music == null) {
+            throw new IllegalArgumentException("no voice " + singer);
+        }
+        Map<String, AppendOnlyList<Concat>> map = new HashMap<>();
+        Map<String, Double> durations = new HashMap<>();
+        map.put(singer, music);
+        durations.put(singer, this.voiceToDuration.get(singer));
+        return new Voices(map, durations);
+    }
+
     @Override
     public double getDuration() {
-        double duration = 0;
-        String key = (new ArrayList<String>(this.voiceToMusic.keySet())).get(0);
-        for (Concat concMusic : this.voiceToMusic.get(key)) {
-            duration += concMusic.getDuration();
-        }
-        return duration;
+        return this.voiceToDuration.get(this.voiceToMusic.keySet().iterator().next());
     }
 
     @Override
     public void play(SequencePlayer player, double atBeat,Map<String, BlockingQueue<String>> queue) {
+       SectionScheduler scheduler = new SectionScheduler(player, atBeat, queue);
        for (String singer : this.voiceToMusic.keySet()) {
-           double offsetDuration = 0;
            for (Concat concMusic : this.voiceToMusic.get(singer)) {
-               concMusic.play(player, atBeat+offsetDuration,queue);
-               offsetDuration += concMusic.getDuration();
+               scheduler.section(singer, concMusic);
            }
        }
     }
+    
+    @Override
+    public void compile(Timeline.Builder timeline, double atBeat) {
+        for (String singer : this.voiceToMusic.keySet()) {
+            double offset = 0;
+            for (Concat concMusic : this.voiceToMusic.get(singer)) {
+                concMusic.compile(timeline, atBeat + offset);
+                offset += concMusic.getDuration();
+            }
+        }
+    }
     @Override
     public String toString() {
         String voices = "";
@@ -0,0 +1,192 @@
+package karaoke.sound;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+
+/**
+ * Renders tunes to audio with a SoftSynth, for backing tracks that are rendered once instead of being synthesized
+ * every time they are played.
+ *
+ * Each voice is rendered on its own, on an executor, into a float sample per frame: the notes sounding in each
+ * block of BLOCK_SAMPLES samples are mixed into one block buffer, reused from block to block, which is then copied
+ * to the voice. A final pass adds the voices up and scales the mix to a peak of HEADROOM. The result is written as
+ * mono 16-bit PCM WAV. Notes are at the ticks SoundPlayback plays them at, at the tempo of the tune.
+ */
+public class WavRenderer {
+
+    /**
+     * Samples per second of the audio rendered by write().
+     */
+    public static final int SAMPLE_RATE = 44100;
+    /**
+     * Samples in the block buffer that notes are mixed into.
+     */
+    public static final int BLOCK_SAMPLES = 1024;
+    /**
+     * Peak level of a mix, out of 1.
+     */
+    public static final float HEADROOM = 0.9f;
+
+    private static final int BITS_PER_SAMPLE = 16;
+
+    private WavRenderer() {
+        throw new AssertionError("WavRenderer is not instantiable");
+    }
+
+    /**
+     * Render the notes of a timeline.
+     * @param timeline notes to render
+     * @param beatsPerMinute tempo to render at, > 0
+     * @param synth synth to render with
+     * @return samples of the timeline at synth.sampleRate(), up to the end of the release of its last note
+     */
+    public static float[] renderVoice(Timeline timeline, int beatsPerMinute, SoftSynth synth) {
+        final double samplesPerTick = synth.sampleRate() * 60.0
+                / ((double) beatsPerMinute * timeline.getTicksPerBeat());
+        final int notes = timeline.size();
+        long end = 0;
+        for (int i = 0; i < notes; i++) {
+            end = Math.max(end, (long) ((timeline.startTick(i) + timeline.durTicks(i)) * samplesPerTick));
+        }
+        final int release = synth.releaseSamples();
+        final float[] samples = new float[notes == 0 ? 0 : Math.toIntExact(end + release)];
+        final float[] block = new float[BLOCK_SAMPLES];
+        // notes that have started and may still sound, as indexes into the timeline; notes are sorted by start
+        final int[] sounding = new int[notes];
+        int soundingCount = 0;
+        int next = 0;
+        for (int blockStart = 0; blockStart < samples.length; blockStart += BLOCK_SAMPLES) {
+            final int length = Math.min(BLOCK_SAMPLES, samples.length - blockStart);
+            Arrays.fill(block, 0, length, 0f);
+            while (next < notes && (long) (timeline.startTick(next) * samplesPerTick) < blockStart + length) {
+                sounding[soundingCount++] = next++;
+            }
+            int kept = 0;
+            for (int s = 0; s < soundingCount; s++) {
+                final int i = sounding[s];
+                final long start = (long) (timeline.startTick(i) * samplesPerTick);
+                final long noteSamples = (long) ((timeline.startTick(i) + timeline.durTicks(i)) * samplesPerTick)
+                        - start;
+                final long stop = start + noteSamples + release;
+                if (stop <= blockStart) {
+                    continue;
+                }
+                final int from = (int) Math.max(0, start - blockStart);
+                final int to = (int) Math.min(length, stop - blockStart);
+                synth.mix(timeline.instrument(timeline.channel(i)), timeline.midiNote(i), noteSamples,
+                        blockStart + from - start, block, from, to);
+                sounding[kept++] = i;
+            }
+            soundingCount = kept;
+            System.arraycopy(block, 0, samples, blockStart, length);
+        }
+        return samples;
+    }
+
+    /**
+     * Render a parsed tune, each voice as a task on executor, and mix the voices down.
+     * @param tune parsed tune
+     * @param synth synth to render with
+     * @param executor executor to render the voices on
+     * @return samples of the mix of the voices of tune at synth.sampleRate(), with a peak of HEADROOM unless the
+     *         tune is silent
+     * @throws InterruptedException if interrupted while waiting for the voices to be rendered
+     */
+    public static float[] render(AbcTune tune, SoftSynth synth, ExecutorService executor)
+            throws InterruptedException {
+        final Voices music = tune.getMusic();
+        final int beatsPerMinute = Integer.parseInt(tune.getTempo());
+        final List<Future<float[]>> voices = new ArrayList<>();
+        for (String voice : music.getSingers()) {
+            voices.add(executor.submit(
+                    () -> renderVoice(SoundPlayback.compile(music.only(voice)), beatsPerMinute, synth)));
+        }
+        final List<float[]> rendered = new ArrayList<>();
+        int length = 0;
+        for (Future<float[]> voice : voices) {
+            try {
+                rendered.add(voice.get());
+            } catch (ExecutionException ee) {
+                throw new RuntimeException("Cannot render " + tune.getTitle(), ee.getCause());
+            }
+            length = Math.max(length, rendered.get(rendered.size() - 1).length);
+        }
+        return mixdown(rendered, length);
+    }
+
+    /**
+     * @param voices samples of each voice
+     * @param length number of samples in the longest voice
+     * @return sum of voices, scaled to a peak of HEADROOM unless it is silent
+     */
+    private static float[] mixdown(List<float[]> voices, int length) {
+        final float[] mix = new float[length];
+        for (float[] voice : voices) {
+            for (int i = 0; i < voice.length; i++) {
+                mix[i] += voice[i];
+            }
+        }
+        float peak = 0;
+        for (float sample : mix) {
+            peak = Math.max(peak, Math.abs(sample));
+        }
+        if (peak > 0) {
+            final float scale = HEADROOM / peak;
+            for (int i = 0; i < length; i++) {
+                mix[i] *= scale;
+            }
+        }
+        return mix;
+    }
+
+    /**
+     * Write samples as a mono 16-bit PCM WAV file.
+     * @param samples samples to write, clipped to [-1, 1]
+     * @param sampleRate samples per second
+     * @param path file to write, replaced if it exists
+     * @throws IOException if the file cannot be written
+     */
+    public static void write(float[] samples, int sampleRate, Path path) throws IOException {
+        final byte[] pcm = new byte[samples.length * 2];
+        for (int i = 0; i < samples.length; i++) {
+            final int sample = Math.round(Math.max(-1, Math.min(1, samples[i])) * Short.MAX_VALUE);
+            pcm[2 * i] = (byte) sample;
+            pcm[2 * i + 1] = (byte) (sample >> 8);
+        }
+        final AudioFormat format = new AudioFormat(sampleRate, BITS_PER_SAMPLE, 1, true, false);
+        try (AudioInputStream audio = new AudioInputStream(new ByteArrayInputStream(pcm), format, samples.length)) {
+            AudioSystem.write(audio, AudioFileFormat.Type.WAVE, path.toFile());
+        }
+    }
+
+    /**
+     * Render a parsed tune with a WavetableSynth at SAMPLE_RATE, its voices in parallel, and write it as a mono
+     * 16-bit PCM WAV file.
+     * @param tune parsed tune
+     * @param path file to write, replaced if it exists
+     * @throws IOException if the file cannot be written
+     * @throws InterruptedException if interrupted while rendering
+     */
+    public static void write(AbcTune tune, Path path) throws IOException, InterruptedException {
+        final int threads = Math.min(tune.getMusic().getSingers().size(), Runtime.getRuntime().availableProcessors());
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            write(render(tune, new WavetableSynth(SAMPLE_RATE), executor), SAMPLE_RATE, path);
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
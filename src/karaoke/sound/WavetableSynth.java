@@ -0,0 +1,150 @@
+package karaoke.sound;
+
+/**
+ * A wavetable synthesizer: each instrument plays one cycle of a waveform made by adding up harmonics, chosen by the
+ * family of the instrument (pianos, organs, strings and so on, eight General MIDI programs each), under a short
+ * attack, a linear release and, for plucked and struck families, an exponential decay.
+ */
+public class WavetableSynth implements SoftSynth {
+    /*
+     * AF(sampleRate, tables) = synth rendering sampleRate samples per second, in which instrument i plays the
+     *          waveform tables[i], one cycle of TABLE_SIZE samples
+     * RI: sampleRate > 0; tables has one table per Instrument, of TABLE_SIZE samples with peak 1
+     * Safety from Rep Exposure: all fields are private and final; tables are never returned
+     * Thread Safety: immutable; the tables are filled in before the constructor returns and never written again
+     */
+
+    // samples in one cycle of a waveform; a power of two, so that indexes wrap with a mask
+    private static final int TABLE_SIZE = 4096;
+    private static final int TABLE_MASK = TABLE_SIZE - 1;
+    // General MIDI programs per instrument family
+    private static final int FAMILY_SIZE = 8;
+    // relative amplitude of the harmonics 1, 2, ... of each instrument family
+    private static final double[][] HARMONICS = {
+        { 1, 0.5, 0.3, 0.2, 0.1, 0.05 },            // piano
+        { 1, 0, 0.3, 0, 0.1 },                      // chromatic percussion
+        { 1, 0.8, 0.6, 0.5, 0.3, 0.2, 0.1, 0.1 },   // organ
+        { 1, 0.6, 0.4, 0.25, 0.15, 0.1 },           // guitar
+        { 1, 0.4, 0.1 },                            // bass
+        { 1, 0.5, 0.33, 0.25, 0.2, 0.17, 0.14 },    // strings
+        { 1, 0.5, 0.33, 0.25, 0.2, 0.17, 0.14 },    // ensemble
+        { 1, 0.7, 0.5, 0.4, 0.3, 0.2, 0.1 },        // brass
+        { 1, 0, 0.33, 0, 0.2, 0, 0.14 },            // reed
+        { 1, 0.2, 0.05 },                           // pipe
+        { 1, 0.5, 0.33, 0.25, 0.2 },                // synth lead
+        { 1, 0.3, 0.1 },                            // synth pad
+        { 1, 0.5, 0.25 },                           // synth effects
+        { 1, 0.6, 0.4, 0.25, 0.15 },                // ethnic
+        { 1, 0.2, 0.4, 0.1 },                       // percussive
+        { 1, 0.5, 0.5, 0.5 },                       // sound effects
+    };
+    // families whose notes die away while held: piano, chromatic percussion, guitar, bass, ethnic, percussive
+    private static final boolean[] DECAYS = {
+        true, true, false, true, true, false, false, false,
+        false, false, false, false, false, true, true, false,
+    };
+    private static final double ATTACK_SECONDS = 0.005;
+    private static final double RELEASE_SECONDS = 0.08;
+    // seconds for a decaying note to fall to 1/e of its level
+    private static final double DECAY_SECONDS = 0.8;
+    // level of one note, so that a few notes at once stay within [-1, 1]
+    private static final float NOTE_GAIN = 0.25f;
+    private static final double A4_FREQUENCY = 440;
+    private static final int A4_MIDI_NOTE = 69;
+    private static final int SEMITONES_PER_OCTAVE = 12;
+
+    private final int sampleRate;
+    private final float[][] tables;
+
+    /**
+     * Make a synth.
+     * @param sampleRate samples per second to render at, > 0
+     */
+    public WavetableSynth(int sampleRate) {
+        if (sampleRate <= 0) {
+            throw new IllegalArgumentException("sample rate must be positive: " + sampleRate);
+        }
+        this.sampleRate = sampleRate;
+        final Instrument[] instruments = Instrument.values();
+        this.tables = new float[instruments.length][];
+        for (Instrument instr : instruments) {
+            tables[instr.ordinal()] = table(HARMONICS[instr.ordinal() / FAMILY_SIZE]);
+        }
+        checkRep();
+    }
+
+    private void checkRep() {
+        assert sampleRate > 0;
+        assert tables.length == Instrument.values().length;
+    }
+
+    /**
+     * @param harmonics relative amplitude of each harmonic, starting with the fundamental
+     * @return one cycle of the sum of the harmonics, scaled to a peak of 1
+     */
+    private static float[] table(double[] harmonics) {
+        final float[] table = new float[TABLE_SIZE];
+        float peak = 0;
+        for (int i = 0; i < TABLE_SIZE; i++) {
+            double sample = 0;
+            for (int h = 0; h < harmonics.length; h++) {
+                sample += harmonics[h] * Math.sin(2 * Math.PI * (h + 1) * i / TABLE_SIZE);
+            }
+            table[i] = (float) sample;
+            peak = Math.max(peak, Math.abs(table[i]));
+        }
+        for (int i = 0; i < TABLE_SIZE; i++) {
+            table[i] /= peak;
+        }
+        return table;
+    }
+
+    @Override
+    public int sampleRate() {
+        return sampleRate;
+    }
+
+    @Override
+    public int releaseSamples() {
+        return (int) (RELEASE_SECONDS * sampleRate);
+    }
+
+    @Override
+    public void mix(Instrument instr, int midiNote, long noteSamples, long sinceStart, float[] block, int from,
+            int to) {
+        final float[] table = tables[instr.ordinal()];
+        final double frequency = A4_FREQUENCY
+                * Math.pow(2, (midiNote - A4_MIDI_NOTE) / (double) SEMITONES_PER_OCTAVE);
+        final double increment = frequency * TABLE_SIZE / sampleRate;
+        final double attackSamples = ATTACK_SECONDS * sampleRate;
+        final double releaseSamples = releaseSamples();
+        double phase = (sinceStart * increment) % TABLE_SIZE;
+        double decay = 1;
+        double decayPerSample = 1;
+        if (DECAYS[instr.ordinal() / FAMILY_SIZE]) {
+            decay = Math.exp(-sinceStart / (DECAY_SECONDS * sampleRate));
+            decayPerSample = Math.exp(-1 / (DECAY_SECONDS * sampleRate));
+        }
+        long t = sinceStart;
+        for (int i = from; i < to; i++, t++) {
+            double level = t < attackSamples ? t / attackSamples : 1;
+            if (t >= noteSamples) {
+                level *= Math.max(0, 1 - (t - noteSamples) / releaseSamples);
+            }
+            final int index = (int) phase;
+            final float fraction = (float) (phase - index);
+            final float sample = table[index] + fraction * (table[(index + 1) & TABLE_MASK] - table[index]);
+            block[i] += (float) (NOTE_GAIN * level * decay) * sample;
+            phase += increment;
+            if (phase >= TABLE_SIZE) {
+                phase -= TABLE_SIZE;
+            }
+            decay *= decayPerSample;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "WavetableSynth(" + sampleRate + " Hz)";
+    }
+}
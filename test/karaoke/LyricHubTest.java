@@ -0,0 +1,289 @@
+package karaoke;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * Tests for LyricHub and LyricRing
+ */
+public class LyricHubTest {
+    /*
+     * Partitions:
+     *  LyricRing.get(): line kept, line overwritten, line being overwritten by a concurrent publish()
+     *  LyricHub:
+     *      subscribers per voice: 1, > 1
+     *      voices: 1, > 1
+     *      listener: keeps up, blocks, falls more than the capacity behind, returns false
+     *      subscribe: before any line, after some lines
+     *      resume from: a line kept, a line overwritten, a line not yet published
+     */
+
+    private static final long TIMEOUT_SECONDS = 10;
+
+    /**
+     * Listener that records lines and counts down a latch for each one.
+     */
+    private static class Recorder implements LyricHub.Listener {
+        private final List<String> lines = Collections.synchronizedList(new ArrayList<String>());
+        private final CountDownLatch expected;
+
+        Recorder(int expectedLines) {
+            this.expected = new CountDownLatch(expectedLines);
+        }
+
+        @Override
+        public boolean deliver(String line) {
+            lines.add(line);
+            expected.countDown();
+            return true;
+        }
+
+        /**
+         * Wait until this has recorded at least count lines.
+         */
+        void awaitCount(int count) throws InterruptedException {
+            final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(TIMEOUT_SECONDS);
+            while (lines.size() < count) {
+                assertTrue("timed out waiting for " + count + " lines", System.nanoTime() < deadline);
+                Thread.sleep(1);
+            }
+        }
+
+        List<String> await() throws InterruptedException {
+            assertTrue("timed out waiting for lines", expected.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+            synchronized (lines) {
+                return new ArrayList<>(lines);
+            }
+        }
+    }
+
+    private static List<String> numbered(String prefix, int count) {
+        final List<String> lines = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            lines.add(prefix + i);
+        }
+        return lines;
+    }
+
+    //Covers line kept, line overwritten
+    @Test
+    public void testRingOverwrites() {
+        final LyricRing<String> ring = new LyricRing<>(3);
+        assertEquals(0, ring.head());
+        for (String line : numbered("l", 5)) {
+            ring.publish(line);
+        }
+        assertEquals(5, ring.head());
+        assertEquals(2, ring.tail());
+        assertNull(ring.get(1));
+        assertEquals("l2", ring.get(2));
+        assertEquals("l4", ring.get(4));
+    }
+
+    //Covers line being overwritten by a concurrent publish()
+    @Test
+    public void testRingConcurrentOverwrite() throws InterruptedException {
+        final LyricRing<String> ring = new LyricRing<>(2);
+        final int lines = 2_000_000;
+        final Thread writer = new Thread(() -> {
+            for (int i = 0; i < lines; i++) {
+                ring.publish("l" + i);
+            }
+        }, "writer");
+        writer.start();
+        long reads = 0;
+        while (writer.isAlive() || reads == 0) {
+            final long head = ring.head();
+            for (long n = Math.max(0, head - ring.capacity() - 1); n < head; n++) {
+                final String line = ring.get(n);
+                if (line != null) {
+                    assertEquals("l" + n, line);
+                }
+                reads++;
+            }
+        }
+        writer.join();
+        assertEquals(lines - ring.capacity(), ring.tail());
+        assertEquals("l" + (lines - 1), ring.get(lines - 1));
+    }
+
+    //Covers more than one subscriber on each of more than one voice, listeners that keep up
+    @Test
+    public void testEverySubscriberGetsEveryLine() throws InterruptedException {
+        final ExecutorService executor = Executors.newCachedThreadPool();
+        final int capacity = 16;
+        final LyricHub hub = new LyricHub(Arrays.asList("upper", "lower"), capacity, executor);
+        final int count = 480;
+        final List<Recorder> upper = new ArrayList<>();
+        final List<Recorder> lower = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            upper.add(new Recorder(count));
+            lower.add(new Recorder(count));
+            hub.subscribe("upper", upper.get(i));
+            hub.subscribe("lower", lower.get(i));
+        }
+        hub.start();
+        for (int i = 0; i < count; i++) {
+            hub.queues().get("upper").put("upper" + i);
+            hub.queues().get("lower").put("lower" + i);
+            if ((i + 1) % capacity == 0) {
+                // publish in bursts of at most the capacity, so that no listener can fall too far behind
+                for (Recorder recorder : upper) {
+                    recorder.awaitCount(i + 1);
+                }
+                for (Recorder recorder : lower) {
+                    recorder.awaitCount(i + 1);
+                }
+            }
+        }
+        for (Recorder recorder : upper) {
+            assertEquals(numbered("upper", count), recorder.await());
+        }
+        for (Recorder recorder : lower) {
+            assertEquals(numbered("lower", count), recorder.await());
+        }
+        hub.stop();
+        executor.shutdownNow();
+    }
+
+    //Covers listener that blocks, falls more than the capacity behind; subscribe after some lines
+    @Test
+    public void testSlowListenerDoesNotStallOthers() throws InterruptedException {
+        final ExecutorService executor = Executors.newCachedThreadPool();
+        final int capacity = 8;
+        final LyricHub hub = new LyricHub(Arrays.asList("OneVoice"), capacity, executor);
+        hub.start();
+        final Recorder probe = new Recorder(1);
+        hub.subscribe("OneVoice", probe);
+        hub.queues().get("OneVoice").put("before");
+        assertEquals(Arrays.asList("before"), probe.await());
+
+        final CountDownLatch release = new CountDownLatch(1);
+        final List<String> slowLines = Collections.synchronizedList(new ArrayList<String>());
+        final CountDownLatch slowDone = new CountDownLatch(1);
+        hub.subscribe("OneVoice", line -> {
+            slowLines.add(line);
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                return false;
+            }
+            if (line.equals("l99")) {
+                slowDone.countDown();
+            }
+            return true;
+        });
+        final Recorder fast = new Recorder(100);
+        hub.subscribe("OneVoice", fast);
+
+        final List<String> lines = numbered("l", 100);
+        for (int i = 0; i < lines.size(); i++) {
+            hub.queues().get("OneVoice").put(lines.get(i));
+            fast.awaitCount(i + 1);
+        }
+        assertEquals("expected the fast listener to get every line while the slow one is blocked",
+                numbered("l", 100), fast.await());
+
+        release.countDown();
+        assertTrue(slowDone.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        synchronized (slowLines) {
+            assertEquals("expected the slow listener to start with the first line after it subscribed",
+                    "l0", slowLines.get(0));
+            assertTrue("expected the slow listener to skip lines it fell too far behind on",
+                    slowLines.size() <= capacity + 2);
+            assertEquals("l99", slowLines.get(slowLines.size() - 1));
+        }
+        hub.stop();
+        executor.shutdownNow();
+    }
+
+    //Covers listener that returns false
+    @Test
+    public void testListenerThatLeavesIsUnsubscribed() throws InterruptedException {
+        final ExecutorService executor = Executors.newCachedThreadPool();
+        final LyricHub hub = new LyricHub(Arrays.asList("OneVoice"), 4, executor);
+        final CountDownLatch left = new CountDownLatch(1);
+        hub.subscribe("OneVoice", line -> {
+            left.countDown();
+            return false;
+        });
+        assertEquals(1, hub.subscribers("OneVoice"));
+        hub.start();
+        hub.queues().get("OneVoice").put("$");
+        assertTrue(left.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(TIMEOUT_SECONDS);
+        while (hub.subscribers("OneVoice") > 0 && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+        assertEquals(0, hub.subscribers("OneVoice"));
+        hub.stop();
+        executor.shutdownNow();
+    }
+
+    //Covers resume from a line kept, a line overwritten, a line not yet published
+    @Test
+    public void testResume() throws InterruptedException {
+        final ExecutorService executor = Executors.newCachedThreadPool();
+        final LyricHub hub = new LyricHub(Arrays.asList("OneVoice"), 4, executor);
+        hub.start();
+        final CountDownLatch published = new CountDownLatch(1);
+        hub.subscribe("OneVoice", line -> {
+            if (line.equals("l5")) {
+                published.countDown();
+            }
+            return true;
+        });
+        for (String line : numbered("l", 6)) {
+            hub.queues().get("OneVoice").put(line);
+        }
+        assertTrue(published.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+
+        final List<String> kept = Collections.synchronizedList(new ArrayList<String>());
+        final List<String> overwritten = Collections.synchronizedList(new ArrayList<String>());
+        final List<String> future = Collections.synchronizedList(new ArrayList<String>());
+        final CountDownLatch done = new CountDownLatch(3);
+        hub.resume("OneVoice", 4, numberedInto(kept, done));
+        hub.resume("OneVoice", 0, numberedInto(overwritten, done));
+        hub.resume("OneVoice", 100, numberedInto(future, done));
+        // publishing another line before the first two catch up would overwrite the oldest line kept
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(TIMEOUT_SECONDS);
+        while (!kept.contains("5 l5") || !overwritten.contains("5 l5")) {
+            assertTrue("timed out waiting for resumed listeners", System.nanoTime() < deadline);
+            Thread.sleep(1);
+        }
+        hub.queues().get("OneVoice").put("$");
+        assertTrue(done.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList("4 l4", "5 l5", "6 $"), kept);
+        assertEquals("expected to start from the oldest line kept",
+                Arrays.asList("2 l2", "3 l3", "4 l4", "5 l5", "6 $"), overwritten);
+        assertEquals(Arrays.asList("6 $"), future);
+        hub.stop();
+        executor.shutdownNow();
+    }
+
+    /**
+     * @return listener that adds "number line" to lines, until it gets "$", and then counts down done
+     */
+    private static LyricHub.NumberedListener numberedInto(List<String> lines, CountDownLatch done) {
+        return (number, line) -> {
+            lines.add(number + " " + line);
+            if (line.equals("$")) {
+                done.countDown();
+                return false;
+            }
+            return true;
+        };
+    }
+}
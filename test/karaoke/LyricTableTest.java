@@ -0,0 +1,59 @@
+package karaoke;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import edu.mit.eecs.parserlib.UnableToParseException;
+import karaoke.sound.Timeline;
+
+/**
+ * Tests for LyricTable
+ */
+public class LyricTableTest {
+    /*
+     * Partitions:
+     *  voice: has lyrics, not a voice of the timeline
+     *  index: line the voice sings, -1, not a line of the timeline
+     *  frame: a syllable highlighted, none highlighted
+     */
+
+    //Covers voice has lyrics; index line the voice sings, -1, not a line; frame a syllable, none
+    @Test
+    public void testTableOfSong() throws IOException, UnableToParseException {
+        final Timeline timeline = new TuneCache().get("sample-abc/abc_song.abc").getTimeline();
+        final LyricTable table = new LyricTable(timeline, "OneVoice");
+        assertEquals(3, table.lines().size());
+        assertEquals(Arrays.asList("A", " ", "B"), table.lines().get(0).subList(0, 3));
+        int highest = -1;
+        for (int i = 0; i < timeline.size(); i++) {
+            final int lyric = timeline.lyricIndex(i);
+            if (lyric < 0 || timeline.lyricLine(lyric) < 0) {
+                continue;
+            }
+            final int index = table.index(timeline.lyricLine(lyric));
+            assertTrue("expected lines numbered in the order they are first sung", index <= highest + 1);
+            highest = Math.max(highest, index);
+            assertEquals(timeline.lineSyllables(timeline.lyricLine(lyric)), table.lines().get(index));
+            assertEquals(timeline.lyricText(lyric), table.frame(index, timeline.lyricSyllable(lyric)));
+        }
+        assertEquals(table.lines().size() - 1, highest);
+        assertEquals("*A* B C D E F G H I J K L M N O P", table.frame(0, 0));
+        assertEquals("A B C D E F G H I J K L M N O P", table.frame(0, -1));
+        assertEquals(-1, table.index(-1));
+        assertEquals(-1, table.index(timeline.lines()));
+    }
+
+    //Covers not a voice of the timeline
+    @Test
+    public void testOtherVoiceIsEmpty() throws IOException, UnableToParseException {
+        final Timeline timeline = new TuneCache().get("sample-abc/abc_song.abc").getTimeline();
+        final LyricTable table = new LyricTable(timeline, "nobody");
+        assertEquals(Arrays.asList(), table.lines());
+        assertEquals(-1, table.index(0));
+    }
+}
@@ -0,0 +1,233 @@
+package karaoke;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import edu.mit.eecs.parserlib.UnableToParseException;
+import karaoke.sound.SoundPlayback;
+import karaoke.sound.Timeline;
+
+/**
+ * Tests for MusicWebServer
+ */
+public class MusicWebServerTest {
+    /*
+     * Partitions:
+     *  /events: known voice, unknown voice
+     *  Last-Event-ID: absent, a line still kept, not a number
+     *  end of song: "$" sung, not yet
+     *  rooms: default room only, > 1 rooms; room: open, closed, unknown
+     *  /play: on the clock engine
+     */
+
+    private static final int TIMEOUT_MILLIS = 10000;
+    private static final String VOICE = "OneVoice";
+
+    private static MusicWebServer startServer() throws IOException {
+        final MusicWebServer server = new MusicWebServer(0, "sample-abc/piece1.abc", Arrays.asList(VOICE),
+                new TuneCache());
+        server.start();
+        return server;
+    }
+
+    /**
+     * Put lines on the lyric queue of VOICE and wait until they have been published.
+     */
+    private static void sing(MusicWebServer server, String... lines) throws InterruptedException {
+        final CountDownLatch published = new CountDownLatch(lines.length);
+        server.lyrics().subscribe(VOICE, line -> {
+            published.countDown();
+            return published.getCount() > 0;
+        });
+        for (String line : lines) {
+            server.lyrics().queues().get(VOICE).put(line);
+        }
+        assertTrue(published.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+    }
+
+    private static HttpURLConnection events(MusicWebServer server, String voice, String lastEventId)
+            throws IOException {
+        final URL url = new URL("http://localhost:" + server.port() + "/events/" + voice);
+        final HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setReadTimeout(TIMEOUT_MILLIS);
+        if (lastEventId != null) {
+            connection.setRequestProperty("Last-Event-ID", lastEventId);
+        }
+        return connection;
+    }
+
+    /**
+     * @return the next event read, as its lines joined by "|", or null at the end of the response
+     */
+    private static String readEvent(BufferedReader in) throws IOException {
+        final List<String> fields = new ArrayList<>();
+        String line;
+        while ((line = in.readLine()) != null) {
+            if (line.isEmpty()) {
+                if (fields.isEmpty()) {
+                    continue;
+                }
+                return String.join("|", fields);
+            }
+            if (!line.startsWith(":")) {
+                fields.add(line);
+            }
+        }
+        return fields.isEmpty() ? null : String.join("|", fields);
+    }
+
+    //Covers known voice, Last-Event-ID of a line still kept, "$" sung
+    @Test
+    public void testEventsResumeAfterLastEventId() throws IOException, InterruptedException {
+        final MusicWebServer server = startServer();
+        try {
+            sing(server, "l0", "l1", "l2");
+            final HttpURLConnection connection = events(server, VOICE, "0");
+            assertEquals(HttpURLConnection.HTTP_OK, connection.getResponseCode());
+            assertTrue(connection.getContentType().startsWith("text/event-stream"));
+            try (BufferedReader in = new BufferedReader(new InputStreamReader(connection.getInputStream(), UTF_8))) {
+                assertEquals("id: 1|data: l1", readEvent(in));
+                assertEquals("id: 2|data: l2", readEvent(in));
+                server.lyrics().queues().get(VOICE).put("$");
+                assertEquals("id: 3|event: end|data: ", readEvent(in));
+                assertNull("expected the response to end after the song", readEvent(in));
+            }
+        } finally {
+            server.stop();
+        }
+    }
+
+    //Covers known voice, no Last-Event-ID, not yet ended
+    @Test
+    public void testEventsStartWithNextLine() throws IOException, InterruptedException {
+        final MusicWebServer server = startServer();
+        try {
+            sing(server, "l0");
+            final HttpURLConnection connection = events(server, VOICE, null);
+            try (BufferedReader in = new BufferedReader(new InputStreamReader(connection.getInputStream(), UTF_8))) {
+                // the comment at the start of the response means the listener has subscribed
+                assertEquals(": " + VOICE, in.readLine());
+                server.lyrics().queues().get(VOICE).put("l1");
+                assertEquals("id: 1|data: l1", readEvent(in));
+            }
+        } finally {
+            server.stop();
+        }
+    }
+
+    //Covers unknown voice, Last-Event-ID not a number
+    @Test
+    public void testEventsRejectsBadRequests() throws IOException {
+        final MusicWebServer server = startServer();
+        try {
+            assertEquals(HttpURLConnection.HTTP_NOT_FOUND, events(server, "nope", null).getResponseCode());
+            assertEquals(HttpURLConnection.HTTP_BAD_REQUEST, events(server, VOICE, "soon").getResponseCode());
+        } finally {
+            server.stop();
+        }
+    }
+
+    /**
+     * @return reader of the response to a /stream request, after the padding
+     */
+    private static BufferedReader stream(MusicWebServer server, String path) throws IOException {
+        final HttpURLConnection connection =
+                (HttpURLConnection) new URL("http://localhost:" + server.port() + path).openConnection();
+        connection.setReadTimeout(TIMEOUT_MILLIS);
+        assertEquals(HttpURLConnection.HTTP_OK, connection.getResponseCode());
+        final BufferedReader in = new BufferedReader(new InputStreamReader(connection.getInputStream(), UTF_8));
+        assertEquals("expected padding first", 2048, in.readLine().length());
+        return in;
+    }
+
+    //Covers > 1 rooms, room open, closed, unknown
+    @Test
+    public void testRoomsAreSeparate() throws IOException, InterruptedException, UnableToParseException {
+        final MusicWebServer server = startServer();
+        try {
+            final Room a = server.openRoom("a", "sample-abc/abc_song.abc");
+            server.openRoom("b", "sample-abc/friday.abc");
+            assertEquals(a, server.getRoom("a"));
+            final String voiceB = server.getRoom("b").getVoices().get(0);
+            try (BufferedReader inA = stream(server, "/room/a/stream/OneVoice");
+                    BufferedReader inB = stream(server, "/room/b/stream/" + voiceB);
+                    BufferedReader inMain = stream(server, "/stream/" + VOICE)) {
+                a.lyrics().queues().get("OneVoice").put("in a");
+                server.getRoom("b").lyrics().queues().get(voiceB).put("in b");
+                server.lyrics().queues().get(VOICE).put("in main");
+                assertEquals("in a", inA.readLine());
+                assertEquals("in b", inB.readLine());
+                assertEquals("in main", inMain.readLine());
+
+                assertTrue(server.closeRoom("a"));
+                assertNull("expected closing the room to end its streams", inA.readLine());
+                assertTrue(!a.isOpen());
+            }
+            final URL closed = new URL("http://localhost:" + server.port() + "/room/a/stream/OneVoice");
+            assertEquals(HttpURLConnection.HTTP_NOT_FOUND,
+                    ((HttpURLConnection) closed.openConnection()).getResponseCode());
+            final URL unknown = new URL("http://localhost:" + server.port() + "/room/c/play");
+            assertEquals(HttpURLConnection.HTTP_NOT_FOUND,
+                    ((HttpURLConnection) unknown.openConnection()).getResponseCode());
+        } finally {
+            server.stop();
+        }
+    }
+
+    //Covers default room only
+    @Test
+    public void testRoomNames() throws IOException, UnableToParseException {
+        final MusicWebServer server = startServer();
+        try {
+            assertEquals(VOICE, server.getRoom(MusicWebServer.DEFAULT_ROOM).getVoices().get(0));
+            assertNull(server.getRoom("a"));
+            assertTrue(!server.closeRoom(MusicWebServer.DEFAULT_ROOM));
+            server.openRoom("a", "sample-abc/piece1.abc");
+            for (String id : Arrays.asList("a", MusicWebServer.DEFAULT_ROOM, "x/y", "")) {
+                try {
+                    server.openRoom(id, "sample-abc/piece1.abc");
+                    fail("expected a room named " + id + " to be refused");
+                } catch (IllegalArgumentException e) {
+                    // expected
+                }
+            }
+        } finally {
+            server.stop();
+        }
+    }
+
+    //Covers /play on the clock engine
+    @Test
+    public void testPlayOnClockEngine() throws IOException, UnableToParseException {
+        final String file = "sample-abc/abc_song.abc";
+        final TuneCache tunes = new TuneCache();
+        final MusicWebServer server = new MusicWebServer(0, file, Arrays.asList(VOICE), tunes,
+                MusicWebServer.ExecutorMode.PLATFORM, SoundPlayback.Engine.CLOCK);
+        server.start();
+        try (BufferedReader in = stream(server, "/stream/" + VOICE)) {
+            final URL play = new URL("http://localhost:" + server.port() + "/play");
+            assertEquals(HttpURLConnection.HTTP_OK, ((HttpURLConnection) play.openConnection()).getResponseCode());
+            final Timeline timeline = tunes.get(file).getTimeline();
+            assertEquals(timeline.lyricText(timeline.lyricIndex(0)), in.readLine());
+            assertEquals(timeline.lyricText(timeline.lyricIndex(1)), in.readLine());
+        } finally {
+            server.stop();
+        }
+    }
+}
@@ -0,0 +1,322 @@
+package karaoke;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+
+import org.junit.Test;
+
+import edu.mit.eecs.parserlib.UnableToParseException;
+import karaoke.sound.IndexedLyricQueue;
+import karaoke.sound.Timeline;
+
+/**
+ * Tests for NioMusicWebServer
+ */
+public class NioMusicWebServerTest {
+    /*
+     * Partitions:
+     *  request: /stream of a voice, /stream of an unknown voice, other path
+     *  listeners of a voice: 1, > 1
+     *  voices: 1, > 1
+     *  end of stream: "$" sung, client closes first
+     *  /ws: line in the lyric table, line not in the table, end of song, ping, close
+     */
+
+    private static final int TIMEOUT_MILLIS = 10000;
+    private static final String FILE = "sample-abc/piece1.abc";
+
+    /**
+     * Client side of one request: reads the status line and headers, then the chunks of the body.
+     */
+    private static class Client implements AutoCloseable {
+        private final Socket socket;
+        private final InputStream in;
+
+        Client(int port, String path) throws IOException {
+            this(port, path, "");
+        }
+
+        Client(int port, String path, String headers) throws IOException {
+            this.socket = new Socket("localhost", port);
+            socket.setSoTimeout(TIMEOUT_MILLIS);
+            socket.getOutputStream().write(("GET " + path + " HTTP/1.1\r\nHost: localhost\r\n" + headers + "\r\n")
+                    .getBytes(US_ASCII));
+            this.in = socket.getInputStream();
+        }
+
+        /**
+         * @return status line and headers, up to but not including the blank line
+         */
+        String head() throws IOException {
+            final StringBuilder head = new StringBuilder();
+            while (head.indexOf("\r\n\r\n") < 0) {
+                final int c = in.read();
+                assertTrue("connection closed in the headers", c >= 0);
+                head.append((char) c);
+            }
+            return head.substring(0, head.length() - 4);
+        }
+
+        /**
+         * @return data of the next chunk, "" for the last chunk
+         */
+        String chunk() throws IOException {
+            final int size = Integer.parseInt(line(), 16);
+            final byte[] data = new byte[size];
+            for (int read = 0; read < size;) {
+                final int n = in.read(data, read, size - read);
+                assertTrue("connection closed in a chunk", n >= 0);
+                read += n;
+            }
+            assertEquals("", line());
+            return new String(data, UTF_8);
+        }
+
+        /**
+         * @return opcode of the next WebSocket frame, followed by its payload
+         */
+        byte[] frame() throws IOException {
+            final int first = in.read();
+            int length = in.read();
+            assertTrue("connection closed in a frame", first >= 0 && length >= 0);
+            assertEquals("expected an unmasked frame", 0, length & 0x80);
+            if (length == 126) {
+                length = (in.read() << 8) | in.read();
+            }
+            final byte[] frame = new byte[1 + length];
+            frame[0] = (byte) (first & 0x0F);
+            for (int read = 0; read < length;) {
+                final int n = in.read(frame, 1 + read, length - read);
+                assertTrue("connection closed in a frame", n >= 0);
+                read += n;
+            }
+            return frame;
+        }
+
+        /**
+         * Send a masked WebSocket frame with a short payload.
+         */
+        void sendFrame(int opcode, byte[] payload) throws IOException {
+            final byte[] mask = { 1, 2, 3, 4 };
+            final byte[] frame = new byte[6 + payload.length];
+            frame[0] = (byte) (0x80 | opcode);
+            frame[1] = (byte) (0x80 | payload.length);
+            System.arraycopy(mask, 0, frame, 2, 4);
+            for (int i = 0; i < payload.length; i++) {
+                frame[6 + i] = (byte) (payload[i] ^ mask[i % 4]);
+            }
+            socket.getOutputStream().write(frame);
+        }
+
+        int read() throws IOException {
+            return in.read();
+        }
+
+        private String line() throws IOException {
+            final ByteArrayOutputStream line = new ByteArrayOutputStream();
+            int c;
+            while ((c = in.read()) != '\n') {
+                assertTrue("connection closed in a line", c >= 0);
+                if (c != '\r') {
+                    line.write(c);
+                }
+            }
+            return new String(line.toByteArray(), US_ASCII);
+        }
+
+        @Override
+        public void close() throws IOException {
+            socket.close();
+        }
+    }
+
+    //Covers /stream of a voice, > 1 listeners, > 1 voices, "$" sung
+    @Test
+    public void testStreamSendsEveryLineToEveryListener() throws IOException, InterruptedException {
+        final NioMusicWebServer server = new NioMusicWebServer(0, FILE, Arrays.asList("upper", "lower"),
+                new TuneCache());
+        server.start();
+        try {
+            final List<Client> upper = new ArrayList<>();
+            for (int i = 0; i < 3; i++) {
+                upper.add(new Client(server.port(), "/stream/upper"));
+            }
+            final Client lower = new Client(server.port(), "/stream/lower");
+            for (Client client : upper) {
+                assertTrue(client.head().startsWith("HTTP/1.1 200"));
+                assertEquals("expected padding before the lyrics", 2049, client.chunk().length());
+            }
+            assertTrue(lower.head().contains("Transfer-Encoding: chunked"));
+            // the padding is sent once the connection is listening, so every line from here on reaches it
+            lower.chunk();
+
+            final BlockingQueue<String> queue = server.lyrics().queues().get("upper");
+            queue.put("*A*-mazing grace");
+            queue.put("A-*ma*-zing grace");
+            queue.put("$");
+            server.lyrics().queues().get("lower").put("how sweet");
+            for (Client client : upper) {
+                assertEquals("*A*-mazing grace\n", client.chunk());
+                assertEquals("A-*ma*-zing grace\n", client.chunk());
+                assertEquals("", client.chunk());
+                assertEquals("expected the connection to close after the last chunk", -1, client.read());
+                client.close();
+            }
+            assertEquals("how sweet\n", lower.chunk());
+            lower.close();
+        } finally {
+            server.stop();
+        }
+    }
+
+    //Covers /stream of an unknown voice, other path
+    @Test
+    public void testUnknownPathsAreNotFound() throws IOException {
+        final NioMusicWebServer server = new NioMusicWebServer(0, FILE, Arrays.asList("OneVoice"), new TuneCache());
+        server.start();
+        try {
+            for (String path : Arrays.asList("/stream/nope", "/stream/", "/other")) {
+                try (Client client = new Client(server.port(), path)) {
+                    assertTrue(path, client.head().startsWith("HTTP/1.1 404"));
+                    assertEquals(-1, client.read());
+                }
+            }
+        } finally {
+            server.stop();
+        }
+    }
+
+    //Covers 1 listener, 1 voice, client closes first
+    @Test
+    public void testClosedListenerDoesNotStopOthers() throws IOException, InterruptedException {
+        final NioMusicWebServer server = new NioMusicWebServer(0, FILE, Arrays.asList("OneVoice"), new TuneCache());
+        server.start();
+        try {
+            final Client gone = new Client(server.port(), "/stream/OneVoice");
+            gone.head();
+            gone.close();
+            try (Client client = new Client(server.port(), "/stream/OneVoice")) {
+                client.head();
+                client.chunk();
+                final BlockingQueue<String> queue = server.lyrics().queues().get("OneVoice");
+                for (int i = 0; i < 10; i++) {
+                    queue.put("line " + i);
+                }
+                for (int i = 0; i < 10; i++) {
+                    assertEquals("line " + i + "\n", client.chunk());
+                }
+            }
+        } finally {
+            server.stop();
+        }
+    }
+
+    //Covers /ws: line in the lyric table, line not in the table, end of song, ping, close
+    @Test
+    public void testWebSocketSendsLineNumbers() throws IOException, InterruptedException, UnableToParseException {
+        final String file = "sample-abc/abc_song.abc";
+        final TuneCache tunes = new TuneCache();
+        final Timeline timeline = tunes.get(file).getTimeline();
+        final LyricTable table = new LyricTable(timeline, "OneVoice");
+        final NioMusicWebServer server = new NioMusicWebServer(0, file, Arrays.asList("OneVoice"), tunes);
+        server.start();
+        try (Client client = new Client(server.port(), "/ws/OneVoice",
+                "Upgrade: websocket\r\nConnection: Upgrade\r\nSec-WebSocket-Key: dGhlIHNhbXBsZSBub25jZQ==\r\n"
+                + "Sec-WebSocket-Version: 13\r\n")) {
+            final String head = client.head();
+            assertTrue(head, head.startsWith("HTTP/1.1 101"));
+            // the example key and accept value of RFC 6455
+            assertTrue(head, head.contains("Sec-WebSocket-Accept: s3pPLMBiTxaQ9kYGzzhZRbK+xOo="));
+            final byte[] tableFrame = client.frame();
+            assertEquals(0x1, tableFrame[0]);
+            final List<String> expectedTable = new ArrayList<>(Arrays.asList("0"));
+            for (List<String> syllables : table.lines()) {
+                expectedTable.add(String.join("\t", syllables));
+            }
+            assertEquals(String.join("\n", expectedTable), new String(tableFrame, 1, tableFrame.length - 1, UTF_8));
+
+            // the first lyric of the second line in the table, offered as playback offers it
+            int lyric = -1;
+            for (int i = 0; lyric < 0 || table.index(timeline.lyricLine(lyric)) != 1; i++) {
+                lyric = timeline.lyricIndex(i);
+            }
+            final IndexedLyricQueue queue = (IndexedLyricQueue) server.lyrics().queues().get("OneVoice");
+            queue.offer(timeline.lyricText(lyric), timeline.lyricLine(lyric), timeline.lyricSyllable(lyric), 8.5);
+            queue.offer(timeline.lyricText(lyric), timeline.lyricLine(lyric) == 0 ? 1 : 0, 0, 9);
+            queue.put("not in the table");
+            queue.put("$");
+            final ByteBuffer sung = ByteBuffer.wrap(client.frame());
+            assertEquals(0x2, sung.get());
+            assertEquals(NioMusicWebServer.WS_FRAME_BYTES, sung.remaining());
+            assertEquals(0, sung.getShort());
+            assertEquals(8.5, sung.getFloat(), 0);
+            assertEquals(1, sung.getInt());
+            assertEquals(timeline.lyricSyllable(lyric), sung.getInt());
+            assertEquals("expected numbers that do not give the line to be sent as text",
+                    (char) 0x1 + timeline.lyricText(lyric), new String(client.frame(), UTF_8));
+            assertEquals((char) 0x1 + "not in the table", new String(client.frame(), UTF_8));
+            final ByteBuffer end = ByteBuffer.wrap(client.frame());
+            assertEquals(0x2, end.get());
+            assertEquals(-1, end.getInt(1 + Short.BYTES + Float.BYTES));
+
+            client.sendFrame(0x9, "hi".getBytes(US_ASCII));
+            assertEquals((char) 0xA + "hi", new String(client.frame(), US_ASCII));
+            client.sendFrame(0x8, new byte[] { 0x03, (byte) 0xE8 });
+            assertEquals(0x8, client.frame()[0]);
+            assertEquals("expected the server to close after the close frame", -1, client.read());
+        } finally {
+            server.stop();
+        }
+    }
+
+    //Covers /ws: ping; client stops reading until lines are dropped
+    @Test
+    public void testControlFramesAreNeverDropped() throws IOException, InterruptedException {
+        final NioMusicWebServer server = new NioMusicWebServer(0, FILE, Arrays.asList("OneVoice"), new TuneCache());
+        server.start();
+        try (Client client = new Client(server.port(), "/ws/OneVoice",
+                "Upgrade: websocket\r\nConnection: Upgrade\r\nSec-WebSocket-Key: dGhlIHNhbXBsZSBub25jZQ==\r\n"
+                + "Sec-WebSocket-Version: 13\r\n")) {
+            assertTrue(client.head().startsWith("HTTP/1.1 101"));
+            assertEquals(0x1, client.frame()[0]);
+            final char[] filler = new char[4096];
+            Arrays.fill(filler, 'x');
+            final String line = new String(filler);
+            final BlockingQueue<String> queue = server.lyrics().queues().get("OneVoice");
+            // more than the socket buffers hold, so the server has to queue and drop lines
+            for (int i = 0; i < 2000; i++) {
+                queue.put(line);
+            }
+            client.sendFrame(0x9, "hi".getBytes(US_ASCII));
+            Thread.sleep(200);
+            for (int i = 0; i < 2000; i++) {
+                queue.put(line);
+            }
+            int dropped = 4000;
+            while (true) {
+                final byte[] frame = client.frame();
+                if (frame[0] == 0xA) {
+                    assertEquals("hi", new String(frame, 1, frame.length - 1, US_ASCII));
+                    break;
+                }
+                assertEquals((char) 0x1 + line, new String(frame, UTF_8));
+                dropped--;
+                assertTrue("expected the pong", dropped > 0);
+            }
+        } finally {
+            server.stop();
+        }
+    }
+}
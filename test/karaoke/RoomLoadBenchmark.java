@@ -0,0 +1,112 @@
+package karaoke;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+
+import java.lang.management.ThreadMXBean;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Load test for rooms. Not a JUnit test; run it by hand from the root of the repository:
+ *      java -cp bin:lib/parserlib.jar karaoke.RoomLoadBenchmark [rooms] [listeners per room] [lines]
+ *
+ * Starts one MusicWebServer and opens the given number of rooms (default 50), each playing one of the sample tunes
+ * in turn, so that rooms share parsed tunes. Opens the given number of /room/id/stream connections to the first
+ * voice of every room (default 20) from a single client thread. Then, since there may be no MIDI device, sings
+ * for every room instead of playing it: one scheduler thread shared by all the rooms puts the given number of lines
+ * (default 200, one every 20 ms, rooms staggered across the interval) on each room's queue, each carrying the time
+ * it was put there. Reports, as StreamLoadBenchmark does, threads, RSS and the latency of the lines read.
+ *
+ * @category no_didit
+ */
+public class RoomLoadBenchmark {
+
+    private static final int DEFAULT_ROOMS = 50;
+    private static final int DEFAULT_LISTENERS = 20;
+    private static final int DEFAULT_LINES = 200;
+    private static final long LINE_INTERVAL_MICROS = 20_000;
+    private static final long TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(120);
+    private static final List<String> TUNES = Arrays.asList("abc_song", "despacito", "friday", "fur_elise",
+            "invention", "little_night_music", "paddy", "payphone", "piece1", "piece3", "pokemon_theme", "prelude",
+            "sample1", "sample3", "scale", "star_spangled_banner", "waxies_dargle", "whatmakesyoubeautiful");
+
+    /**
+     * @param args optional number of rooms (default 50), listeners per room (default 20) and lines (default 200)
+     * @throws Exception if the server cannot be started or a connection fails
+     */
+    public static void main(String[] args) throws Exception {
+        final int roomCount = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_ROOMS;
+        final int listeners = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_LISTENERS;
+        final int lines = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_LINES;
+        System.out.println(roomCount + " rooms, " + listeners + " listeners each, " + lines + " lines");
+        final ThreadMXBean threads = StreamLoadBenchmark.startMeasuring();
+
+        final TuneCache tunes = new TuneCache();
+        final MusicWebServer server = new MusicWebServer(0, "sample-abc/piece1.abc", Arrays.asList("OneVoice"),
+                tunes, MusicWebServer.ExecutorMode.fromSystemProperty());
+        server.start();
+        final long openStart = System.nanoTime();
+        final List<Room> rooms = new ArrayList<>();
+        for (int r = 0; r < roomCount; r++) {
+            rooms.add(server.openRoom("room" + r, "sample-abc/" + TUNES.get(r % TUNES.size()) + ".abc"));
+        }
+        System.out.printf("  opened %d rooms in %.1f ms%n", roomCount, (System.nanoTime() - openStart) / 1e6);
+
+        final Selector selector = Selector.open();
+        final List<SocketChannel> channels = new ArrayList<>();
+        for (Room room : rooms) {
+            final byte[] request = ("GET /room/" + room.getId() + "/stream/" + room.getVoices().get(0)
+                    + " HTTP/1.1\r\nHost: localhost\r\n\r\n").getBytes(US_ASCII);
+            for (int i = 0; i < listeners; i++) {
+                final SocketChannel channel = SocketChannel.open(new InetSocketAddress("localhost", server.port()));
+                channel.write(ByteBuffer.wrap(request));
+                channel.configureBlocking(false);
+                channel.register(selector, SelectionKey.OP_READ, new StreamLoadBenchmark.Connection());
+                channels.add(channel);
+            }
+        }
+        final int connections = roomCount * listeners;
+        final long connectDeadline = System.nanoTime() + TIMEOUT_NANOS;
+        while (StreamLoadBenchmark.started(selector) < connections && System.nanoTime() < connectDeadline) {
+            StreamLoadBenchmark.selectAndRead(selector, new ArrayList<Long>(), 10);
+        }
+        StreamLoadBenchmark.report("connected", threads, null);
+
+        final ScheduledExecutorService singer = Executors.newSingleThreadScheduledExecutor();
+        for (int r = 0; r < roomCount; r++) {
+            final BlockingQueue<String> queue = rooms.get(r).lyrics().queues().get(rooms.get(r).getVoices().get(0));
+            final long stagger = LINE_INTERVAL_MICROS * r / roomCount;
+            for (int i = 0; i < lines; i++) {
+                singer.schedule(() -> queue.add("t" + System.nanoTime()), stagger + i * LINE_INTERVAL_MICROS,
+                        TimeUnit.MICROSECONDS);
+            }
+        }
+
+        final List<Long> latencies = new ArrayList<>();
+        final long expected = (long) connections * lines;
+        final long deadline = System.nanoTime() + TIMEOUT_NANOS;
+        while (latencies.size() < expected && System.nanoTime() < deadline) {
+            StreamLoadBenchmark.selectAndRead(selector, latencies, 100);
+        }
+        singer.shutdown();
+        StreamLoadBenchmark.report("streamed", threads, latencies);
+        System.out.println("  delivered " + latencies.size() + " of " + expected + " lines");
+
+        for (SocketChannel channel : channels) {
+            channel.close();
+        }
+        selector.close();
+        server.stop();
+        tunes.shutdown();
+    }
+}
@@ -0,0 +1,250 @@
+package karaoke;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Load test for lyric streaming. Not a JUnit test; run it by hand from the root of the repository:
+ *      java -cp bin:lib/parserlib.jar karaoke.StreamLoadBenchmark [platform|virtual|nio|all] [connections] [lines]
+ *
+ * Starts a MusicWebServer in each executor mode and a NioMusicWebServer, opens the given number of /stream connections (default 500) from
+ * a single client thread, then puts the given number of lyric lines (default 200, one every 10 ms) on the server's
+ * lyric queue, each carrying the time it was put there. Reports, per mode,
+ *      threads:  live and peak platform threads in this JVM (the client uses one), after connecting and at the end
+ *      RSS:      resident set size of this JVM, from /proc/self/status where there is one
+ *      latency:  time from putting a line on the queue to reading it from each connection, p50/p99/max
+ * Run one mode per JVM for RSS figures that do not include the other mode's garbage. Each connection takes two file
+ * descriptors in this JVM, one per end, so 10000 connections need ulimit -n above 20000.
+ *
+ * @category no_didit
+ */
+public class StreamLoadBenchmark {
+
+    private static final int DEFAULT_CONNECTIONS = 500;
+    private static final int DEFAULT_LINES = 200;
+    private static final long LINE_INTERVAL_MILLIS = 10;
+    private static final long TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(60);
+    private static final String VOICE = "OneVoice";
+
+    /**
+     * Client side of one /stream connection: decodes the chunked response and records the latency of each line.
+     */
+    static class Connection {
+        private final StringBuilder raw = new StringBuilder();
+        private final StringBuilder body = new StringBuilder();
+        private boolean headersDone = false;
+        private boolean started = false;
+        private int lines = 0;
+
+        /**
+         * Add bytes read from the connection.
+         * @param latencies list to add the latency in ns of every complete line to
+         */
+        void read(String text, long now, List<Long> latencies) {
+            raw.append(text);
+            if (!headersDone) {
+                final int end = raw.indexOf("\r\n\r\n");
+                if (end < 0) {
+                    return;
+                }
+                raw.delete(0, end + 4);
+                headersDone = true;
+            }
+            // chunks are "<hex size>\r\n<data>\r\n"
+            while (true) {
+                final int sizeEnd = raw.indexOf("\r\n");
+                if (sizeEnd < 0) {
+                    break;
+                }
+                final int size = Integer.parseInt(raw.substring(0, sizeEnd).trim(), 16);
+                if (raw.length() < sizeEnd + 2 + size + 2) {
+                    break;
+                }
+                body.append(raw, sizeEnd + 2, sizeEnd + 2 + size);
+                started = true;
+                raw.delete(0, sizeEnd + 2 + size + 2);
+            }
+            int newline;
+            while ((newline = body.indexOf("\n")) >= 0) {
+                final String line = body.substring(0, newline).trim();
+                body.delete(0, newline + 1);
+                if (line.startsWith("t")) {
+                    latencies.add(now - Long.parseLong(line.substring(1)));
+                    lines++;
+                }
+            }
+        }
+    }
+
+    /**
+     * @param args optional mode ("platform", "virtual", "nio" or "all", the default), number of connections
+     *             (default 500) and number of lines (default 200)
+     * @throws Exception if the server cannot be started or a connection fails
+     */
+    public static void main(String[] args) throws Exception {
+        final String which = args.length > 0 ? args[0] : "all";
+        final int connections = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_CONNECTIONS;
+        final int lines = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_LINES;
+        for (MusicWebServer.ExecutorMode mode : MusicWebServer.ExecutorMode.values()) {
+            if (which.equalsIgnoreCase("all") || which.equalsIgnoreCase(mode.name())) {
+                System.out.println(mode
+                        + (mode.isAvailable() ? "" : " (not available on this JVM, falls back to PLATFORM)")
+                        + ": " + connections + " connections, " + lines + " lines");
+                final ThreadMXBean threads = startMeasuring();
+                final MusicWebServer server = new MusicWebServer(0, "sample-abc/piece1.abc", Arrays.asList(VOICE),
+                        new TuneCache(), mode);
+                server.start();
+                run(server.port(), server.lyrics(), threads, connections, lines);
+                server.stop();
+            }
+        }
+        if (which.equalsIgnoreCase("all") || which.equalsIgnoreCase("nio")) {
+            System.out.println("NIO: " + connections + " connections, " + lines + " lines");
+            final ThreadMXBean threads = startMeasuring();
+            final NioMusicWebServer server = new NioMusicWebServer(0, "sample-abc/piece1.abc", Arrays.asList(VOICE),
+                    new TuneCache());
+            server.start();
+            run(server.port(), server.lyrics(), threads, connections, lines);
+            server.stop();
+        }
+    }
+
+    static ThreadMXBean startMeasuring() throws IOException {
+        final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        System.gc();
+        threads.resetPeakThreadCount();
+        report("before", threads, null);
+        return threads;
+    }
+
+    /**
+     * Connect to a started server, stream lines through its hub and report; the NIO server has one subscriber per
+     * voice whatever the number of connections, so connections count as made once their headers have been read.
+     */
+    private static void run(int port, LyricHub hub, ThreadMXBean threads, int connections, int lines)
+            throws Exception {
+        final Selector selector = Selector.open();
+        final List<SocketChannel> channels = new ArrayList<>();
+        final byte[] request = ("GET /stream/" + VOICE + " HTTP/1.1\r\nHost: localhost\r\n\r\n").getBytes(US_ASCII);
+        for (int i = 0; i < connections; i++) {
+            final SocketChannel channel = SocketChannel.open(new InetSocketAddress("localhost", port));
+            channel.write(ByteBuffer.wrap(request));
+            channel.configureBlocking(false);
+            channel.register(selector, SelectionKey.OP_READ, new Connection());
+            channels.add(channel);
+        }
+        final long connectDeadline = System.nanoTime() + TIMEOUT_NANOS;
+        while (started(selector) < connections && System.nanoTime() < connectDeadline) {
+            selectAndRead(selector, new ArrayList<Long>(), 10);
+        }
+        report("connected", threads, null);
+
+        final BlockingQueue<String> queue = hub.queues().get(VOICE);
+        final Thread singer = new Thread(() -> {
+            try {
+                for (int i = 0; i < lines; i++) {
+                    queue.put("t" + System.nanoTime());
+                    Thread.sleep(LINE_INTERVAL_MILLIS);
+                }
+            } catch (InterruptedException e) {
+                return;
+            }
+        }, "singer");
+        singer.start();
+
+        final List<Long> latencies = new ArrayList<>();
+        final long expected = (long) connections * lines;
+        final long deadline = System.nanoTime() + TIMEOUT_NANOS;
+        while (latencies.size() < expected && System.nanoTime() < deadline) {
+            selectAndRead(selector, latencies, 100);
+        }
+        singer.join();
+        report("streamed", threads, latencies);
+        System.out.println("  delivered " + latencies.size() + " of " + expected + " lines");
+
+        for (SocketChannel channel : channels) {
+            channel.close();
+        }
+        selector.close();
+    }
+
+    /**
+     * @return number of connections registered with selector that have read their first chunk, the padding
+     */
+    static int started(Selector selector) {
+        int started = 0;
+        for (SelectionKey key : selector.keys()) {
+            if (((Connection) key.attachment()).started) {
+                started++;
+            }
+        }
+        return started;
+    }
+
+    static void selectAndRead(Selector selector, List<Long> latencies, long timeoutMillis)
+            throws IOException {
+        final ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+        selector.select(timeoutMillis);
+        final long now = System.nanoTime();
+        for (SelectionKey key : selector.selectedKeys()) {
+            final SocketChannel channel = (SocketChannel) key.channel();
+            buffer.clear();
+            final int read = channel.read(buffer);
+            if (read < 0) {
+                key.cancel();
+                continue;
+            }
+            buffer.flip();
+            ((Connection) key.attachment()).read(US_ASCII.decode(buffer).toString(), now, latencies);
+        }
+        selector.selectedKeys().clear();
+    }
+
+    static void report(String when, ThreadMXBean threads, List<Long> latencies) throws IOException {
+        final StringBuilder line = new StringBuilder(String.format("  %-10s threads %5d (peak %5d)  RSS %s", when,
+                threads.getThreadCount(), threads.getPeakThreadCount(), rss()));
+        if (latencies != null && !latencies.isEmpty()) {
+            final List<Long> sorted = new ArrayList<>(latencies);
+            Collections.sort(sorted);
+            line.append(String.format("  latency p50 %.2f ms  p99 %.2f ms  max %.2f ms",
+                    percentile(sorted, 0.50) / 1e6, percentile(sorted, 0.99) / 1e6,
+                    sorted.get(sorted.size() - 1) / 1e6));
+        }
+        System.out.println(line);
+    }
+
+    private static long percentile(List<Long> sorted, double fraction) {
+        return sorted.get(Math.min(sorted.size() - 1, (int) (fraction * sorted.size())));
+    }
+
+    /**
+     * @return resident set size of this process, or "n/a" if /proc/self/status cannot be read
+     */
+    private static String rss() throws IOException {
+        if (!Files.isReadable(Paths.get("/proc/self/status"))) {
+            return "n/a";
+        }
+        for (String line : Files.readAllLines(Paths.get("/proc/self/status"), US_ASCII)) {
+            if (line.startsWith("VmRSS:")) {
+                return line.substring("VmRSS:".length()).trim();
+            }
+        }
+        return "n/a";
+    }
+}
@@ -0,0 +1,92 @@
+package karaoke;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import edu.mit.eecs.parserlib.UnableToParseException;
+
+/**
+ * Tests for TuneCache
+ */
+public class TuneCacheTest {
+    /*
+     * Partitions:
+     *      get(): file not cached, file cached and unchanged, file changed on disk, file touched with same content,
+     *             file unreadable
+     *      prefetch(): followed by get()
+     */
+
+    private static Path copyOfSample(String name) throws IOException {
+        Path copy = Files.createTempFile("tune-cache", ".abc");
+        Files.copy(Paths.get("sample-abc", name), copy, StandardCopyOption.REPLACE_EXISTING);
+        copy.toFile().deleteOnExit();
+        return copy;
+    }
+
+    //Covers file not cached, then cached and unchanged
+    @Test
+    public void testGetTwiceParsesOnce() throws IOException, UnableToParseException {
+        Path file = copyOfSample("piece1.abc");
+        TuneCache cache = new TuneCache();
+        CachedTune first = cache.get(file.toString());
+        CachedTune second = cache.get(file.toString());
+        assertSame(first, second);
+        assertEquals("Piece No.1", first.getTune().getTitle());
+        assertEquals(Arrays.asList("OneVoice"), first.getVoices());
+    }
+
+    //Covers file changed on disk
+    @Test
+    public void testChangedFileIsReparsed() throws IOException, UnableToParseException {
+        Path file = copyOfSample("piece1.abc");
+        TuneCache cache = new TuneCache();
+        CachedTune first = cache.get(file.toString());
+        Files.copy(Paths.get("sample-abc", "scale.abc"), file, StandardCopyOption.REPLACE_EXISTING);
+        Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis() + 10_000));
+        CachedTune second = cache.get(file.toString());
+        assertNotSame(first.getTune(), second.getTune());
+        assertEquals("Simple scale", second.getTune().getTitle());
+    }
+
+    //Covers file touched with same content
+    @Test
+    public void testTouchedFileKeepsTune() throws IOException, UnableToParseException {
+        Path file = copyOfSample("piece1.abc");
+        TuneCache cache = new TuneCache();
+        CachedTune first = cache.get(file.toString());
+        Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis() + 10_000));
+        CachedTune second = cache.get(file.toString());
+        assertNotSame(first, second);
+        assertSame(first.getTune(), second.getTune());
+        assertTrue(second.isCurrent());
+    }
+
+    //Covers prefetch followed by get, multiple voices, header
+    @Test
+    public void testPrefetch() throws IOException, UnableToParseException {
+        Path file = copyOfSample("sample3.abc");
+        TuneCache cache = new TuneCache();
+        cache.prefetch(file.toString());
+        CachedTune tune = cache.get(file.toString());
+        assertTrue(tune.getVoices().size() > 1);
+        assertTrue(tune.getHeader().startsWith("T:"));
+    }
+
+    //Covers file unreadable
+    @Test(expected=IOException.class)
+    public void testMissingFile() throws IOException, UnableToParseException {
+        new TuneCache().get("sample-abc/does_not_exist.abc");
+    }
+}
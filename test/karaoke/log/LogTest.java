@@ -0,0 +1,156 @@
+package karaoke.log;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+/**
+ * Tests for Log, Logger, LogEvent and RingAppender.
+ */
+public class LogTest {
+    /*
+     * Partitions:
+     *  Logger:
+     *      message level: below, at, above the current level; current level OFF
+     *      arguments: 0, 1, 2, a Throwable after the last "{}"
+     *  RingAppender:
+     *      producers: one, several threads
+     *      ring: never full, full (events dropped)
+     *      flush(): everything drained, time runs out
+     */
+
+    private static final long TIMEOUT_MILLIS = 10000;
+
+    /**
+     * An argument that counts how often it is formatted.
+     */
+    private static class Counted {
+        private final AtomicInteger formatted = new AtomicInteger();
+
+        @Override
+        public String toString() {
+            formatted.incrementAndGet();
+            return "counted";
+        }
+    }
+
+    //Covers Logger message below, at, above the level, level OFF, 0, 1 and 2 arguments
+    @Test
+    public void testLevelGated() {
+        final List<String> lines = Collections.synchronizedList(new ArrayList<String>());
+        final RingAppender appender = new RingAppender(16, lines::add);
+        final RingAppender old = Log.setAppender(appender);
+        final Log.Level oldLevel = Log.getLevel();
+        try {
+            final Logger logger = Log.get(LogTest.class);
+            final Counted counted = new Counted();
+            Log.setLevel(Log.Level.INFO);
+            assertFalse(logger.isDebugEnabled());
+            logger.debug("skipped {}", counted);
+            logger.info("plain");
+            logger.warn("one {}", counted);
+            logger.info("{} and {}", "two", 2);
+            Log.setLevel(Log.Level.OFF);
+            logger.error("off {}", counted);
+            assertTrue(appender.flush(TIMEOUT_MILLIS));
+            assertEquals(3, lines.size());
+            assertTrue(lines.get(0), lines.get(0).endsWith(" INFO [" + Thread.currentThread().getName() + "] "
+                    + LogTest.class.getName() + ": plain"));
+            assertTrue(lines.get(1), lines.get(1).endsWith(": one counted"));
+            assertTrue(lines.get(2), lines.get(2).endsWith(": two and 2"));
+            assertEquals(1, counted.formatted.get());
+        } finally {
+            Log.setLevel(oldLevel);
+            Log.setAppender(old);
+        }
+    }
+
+    //Covers Logger a Throwable after the last "{}"
+    @Test
+    public void testThrowable() {
+        final LogEvent event = new LogEvent(Log.Level.WARN, "test", "failed {}", 2, "here",
+                new IllegalStateException("broken"));
+        final String message = event.getMessage();
+        assertTrue(message, message.startsWith("failed here" + System.lineSeparator()
+                + "java.lang.IllegalStateException: broken"));
+        assertTrue(message, message.contains("testThrowable"));
+    }
+
+    //Covers RingAppender several threads, never full, flush() drains everything
+    @Test
+    public void testSeveralThreadsInOrder() throws InterruptedException {
+        final List<String> lines = Collections.synchronizedList(new ArrayList<String>());
+        final RingAppender appender = new RingAppender(1024, lines::add);
+        final int threads = 4;
+        final int perThread = 200;
+        final List<Thread> producers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            final String name = "producer" + t;
+            producers.add(new Thread(() -> {
+                for (int i = 0; i < perThread; i++) {
+                    while (!appender.append(new LogEvent(Log.Level.INFO, name, "{}", 1, i, null))) {
+                        Thread.yield();
+                    }
+                }
+            }, name));
+        }
+        for (Thread producer : producers) {
+            producer.start();
+        }
+        for (Thread producer : producers) {
+            producer.join();
+        }
+        assertTrue(appender.flush(TIMEOUT_MILLIS));
+        assertEquals(threads * perThread, lines.size());
+        for (int t = 0; t < threads; t++) {
+            int next = 0;
+            for (String line : lines) {
+                if (line.contains(" producer" + t + ": ")) {
+                    assertTrue(line, line.endsWith(": " + next));
+                    next++;
+                }
+            }
+            assertEquals(perThread, next);
+        }
+    }
+
+    //Covers RingAppender one thread, full, flush() time runs out
+    @Test
+    public void testFullRingDrops() throws InterruptedException {
+        final CountDownLatch entered = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final List<String> lines = Collections.synchronizedList(new ArrayList<String>());
+        final RingAppender appender = new RingAppender(4, line -> {
+            entered.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+            lines.add(line);
+        });
+        assertTrue(appender.append(new LogEvent(Log.Level.INFO, "test", "first", 0, null, null)));
+        assertTrue(entered.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+        int accepted = 0;
+        for (int i = 0; i < 10; i++) {
+            if (appender.append(new LogEvent(Log.Level.INFO, "test", "more", 0, null, null))) {
+                accepted++;
+            }
+        }
+        assertEquals(3, accepted);
+        assertEquals(7, appender.dropped());
+        assertFalse(appender.flush(50));
+        release.countDown();
+        assertTrue(appender.flush(TIMEOUT_MILLIS));
+        assertEquals(4, lines.size());
+    }
+}
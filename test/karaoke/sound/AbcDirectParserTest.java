@@ -0,0 +1,229 @@
+package karaoke.sound;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import edu.mit.eecs.parserlib.UnableToParseException;
+
+/**
+ * Differential tests for AbcDirectParser: the DIRECT backend of MusicLanguage must build exactly the tune the
+ * PARSERLIB backend builds, and reject exactly the strings it rejects.
+ */
+public class AbcDirectParserTest {
+
+    /*
+     * Partitions:
+     *      input: every file in sample-abc/, handwritten strings
+     *      input parses, input does not parse
+     *      header: with comments, whitespace and newlines between pieces, meter C or fraction
+     *      body: lyrics with "*", "\-", "~", "_" and "|", tuplets of chords, repeats, voices in the body
+     *      parse(Reader): whole tune, sections reported before the end of the input, input does not parse
+     */
+
+    /**
+     * Parse with both backends and check that the results are the same.
+     * @param music abc text
+     * @return true if the text parsed
+     */
+    private static boolean assertSameTune(String message, String music) {
+        final String expected = describe(MusicLanguage.Backend.PARSERLIB, music);
+        final String actual = describe(MusicLanguage.Backend.DIRECT, music);
+        assertEquals(message, expected, actual);
+        return !expected.equals("unable to parse");
+    }
+
+    private static String describe(MusicLanguage.Backend backend, String music) {
+        final AbcTune tune;
+        try {
+            tune = new MusicLanguage(backend).parse(music);
+        } catch (UnableToParseException e) {
+            return "unable to parse";
+        }
+        return describe(tune);
+    }
+
+    private static String describe(AbcTune tune) {
+        return String.join("\n", tune.getTitle(), tune.getComposer(), tune.getMeter(), tune.getTempo(),
+                tune.getNoteLength(), String.valueOf(tune.getIndexNumber()), String.valueOf(tune.getKeySignature()),
+                String.valueOf(tune.getVoices()), String.valueOf(tune.getMusic()));
+    }
+
+    //Covers every file in sample-abc/, input parses, input does not parse
+    @Test
+    public void testAllSamples() throws IOException {
+        final File[] samples = new File("sample-abc").listFiles();
+        Arrays.sort(samples);
+        int parsed = 0;
+        for (File sample : samples) {
+            final String music = new String(Files.readAllBytes(sample.toPath()), StandardCharsets.UTF_8)
+                    .replace("\r\n", "\n");
+            if (assertSameTune(sample.getName(), music)) {
+                parsed++;
+            }
+        }
+        assertTrue("expected most samples to parse", parsed > samples.length / 2);
+    }
+
+    /**
+     * Reader that hands out at most a few characters per read(), and counts how many it has handed out.
+     */
+    private static class TrickleReader extends Reader {
+        private final String text;
+        private int handedOut = 0;
+
+        TrickleReader(String text) {
+            this.text = text;
+        }
+
+        @Override
+        public int read(char[] cbuf, int off, int len) {
+            if (handedOut == text.length()) {
+                return -1;
+            }
+            final int n = Math.min(Math.min(len, 7), text.length() - handedOut);
+            text.getChars(handedOut, handedOut + n, cbuf, off);
+            handedOut += n;
+            return n;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    /**
+     * Records the sections a parse reports, and how much of the input had been read when the first one came.
+     */
+    private static class SectionRecorder implements ParseListener {
+        private final TrickleReader reader;
+        private final List<String> voices = new ArrayList<>();
+        private final List<Concat> sections = new ArrayList<>();
+        private int bars = 0;
+        private int readAtFirstSection = -1;
+        private AbcTune header;
+
+        SectionRecorder(TrickleReader reader) {
+            this.reader = reader;
+        }
+
+        @Override
+        public void headerParsed(AbcTune tune) {
+            header = tune;
+        }
+
+        @Override
+        public void barParsed(String voice, Bar bar) {
+            bars++;
+        }
+
+        @Override
+        public void sectionParsed(String voice, Concat section) {
+            if (readAtFirstSection < 0) {
+                readAtFirstSection = reader.handedOut;
+            }
+            voices.add(voice);
+            sections.add(section);
+        }
+    }
+
+    //Covers parse(Reader) of a whole tune, every file in sample-abc/
+    @Test
+    public void testReaderMatchesString() throws IOException, UnableToParseException {
+        final File[] samples = new File("sample-abc").listFiles();
+        Arrays.sort(samples);
+        for (File sample : samples) {
+            final String raw = new String(Files.readAllBytes(sample.toPath()), StandardCharsets.UTF_8);
+            final String music = raw.replace("\r\n", "\n").trim();
+            final String expected = describe(MusicLanguage.Backend.DIRECT, music);
+            if (expected.equals("unable to parse")) {
+                continue;
+            }
+            final TrickleReader reader = new TrickleReader(raw);
+            final SectionRecorder recorder = new SectionRecorder(reader);
+            final AbcTune tune = new MusicLanguage().parse(reader, recorder);
+            assertEquals(sample.getName(), expected, describe(tune));
+            assertSame(tune, recorder.header);
+
+            // the sections reported, played one after the other per voice, are the whole music
+            final List<String> voices = new ArrayList<>();
+            for (String voice : recorder.voices) {
+                if (!voices.contains(voice)) {
+                    voices.add(voice);
+                }
+            }
+            Voices rebuilt = new Voices(voices);
+            for (int i = 0; i < recorder.sections.size(); i++) {
+                rebuilt = rebuilt.addMusic(recorder.voices.get(i), recorder.sections.get(i));
+            }
+            assertEquals(sample.getName(), tune.getMusic().toString(), rebuilt.toString());
+            assertTrue(sample.getName(), recorder.bars > 0);
+        }
+    }
+
+    //Covers sections reported before the end of the input
+    @Test
+    public void testSectionsBeforeEndOfInput() throws IOException, UnableToParseException {
+        final StringBuilder music = new StringBuilder("X:5\nT:Medley\nK:C\n");
+        for (int i = 0; i < 200; i++) {
+            music.append("C D E F | G A B c |]\n");
+        }
+        final TrickleReader reader = new TrickleReader(music.toString());
+        final SectionRecorder recorder = new SectionRecorder(reader);
+        new MusicLanguage().parse(reader, recorder);
+        // one section per line, and the last line also ends an empty one
+        assertEquals(201, recorder.sections.size());
+        assertEquals(400, recorder.bars);
+        assertTrue("expected the first section before most of the input was read",
+                recorder.readAtFirstSection < music.length() / 10);
+    }
+
+    //Covers parse(Reader) of input that does not parse
+    @Test(expected=UnableToParseException.class)
+    public void testReaderUnableToParse() throws IOException, UnableToParseException {
+        new MusicLanguage().parse(new StringReader("X:4\nT:Bad\nK:C\nC C D |\nC C DD (\n"), new ParseListener() { });
+    }
+
+    //Covers header with comments and whitespace, meter C, lyrics with "*", "\-", "~", "_" and "|"
+    @Test
+    public void testLyricSymbols() {
+        assertTrue(assertSameTune("lyrics", "X: 1\n% a comment\nT:Symbols\nM: C\nL: 1/4\n% another\nK:  G\n"
+                + "A B c d | e2 f g | a4 |]\n"
+                + "w: ti-me* to\\-day~is | go__ ne | by\n"));
+    }
+
+    //Covers header with newlines between pieces, tuplets of chords, repeats
+    @Test
+    public void testTupletsAndRepeats() {
+        assertTrue(assertSameTune("tuplets", "X:2\nT:Tuplets\nQ:1/4 = 1 2 0\nK:Am\n"
+                + "|: (3[CE][DF][EG] (2F/G/ z2 | [1 ^^A,,2 _B'/4 =c3/ :| [2 __d' e,,, f |]\n"));
+    }
+
+    //Covers voices in the body
+    @Test
+    public void testVoices() {
+        assertTrue(assertSameTune("voices", "X:3\nT:Voices\nV:one\nV: two\nK:D\n"
+                + "V:one\nA B c d |\nw: la la la la\nV: two\nD E F G | % the second voice\n"));
+    }
+
+    //Covers input does not parse
+    @Test
+    public void testUnableToParse() {
+        assertSameTune("unfinished tuplet", "X:4\nT:Bad\nK:C\nC C DD (\n");
+        assertSameTune("blank line", "X:4\nT:Bad\nK:C\nC C D\n\nE F G\n");
+        assertSameTune("no body", "X:4\nT:Bad\nK:C\n");
+        assertSameTune("no key", "X:4\nT:Bad\nC D E\n");
+    }
+}
@@ -0,0 +1,90 @@
+package karaoke.sound;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Tests for AppendOnlyList and the sharing of lists between Voices.
+ */
+public class AppendOnlyListTest {
+    /*
+     * Partitions:
+     *      append(): to the empty list, to the latest version, to an older version, past the capacity of the array
+     *      copyOf(): of an ArrayList, of an AppendOnlyList
+     *      mutators: throw UnsupportedOperationException
+     *      Voices.addMusic(): to the same Voices twice, unknown voice
+     */
+
+    //Covers append to the empty list, to the latest version, past the capacity of the array
+    @Test
+    public void testAppendLatest() {
+        AppendOnlyList<Integer> list = AppendOnlyList.empty();
+        List<Integer> expected = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            list = list.append(i);
+            expected.add(i);
+        }
+        assertEquals(expected, list);
+        assertEquals(100, list.size());
+        assertEquals(0, AppendOnlyList.<Integer>empty().size());
+    }
+
+    //Covers append to an older version, copyOf an ArrayList
+    @Test
+    public void testAppendOlderVersion() {
+        final AppendOnlyList<String> base = AppendOnlyList.copyOf(Arrays.asList("a", "b"));
+        final AppendOnlyList<String> first = base.append("c");
+        final AppendOnlyList<String> second = base.append("d");
+        final AppendOnlyList<String> third = first.append("e");
+        assertEquals(Arrays.asList("a", "b"), base);
+        assertEquals(Arrays.asList("a", "b", "c"), first);
+        assertEquals(Arrays.asList("a", "b", "d"), second);
+        assertEquals(Arrays.asList("a", "b", "c", "e"), third);
+        assertTrue(AppendOnlyList.copyOf(third) == third);
+    }
+
+    //Covers mutators throw
+    @Test(expected=UnsupportedOperationException.class)
+    public void testImmutable() {
+        AppendOnlyList.<String>empty().append("a").add("b");
+    }
+
+    private static Concat sectionOf(double duration) {
+        final List<Music> notes = new ArrayList<>();
+        notes.add(new Note(new Pitch('C'), duration, "OneVoice"));
+        return new Concat(Arrays.asList(new Bar(notes)), new HashMap<Integer, List<Integer>>(),
+                Arrays.asList(""));
+    }
+
+    //Covers Voices.addMusic to the same Voices twice
+    @Test
+    public void testVoicesShareButStayImmutable() {
+        final Voices base = new Voices(Arrays.asList("a", "b")).addMusic("a", sectionOf(1.0));
+        final Voices longer = base.addMusic("a", sectionOf(2.0));
+        final Voices other = base.addMusic("a", sectionOf(4.0));
+        final Voices both = longer.addMusic("b", sectionOf(8.0));
+        assertEquals("a: [C1.0 |]\nb: []\n", sorted(base));
+        assertEquals("a: [C1.0 |, C2.0 |]\nb: []\n", sorted(longer));
+        assertEquals("a: [C1.0 |, C4.0 |]\nb: []\n", sorted(other));
+        assertEquals("a: [C1.0 |, C2.0 |]\nb: [C8.0 |]\n", sorted(both));
+    }
+
+    private static String sorted(Voices voices) {
+        final List<String> lines = new ArrayList<>(Arrays.asList(voices.toString().split("\n")));
+        lines.sort(null);
+        return String.join("\n", lines) + "\n";
+    }
+
+    //Covers Voices.addMusic unknown voice
+    @Test(expected=IllegalArgumentException.class)
+    public void testVoicesUnknownVoice() {
+        new Voices(Arrays.asList("a")).addMusic("b", sectionOf(1.0));
+    }
+}
@@ -0,0 +1,442 @@
+package karaoke.sound;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.MidiUnavailableException;
+
+import org.junit.Test;
+
+import edu.mit.eecs.parserlib.UnableToParseException;
+
+/**
+ * Tests for ClockSequencePlayer, which needs no MIDI device.
+ */
+public class ClockSequencePlayerTest {
+    /*
+     * Partitions:
+     *  events: added before play(), added after play() before the ones already scheduled, added after play() at a
+     *          tick the clock has passed, several at the same tick
+     *  tempo: valid, not positive
+     *  timing thread: another player blocked in a callback at the same time, idle long enough to end
+     *  length: a few events, a hundred events (jitter and drift), a whole tune through SoundPlayback
+     *  addLyric(): one lyric at a tick, a line repeated at a tick (chord), different lines or voices at a tick;
+     *              queue unbounded, bounded with less room than the lines at a tick, an IndexedLyricQueue
+     *  holdAt(): clock reaches the hold before a later holdAt(), release() while waiting at the hold;
+     *            a tune streamed from a Reader slower than it plays, a two-voice tune streamed so that the
+     *            first section of the second voice comes after LOOKAHEAD_BEATS of the first voice
+     */
+
+    private static final long TIMEOUT_SECONDS = 10;
+    /** how late a callback may run: generous, since the tests may share a busy machine */
+    private static final long MAX_LATE_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+
+    //Covers added before play(), a hundred events, valid tempo
+    @Test
+    public void testCallbacksAreOnTimeWithoutDrift() throws InterruptedException {
+        // 600 bpm at 10 ticks per beat: a tick every 10 ms
+        final ClockSequencePlayer player = new ClockSequencePlayer(600, 10);
+        final int events = 100;
+        final long tickNanos = TimeUnit.MILLISECONDS.toNanos(10);
+        final long[] ranAt = new long[events];
+        final List<Integer> order = Collections.synchronizedList(new ArrayList<Integer>());
+        final CountDownLatch done = new CountDownLatch(events);
+        for (int i = events - 1; i >= 0; i--) {
+            final int event = i;
+            player.addEvent(i / 10.0, beat -> {
+                ranAt[event] = System.nanoTime();
+                order.add(event);
+                done.countDown();
+            });
+        }
+        final long start = System.nanoTime();
+        player.play();
+        assertTrue("expected every callback to run", done.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+
+        final long[] late = new long[events];
+        for (int i = 0; i < events; i++) {
+            late[i] = ranAt[i] - start - i * tickNanos;
+            assertTrue("event " + i + " ran " + -late[i] + " ns early", late[i] >= 0);
+        }
+        final long[] sorted = late.clone();
+        Arrays.sort(sorted);
+        System.out.printf("lateness: median %.2f ms, p99 %.2f ms, max %.2f ms%n", sorted[events / 2] / 1e6,
+                sorted[events * 99 / 100] / 1e6, sorted[events - 1] / 1e6);
+        assertTrue("p99 lateness " + sorted[events * 99 / 100] + " ns", sorted[events * 99 / 100] < MAX_LATE_NANOS);
+        // every callback is scheduled against the start, so the last ones are no later than the first ones
+        long first = 0;
+        long last = 0;
+        for (int i = 0; i < 10; i++) {
+            first += late[i];
+            last += late[events - 1 - i];
+        }
+        assertTrue("clock drifted " + (last - first) / 10 + " ns", (last - first) / 10 < MAX_LATE_NANOS);
+        final List<Integer> expected = new ArrayList<>();
+        for (int i = 0; i < events; i++) {
+            expected.add(i);
+        }
+        assertEquals(expected, order);
+    }
+
+    //Covers added after play() before the ones already scheduled, added after play() at a passed tick,
+    //  several at the same tick
+    @Test
+    public void testEventsAddedWhilePlaying() throws InterruptedException {
+        final ClockSequencePlayer player = new ClockSequencePlayer(600, 12);
+        final BlockingQueue<String> ran = new LinkedBlockingQueue<>();
+        player.addEvent(2, beat -> ran.add("at 2"));
+        player.play();
+        player.addEvent(1, beat -> ran.add("at 1"));
+        player.addEvent(1, beat -> ran.add("also at 1"));
+        assertEquals("at 1", ran.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertEquals("also at 1", ran.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        player.addEvent(0, beat -> ran.add("at 0, " + (beat >= 1 ? "late" : "early")));
+        assertEquals("at 0, late", ran.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertEquals("at 2", ran.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+    }
+
+    //Covers timing thread another player blocked in a callback, idle long enough to end
+    @Test
+    public void testPlayersDoNotShareTimingThread() throws InterruptedException {
+        final CountDownLatch unblock = new CountDownLatch(1);
+        final ClockSequencePlayer blocked = new ClockSequencePlayer(600, 12);
+        blocked.addEvent(0, beat -> {
+            try {
+                unblock.await();
+            } catch (InterruptedException e) {
+                throw new AssertionError(e);
+            }
+        });
+        blocked.play();
+        try {
+            final ClockSequencePlayer player = new ClockSequencePlayer(600, 12);
+            final BlockingQueue<Long> ranAt = new LinkedBlockingQueue<>();
+            player.addEvent(1, beat -> ranAt.add(System.nanoTime()));
+            final long start = System.nanoTime();
+            player.play();
+            final Long at = ranAt.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            assertNotNull("expected the event while another player is blocked", at);
+            assertTrue("event came " + (at - start) + " ns after play()",
+                    at - start <= TimeUnit.MILLISECONDS.toNanos(100) + MAX_LATE_NANOS);
+
+            // long enough for the timing thread to end, then an event at a tick the clock has passed
+            Thread.sleep(1500);
+            player.addEvent(2, beat -> ranAt.add(System.nanoTime()));
+            assertNotNull("expected an event added after the player went idle",
+                    ranAt.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        } finally {
+            unblock.countDown();
+        }
+    }
+
+    //Covers tempo not positive
+    @Test(expected = IllegalArgumentException.class)
+    public void testTempoMustBePositive() {
+        new ClockSequencePlayer(0, 12);
+    }
+
+    //Covers a whole tune through SoundPlayback
+    @Test
+    public void testPlaysLyricsOfTune() throws IOException, UnableToParseException, MidiUnavailableException,
+            InvalidMidiDataException, InterruptedException {
+        final String abc = new String(Files.readAllBytes(Paths.get("sample-abc", "abc_song.abc")),
+                StandardCharsets.UTF_8);
+        final Timeline timeline = SoundPlayback.compile(new MusicLanguage().parse(abc).getMusic());
+        // a line repeated at the same tick, by the notes of a chord, is put on once
+        final List<String> expected = new ArrayList<>();
+        int lastLyric = -1;
+        for (int i = 0; i < timeline.size(); i++) {
+            final int lyric = timeline.lyricIndex(i);
+            if (lyric >= 0 && !(lyric == lastLyric && timeline.startTick(i) == timeline.startTick(i - 1))) {
+                expected.add(timeline.lyricText(lyric).equals(" ") ? "$" : timeline.lyricText(lyric));
+            }
+            lastLyric = lyric;
+        }
+        final Map<String, BlockingQueue<String>> queues = new HashMap<>();
+        final BlockingQueue<String> queue = new LinkedBlockingQueue<>();
+        queues.put("OneVoice", queue);
+        SoundPlayback.play(timeline, queues, 6000, SoundPlayback.Engine.CLOCK);
+        final List<String> sung = new ArrayList<>();
+        while (sung.size() < expected.size()) {
+            final String line = queue.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            assertNotNull("expected " + expected.size() + " lines, got " + sung, line);
+            sung.add(line);
+        }
+        assertEquals(expected, sung);
+    }
+
+    /**
+     * Reader that hands out one line of a text per read, waiting before every line after the first few.
+     */
+    private static class SlowReader extends Reader {
+        private final List<String> lines;
+        private final int fastLines;
+        private final long delayMillis;
+        private int next = 0;
+
+        SlowReader(String text, int fastLines, long delayMillis) {
+            this.lines = Arrays.asList(text.split("(?<=\n)"));
+            this.fastLines = fastLines;
+            this.delayMillis = delayMillis;
+        }
+
+        @Override
+        public int read(char[] cbuf, int off, int len) throws IOException {
+            if (next == lines.size()) {
+                return -1;
+            }
+            if (next >= fastLines) {
+                try {
+                    Thread.sleep(delayMillis);
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+            }
+            final String line = lines.get(next++);
+            if (line.length() > len) {
+                throw new IOException("buffer too small for " + line);
+            }
+            line.getChars(0, line.length(), cbuf, off);
+            return line.length();
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    //Covers holdAt() clock reaches the hold before a later holdAt(), release() while waiting at the hold
+    @Test
+    public void testHoldAt() throws InterruptedException {
+        // 600 bpm: a beat every 100 ms
+        final ClockSequencePlayer player = new ClockSequencePlayer(600, 12);
+        final BlockingQueue<String> ran = new LinkedBlockingQueue<>();
+        player.addEvent(1, beat -> ran.add("at 1"));
+        player.addEvent(3, beat -> ran.add("at 3"));
+        player.addEvent(4, beat -> ran.add("at 4"));
+        player.holdAt(1);
+        player.play();
+        assertEquals("at 1", ran.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertNull("expected the clock to wait at beat 1", ran.poll(500, TimeUnit.MILLISECONDS));
+
+        final long held = System.nanoTime();
+        player.holdAt(3);
+        assertEquals("at 3", ran.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertTrue("expected beat 3 two beats after the hold was moved",
+                System.nanoTime() - held >= TimeUnit.MILLISECONDS.toNanos(200));
+        assertNull("expected the clock to wait at beat 3", ran.poll(300, TimeUnit.MILLISECONDS));
+        player.release();
+        assertEquals("at 4", ran.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+    }
+
+    //Covers holdAt() a tune streamed from a Reader slower than it plays
+    @Test
+    public void testStreamedFromSlowReader() throws IOException, UnableToParseException, MidiUnavailableException,
+            InvalidMidiDataException, InterruptedException {
+        // 600 bpm: a beat every 100 ms, and a line of 4 beats every 600 ms after the first two
+        final StringBuilder abc = new StringBuilder("X:1\nT:Slow\nM:4/4\nL:1/4\nQ:1/4=600\nK:C\n");
+        final int lines = 5;
+        for (int i = 0; i < lines; i++) {
+            abc.append("C D E F |]\nw: a" + i + " b" + i + " c" + i + " d" + i + "\n");
+        }
+        final Timeline timeline = SoundPlayback.compile(new MusicLanguage().parse(abc.toString()).getMusic());
+        final List<String> expected = new ArrayList<>();
+        for (int i = 0; i < timeline.size(); i++) {
+            expected.add(timeline.lyricText(timeline.lyricIndex(i)));
+        }
+        assertEquals(4 * lines, expected.size());
+
+        final List<String> sung = Collections.synchronizedList(new ArrayList<String>());
+        final List<Long> sungAt = Collections.synchronizedList(new ArrayList<Long>());
+        final Map<String, BlockingQueue<String>> queues = new HashMap<>();
+        queues.put("OneVoice", new LinkedBlockingQueue<String>() {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            public boolean offer(String line) {
+                sungAt.add(System.nanoTime());
+                sung.add(line);
+                return true;
+            }
+        });
+        SoundPlayback.play(new SlowReader(abc.toString(), 10, 600), queues, SoundPlayback.Engine.CLOCK);
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(TIMEOUT_SECONDS);
+        while (sung.size() < expected.size() && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(expected, sung);
+        // the clock waits for each late line rather than running its lyrics all at once when it comes
+        for (int i = 1; i < sungAt.size(); i++) {
+            final long gap = sungAt.get(i) - sungAt.get(i - 1);
+            assertTrue("lyric " + i + " came " + gap + " ns after the one before",
+                    gap >= TimeUnit.MILLISECONDS.toNanos(100) - MAX_LATE_NANOS);
+        }
+    }
+
+    //Covers holdAt() a two-voice tune whose second voice comes after LOOKAHEAD_BEATS of the first
+    @Test
+    public void testStreamedVoiceComingLateHoldsStart() throws IOException, UnableToParseException,
+            MidiUnavailableException, InvalidMidiDataException, InterruptedException {
+        // 600 bpm: a beat every 100 ms; voice 1 has 12 beats before voice 2 starts, and every line of voice 2
+        // comes 300 ms after the one before
+        final String header = "X:1\nT:Late voice\nM:4/4\nL:1/4\nQ:1/4=600\nV:1\nV:2\nK:C\n";
+        final StringBuilder abc = new StringBuilder(header);
+        final int lines = 3;
+        for (String voice : Arrays.asList("1", "2")) {
+            abc.append("V:" + voice + "\n");
+            for (int i = 0; i < lines; i++) {
+                abc.append("C D E F |]\nw: " + voice + "a" + i + " b c d\n");
+            }
+        }
+        assertTrue(4 * lines > SoundPlayback.LOOKAHEAD_BEATS);
+        final int fastLines = header.split("\n").length + 1 + 2 * lines;
+
+        final Map<String, Long> firstSungAt = new HashMap<>();
+        final CountDownLatch sung = new CountDownLatch(2 * 4 * lines);
+        final Map<String, BlockingQueue<String>> queues = new HashMap<>();
+        for (String voice : Arrays.asList("1", "2")) {
+            queues.put(voice, new LinkedBlockingQueue<String>() {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                public boolean offer(String line) {
+                    synchronized (firstSungAt) {
+                        firstSungAt.putIfAbsent(voice, System.nanoTime());
+                    }
+                    sung.countDown();
+                    return true;
+                }
+            });
+        }
+        SoundPlayback.play(new SlowReader(abc.toString(), fastLines, 300), queues, SoundPlayback.Engine.CLOCK);
+        assertTrue("expected every lyric", sung.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        // both voices start at beat 0, so the clock waits for voice 2 rather than starting on voice 1 alone
+        final long apart;
+        synchronized (firstSungAt) {
+            apart = Math.abs(firstSungAt.get("2") - firstSungAt.get("1"));
+        }
+        assertTrue("first lyrics of the voices came " + apart + " ns apart", apart <= MAX_LATE_NANOS);
+    }
+
+    //Covers addLyric() one lyric at a tick, a line repeated at a tick, different lines or voices at a tick
+    @Test
+    public void testLyricsCoalescedPerTickAndVoice() throws InterruptedException {
+        final ClockSequencePlayer player = new ClockSequencePlayer(600, 12);
+        final Map<String, BlockingQueue<String>> queues = new HashMap<>();
+        final List<String> offered = Collections.synchronizedList(new ArrayList<String>());
+        final CountDownLatch done = new CountDownLatch(1);
+        for (String voice : Arrays.asList("upper", "lower")) {
+            queues.put(voice, new LinkedBlockingQueue<String>() {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                public boolean offer(String line) {
+                    offered.add(voice + " offered " + line);
+                    if (line.equals("$")) {
+                        done.countDown();
+                    }
+                    return true;
+                }
+            });
+        }
+        for (int i = 0; i < 3; i++) {
+            player.addLyric(0.5, "upper", "*chord*", queues);
+        }
+        player.addLyric(0.5, "lower", "under", queues);
+        player.addLyric(0.5, "lower", "and more", queues);
+        player.addLyric(1, "upper", "next", queues);
+        player.addLyric(2, "upper", " ", queues);
+        player.play();
+        assertTrue(done.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList("upper offered *chord*", "lower offered under", "lower offered and more",
+                "upper offered next", "upper offered $"), offered);
+    }
+
+    //Covers addLyric() different lines at a tick, on a bounded queue with less room than the lines
+    @Test
+    public void testLyricsDroppedOnFullBoundedQueue() throws InterruptedException {
+        final ClockSequencePlayer player = new ClockSequencePlayer(600, 12);
+        final BlockingQueue<String> queue = new ArrayBlockingQueue<>(1);
+        final Map<String, BlockingQueue<String>> queues = new HashMap<>();
+        queues.put("OneVoice", queue);
+        final CountDownLatch after = new CountDownLatch(1);
+        player.addLyric(0.5, "OneVoice", "one", queues);
+        player.addLyric(0.5, "OneVoice", "two", queues);
+        player.addLyric(0.5, "OneVoice", "three", queues);
+        player.addEvent(0.6, beat -> after.countDown());
+        player.addLyric(3, "OneVoice", "four", queues);
+        player.play();
+        // nobody takes from the queue until the player is past the lines that do not fit, and it does not wait
+        assertTrue("expected the player not to wait for room", after.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertEquals(2, player.droppedLyrics());
+        assertEquals("one", queue.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertEquals("four", queue.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertEquals(2, player.droppedLyrics());
+    }
+
+    //Covers addLyric() a line repeated at a tick, an IndexedLyricQueue
+    @Test
+    public void testTimelineLyricsOfferedWithLineAndSyllable() throws UnableToParseException, InterruptedException {
+        // the same w: line twice, so that each of its frames is sung twice
+        final AbcTune tune = new MusicLanguage().parse("X:1\nT:twice\nM:4/4\nL:1/4\nQ:1/4=600\nK:C\n"
+                + "[CE] D E F|\nw:do re mi fa\nC D E F|\nw:do re mi fa\n");
+        final Timeline timeline = SoundPlayback.compile(tune.getMusic());
+        final List<String> expected = new ArrayList<>();
+        for (int i = 0; i < timeline.size(); i++) {
+            final int lyric = timeline.lyricIndex(i);
+            if (lyric < 0) {
+                continue;
+            }
+            final String sung = timeline.lyricText(lyric) + " " + timeline.lyricLine(lyric) + " "
+                    + timeline.lyricSyllable(lyric);
+            if (expected.isEmpty() || !expected.get(expected.size() - 1).equals(sung)) {
+                expected.add(sung);
+            }
+        }
+        assertEquals("expected one lyric line, sung twice", 1, timeline.lines());
+
+        final List<String> offered = Collections.synchronizedList(new ArrayList<String>());
+        final CountDownLatch done = new CountDownLatch(expected.size());
+        final Map<String, BlockingQueue<String>> queues = new HashMap<>();
+        queues.put("OneVoice", new IndexedQueue() {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            public boolean offer(String line, int lyricLine, int syllable, double beat) {
+                offered.add(line + " " + lyricLine + " " + syllable);
+                done.countDown();
+                return true;
+            }
+        });
+        final ClockSequencePlayer player = new ClockSequencePlayer(600, SoundPlayback.TICKS_PER_BEAT);
+        player.addTimeline(timeline, queues);
+        player.play();
+        assertTrue(done.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertEquals(expected, offered);
+        assertEquals("*do* re mi fa 0 0", offered.get(0));
+    }
+
+    /**
+     * An IndexedLyricQueue whose indexed offer() a test overrides.
+     */
+    private abstract static class IndexedQueue extends LinkedBlockingQueue<String> implements IndexedLyricQueue {
+        private static final long serialVersionUID = 1L;
+    }
+}
@@ -0,0 +1,176 @@
+package karaoke.sound;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Benchmark for many threads scheduling and measuring the same tune at once, as the web server does when several
+ * clients play one cached tune. Not a JUnit test; run it by hand from the root of the repository:
+ *      java -cp bin:lib/parserlib.jar karaoke.sound.ConcurrentPlayBenchmark [threads] [bars]
+ *
+ * Every thread repeatedly calls Voices.play() onto its own player that only counts what it is given, then
+ * getDuration() on every Concat. Reports, for 1, 2, 4, ... up to the given number of threads,
+ *      "arrays":       throughput of the music types, which now keep their parts in arrays behind final fields
+ *      "synchronized": throughput of the same walk over the parts kept in Collections.synchronizedList wrappers
+ *                      and read with get(i), as the types did before; every read takes the list's lock
+ *
+ * @category no_didit
+ */
+public class ConcurrentPlayBenchmark {
+
+    private static final int DEFAULT_THREADS = 8;
+    private static final int DEFAULT_BARS = 2_000;
+    private static final int PASSES = 20;
+
+    /**
+     * Player that counts what is scheduled on it and plays nothing.
+     */
+    private static class CountingPlayer implements SequencePlayer {
+        private long notes = 0;
+
+        @Override
+        public void addNote(Instrument instr, Pitch pitch, double startBeat, double numBeats) {
+            notes++;
+        }
+
+        @Override
+        public void addEvent(double atBeat, Consumer<Double> callback) {
+        }
+
+        @Override
+        public void play() {
+        }
+    }
+
+    /**
+     * @param args optional maximum number of threads, defaults to 8, and number of bars per voice, defaults to 2000
+     * @throws InterruptedException if interrupted while waiting for the threads
+     */
+    public static void main(String[] args) throws InterruptedException {
+        final int maxThreads = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_THREADS;
+        final int bars = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_BARS;
+
+        final List<String> singers = Arrays.asList("upper", "lower");
+        final List<List<Concat>> music = new ArrayList<>();
+        final List<List<Music>> wrapped = new ArrayList<>();
+        for (String singer : singers) {
+            final List<Bar> voiceBars = new ArrayList<>();
+            for (int i = 0; i < bars; i++) {
+                final List<Music> parts = syntheticBar(singer, i);
+                voiceBars.add(new Bar(parts));
+                wrapped.add(synchronizedCopy(parts));
+            }
+            final Concat concat = new Concat(voiceBars, new HashMap<Integer, List<Integer>>(), Arrays.asList(""));
+            music.add(Arrays.asList(concat));
+        }
+        final Voices voices = new Voices(singers, music);
+        final List<List<Music>> synchronizedBars = synchronizedCopy(wrapped);
+
+        for (int round = 1; round <= 3; round++) {
+            System.out.println("round " + round);
+            for (int threads = 1; threads <= maxThreads; threads *= 2) {
+                report("arrays", threads, run(threads, () -> {
+                    final CountingPlayer player = new CountingPlayer();
+                    voices.play(player, 0, new HashMap<String, BlockingQueue<String>>());
+                    double duration = 0;
+                    for (List<Concat> sections : music) {
+                        for (Concat concat : sections) {
+                            duration += concat.getDuration();
+                        }
+                    }
+                    return player.notes + (long) duration;
+                }));
+                report("synchronized", threads, run(threads, () -> {
+                    final CountingPlayer player = new CountingPlayer();
+                    double duration = 0;
+                    for (int i = 0; i < synchronizedBars.size(); i++) {
+                        final List<Music> bar = synchronizedBars.get(i);
+                        double beat = 0;
+                        for (int j = 0; j < bar.size(); j++) {
+                            final Music m = bar.get(j);
+                            m.play(player, beat, null);
+                            beat += m.getDuration();
+                        }
+                        duration += beat;
+                    }
+                    return player.notes + (long) duration;
+                }));
+            }
+        }
+    }
+
+    /**
+     * One pass over the tune by one thread.
+     */
+    private interface Pass {
+        long run();
+    }
+
+    /**
+     * @return operations per second with the given number of threads each running PASSES passes
+     */
+    private static double run(int threads, Pass pass) throws InterruptedException {
+        final CountDownLatch ready = new CountDownLatch(threads);
+        final CountDownLatch go = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(threads);
+        final AtomicLong checksum = new AtomicLong();
+        for (int t = 0; t < threads; t++) {
+            new Thread(() -> {
+                ready.countDown();
+                try {
+                    go.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                long sum = 0;
+                for (int i = 0; i < PASSES; i++) {
+                    sum += pass.run();
+                }
+                checksum.addAndGet(sum);
+                done.countDown();
+            }).start();
+        }
+        ready.await();
+        final long start = System.nanoTime();
+        go.countDown();
+        done.await();
+        final long nanos = System.nanoTime() - start;
+        if (checksum.get() == 0) {
+            throw new AssertionError("nothing was played");
+        }
+        return threads * PASSES / (nanos / 1e9);
+    }
+
+    /**
+     * @return the parts of a 4-beat bar that mixes notes, a chord and a triplet
+     */
+    private static List<Music> syntheticBar(String singer, int i) {
+        final List<Music> music = new ArrayList<>();
+        music.add(new Note(new Pitch('C').transpose(i % 12), 1.0, singer));
+        music.add(new Rest(0.5));
+        music.add(new Note(new Pitch('E'), 0.5, singer));
+        music.add(new Chord(Arrays.asList(new Note(new Pitch('C'), 1.0, singer),
+                                          new Note(new Pitch('G'), 1.0, singer))));
+        final List<Music> triplet = new ArrayList<>();
+        for (int j = 0; j < 3; j++) {
+            triplet.add(new Note(new Pitch('D'), 1.0 / 3, singer));
+        }
+        music.add(new Tuplet(triplet, 3));
+        return music;
+    }
+
+    private static <E> List<E> synchronizedCopy(List<E> list) {
+        return Collections.synchronizedList(Collections.unmodifiableList(new ArrayList<E>(list)));
+    }
+
+    private static void report(String what, int threads, double passesPerSecond) {
+        System.out.printf("  %-14s %2d threads %10.1f passes/s%n", what, threads, passesPerSecond);
+    }
+}
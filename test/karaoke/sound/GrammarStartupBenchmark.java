@@ -0,0 +1,111 @@
+package karaoke.sound;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+import edu.mit.eecs.parserlib.UnableToParseException;
+
+/**
+ * Cold start benchmark for MusicLanguage. Not a JUnit test; run it by hand from the root of the repository:
+ *      java -cp bin:lib/parserlib.jar karaoke.sound.GrammarStartupBenchmark [runs]
+ *
+ * Every run starts a fresh JVM so that the grammar is compiled from scratch, and reports, for each mode, the time
+ * taken by the first parse() and the time from JVM start (as the RuntimeMXBean records it) until that parse() returns:
+ *      "lazy":   the grammar is compiled inside the first parse()
+ *                (the behavior before the grammar was cached)
+ *      "warmed": MusicLanguage.warmUp() runs at startup, before the first parse()
+ *                (the first parse() is what a /play request pays when the server warms the parser up front)
+ *
+ * @category no_didit
+ */
+public class GrammarStartupBenchmark {
+
+    private static final String SAMPLE = "sample-abc/fur_elise.abc";
+
+    /**
+     * @param args optional number of fresh JVMs to start per mode, defaults to 5
+     * @throws Exception if a child JVM cannot be started
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length == 2 && args[0].equals("--child")) {
+            child(args[1]);
+            return;
+        }
+        final int runs = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+        for (String mode : new String[] {"lazy", "warmed"}) {
+            List<Double> parseTimes = new ArrayList<>();
+            List<Double> startupTimes = new ArrayList<>();
+            for (int i = 0; i < runs; i++) {
+                final String[] result = runChild(mode).split(" ");
+                parseTimes.add(Double.parseDouble(result[0]));
+                startupTimes.add(Double.parseDouble(result[1]));
+            }
+            System.out.printf("%-7s first parse: mean %8.2f ms over %d runs %s%n", mode, mean(parseTimes), runs,
+                    parseTimes);
+            System.out.printf("%-7s JVM start to first tune parsed: mean %8.2f ms over %d runs %s%n", mode,
+                    mean(startupTimes), runs, startupTimes);
+        }
+    }
+
+    private static double mean(List<Double> times) {
+        double sum = 0;
+        for (double t : times) {
+            sum += t;
+        }
+        return sum / times.size();
+    }
+
+    /**
+     * @return the result the child printed: milliseconds taken by the first parse(), a space, and milliseconds from
+     *         JVM start until it returned
+     */
+    private static String runChild(String mode) throws IOException, InterruptedException {
+        final String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        final Process process = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                GrammarStartupBenchmark.class.getName(), "--child", mode)
+                .redirectErrorStream(true).start();
+        String result = "";
+        try (BufferedReader out = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
+            String line;
+            while ((line = out.readLine()) != null) {
+                if (line.startsWith("RESULT ")) {
+                    result = line.substring("RESULT ".length());
+                }
+            }
+        }
+        process.waitFor();
+        return result;
+    }
+
+    private static void child(String mode) throws UnableToParseException {
+        final String music = readFile(SAMPLE);
+        if (mode.equals("warmed")) {
+            MusicLanguage.warmUp();
+        }
+        final long start = System.nanoTime();
+        new MusicLanguage().parse(music);
+        final long elapsed = System.nanoTime() - start;
+        final long sinceJvmStart = System.currentTimeMillis() - ManagementFactory.getRuntimeMXBean().getStartTime();
+        System.out.println("RESULT " + elapsed / 1e6 + " " + sinceJvmStart);
+    }
+
+    private static String readFile(String filePath) {
+        StringBuilder contentBuilder = new StringBuilder();
+        try (BufferedReader br = new BufferedReader(new FileReader(filePath))) {
+            String sCurrentLine;
+            while ((sCurrentLine = br.readLine()) != null) {
+                contentBuilder.append(sCurrentLine).append("\n");
+            }
+        }
+        catch (IOException e) {
+            throw new IllegalArgumentException("File either not readable or does not exist.");
+        }
+        return contentBuilder.toString();
+    }
+}
@@ -0,0 +1,132 @@
+package karaoke.sound;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import edu.mit.eecs.parserlib.UnableToParseException;
+
+/**
+ * Benchmark for the lyric frames notes are given. Not a JUnit test; run it by hand from the root of the repository:
+ *      java -cp bin:lib/parserlib.jar karaoke.sound.LyricFrameBenchmark [runs]
+ *
+ * For every sample in sample-abc with w: lines that parses, reports
+ *      "parse":   time to parse it with MusicLanguage, averaged over the given number of runs (default 20) after as
+ *                 many warm-up runs
+ *      "frames":  time to give every syllable of its w: lines a frame, rebuilding the line with String += for
+ *                 each one (as AbcBuilder did) and with a LyricLine, split into syllables at spaces and hyphens
+ * What the parser prints is discarded.
+ *
+ * @category no_didit
+ */
+public class LyricFrameBenchmark {
+
+    private static final int DEFAULT_RUNS = 20;
+
+    /**
+     * @param args optional number of runs, defaults to 20
+     * @throws IOException if the samples cannot be read
+     * @throws UnableToParseException never, samples that do not parse are skipped
+     */
+    public static void main(String[] args) throws IOException, UnableToParseException {
+        final int runs = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_RUNS;
+        final List<Path> paths = new ArrayList<>();
+        try (DirectoryStream<Path> samples = Files.newDirectoryStream(Paths.get("sample-abc"), "*.abc")) {
+            for (Path sample : samples) {
+                paths.add(sample);
+            }
+        }
+        paths.sort(null);
+        final PrintStream out = System.out;
+        System.setOut(new PrintStream(new OutputStream() {
+            @Override
+            public void write(int b) {
+                // discarded
+            }
+        }));
+        for (Path path : paths) {
+            final String text = new String(Files.readAllBytes(path), StandardCharsets.UTF_8);
+            final List<List<String>> lines = new ArrayList<>();
+            int longest = 0;
+            for (String line : text.split("\r?\n")) {
+                if (line.startsWith("w:")) {
+                    lines.add(Arrays.asList(line.substring(2).trim().split("(?<=[ -])")));
+                    longest = Math.max(longest, line.length());
+                }
+            }
+            if (lines.isEmpty()) {
+                continue;
+            }
+            try {
+                new MusicLanguage().parse(text);
+            } catch (UnableToParseException e) {
+                continue;
+            }
+            final double parse = time(runs, () -> {
+                try {
+                    new MusicLanguage().parse(text);
+                } catch (UnableToParseException e) {
+                    throw new AssertionError(e);
+                }
+            });
+            final double rebuild = time(runs, () -> {
+                for (List<String> syllables : lines) {
+                    for (int i = 0; i < syllables.size(); i++) {
+                        rebuild(syllables, i);
+                    }
+                }
+            });
+            final double table = time(runs, () -> {
+                for (List<String> syllables : lines) {
+                    final LyricLine line = new LyricLine(syllables);
+                    for (int i = 0; i < syllables.size(); i++) {
+                        line.frame(i);
+                    }
+                }
+            });
+            out.printf("%-40s %2d w: lines, longest %3d chars: parse %8.3f ms, frames rebuilt %7.1f us,"
+                    + " table %7.1f us%n", path, lines.size(), longest, parse, rebuild * 1e3, table * 1e3);
+        }
+    }
+
+    /**
+     * @param runs number of runs to time, after as many warm-up runs
+     * @param task task to time
+     * @return mean milliseconds per run
+     */
+    private static double time(int runs, Runnable task) {
+        for (int run = 0; run < runs; run++) {
+            task.run();
+        }
+        final long start = System.nanoTime();
+        for (int run = 0; run < runs; run++) {
+            task.run();
+        }
+        return (System.nanoTime() - start) / 1e6 / runs;
+    }
+
+    /**
+     * @param lyrics syllables of a line
+     * @param count index of the syllable to highlight
+     * @return the line highlighted at count, built the way AbcBuilder built it before LyricLine
+     */
+    private static String rebuild(List<String> lyrics, int count) {
+        String s = "";
+        for (int i = 0; i < lyrics.size(); i++) {
+            if (count == i) {
+                s += "*" + lyrics.get(count) + "*";
+            } else if (!lyrics.get(i).equals("_")) {
+                s += lyrics.get(i);
+            }
+        }
+        return s;
+    }
+}
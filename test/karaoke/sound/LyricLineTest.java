@@ -0,0 +1,74 @@
+package karaoke.sound;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Tests for LyricLine and the frames AbcBuilder gives notes from it.
+ */
+public class LyricLineTest {
+    /*
+     * Partitions:
+     *  LyricLine.frame():
+     *      highlight: none (-1), first syllable, last syllable
+     *      syllables: with and without held syllables ("_"), empty line
+     *      called: once, again with the same highlight
+     *  AbcBuilder.getLyricOnCount():
+     *      lyrics: none, some
+     *      syllable at the counter: ordinary, " ", "" (skipped), "_" (held), past the end
+     *      setLyrics(): a new line, the same syllables as an earlier line
+     */
+
+    //Covers frame() highlight none, first, last, with held syllables
+    @Test
+    public void testFrames() {
+        final LyricLine line = new LyricLine(Arrays.asList("Twin", "kle ", "_", "star"));
+        assertEquals(4, line.size());
+        assertEquals("Twinkle star", line.frame(-1));
+        assertEquals("*Twin*kle star", line.frame(0));
+        assertEquals("Twinkle *star*", line.frame(3));
+    }
+
+    //Covers frame() empty line, called again with the same highlight
+    @Test
+    public void testFramesShared() {
+        final LyricLine line = new LyricLine(Arrays.asList("a ", "b"));
+        assertSame(line.frame(1), line.frame(1));
+        assertSame(line.frame(-1), line.frame(-1));
+        assertEquals("", new LyricLine(new ArrayList<String>()).frame(-1));
+    }
+
+    //Covers getLyricOnCount() no lyrics, ordinary, " ", "", "_", past the end
+    @Test
+    public void testLyricOnCount() {
+        final AbcBuilder builder = new AbcBuilder();
+        assertEquals("No Lyrics", builder.getLyricOnCount());
+        builder.setLyrics(Arrays.asList("a", " ", "b", "_", "", "c"));
+        final List<String> frames = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            frames.add(builder.getLyricOnCount());
+        }
+        assertEquals(Arrays.asList("*a* bc", "a *b*c", "a *b*c", "a bc", "a b*c*", "\n"), frames);
+    }
+
+    //Covers setLyrics() the same syllables as an earlier line
+    @Test
+    public void testRepeatedLineShared() {
+        final AbcBuilder builder = new AbcBuilder();
+        builder.setLyrics(Arrays.asList("la", " ", "la"));
+        builder.resetLyricsCounter();
+        final String first = builder.getLyricOnCount();
+        builder.setLyrics(Arrays.asList("other"));
+        builder.resetLyricsCounter();
+        assertEquals("*other*", builder.getLyricOnCount());
+        builder.setLyrics(Arrays.asList("la", " ", "la"));
+        builder.resetLyricsCounter();
+        assertSame(first, builder.getLyricOnCount());
+    }
+}
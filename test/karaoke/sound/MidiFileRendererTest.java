@@ -0,0 +1,115 @@
+package karaoke.sound;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.MetaMessage;
+import javax.sound.midi.MidiMessage;
+import javax.sound.midi.MidiSystem;
+import javax.sound.midi.Sequence;
+import javax.sound.midi.ShortMessage;
+import javax.sound.midi.Track;
+
+import org.junit.Test;
+
+import edu.mit.eecs.parserlib.UnableToParseException;
+
+/**
+ * Tests for MidiFileRenderer.
+ */
+public class MidiFileRendererTest {
+    /*
+     * Partitions:
+     *  voices: 1, > 1
+     *  lyrics: every note, none in a voice
+     *  output: Sequence, file read back by MidiSystem
+     */
+
+    private static AbcTune parse(String sample) throws IOException, UnableToParseException {
+        final String abc = new String(Files.readAllBytes(Paths.get("sample-abc", sample)), StandardCharsets.UTF_8);
+        return new MusicLanguage().parse(abc);
+    }
+
+    /**
+     * @return the meta events of the given type on track, as text
+     */
+    private static List<String> metaText(Track track, int type) {
+        final List<String> texts = new ArrayList<>();
+        for (int i = 0; i < track.size(); i++) {
+            final MidiMessage message = track.get(i).getMessage();
+            if (message instanceof MetaMessage && ((MetaMessage) message).getType() == type) {
+                texts.add(new String(((MetaMessage) message).getData(), StandardCharsets.UTF_8));
+            }
+        }
+        return texts;
+    }
+
+    private static int noteOns(Track track) {
+        int count = 0;
+        for (int i = 0; i < track.size(); i++) {
+            final MidiMessage message = track.get(i).getMessage();
+            if (message instanceof ShortMessage && ((ShortMessage) message).getCommand() == ShortMessage.NOTE_ON) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    //Covers 1 voice, lyrics on every note, Sequence
+    @Test
+    public void testOneVoiceWithLyrics() throws IOException, UnableToParseException {
+        final AbcTune tune = parse("abc_song.abc");
+        final Sequence sequence = MidiFileRenderer.render(tune);
+        assertEquals(SoundPlayback.TICKS_PER_BEAT, sequence.getResolution());
+        final Track[] tracks = sequence.getTracks();
+        assertEquals(2, tracks.length);
+        assertEquals(1, metaText(tracks[0], 0x51).size());
+        assertEquals("OneVoice", metaText(tracks[1], 0x03).get(0));
+
+        final Timeline timeline = SoundPlayback.compile(tune.getMusic());
+        assertEquals(timeline.size(), noteOns(tracks[1]));
+        final List<String> expected = new ArrayList<>();
+        for (int i = 0; i < timeline.size(); i++) {
+            final int lyric = timeline.lyricIndex(i);
+            if (lyric >= 0 && !timeline.lyricText(lyric).equals(" ")) {
+                expected.add(timeline.lyricText(lyric));
+            }
+        }
+        assertEquals(expected, metaText(tracks[1], 0x05));
+    }
+
+    //Covers > 1 voices, no lyrics in a voice, file read back
+    @Test
+    public void testVoicesWrittenAsTracks() throws IOException, UnableToParseException, InvalidMidiDataException {
+        final AbcTune tune = parse("friday.abc");
+        final Path file = Files.createTempFile("friday", ".mid");
+        try {
+            MidiFileRenderer.write(tune, file);
+            final Sequence sequence = MidiSystem.getSequence(new File(file.toString()));
+            assertEquals(SoundPlayback.TICKS_PER_BEAT, sequence.getResolution());
+            final Track[] tracks = sequence.getTracks();
+            assertEquals(1 + tune.getMusic().getSingers().size(), tracks.length);
+            final Set<String> names = new HashSet<>();
+            int notes = 0;
+            for (int t = 1; t < tracks.length; t++) {
+                names.add(metaText(tracks[t], 0x03).get(0));
+                notes += noteOns(tracks[t]);
+            }
+            assertEquals(new HashSet<>(tune.getMusic().getSingers()), names);
+            assertEquals(SoundPlayback.compile(tune.getMusic()).size(), notes);
+        } finally {
+            Files.delete(file);
+        }
+    }
+}
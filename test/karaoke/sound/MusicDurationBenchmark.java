@@ -0,0 +1,141 @@
+package karaoke.sound;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.function.Consumer;
+
+/**
+ * Microbenchmark for durations and bar lookup on a long tune. Not a JUnit test; run it by hand from the root of the
+ * repository:
+ *      java -cp bin:lib/parserlib.jar karaoke.sound.MusicDurationBenchmark [bars]
+ *
+ * Builds one voice of a synthetic tune with 100k bars (notes, chords and triplets) and reports
+ *      "build":     time to make the Bars and the Concat, which now compute their durations and bar starts once
+ *      "duration":  time per getDuration() on the Concat and on the Voices
+ *      "schedule":  time for Voices.play() onto a player that only counts what it is given
+ *      "lookup":    time per "which bar is playing at beat X", by binary search with Concat.indexOfBarAt()
+ *                   and by walking the bars from the start, as callers had to before
+ *
+ * @category no_didit
+ */
+public class MusicDurationBenchmark {
+
+    private static final int DEFAULT_BARS = 100_000;
+    private static final int LOOKUPS = 2_000;
+
+    /**
+     * Player that counts what is scheduled on it and plays nothing.
+     */
+    private static class CountingPlayer implements SequencePlayer {
+        private long notes = 0;
+        private long events = 0;
+
+        @Override
+        public void addNote(Instrument instr, Pitch pitch, double startBeat, double numBeats) {
+            notes++;
+        }
+
+        @Override
+        public void addEvent(double atBeat, Consumer<Double> callback) {
+            events++;
+        }
+
+        @Override
+        public void play() {
+        }
+    }
+
+    /**
+     * @param args optional number of bars, defaults to 100000
+     */
+    public static void main(String[] args) {
+        final int size = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_BARS;
+        for (int round = 1; round <= 3; round++) {
+            System.out.println("round " + round);
+            run(size);
+        }
+    }
+
+    private static void run(int size) {
+        long start = System.nanoTime();
+        final List<Bar> bars = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            bars.add(syntheticBar(i));
+        }
+        final Concat concat = new Concat(bars, new HashMap<Integer, List<Integer>>(), Arrays.asList(""));
+        final Voices voices = new Voices(Arrays.asList("OneVoice"), Arrays.asList(Arrays.asList(concat)));
+        report("build", System.nanoTime() - start, 1, size + " bars");
+
+        final int durationCalls = 1_000_000;
+        double sum = 0;
+        start = System.nanoTime();
+        for (int i = 0; i < durationCalls; i++) {
+            sum += concat.getDuration() + voices.getDuration();
+        }
+        report("duration", System.nanoTime() - start, durationCalls, "beats " + sum / durationCalls / 2);
+
+        final CountingPlayer player = new CountingPlayer();
+        final Map<String, BlockingQueue<String>> noLyrics = new HashMap<>();
+        start = System.nanoTime();
+        voices.play(player, 0, noLyrics);
+        report("schedule", System.nanoTime() - start, 1, player.notes + " notes, " + player.events + " events");
+
+        final Random random = new Random(size);
+        final double[] beats = new double[LOOKUPS];
+        for (int i = 0; i < LOOKUPS; i++) {
+            beats[i] = random.nextDouble() * concat.getDuration();
+        }
+        long found = 0;
+        start = System.nanoTime();
+        for (double beat : beats) {
+            found += concat.indexOfBarAt(beat);
+        }
+        report("lookup binary search", System.nanoTime() - start, LOOKUPS, "checksum " + found);
+
+        final List<Bar> played = concat.getMusic();
+        found = 0;
+        start = System.nanoTime();
+        for (double beat : beats) {
+            found += linearIndexOfBarAt(played, beat);
+        }
+        report("lookup linear walk", System.nanoTime() - start, LOOKUPS, "checksum " + found);
+    }
+
+    /**
+     * @return a 4-beat bar that mixes notes, a chord and a triplet
+     */
+    private static Bar syntheticBar(int i) {
+        final List<Music> music = new ArrayList<>();
+        music.add(new Note(new Pitch('C').transpose(i % 12), 1.0, "OneVoice"));
+        music.add(new Rest(0.5));
+        music.add(new Note(new Pitch('E'), 0.5, "OneVoice"));
+        music.add(new Chord(Arrays.asList(new Note(new Pitch('C'), 1.0, "OneVoice"),
+                                          new Note(new Pitch('G'), 1.0, "OneVoice"))));
+        final List<Music> triplet = new ArrayList<>();
+        for (int j = 0; j < 3; j++) {
+            triplet.add(new Note(new Pitch('D'), 1.0 / 3, "OneVoice"));
+        }
+        music.add(new Tuplet(triplet, 3));
+        return new Bar(music);
+    }
+
+    private static int linearIndexOfBarAt(List<Bar> bars, double beat) {
+        double barStart = 0;
+        for (int i = 0; i < bars.size(); i++) {
+            barStart += bars.get(i).getDuration();
+            if (beat < barStart) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static void report(String what, long nanos, int repetitions, String detail) {
+        System.out.printf("  %-22s %14.1f ns/op  (%s)%n", what, nanos / (double) repetitions, detail);
+    }
+}
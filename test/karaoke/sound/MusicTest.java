@@ -3,7 +3,10 @@ package karaoke.sound;
 import static org.junit.Assert.*;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.junit.Test;
 /**
@@ -32,6 +35,15 @@ public class MusicTest {
      *          Concat ADT
      *          Voices ADT
      *          Repeat ADT
+     *      Concat.indexOfBarAt():
+     *          beat before the start, at the start of a bar, inside a bar, at or after the end
+     *          with and without repeats
+     *      Pitch.of(), transpose():
+     *          with and without a MIDI note number (interned or not)
+     *      AbcBuilder.keySemitones():
+     *          key with sharps, with flats, without either; letter raised, lowered, unchanged; unknown key
+     *      AbcBuilder states:
+     *          notes added in BAR, CHORD in a bar, TUPLET, CHORD in a tuplet, NONE; bars built one after another
      *      
      *      
      */
@@ -120,5 +132,114 @@ public class MusicTest {
         
     }
     
+    private static Bar barOf(double... durations) {
+        List<Music> notes = new ArrayList<Music>();
+        for (double duration : durations) {
+            notes.add(new Note(new Pitch('C'), duration, "OneVoice"));
+        }
+        return new Bar(notes);
+    }
+    
+    //Covers getting duration of a Concat, indexOfBarAt() without repeats at every kind of beat
+    @Test
+    public void testConcatBarStarts() {
+        List<Bar> bars = new ArrayList<Bar>();
+        bars.add(barOf(1.0, 1.0));
+        bars.add(barOf(3.0));
+        bars.add(barOf(0.5, 0.5));
+        Concat concat = new Concat(bars, new HashMap<Integer, List<Integer>>(), Arrays.asList(""));
+        assertEquals(6.0, concat.getDuration(), 0.001);
+        assertEquals(2.0, concat.getBarStart(1), 0.001);
+        assertEquals(5.0, concat.getBarStart(2), 0.001);
+        assertEquals(-1, concat.indexOfBarAt(-0.5));
+        assertEquals(0, concat.indexOfBarAt(0));
+        assertEquals(0, concat.indexOfBarAt(1.5));
+        assertEquals(1, concat.indexOfBarAt(2.0));
+        assertEquals(1, concat.indexOfBarAt(4.99));
+        assertEquals(2, concat.indexOfBarAt(5.5));
+        assertEquals(-1, concat.indexOfBarAt(6.0));
+    }
+    
+    //Covers indexOfBarAt() with repeats
+    @Test
+    public void testConcatBarStartsWithRepeat() {
+        List<Bar> bars = new ArrayList<Bar>();
+        bars.add(barOf(1.0));
+        bars.add(barOf(2.0));
+        Map<Integer, List<Integer>> repeats = new HashMap<Integer, List<Integer>>();
+        repeats.put(1, Arrays.asList(0, 1)); // play bar 0 again before bar 1
+        Concat concat = new Concat(bars, repeats, Arrays.asList(""));
+        assertEquals(4.0, concat.getDuration(), 0.001);
+        assertEquals(3, concat.getMusic().size());
+        assertEquals(1, concat.indexOfBarAt(1.0));
+        assertEquals(2, concat.indexOfBarAt(3.0));
+    }
+    
+    //Covers Pitch.of() and transpose() with a MIDI note number and without
+    @Test
+    public void testPitchInterned() {
+        assertEquals(new Pitch('E').transpose(-1), Pitch.of('E', -1));
+        assertEquals("^F'", Pitch.of('F', 1 + Pitch.OCTAVE).toString());
+        assertSame(Pitch.of('C', 0), Pitch.MIDDLE_C);
+        assertSame(Pitch.of('A', 3), new Pitch('C').transpose(Pitch.OCTAVE));
+        assertEquals(new Pitch('C').transpose(-6 * Pitch.OCTAVE), Pitch.of('C', -6 * Pitch.OCTAVE));
+        assertEquals("C,,,,,,", Pitch.of('C', -6 * Pitch.OCTAVE).toString());
+    }
+    
+    //Covers keySemitones() key with sharps, with flats, without either; raised, lowered, unchanged; unknown key
+    @Test
+    public void testKeySemitones() {
+        AbcBuilder builder = new AbcBuilder();
+        assertEquals(0, builder.keySemitones('F', "C"));
+        assertEquals(1, builder.keySemitones('F', "Em"));
+        assertEquals(0, builder.keySemitones('C', "Em"));
+        assertEquals(-1, builder.keySemitones('B', "F"));
+        assertEquals(1, builder.keySemitones('B', "C#"));
+        assertEquals(-1, builder.keySemitones('F', "Cb"));
+        assertEquals(Pitch.of('B', -1), builder.applyKeyAccidental('B', "Dm"));
+        try {
+            builder.keySemitones('C', "H");
+            fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+    
+    //Covers AbcBuilder states BAR, CHORD in a bar, TUPLET, CHORD in a tuplet, NONE; bars one after another
+    @Test
+    public void testBuilderStates() {
+        AbcBuilder builder = new AbcBuilder();
+        builder.addSingers();
+        List<String> bars = new ArrayList<>();
+        builder.setParseListener(new ParseListener() {
+            @Override
+            public void barParsed(String voice, Bar bar) {
+                bars.add(bar.toString());
+            }
+        });
+        assertEquals(AbcBuilder.State.NONE, builder.getState());
+        builder.addNote(new Note(new Pitch('A'), 1.0, "OneVoice"));
+        builder.beginLine();
+        builder.addNote(new Note(new Pitch('C'), 1.0, "OneVoice"));
+        AbcBuilder.State previous = builder.beginChord();
+        assertEquals(AbcBuilder.State.CHORD, builder.getState());
+        builder.addNote(new Note(new Pitch('E'), 1.0, "OneVoice"));
+        builder.addNote(new Note(new Pitch('G'), 1.0, "OneVoice"));
+        builder.endChord(previous);
+        assertEquals(AbcBuilder.State.BAR, builder.getState());
+        builder.resetBar();
+        previous = builder.beginTuplet(2.0 / 3);
+        assertEquals(AbcBuilder.State.TUPLET, builder.getState());
+        builder.addNote(new Note(new Pitch('D'), 0.5, "OneVoice"));
+        AbcBuilder.State inTuplet = builder.beginChord();
+        builder.addNote(new Note(new Pitch('D'), 0.5, "OneVoice"));
+        builder.addNote(new Note(new Pitch('F'), 0.5, "OneVoice"));
+        builder.endChord(inTuplet);
+        assertEquals(AbcBuilder.State.TUPLET, builder.getState());
+        builder.addNote(new Note(new Pitch('D'), 0.5, "OneVoice"));
+        builder.endTuplet(previous, 3);
+        builder.resetBar();
+        assertEquals(Arrays.asList("C1.0 [E1.0G1.0] |", "(3.0D0.5[D0.5F0.5]D0.5 |"), bars);
+    }
 
 }
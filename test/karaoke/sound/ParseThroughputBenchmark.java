@@ -0,0 +1,77 @@
+package karaoke.sound;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+import edu.mit.eecs.parserlib.UnableToParseException;
+
+/**
+ * Parse throughput benchmark for MusicLanguage. Not a JUnit test; run it by hand from the root of the repository:
+ *      java -cp bin:lib/parserlib.jar karaoke.sound.ParseThroughputBenchmark [rounds]
+ *
+ * Parses every sample in sample-abc that parses, over and over for the given number of rounds (default 20) after
+ * as many warm-up rounds, with each parser backend, and reports tunes parsed per second and bytes allocated per
+ * note, as counted by the JVM for the thread that parses (a note is a note of the compiled timeline, so a note of a
+ * repeat is counted once per time it is played).
+ *
+ * @category no_didit
+ */
+public class ParseThroughputBenchmark {
+
+    private static final int DEFAULT_ROUNDS = 20;
+
+    /**
+     * @param args optional number of rounds, defaults to 20
+     * @throws IOException if the samples cannot be read
+     * @throws UnableToParseException never, samples that do not parse are skipped
+     */
+    public static void main(String[] args) throws IOException, UnableToParseException {
+        final int rounds = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_ROUNDS;
+        final List<String> tunes = new ArrayList<>();
+        long notes = 0;
+        try (DirectoryStream<Path> samples = Files.newDirectoryStream(Paths.get("sample-abc"), "*.abc")) {
+            for (Path sample : samples) {
+                final String text = new String(Files.readAllBytes(sample), StandardCharsets.UTF_8);
+                final AbcTune tune;
+                try {
+                    tune = new MusicLanguage().parse(text);
+                } catch (UnableToParseException e) {
+                    continue;
+                }
+                tunes.add(text);
+                notes += SoundPlayback.compile(tune.getMusic()).size();
+            }
+        }
+        System.out.println(tunes.size() + " tunes, " + notes + " notes");
+
+        final com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        final long thread = Thread.currentThread().getId();
+        for (MusicLanguage.Backend backend : MusicLanguage.Backend.values()) {
+            parseAll(tunes, backend, rounds);
+            final long bytesBefore = threads.getThreadAllocatedBytes(thread);
+            final long start = System.nanoTime();
+            parseAll(tunes, backend, rounds);
+            final double seconds = (System.nanoTime() - start) / 1e9;
+            final long bytes = threads.getThreadAllocatedBytes(thread) - bytesBefore;
+            System.out.printf("%-10s %8.1f tunes/s, %8.0f bytes allocated per note%n", backend,
+                    tunes.size() * rounds / seconds, bytes / (double) (notes * rounds));
+        }
+    }
+
+    private static void parseAll(List<String> tunes, MusicLanguage.Backend backend, int rounds)
+            throws UnableToParseException {
+        for (int round = 0; round < rounds; round++) {
+            for (String tune : tunes) {
+                new MusicLanguage(backend).parse(tune);
+            }
+        }
+    }
+}
@@ -0,0 +1,253 @@
+package karaoke.sound;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.function.Consumer;
+
+import org.junit.Test;
+
+import edu.mit.eecs.parserlib.UnableToParseException;
+
+/**
+ * Tests for Timeline, the flattened form of a piece of Music.
+ */
+public class TimelineTest {
+    /*
+     * Partitions:
+     *  Timeline.compile():
+     *      music: single note, rest, chord, tuplet, bar, concat with a repeat, voices with one or several voices,
+     *             whole sample tunes
+     *      start beat: 0, > 0 and not a whole number of ticks
+     *      ticksPerBeat: divides every note duration, does not
+     *      lyric of a note: a syllable, none (no w: line, or past the end of the w: line)
+     *  SequencePlayer.addTimeline():
+     *      default (player that does not count ticks)
+     *  result: notes in order of start tick, same notes and lyric events as Music.play()
+     */
+
+    /**
+     * Player that records the notes scheduled on it, rounded to ticks as MidiSequencePlayer rounds them, and the
+     * callbacks of its events.
+     */
+    private static class RecordingPlayer implements SequencePlayer {
+        private final int ticksPerBeat;
+        private final List<String> notes = new ArrayList<>();
+        private final List<Integer> eventTicks = new ArrayList<>();
+        private final List<Consumer<Double>> events = new ArrayList<>();
+
+        RecordingPlayer(int ticksPerBeat) {
+            this.ticksPerBeat = ticksPerBeat;
+        }
+
+        @Override
+        public void addNote(Instrument instr, Pitch pitch, double startBeat, double numBeats) {
+            notes.add((int) (startBeat * ticksPerBeat) + "-" + (int) ((startBeat + numBeats) * ticksPerBeat)
+                    + " " + instr + " " + pitch);
+        }
+
+        @Override
+        public void addEvent(double atBeat, Consumer<Double> callback) {
+            eventTicks.add((int) (atBeat * ticksPerBeat));
+            events.add(callback);
+        }
+
+        @Override
+        public void play() {
+            throw new UnsupportedOperationException();
+        }
+
+        /**
+         * @return the lyrics put on each queue of queue by running every callback, in the order they were added
+         */
+        Map<String, List<String>> lyrics(Map<String, BlockingQueue<String>> queue) {
+            for (Consumer<Double> event : events) {
+                event.accept(0.0);
+            }
+            final Map<String, List<String>> lyrics = new HashMap<>();
+            for (String voice : queue.keySet()) {
+                lyrics.put(voice, new ArrayList<>(queue.get(voice)));
+            }
+            return lyrics;
+        }
+    }
+
+    /**
+     * @return notes of the timeline, formatted as RecordingPlayer formats them, in timeline order
+     */
+    private static List<String> notesOf(Timeline timeline) {
+        final List<String> notes = new ArrayList<>();
+        for (int i = 0; i < timeline.size(); i++) {
+            notes.add(timeline.startTick(i) + "-" + (timeline.startTick(i) + timeline.durTicks(i)) + " "
+                    + timeline.instrument(timeline.channel(i)) + " " + Timeline.pitch(timeline.midiNote(i)));
+        }
+        return notes;
+    }
+
+    /**
+     * Assert that a timeline has the same notes and lyrics as music.play(), and has them in order of start tick.
+     */
+    private static void assertSameAsPlay(Music music, double atBeat, int ticksPerBeat, List<String> voices) {
+        final Timeline timeline = Timeline.compile(music, atBeat, ticksPerBeat);
+        final RecordingPlayer played = new RecordingPlayer(ticksPerBeat);
+        final Map<String, BlockingQueue<String>> playedQueue = queues(voices);
+        music.play(played, atBeat, playedQueue);
+
+        final List<String> expected = new ArrayList<>(played.notes);
+        final List<String> actual = notesOf(timeline);
+        for (int i = 1; i < timeline.size(); i++) {
+            assertTrue("expected sorted start ticks", timeline.startTick(i - 1) <= timeline.startTick(i));
+        }
+        Collections.sort(expected);
+        final List<String> sortedActual = new ArrayList<>(actual);
+        Collections.sort(sortedActual);
+        assertEquals("expected the notes play() schedules", expected, sortedActual);
+
+        final RecordingPlayer replayed = new RecordingPlayer(ticksPerBeat);
+        final Map<String, BlockingQueue<String>> replayedQueue = queues(voices);
+        replayed.addTimeline(timeline, replayedQueue);
+        assertEquals("expected addTimeline() to schedule the timeline in order", actual, replayed.notes);
+        final List<Integer> eventTicks = new ArrayList<>();
+        for (int i = 0; i < timeline.size(); i++) {
+            if (timeline.lyricIndex(i) >= 0) {
+                eventTicks.add(timeline.startTick(i));
+            }
+        }
+        assertEquals("expected a lyric event at the start of every note that sings one", eventTicks,
+                replayed.eventTicks);
+
+        final Map<String, List<String>> expectedLyrics = played.lyrics(playedQueue);
+        final Map<String, List<String>> actualLyrics = replayed.lyrics(replayedQueue);
+        for (String voice : voices) {
+            final List<String> expectedSorted = new ArrayList<>(expectedLyrics.get(voice));
+            final List<String> actualSorted = new ArrayList<>(actualLyrics.get(voice));
+            Collections.sort(expectedSorted);
+            Collections.sort(actualSorted);
+            assertEquals("expected the same lyrics for " + voice, expectedSorted, actualSorted);
+        }
+    }
+
+    private static Map<String, BlockingQueue<String>> queues(List<String> voices) {
+        final Map<String, BlockingQueue<String>> queue = new HashMap<>();
+        for (String voice : voices) {
+            queue.put(voice, new LinkedBlockingQueue<String>());
+        }
+        return queue;
+    }
+
+    private static Note note(char c, double duration, String lyric) {
+        return new Note(new Pitch(c), duration, lyric, "OneVoice");
+    }
+
+    //Covers single note, start beat 0
+    @Test
+    public void testSingleNote() {
+        final Timeline timeline = Timeline.compile(note('C', 1.0, "hi"), 0, 12);
+        assertEquals(1, timeline.size());
+        assertEquals(0, timeline.startTick(0));
+        assertEquals(12, timeline.durTicks(0));
+        assertEquals(60, timeline.midiNote(0));
+        assertEquals(Instrument.PIANO, timeline.instrument(timeline.channel(0)));
+        assertEquals(1, timeline.lyrics());
+        assertEquals("hi", timeline.lyricText(timeline.lyricIndex(0)));
+        assertEquals("OneVoice", timeline.lyricVoice(timeline.lyricIndex(0)));
+        assertEquals(12, timeline.getTicksPerBeat());
+    }
+
+    //Covers lyric of a note none
+    @Test
+    public void testNotesWithoutLyrics() throws UnableToParseException {
+        final Timeline silent = Timeline.compile(new Note(new Pitch('C'), 1.0, "OneVoice"), 0, 12);
+        assertEquals(-1, silent.lyricIndex(0));
+        assertEquals(0, silent.lyrics());
+
+        final Voices music = new MusicLanguage().parse("X:1\nT:t\nK:C\nC D E|\nw:la\nF G A|\n").getMusic();
+        final Timeline timeline = Timeline.compile(music, 0, 12);
+        assertEquals(6, timeline.size());
+        assertEquals("*la*", timeline.lyricText(timeline.lyricIndex(0)));
+        for (int i = 1; i < timeline.size(); i++) {
+            assertEquals("expected no lyric for note " + i, -1, timeline.lyricIndex(i));
+        }
+        assertEquals(1, timeline.lyrics());
+    }
+
+    //Covers rest
+    @Test
+    public void testRest() {
+        assertEquals(0, Timeline.compile(new Rest(2.0), 0, 12).size());
+    }
+
+    //Covers chord, tuplet and bar, start beat not a whole number of ticks, ticksPerBeat that does not divide
+    //every duration
+    @Test
+    public void testBar() {
+        final List<Music> music = new ArrayList<>();
+        music.add(note('C', 0.5, "a"));
+        music.add(new Chord(Arrays.asList(note('E', 1.0, "b"), note('G', 1.0, "b"))));
+        music.add(new Rest(0.25));
+        music.add(new Tuplet(Arrays.asList(note('D', 1.0 / 3, "c"), note('E', 1.0 / 3, "d"),
+                note('F', 1.0 / 3, "e")), 3));
+        final Bar bar = new Bar(music);
+        assertSameAsPlay(bar, 0.125, 12, Arrays.asList("OneVoice"));
+        assertSameAsPlay(bar, 0.125, 5, Arrays.asList("OneVoice"));
+        assertSameAsPlay(bar, 0, 64, Arrays.asList("OneVoice"));
+    }
+
+    //Covers concat with a repeat, voices with several voices
+    @Test
+    public void testVoices() {
+        final Bar first = new Bar(Arrays.asList(note('C', 1.0, "one"), note('D', 1.0, " ")));
+        final Bar second = new Bar(Arrays.asList(note('E', 2.0, "two")));
+        final Map<Integer, List<Integer>> repeats = new HashMap<>();
+        repeats.put(1, Arrays.asList(0, 1));
+        final Concat upper = new Concat(Arrays.asList(first, second), repeats, Arrays.asList(""));
+        final Concat lower = new Concat(Arrays.asList(second, first), new HashMap<Integer, List<Integer>>(),
+                Arrays.asList(""));
+        final List<String> voices = Arrays.asList("upper", "lower");
+        final Voices music = new Voices(voices, Arrays.asList(Arrays.asList(upper, lower), Arrays.asList(lower)));
+        assertSameAsPlay(music, 0.125, 12, Arrays.asList("OneVoice"));
+        assertEquals(Arrays.asList(0, 0, 12, 24, 24, 36, 36, 48, 72, 96, 108), startTicks(Timeline.compile(music, 0, 12)));
+    }
+
+    //Covers whole sample tunes
+    @Test
+    public void testSamples() throws IOException, UnableToParseException {
+        for (String sample : Arrays.asList("sample1.abc", "sample3.abc", "abc_song.abc", "invention.abc",
+                "prelude.abc", "little_night_music.abc")) {
+            final String abc = new String(Files.readAllBytes(Paths.get("sample-abc", sample)),
+                    StandardCharsets.UTF_8);
+            final Voices music = new MusicLanguage().parse(abc).getMusic();
+            assertSameAsPlay(music, 0.125, 12, voicesOf(music));
+        }
+    }
+
+    private static List<Integer> startTicks(Timeline timeline) {
+        final List<Integer> ticks = new ArrayList<>();
+        for (int i = 0; i < timeline.size(); i++) {
+            ticks.add(timeline.startTick(i));
+        }
+        return ticks;
+    }
+
+    /**
+     * @return every voice of music, found from its string form "voice: [...]" per line
+     */
+    private static List<String> voicesOf(Voices music) {
+        final List<String> voices = new ArrayList<>();
+        for (String line : music.toString().split("\n")) {
+            voices.add(line.substring(0, line.indexOf(": ")));
+        }
+        return voices;
+    }
+}
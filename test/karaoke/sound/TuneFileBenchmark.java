@@ -0,0 +1,94 @@
+package karaoke.sound;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+import edu.mit.eecs.parserlib.UnableToParseException;
+
+/**
+ * Benchmark for loading a library of tunes. Not a JUnit test; run it by hand from the root of the repository:
+ *      java -cp bin:lib/parserlib.jar karaoke.sound.TuneFileBenchmark [copies]
+ *
+ * Takes every sample in sample-abc that parses, as many copies of each as asked for (default 20), and reports
+ *      "parse":  time to read each abc file and parse it with MusicLanguage, then compile it for playback
+ *      "load":   time to load each compiled tune, written beforehand with TuneFile.write(), with TuneFile.read()
+ *
+ * @category no_didit
+ */
+public class TuneFileBenchmark {
+
+    private static final int DEFAULT_COPIES = 20;
+
+    /**
+     * @param args optional number of copies of each sample, defaults to 20
+     * @throws IOException if the samples cannot be read or the compiled tunes cannot be written
+     * @throws UnableToParseException never, samples that do not parse are skipped
+     */
+    public static void main(String[] args) throws IOException, UnableToParseException {
+        final int copies = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_COPIES;
+        final Path directory = Files.createTempDirectory("tune-library");
+        final List<Path> abcFiles = new ArrayList<>();
+        final List<Path> tuneFiles = new ArrayList<>();
+        try (DirectoryStream<Path> samples = Files.newDirectoryStream(Paths.get("sample-abc"), "*.abc")) {
+            for (Path sample : samples) {
+                final AbcTune tune;
+                try {
+                    tune = parse(sample);
+                } catch (UnableToParseException e) {
+                    continue;
+                }
+                for (int i = 0; i < copies; i++) {
+                    final String name = sample.getFileName() + "." + i;
+                    final Path abc = directory.resolve(name + ".abc");
+                    Files.copy(sample, abc);
+                    abcFiles.add(abc);
+                    final Path compiled = directory.resolve(name + ".ktun");
+                    TuneFile.write(tune, compiled);
+                    tuneFiles.add(compiled);
+                }
+            }
+        }
+        System.out.println(abcFiles.size() + " tunes in " + directory);
+
+        for (int round = 1; round <= 3; round++) {
+            System.out.println("round " + round);
+
+            long notes = 0;
+            long start = System.nanoTime();
+            for (Path abc : abcFiles) {
+                notes += SoundPlayback.compile(parse(abc).getMusic()).size();
+            }
+            report("parse", System.nanoTime() - start, abcFiles.size(), notes);
+
+            notes = 0;
+            start = System.nanoTime();
+            for (Path compiled : tuneFiles) {
+                notes += TuneFile.read(compiled).getTimeline().size();
+            }
+            report("load", System.nanoTime() - start, tuneFiles.size(), notes);
+        }
+
+        for (Path file : abcFiles) {
+            Files.delete(file);
+        }
+        for (Path file : tuneFiles) {
+            Files.delete(file);
+        }
+        Files.delete(directory);
+    }
+
+    private static AbcTune parse(Path abc) throws IOException, UnableToParseException {
+        return new MusicLanguage().parse(new String(Files.readAllBytes(abc), StandardCharsets.UTF_8));
+    }
+
+    private static void report(String what, long nanos, int tunes, long notes) {
+        System.out.printf("  %-6s %10.1f ms  %10.1f us/tune  (%d notes)%n", what, nanos / 1e6, nanos / 1e3 / tunes,
+                notes);
+    }
+}
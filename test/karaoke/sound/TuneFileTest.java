@@ -0,0 +1,123 @@
+package karaoke.sound;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import edu.mit.eecs.parserlib.UnableToParseException;
+
+/**
+ * Tests for TuneFile, the binary format of CompiledTunes.
+ */
+public class TuneFileTest {
+    /*
+     * Partitions:
+     *  write() then read():
+     *      every tune in sample-abc that parses: one voice, several voices, with and without lyrics, repeats,
+     *      chords and tuplets
+     *  read():
+     *      file that is not a compiled tune, file cut short
+     */
+
+    private static Path tempFile() throws IOException {
+        final Path file = Files.createTempFile("tune", ".ktun");
+        file.toFile().deleteOnExit();
+        return file;
+    }
+
+    private static void assertSameTimeline(String message, Timeline expected, Timeline actual) {
+        assertEquals(message, expected.getTicksPerBeat(), actual.getTicksPerBeat());
+        assertEquals(message, expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(message, expected.startTick(i), actual.startTick(i));
+            assertEquals(message, expected.durTicks(i), actual.durTicks(i));
+            assertEquals(message, expected.midiNote(i), actual.midiNote(i));
+            assertEquals(message, expected.instrument(expected.channel(i)), actual.instrument(actual.channel(i)));
+            if (expected.lyricIndex(i) < 0) {
+                assertEquals(message, -1, actual.lyricIndex(i));
+            }
+            else {
+                assertEquals(message, expected.lyricText(expected.lyricIndex(i)),
+                        actual.lyricText(actual.lyricIndex(i)));
+                assertEquals(message, expected.lyricVoice(expected.lyricIndex(i)),
+                        actual.lyricVoice(actual.lyricIndex(i)));
+                final int expectedLine = expected.lyricLine(expected.lyricIndex(i));
+                final int actualLine = actual.lyricLine(actual.lyricIndex(i));
+                assertEquals(message, expectedLine, actualLine);
+                if (expectedLine >= 0) {
+                    assertEquals(message, expected.lineSyllables(expectedLine), actual.lineSyllables(actualLine));
+                    assertEquals(message, expected.lyricSyllable(expected.lyricIndex(i)),
+                            actual.lyricSyllable(actual.lyricIndex(i)));
+                }
+            }
+        }
+    }
+
+    //Covers every tune in sample-abc that parses
+    @Test
+    public void testRoundTripSamples() throws IOException {
+        int tunes = 0;
+        try (DirectoryStream<Path> samples = Files.newDirectoryStream(Paths.get("sample-abc"), "*.abc")) {
+            for (Path sample : samples) {
+                final AbcTune parsed;
+                try {
+                    parsed = new MusicLanguage().parse(new String(Files.readAllBytes(sample),
+                            StandardCharsets.UTF_8));
+                } catch (UnableToParseException e) {
+                    continue; // some samples are deliberately not valid abc
+                }
+                final CompiledTune expected = CompiledTune.of(parsed);
+                final Path file = tempFile();
+                TuneFile.write(parsed, file);
+                final CompiledTune actual = TuneFile.read(file);
+
+                final String message = sample.toString();
+                assertEquals(message, parsed.getTitle(), actual.getTitle());
+                assertEquals(message, parsed.getComposer(), actual.getComposer());
+                assertEquals(message, parsed.getMeter(), actual.getMeter());
+                assertEquals(message, parsed.getTempo(), actual.getTempo());
+                assertEquals(message, parsed.getNoteLength(), actual.getNoteLength());
+                assertEquals(message, parsed.getIndexNumber(), actual.getIndexNumber());
+                assertEquals(message, parsed.getAccidental(), actual.getAccidental());
+                assertEquals(message, parsed.getKeySignature(), actual.getKeySignature());
+                assertEquals(message, parsed.getMusic().getSingers(), actual.getVoices());
+                assertSameTimeline(message, expected.getTimeline(), actual.getTimeline());
+                tunes++;
+            }
+        }
+        assertTrue("expected most samples to parse", tunes >= 15);
+    }
+
+    //Covers file that is not a compiled tune
+    @Test(expected = IOException.class)
+    public void testNotACompiledTune() throws IOException {
+        final Path file = tempFile();
+        Files.write(file, "X:1\nT:abc, not a compiled tune\nK:C\nC D E F|\n".getBytes(StandardCharsets.UTF_8));
+        TuneFile.read(file);
+    }
+
+    //Covers file cut short
+    @Test
+    public void testTruncated() throws IOException, UnableToParseException {
+        final Path file = tempFile();
+        TuneFile.write(new MusicLanguage().parse("X:1\nT:short\nK:C\nC D E F|\n"), file);
+        final byte[] bytes = Files.readAllBytes(file);
+        for (int length : Arrays.asList(0, 4, 10, bytes.length / 2, bytes.length - 1)) {
+            Files.write(file, Arrays.copyOf(bytes, length));
+            try {
+                TuneFile.read(file);
+                fail("expected IOException for " + length + " of " + bytes.length + " bytes");
+            } catch (IOException e) {
+                // expected
+            }
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package karaoke.sound;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+
+/**
+ * Tests for TuneIndex.
+ */
+public class TuneIndexTest {
+    /*
+     * Partitions:
+     *  build():
+     *      files: none, some that parse, some that fail to parse
+     *      threads: 1, > 1
+     *  read():
+     *      file: written by write(), not an index, cut short
+     */
+
+    private static final Path SAMPLES = Paths.get("sample-abc");
+
+    private static TuneIndex.Entry entry(TuneIndex index, String path) {
+        for (TuneIndex.Entry entry : index.getEntries()) {
+            if (entry.getPath().equals(path)) {
+                return entry;
+            }
+        }
+        throw new AssertionError("no entry for " + path);
+    }
+
+    //Covers build() some files that parse, some that fail, > 1 threads
+    @Test
+    public void testBuildSamples() throws IOException {
+        final ForkJoinPool pool = new ForkJoinPool(2);
+        final TuneIndex index;
+        try {
+            index = TuneIndex.build(SAMPLES, pool);
+        } finally {
+            pool.shutdown();
+        }
+        assertEquals(20, index.getEntries().size());
+        assertEquals(18, index.count(TuneIndex.Status.OK));
+        assertEquals(TuneIndex.Status.FAILED, entry(index, "piece2.abc").getStatus());
+        assertEquals(TuneIndex.Status.FAILED, entry(index, "sample2.abc").getStatus());
+        assertFalse(entry(index, "sample2.abc").getError().isEmpty());
+
+        final TuneIndex.Entry song = entry(index, "abc_song.abc");
+        assertEquals(TuneIndex.Status.OK, song.getStatus());
+        assertEquals("Alphabet Song", song.getTitle());
+        assertEquals("100", song.getTempo());
+        assertEquals(Arrays.asList("OneVoice"), song.getVoices());
+        assertTrue(song.getDurationSeconds() > 0);
+    }
+
+    //Covers build() no files, 1 thread; read() written by write()
+    @Test
+    public void testWriteRead() throws IOException {
+        final Path empty = Files.createTempDirectory("tuneindex");
+        final Path file = Files.createTempFile("tuneindex", ".kidx");
+        final ForkJoinPool pool = new ForkJoinPool(1);
+        try {
+            assertEquals(0, TuneIndex.build(empty, pool).getEntries().size());
+            final TuneIndex index = TuneIndex.build(SAMPLES, pool);
+            index.write(file);
+            assertEquals(index.getEntries(), TuneIndex.read(file).getEntries());
+        } finally {
+            pool.shutdown();
+            Files.delete(file);
+            Files.delete(empty);
+        }
+    }
+
+    //Covers read() not an index
+    @Test(expected = IOException.class)
+    public void testReadNotAnIndex() throws IOException {
+        TuneIndex.read(SAMPLES.resolve("abc_song.abc"));
+    }
+
+    //Covers read() cut short
+    @Test
+    public void testReadCutShort() throws IOException {
+        final Path file = Files.createTempFile("tuneindex", ".kidx");
+        final ForkJoinPool pool = new ForkJoinPool(1);
+        try {
+            TuneIndex.build(SAMPLES, pool).write(file);
+            final byte[] bytes = Files.readAllBytes(file);
+            Files.write(file, Arrays.copyOf(bytes, bytes.length / 2));
+            TuneIndex.read(file);
+            throw new AssertionError("expected IOException");
+        } catch (IOException e) {
+            // expected
+        } finally {
+            pool.shutdown();
+            Files.delete(file);
+        }
+    }
+}
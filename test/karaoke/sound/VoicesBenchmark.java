@@ -0,0 +1,101 @@
+package karaoke.sound;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import edu.mit.eecs.parserlib.UnableToParseException;
+
+/**
+ * Benchmark for building a tune section by section. Not a JUnit test; run it by hand from the root of the
+ * repository:
+ *      java -cp bin:lib/parserlib.jar karaoke.sound.VoicesBenchmark [sections]
+ *
+ * Reports, for a tune of two voices with 10k major sections in all,
+ *      "addMusic":  time to build the Voices with Voices.addMusic(), one section at a time
+ *      "copying":   the same with the old addMusic, which copied and re-wrapped every list on every call
+ *      "parse":     time to parse an abc text with that many sections with the direct parser, which calls
+ *                   addMusic once per section
+ *
+ * @category no_didit
+ */
+public class VoicesBenchmark {
+
+    private static final int DEFAULT_SECTIONS = 10_000;
+    private static final List<String> SINGERS = Arrays.asList("upper", "lower");
+
+    /**
+     * @param args optional number of sections, defaults to 10000
+     * @throws UnableToParseException never, the generated text is valid abc
+     */
+    public static void main(String[] args) throws UnableToParseException {
+        final int sections = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_SECTIONS;
+        final List<Concat> music = new ArrayList<>();
+        for (int i = 0; i < sections; i++) {
+            final List<Music> notes = new ArrayList<>();
+            notes.add(new Note(new Pitch('C'), 1.0, SINGERS.get(i % 2)));
+            music.add(new Concat(Arrays.asList(new Bar(notes)), new HashMap<Integer, List<Integer>>(),
+                    Arrays.asList("")));
+        }
+        final String abc = abcWithSections(sections);
+
+        for (int round = 1; round <= 3; round++) {
+            System.out.println("round " + round);
+
+            long start = System.nanoTime();
+            Voices voices = new Voices(SINGERS);
+            for (int i = 0; i < music.size(); i++) {
+                voices = voices.addMusic(SINGERS.get(i % 2), music.get(i));
+            }
+            report("addMusic", System.nanoTime() - start, voices.getDuration());
+
+            start = System.nanoTime();
+            Map<String, List<Concat>> copied = new HashMap<>();
+            for (String singer : SINGERS) {
+                copied.put(singer, Collections.synchronizedList(Collections.unmodifiableList(new ArrayList<Concat>())));
+            }
+            for (int i = 0; i < music.size(); i++) {
+                copied = copyingAddMusic(copied, SINGERS.get(i % 2), music.get(i));
+            }
+            report("copying", System.nanoTime() - start, copied.get(SINGERS.get(0)).size());
+
+            start = System.nanoTime();
+            final AbcTune tune = new MusicLanguage(MusicLanguage.Backend.DIRECT).parse(abc);
+            report("parse", System.nanoTime() - start, tune.getMusic().getDuration());
+        }
+    }
+
+    /**
+     * The algorithm of Voices.addMusic before it shared lists: copy the voice's list, then rebuild the map.
+     */
+    private static Map<String, List<Concat>> copyingAddMusic(Map<String, List<Concat>> voiceToMusic, String singer,
+            Concat concMusic) {
+        List<Concat> modifiedList = new ArrayList<>(voiceToMusic.get(singer));
+        modifiedList.add(concMusic);
+        List<Concat> newMusicForSinger = Collections.synchronizedList(
+                Collections.unmodifiableList(new ArrayList<Concat>(modifiedList)));
+        Map<String, List<Concat>> map = new HashMap<>();
+        for (String s : voiceToMusic.keySet()) {
+            map.put(s, s.equals(singer) ? newMusicForSinger : voiceToMusic.get(s));
+        }
+        return Collections.synchronizedMap(Collections.unmodifiableMap(map));
+    }
+
+    /**
+     * @return two-voice abc text in which every line is one major section
+     */
+    private static String abcWithSections(int sections) {
+        final StringBuilder abc = new StringBuilder("X:1\nT:Sections\nV:upper\nV:lower\nK:C\n");
+        for (int i = 0; i < sections; i += 2) {
+            abc.append("V:upper\nC D E F |]\nV:lower\nC, D, E, F, |]\n");
+        }
+        return abc.toString();
+    }
+
+    private static void report(String what, long nanos, double check) {
+        System.out.printf("  %-10s %10.2f ms  (%s)%n", what, nanos / 1e6, check);
+    }
+}
@@ -0,0 +1,77 @@
+package karaoke.sound;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import edu.mit.eecs.parserlib.UnableToParseException;
+
+/**
+ * Benchmark for rendering audio. Not a JUnit test; run it by hand from the root of the repository:
+ *      java -cp bin:lib/parserlib.jar karaoke.sound.WavRenderBenchmark [runs]
+ *
+ * Finds the longest sample in sample-abc that parses, by the time it plays for, and renders it with WavRenderer
+ * and a WavetableSynth at WavRenderer.SAMPLE_RATE the given number of times (default 5), after as many warm-up
+ * runs, with its voices rendered on one thread and then, if there is more than one processor, on one thread per
+ * voice (up to one per processor). Reports, for each, the seconds of audio rendered per second of wall-clock time.
+ *
+ * @category no_didit
+ */
+public class WavRenderBenchmark {
+
+    private static final int DEFAULT_RUNS = 5;
+
+    /**
+     * @param args optional number of runs, defaults to 5
+     * @throws IOException if the samples cannot be read
+     * @throws InterruptedException if interrupted while rendering
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        final int runs = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_RUNS;
+        AbcTune longest = null;
+        Path longestPath = null;
+        double longestSeconds = 0;
+        try (DirectoryStream<Path> samples = Files.newDirectoryStream(Paths.get("sample-abc"), "*.abc")) {
+            for (Path sample : samples) {
+                final AbcTune tune;
+                try {
+                    tune = new MusicLanguage().parse(new String(Files.readAllBytes(sample), StandardCharsets.UTF_8));
+                } catch (UnableToParseException e) {
+                    continue;
+                }
+                final double seconds = tune.getMusic().getDuration() * 60 / Integer.parseInt(tune.getTempo());
+                if (seconds > longestSeconds) {
+                    longest = tune;
+                    longestPath = sample;
+                    longestSeconds = seconds;
+                }
+            }
+        }
+        final int voices = longest.getMusic().getSingers().size();
+        System.out.printf("%s: %.1f s, %d voices%n", longestPath, longestSeconds, voices);
+
+        final SoftSynth synth = new WavetableSynth(WavRenderer.SAMPLE_RATE);
+        final int parallel = Math.min(voices, Runtime.getRuntime().availableProcessors());
+        for (int threads : parallel > 1 ? new int[] { 1, parallel } : new int[] { 1 }) {
+            final ExecutorService executor = Executors.newFixedThreadPool(threads);
+            float[] mix = null;
+            for (int run = 0; run < runs; run++) {
+                mix = WavRenderer.render(longest, synth, executor);
+            }
+            final long start = System.nanoTime();
+            for (int run = 0; run < runs; run++) {
+                mix = WavRenderer.render(longest, synth, executor);
+            }
+            final double wallSeconds = (System.nanoTime() - start) / 1e9 / runs;
+            final double audioSeconds = mix.length / (double) WavRenderer.SAMPLE_RATE;
+            System.out.printf("  %d thread%s: %.1f ms per render, %.1f s of audio per second%n", threads,
+                    threads == 1 ? "" : "s", wallSeconds * 1e3, audioSeconds / wallSeconds);
+            executor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package karaoke.sound;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.UnsupportedAudioFileException;
+
+import org.junit.Test;
+
+import edu.mit.eecs.parserlib.UnableToParseException;
+
+/**
+ * Tests for WavRenderer and WavetableSynth.
+ */
+public class WavRendererTest {
+    /*
+     * Partitions:
+     *  renderVoice(): one note, notes across several blocks
+     *  render(): 1 voice, > 1 voices
+     *  write(): samples read back by AudioSystem
+     */
+
+    private static final int RATE = 8000;
+
+    private static AbcTune parse(String abc) throws UnableToParseException {
+        return new MusicLanguage().parse(abc);
+    }
+
+    private static float peak(float[] samples, int from, int to) {
+        float peak = 0;
+        for (int i = from; i < to; i++) {
+            peak = Math.max(peak, Math.abs(samples[i]));
+        }
+        return peak;
+    }
+
+    //Covers renderVoice() one note
+    @Test
+    public void testOneNote() throws UnableToParseException {
+        // at 60 bpm a beat is a second: silence until the first tick, then the note for a beat, then its release
+        final AbcTune tune = parse("X:1\nT:one note\nL:1/4\nQ:1/4=60\nK:C\nC|\n");
+        final SoftSynth synth = new WavetableSynth(RATE);
+        final Timeline timeline = SoundPlayback.compile(tune.getMusic());
+        final float[] samples = WavRenderer.renderVoice(timeline, 60, synth);
+        final int start = timeline.startTick(0) * RATE / timeline.getTicksPerBeat();
+        assertEquals(start + RATE + synth.releaseSamples(), samples.length, 1);
+        assertEquals(0, peak(samples, 0, start), 0);
+        assertTrue("expected the note to sound", peak(samples, start, start + RATE) > 0.1);
+        assertEquals("expected the release to end in silence", 0, samples[samples.length - 1], 1e-3);
+    }
+
+    //Covers renderVoice() notes across several blocks, render() 1 voice
+    @Test
+    public void testRenderIsRenderVoiceScaled() throws IOException, UnableToParseException, InterruptedException {
+        final AbcTune tune = parse(new String(Files.readAllBytes(Paths.get("sample-abc", "abc_song.abc")),
+                StandardCharsets.UTF_8));
+        final SoftSynth synth = new WavetableSynth(RATE);
+        final float[] voice = WavRenderer.renderVoice(SoundPlayback.compile(tune.getMusic()),
+                Integer.parseInt(tune.getTempo()), synth);
+        assertTrue(voice.length > 10 * WavRenderer.BLOCK_SAMPLES);
+        final ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            final float[] mix = WavRenderer.render(tune, synth, executor);
+            assertEquals(voice.length, mix.length);
+            assertEquals(WavRenderer.HEADROOM, peak(mix, 0, mix.length), 1e-6);
+            final float scale = WavRenderer.HEADROOM / peak(voice, 0, voice.length);
+            for (int i = 0; i < mix.length; i += 97) {
+                assertEquals(voice[i] * scale, mix[i], 1e-6);
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    //Covers render() > 1 voices, write() read back
+    @Test
+    public void testWriteVoices() throws IOException, UnableToParseException, InterruptedException,
+            UnsupportedAudioFileException {
+        final AbcTune tune = parse(new String(Files.readAllBytes(Paths.get("sample-abc", "friday.abc")),
+                StandardCharsets.UTF_8));
+        final Path file = Files.createTempFile("friday", ".wav");
+        try {
+            WavRenderer.write(tune, file);
+            try (AudioInputStream audio = AudioSystem.getAudioInputStream(file.toFile())) {
+                final AudioFormat format = audio.getFormat();
+                assertEquals(WavRenderer.SAMPLE_RATE, format.getSampleRate(), 0);
+                assertEquals(16, format.getSampleSizeInBits());
+                assertEquals(1, format.getChannels());
+                final byte[] pcm = new byte[(int) audio.getFrameLength() * 2];
+                int read = 0;
+                while (read < pcm.length) {
+                    final int n = audio.read(pcm, read, pcm.length - read);
+                    assertTrue(n > 0);
+                    read += n;
+                }
+                int peak = 0;
+                for (int i = 0; i < pcm.length; i += 2) {
+                    peak = Math.max(peak, Math.abs((short) ((pcm[i] & 0xFF) | (pcm[i + 1] << 8))));
+                }
+                assertEquals(Math.round(WavRenderer.HEADROOM * Short.MAX_VALUE), peak, 1);
+            }
+        } finally {
+            Files.delete(file);
+        }
+    }
+}